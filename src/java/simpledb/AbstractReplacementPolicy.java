@@ -0,0 +1,45 @@
+package simpledb;
+
+/**
+ * Abstract class for implementing replacement policies. It keeps the hit and
+ * miss counters; subclasses call {@link #recordHit} and {@link #recordMiss}
+ * from pageHit and pageLoaded.
+ */
+public abstract class AbstractReplacementPolicy implements ReplacementPolicy {
+
+    private long hits = 0;
+    private long misses = 0;
+
+    protected void recordHit() {
+        hits++;
+    }
+
+    protected void recordMiss() {
+        misses++;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public double getHitRatio() {
+        long total = hits + misses;
+        if (total == 0)
+            return 0;
+        return (double) hits / total;
+    }
+
+    /** @return true if the page in frame i exists and may be evicted */
+    protected static boolean isEvictable(Page[] frames, int i) {
+        return frames[i] != null && frames[i].isDirty() == null;
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + " hits=" + hits + " misses=" + misses
+                + " hitRatio=" + String.format("%.3f", getHitRatio());
+    }
+}
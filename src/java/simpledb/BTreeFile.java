@@ -0,0 +1,952 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree secondary index on one field of a table. Each entry
+ * maps the key of a tuple to the tuple's RecordId; the entries are kept in
+ * order in a chain of leaf pages, so both equality and range lookups read
+ * one page per level of the tree plus the leaves that hold matches.
+ * <p>
+ * The pages of the tree are {@link BTreePage}s. Page 0 is a header that
+ * holds the number of the root page. All pages are read and modified
+ * through the {@link BufferPool}, under the same page locks as heap pages,
+ * so changes to the tree commit and abort with the transaction that made
+ * them and are logged like any other page. Lookups lock the leaves they read
+ * in shared mode, and inserts and deletes lock the leaves they change in
+ * exclusive mode, until the transaction completes. The header and the
+ * internal pages are only locked while they are read on the way down, and
+ * the root page number is cached, so transactions don't hold locks on the
+ * top of the tree that a split would have to wait for.
+ * <p>
+ * A change to the structure of the tree, i.e. a split or a merge, or
+ * entries moved between pages, locks the header for writing and holds that
+ * lock until its transaction completes, so only one transaction at a time
+ * changes the structure. Walks down the tree that overlap a change start
+ * over; see {@link #findLeaf}.
+ * <p>
+ * Inserts split full pages, and deletes merge a page that drops below half
+ * full with a neighbour, or move entries over from the neighbour if both
+ * don't fit on one page. Pages freed by merges are kept in a free list and
+ * reused before the file grows.
+ * <p>
+ * An index may also include other fields of the table in its leaf
+ * entries, so that queries that need only the key and those fields can be
+ * answered with an {@link IndexOnlyScan}, without reading the table.
+ * <p>
+ * As a DbFile, a BTreeFile holds tuples of the key followed by the included
+ * fields, with the RecordId of the indexed tuple in the table as the
+ * tuple's RecordId.
+ *
+ * @see Catalog#addIndex
+ * @see IndexScan
+ */
+public class BTreeFile implements DbFile, CoveringIndex {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int HEADER_PAGE = 0;
+
+    private final File f;
+    private final int tableId;
+    private final int keyField;
+    private final Type keyType;
+    private final int[] includedFields;
+    private final Type[] includedTypes;
+    private final TupleDesc td;
+    private final int leafCapacity;
+    private final int internalCapacity;
+    private transient volatile FileChannel channel;
+    /** The root page number, 0 if the tree is empty, or -1 if it must be read from the header. */
+    private transient volatile int cachedRoot = -1;
+    /**
+     * Counts the changes to the structure of the tree, twice each: when one
+     * starts and when it ends. Reading the header from the file counts too,
+     * since that is how an aborted change to it is undone.
+     */
+    private transient volatile long structureVersion = 0;
+    /** Guards changes to cachedRoot and structureVersion. */
+    private final transient Object rootLatch = new Object();
+
+    /**
+     * Opens the B+ tree index stored in f, which indexes field keyField of
+     * table. If f is empty, the index is empty; use {@link #bulkLoad} to
+     * fill it from the table.
+     */
+    public BTreeFile(File f, DbFile table, int keyField) {
+        this(f, table, keyField, new int[0]);
+    }
+
+    /**
+     * Opens the B+ tree index stored in f, which indexes field keyField of
+     * table and includes the specified other fields of the table in its
+     * entries. The included fields must be the same each time the file is
+     * opened.
+     */
+    public BTreeFile(File f, DbFile table, int keyField, int[] includedFields) {
+        this.f = f;
+        this.tableId = table.getId();
+        this.keyField = keyField;
+        this.includedFields = includedFields.clone();
+        TupleDesc tableTd = table.getTupleDesc();
+        this.keyType = tableTd.getFieldType(keyField);
+        this.includedTypes = new Type[includedFields.length];
+        Type[] types = new Type[includedFields.length + 1];
+        String[] names = new String[includedFields.length + 1];
+        types[0] = keyType;
+        names[0] = tableTd.getFieldName(keyField);
+        for (int i = 0; i < includedFields.length; i++) {
+            includedTypes[i] = tableTd.getFieldType(includedFields[i]);
+            types[i + 1] = includedTypes[i];
+            names[i + 1] = tableTd.getFieldName(includedFields[i]);
+        }
+        this.td = new TupleDesc(types, names);
+        this.leafCapacity = BTreePage.leafCapacity(keyType, includedTypes);
+        this.internalCapacity = BTreePage.internalCapacity(keyType);
+    }
+
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /** @return the types of the included fields, in the order they are stored */
+    public Type[] getIncludedTypes() {
+        return includedTypes.clone();
+    }
+
+    // see CoveringIndex.java for javadocs
+    public int[] getCoveredFields() {
+        int[] fields = new int[includedFields.length + 1];
+        fields[0] = keyField;
+        System.arraycopy(includedFields, 0, fields, 1, includedFields.length);
+        return fields;
+    }
+
+    // see CoveringIndex.java for javadocs
+    public int numPages() {
+        return (int) (f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getPageSize() {
+        return BufferPool.PAGE_SIZE;
+    }
+
+    // see DbFile.java for javadocs
+    public PageId getPageId(int pgNo) {
+        return new BTreePageId(getId(), pgNo);
+    }
+
+    /**
+     * Returns the channel used for all I/O on this file, opening it if
+     * necessary. Reads and writes are positional, so concurrent callers
+     * don't need to coordinate a file pointer.
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen())
+            return ch;
+        synchronized (this) {
+            if (channel == null || !channel.isOpen())
+                channel = new RandomAccessFile(f, "rw").getChannel();
+            return channel;
+        }
+    }
+
+    /**
+     * Fills buf from the file starting at offset. Bytes past the end of the
+     * file are left as they are.
+     */
+    private void readFully(ByteBuffer buf, long offset) throws IOException {
+        try {
+            readFully(channel(), buf, offset);
+        } catch (ClosedChannelException e) {
+            // closed by an interrupt or by close() on another thread: reopen once
+            readFully(channel(), buf, offset);
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long offset) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, offset + buf.position() - start) < 0)
+                break;
+        }
+    }
+
+    /** Writes all of buf to the file starting at offset. */
+    private void writeFully(ByteBuffer buf, long offset) throws IOException {
+        int start = buf.position();
+        try {
+            writeFully(channel(), buf, offset);
+        } catch (ClosedChannelException e) {
+            buf.position(start);
+            writeFully(channel(), buf, offset);
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long offset) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining())
+            ch.write(buf, offset + buf.position() - start);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.pageNumber() == HEADER_PAGE)
+            forgetRoot();
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        try {
+            // pages past the end of the file haven't been written yet, and read as free pages
+            readFully(ByteBuffer.wrap(data), (long) pid.pageNumber() * BufferPool.PAGE_SIZE);
+            return new BTreePage(new BTreePageId(pid.getTableId(), pid.pageNumber()), keyType, includedTypes, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can't read " + pid + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> readPages(PageId first, int count) {
+        ArrayList<Page> pages = new ArrayList<Page>(count);
+        for (int i = 0; i < count; i++)
+            pages.add(readPage(new BTreePageId(first.getTableId(), first.pageNumber() + i)));
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writeFully(ByteBuffer.wrap(page.getPageData()), (long) page.getId().pageNumber() * BufferPool.PAGE_SIZE);
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /** Reads a page of the tree through the buffer pool. */
+    private BTreePage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, new BTreePageId(getId(), pgNo), perm);
+    }
+
+    /**
+     * Reads a page of the tree under a shared lock that is released again
+     * right away, unless tid already held a lock on the page.
+     */
+    private BTreePage peek(TransactionId tid, int pgNo)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        BTreePageId pid = new BTreePageId(getId(), pgNo);
+        boolean alreadyLocked = bp.holdsLock(tid, pid);
+        BTreePage p = (BTreePage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        if (!alreadyLocked)
+            bp.releasePage(tid, pid);
+        return p;
+    }
+
+    /** @return the root page number, or 0 if the tree is empty */
+    private int root(TransactionId tid) throws DbException, TransactionAbortedException {
+        int root = cachedRoot;
+        if (root >= 0)
+            return root;
+        long version = structureVersion;
+        BTreePage header = peek(tid, HEADER_PAGE);
+        root = header.kind == BTreePage.HEADER ? header.root : 0;
+        synchronized (rootLatch) {
+            // a change that ran meanwhile may have published a newer root
+            if (structureVersion == version)
+                cachedRoot = root;
+        }
+        return root;
+    }
+
+    /** Makes the next walk down the tree read the root from the header, and the walks under way start over. */
+    private void forgetRoot() {
+        synchronized (rootLatch) {
+            cachedRoot = -1;
+            structureVersion++;
+        }
+    }
+
+    /**
+     * Starts a change to the structure of the tree by locking the header
+     * for writing. The lock is held until tid completes, so no other
+     * transaction changes the internal pages until then.
+     */
+    private BTreePage beginChange(TransactionId tid, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        BTreePage header = writeHeader(tid, dirtied);
+        synchronized (rootLatch) {
+            structureVersion++;
+        }
+        return header;
+    }
+
+    /**
+     * Ends a change to the structure of the tree, caching the root it left.
+     * Walks that use the new root wait for tid to complete on its page.
+     */
+    private void endChange(BTreePage header) {
+        synchronized (rootLatch) {
+            cachedRoot = header.root;
+            structureVersion++;
+        }
+    }
+
+    /**
+     * Locks a page for writing and marks it dirty, saving its before image.
+     * Must be called on every page before it is changed; the object it
+     * returns is the one to change.
+     */
+    private BTreePage write(TransactionId tid, int pgNo, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        BTreePage p = getPage(tid, pgNo, Permissions.READ_WRITE);
+        p.beginUpdate();
+        p.markDirty(true, tid);
+        if (!dirtied.contains(p))
+            dirtied.add(p);
+        return p;
+    }
+
+    /** Locks the header for writing, setting it up if the file is new. */
+    private BTreePage writeHeader(TransactionId tid, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        BTreePage h = write(tid, HEADER_PAGE, dirtied);
+        if (h.kind == BTreePage.FREE) {
+            h.reset(BTreePage.HEADER);
+            h.numPages = 1;
+        }
+        return h;
+    }
+
+    /** Takes a page from the free list, or from the end of the file, and makes it an empty page of kind. */
+    private BTreePage allocate(TransactionId tid, BTreePage header, int kind, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        int pgNo;
+        if (header.freeHead != 0) {
+            pgNo = header.freeHead;
+            header.freeHead = write(tid, pgNo, dirtied).nextFree;
+        } else {
+            pgNo = header.numPages++;
+        }
+        BTreePage p = write(tid, pgNo, dirtied);
+        p.reset(kind);
+        return p;
+    }
+
+    /** Puts a page that is no longer part of the tree on the free list. */
+    private void free(BTreePage header, BTreePage p) {
+        p.reset(BTreePage.FREE);
+        p.nextFree = header.freeHead;
+        header.freeHead = p.pid.pageNumber();
+    }
+
+    /**
+     * The internal pages visited on the way from the root to a leaf, and the
+     * child followed on each.
+     */
+    private static class Path {
+        final ArrayList<Integer> pages = new ArrayList<Integer>();
+        final ArrayList<Integer> childIndexes = new ArrayList<Integer>();
+
+        int depth() {
+            return pages.size();
+        }
+    }
+
+    /**
+     * Walks from the root to the leaf where the entry (key, ridPage,
+     * ridSlot) is or belongs, or to the first leaf if key is null, and
+     * locks the leaf with perm until tid completes.
+     * <p>
+     * The root and the internal pages are only locked while they are read,
+     * so a change to the structure can run between the reads; if one
+     * started or ended during the walk, the walk starts over. A change
+     * locks the pages it changes until its transaction completes, so a walk
+     * that neither reads them nor waits for them sees the tree as it was
+     * before the change. The range of keys of a leaf only changes when the
+     * leaf does, so the leaf stays the right one while it is locked.
+     *
+     * @return the leaf, or null if the tree is empty
+     */
+    private BTreePage findLeaf(TransactionId tid, Field key, int ridPage, int ridSlot, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        while (true) {
+            long version = structureVersion;
+            int pgNo = root(tid);
+            if (pgNo == 0) {
+                if (structureVersion == version)
+                    return null;
+                continue;
+            }
+            BTreePage p = peek(tid, pgNo);
+            while (p.kind == BTreePage.INTERNAL) {
+                pgNo = p.children[key == null ? 0 : p.upperBound(key, ridPage, ridSlot)];
+                p = peek(tid, pgNo);
+            }
+            if (p.kind == BTreePage.LEAF) {
+                boolean alreadyLocked = bp.holdsLock(tid, p.pid);
+                BTreePage leaf = getPage(tid, pgNo, perm);
+                if (structureVersion == version && leaf.kind == BTreePage.LEAF)
+                    return leaf;
+                if (!alreadyLocked)
+                    bp.releasePage(tid, p.pid);
+            } else if (structureVersion == version) {
+                throw new DbException("B+ tree " + f + " is corrupt: found a " + p.kind + " page instead of a leaf");
+            }
+            // the tree changed under the walk, e.g. a page it read was split or freed
+        }
+    }
+
+    /**
+     * Finds the internal pages on the way from the root to leaf, which holds
+     * or would hold the entry (key, ridPage, ridSlot). Only used during a
+     * change to the structure, when no other transaction can change them.
+     */
+    private Path findPath(TransactionId tid, BTreePage header, int leaf, Field key, int ridPage, int ridSlot)
+            throws DbException, TransactionAbortedException {
+        Path path = new Path();
+        for (int pgNo = header.root; pgNo != leaf; ) {
+            BTreePage p = peek(tid, pgNo);
+            if (p.kind != BTreePage.INTERNAL)
+                throw new DbException("B+ tree " + f + " is corrupt: leaf " + leaf + " can't be reached from the root");
+            int c = p.upperBound(key, ridPage, ridSlot);
+            path.pages.add(pgNo);
+            path.childIndexes.add(c);
+            pgNo = p.children[c];
+        }
+        return path;
+    }
+
+    /**
+     * Adds an entry for a tuple that was just added to the table. The
+     * included fields, if any, are read from the tuple, whose page must
+     * still be in the buffer pool.
+     */
+    public void insertEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        Field[] fields = new Field[includedFields.length];
+        if (fields.length > 0) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+            Tuple t = page.getTuple(rid.tupleno());
+            if (t == null)
+                throw new DbException("no tuple at " + rid + " to index");
+            for (int i = 0; i < fields.length; i++)
+                fields[i] = t.getField(includedFields[i]);
+        }
+        insertEntry(tid, key, fields, rid.getPageId().pageNumber(), rid.tupleno());
+    }
+
+    private ArrayList<Page> insertEntry(TransactionId tid, Field key, Field[] fields, int ridPage, int ridSlot)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        BTreePage leaf = findLeaf(tid, key, ridPage, ridSlot, Permissions.READ_WRITE);
+        if (leaf == null) {
+            BTreePage header = beginChange(tid, dirtied);
+            if (header.root == 0) {
+                leaf = allocate(tid, header, BTreePage.LEAF, dirtied);
+                header.root = leaf.pid.pageNumber();
+            }
+            endChange(header);
+            if (leaf == null) // another transaction made the first leaf
+                leaf = findLeaf(tid, key, ridPage, ridSlot, Permissions.READ_WRITE);
+        }
+        leaf = write(tid, leaf.pid.pageNumber(), dirtied);
+        int pos = leaf.lowerBound(key, ridPage, ridSlot);
+        if (pos < leaf.numEntries && leaf.compareEntry(pos, key, ridPage, ridSlot) == 0)
+            return dirtied; // already indexed
+        leaf.insertEntry(pos, key, fields, ridPage, ridSlot);
+        if (leaf.numEntries > leafCapacity)
+            splitLeaf(tid, leaf, key, ridPage, ridSlot, dirtied);
+        return dirtied;
+    }
+
+    /**
+     * Moves the upper half of an overflowing leaf, which holds the entry
+     * (key, ridPage, ridSlot), to a new leaf to its right.
+     */
+    private void splitLeaf(TransactionId tid, BTreePage leaf, Field key, int ridPage, int ridSlot,
+            ArrayList<Page> dirtied) throws DbException, TransactionAbortedException {
+        // the next leaf is locked before the header, like any leaf an insert
+        // locks, so the holder of the header never waits for a leaf
+        BTreePage next = leaf.next == 0 ? null : write(tid, leaf.next, dirtied);
+        BTreePage header = beginChange(tid, dirtied);
+        Path path = findPath(tid, header, leaf.pid.pageNumber(), key, ridPage, ridSlot);
+        BTreePage right = allocate(tid, header, BTreePage.LEAF, dirtied);
+        int mid = leaf.numEntries / 2;
+        for (int i = mid; i < leaf.numEntries; i++) {
+            right.setEntry(i - mid, leaf, i);
+            leaf.keys[i] = null;
+        }
+        right.numEntries = leaf.numEntries - mid;
+        leaf.numEntries = mid;
+
+        right.prev = leaf.pid.pageNumber();
+        right.next = leaf.next;
+        if (next != null)
+            next.prev = right.pid.pageNumber();
+        leaf.next = right.pid.pageNumber();
+
+        // the separator is a copy of the first entry of the new leaf
+        insertSeparator(tid, header, path, path.depth() - 1, right.keys[0], right.ridPages[0], right.ridSlots[0],
+                leaf.pid.pageNumber(), right.pid.pageNumber(), dirtied);
+        endChange(header);
+    }
+
+    /**
+     * Adds the separator (key, ridPage, ridSlot) to the internal page at the
+     * specified level of path, with child right to its right, splitting
+     * pages up the path as needed. Level -1 means the root was split and
+     * left is the old root.
+     */
+    private void insertSeparator(TransactionId tid, BTreePage header, Path path, int level, Field key,
+            int ridPage, int ridSlot, int left, int right, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        if (level < 0) {
+            BTreePage root = allocate(tid, header, BTreePage.INTERNAL, dirtied);
+            root.children[0] = left;
+            root.insertEntry(0, key, ridPage, ridSlot, right);
+            header.root = root.pid.pageNumber();
+            return;
+        }
+        BTreePage parent = write(tid, path.pages.get(level), dirtied);
+        parent.insertEntry(path.childIndexes.get(level), key, ridPage, ridSlot, right);
+        if (parent.numEntries <= internalCapacity)
+            return;
+
+        // the middle separator moves up, and the separators after it move to a new page
+        BTreePage sibling = allocate(tid, header, BTreePage.INTERNAL, dirtied);
+        int mid = parent.numEntries / 2;
+        sibling.children[0] = parent.children[mid + 1];
+        for (int j = mid + 1; j < parent.numEntries; j++) {
+            sibling.setEntry(j - mid - 1, parent, j);
+            sibling.children[j - mid] = parent.children[j + 1];
+        }
+        sibling.numEntries = parent.numEntries - mid - 1;
+        Field upKey = parent.keys[mid];
+        int upPage = parent.ridPages[mid], upSlot = parent.ridSlots[mid];
+        for (int j = mid; j < parent.numEntries; j++)
+            parent.keys[j] = null;
+        parent.numEntries = mid;
+        insertSeparator(tid, header, path, level - 1, upKey, upPage, upSlot,
+                parent.pid.pageNumber(), sibling.pid.pageNumber(), dirtied);
+    }
+
+    // see Index.java for javadocs
+    public void deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        deleteEntry(tid, key, rid.getPageId().pageNumber(), rid.tupleno());
+    }
+
+    private ArrayList<Page> deleteEntry(TransactionId tid, Field key, int ridPage, int ridSlot)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        BTreePage leaf = findLeaf(tid, key, ridPage, ridSlot, Permissions.READ_WRITE);
+        int pos = leaf == null ? 0 : leaf.lowerBound(key, ridPage, ridSlot);
+        if (leaf == null || pos == leaf.numEntries || leaf.compareEntry(pos, key, ridPage, ridSlot) != 0)
+            throw new DbException("no entry for " + key + " at page " + ridPage + ", slot " + ridSlot + " in index " + f);
+        leaf = write(tid, leaf.pid.pageNumber(), dirtied);
+        leaf.removeEntry(pos);
+        rebalanceLeaf(tid, leaf, key, ridPage, ridSlot, dirtied);
+        return dirtied;
+    }
+
+    /**
+     * Merges a leaf that is less than half full with a neighbour, or evens
+     * the two out if they don't fit on one page. The leaf would hold the
+     * entry (key, ridPage, ridSlot).
+     */
+    private void rebalanceLeaf(TransactionId tid, BTreePage leaf, Field key, int ridPage, int ridSlot,
+            ArrayList<Page> dirtied) throws DbException, TransactionAbortedException {
+        // a leaf without neighbours is the root
+        if (leaf.numEntries >= leafCapacity / 2 || (leaf.prev == 0 && leaf.next == 0))
+            return;
+        // the neighbours are locked before the header; see splitLeaf
+        if (leaf.prev != 0)
+            getPage(tid, leaf.prev, Permissions.READ_WRITE);
+        if (leaf.next != 0)
+            getPage(tid, leaf.next, Permissions.READ_WRITE);
+        BTreePage header = beginChange(tid, dirtied);
+        Path path = findPath(tid, header, leaf.pid.pageNumber(), key, ridPage, ridSlot);
+        rebalanceLeaf(tid, header, leaf, path, dirtied);
+        endChange(header);
+    }
+
+    /** Rebalances leaf once the header is locked; path leads from the root to it. */
+    private void rebalanceLeaf(TransactionId tid, BTreePage header, BTreePage leaf, Path path,
+            ArrayList<Page> dirtied) throws DbException, TransactionAbortedException {
+        int level = path.depth() - 1;
+        BTreePage parent = write(tid, path.pages.get(level), dirtied);
+        int c = path.childIndexes.get(level);
+        int sep = c > 0 ? c - 1 : 0;
+        BTreePage left = write(tid, parent.children[sep], dirtied);
+        BTreePage right = write(tid, parent.children[sep + 1], dirtied);
+
+        if (left.numEntries + right.numEntries <= leafCapacity) {
+            for (int i = 0; i < right.numEntries; i++)
+                left.setEntry(left.numEntries + i, right, i);
+            left.numEntries += right.numEntries;
+            left.next = right.next;
+            if (right.next != 0)
+                write(tid, right.next, dirtied).prev = left.pid.pageNumber();
+            parent.removeEntry(sep);
+            free(header, right);
+            rebalanceInternal(tid, header, parent, path, level - 1, dirtied);
+            return;
+        }
+
+        int target = (left.numEntries + right.numEntries) / 2;
+        while (left.numEntries < target) {
+            left.setEntry(left.numEntries++, right, 0);
+            right.removeEntry(0);
+        }
+        while (left.numEntries > target) {
+            int last = left.numEntries - 1;
+            right.insertEntry(0, left.keys[last], left.included[last], left.ridPages[last], left.ridSlots[last]);
+            left.removeEntry(last);
+        }
+        parent.setEntry(sep, right, 0);
+    }
+
+    /**
+     * Merges an internal page that is less than half full with a neighbour,
+     * or evens the two out; level is the level of its parent in path. An
+     * empty root is replaced by its only child.
+     */
+    private void rebalanceInternal(TransactionId tid, BTreePage header, BTreePage node, Path path, int level,
+            ArrayList<Page> dirtied) throws DbException, TransactionAbortedException {
+        if (level < 0) {
+            if (node.numEntries == 0) {
+                header.root = node.children[0];
+                free(header, node);
+            }
+            return;
+        }
+        if (node.numEntries >= internalCapacity / 2)
+            return;
+        BTreePage parent = write(tid, path.pages.get(level), dirtied);
+        int c = path.childIndexes.get(level);
+        int sep = c > 0 ? c - 1 : 0;
+        BTreePage left = write(tid, parent.children[sep], dirtied);
+        BTreePage right = write(tid, parent.children[sep + 1], dirtied);
+
+        if (left.numEntries + right.numEntries + 1 <= internalCapacity) {
+            // the separator comes down between the two pages' entries
+            left.insertEntry(left.numEntries, parent.keys[sep], parent.ridPages[sep], parent.ridSlots[sep], right.children[0]);
+            for (int i = 0; i < right.numEntries; i++)
+                left.insertEntry(left.numEntries, right.keys[i], right.ridPages[i], right.ridSlots[i], right.children[i + 1]);
+            parent.removeEntry(sep);
+            free(header, right);
+            rebalanceInternal(tid, header, parent, path, level - 1, dirtied);
+            return;
+        }
+
+        // rotate entries through the parent's separator
+        int target = (left.numEntries + right.numEntries) / 2;
+        while (left.numEntries < target) {
+            left.insertEntry(left.numEntries, parent.keys[sep], parent.ridPages[sep], parent.ridSlots[sep], right.children[0]);
+            parent.setEntry(sep, right, 0);
+            right.children[0] = right.children[1];
+            right.removeEntry(0);
+        }
+        while (left.numEntries > target) {
+            int last = left.numEntries - 1;
+            right.insertEntry(0, parent.keys[sep], parent.ridPages[sep], parent.ridSlots[sep], right.children[0]);
+            right.children[0] = left.children[last + 1];
+            parent.setEntry(sep, left, last);
+            left.removeEntry(last);
+        }
+    }
+
+    /**
+     * Adds an entry for t.getField(0) and t.getRecordId(), the RecordId of
+     * the indexed tuple in the table, with the rest of t's fields as the
+     * included fields.
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        return insertEntry(tid, t.getField(0), includedOf(t), rid.getPageId().pageNumber(), rid.tupleno());
+    }
+
+    /** @return the included fields of an entry tuple */
+    private Field[] includedOf(Tuple entry) {
+        Field[] fields = new Field[includedFields.length];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = entry.getField(i + 1);
+        return fields;
+    }
+
+    /**
+     * Removes the entry for t.getField(0) and t.getRecordId(), the RecordId
+     * of the indexed tuple in the table.
+     *
+     * @return the leaf the entry was removed from
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        return deleteEntry(tid, t.getField(0), rid.getPageId().pageNumber(), rid.tupleno()).get(0);
+    }
+
+    /**
+     * Fills an empty index with entries for the tuples now in its table.
+     * The leaves are written in order and packed full, without going
+     * through the buffer pool; tid only locks the table while it is read.
+     *
+     * @throws DbException if the index isn't empty
+     */
+    public synchronized void bulkLoad(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePage header = peek(tid, HEADER_PAGE);
+        if (header.root != 0)
+            throw new DbException("can only bulk load an empty index");
+
+        final ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        DbFileIterator it = HeapFile.sequentialIterator(Database.getCatalog().getDbFile(tableId), tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            Tuple entry = new Tuple(td);
+            entry.setField(0, t.getField(keyField));
+            for (int i = 0; i < includedFields.length; i++)
+                entry.setField(i + 1, t.getField(includedFields[i]));
+            entry.setRecordId(t.getRecordId());
+            entries.add(entry);
+        }
+        it.close();
+        Collections.sort(entries, new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                int c = BTreePage.compareKeys(a.getField(0), b.getField(0));
+                if (c != 0)
+                    return c;
+                RecordId ra = a.getRecordId(), rb = b.getRecordId();
+                if (ra.getPageId().pageNumber() != rb.getPageId().pageNumber())
+                    return ra.getPageId().pageNumber() < rb.getPageId().pageNumber() ? -1 : 1;
+                return ra.tupleno() < rb.tupleno() ? -1 : (ra.tupleno() == rb.tupleno() ? 0 : 1);
+            }
+        });
+
+        header = new BTreePage(header.pid, keyType, includedTypes, new byte[BufferPool.PAGE_SIZE]);
+        header.reset(BTreePage.HEADER);
+        header.numPages = 1;
+        if (!entries.isEmpty()) {
+            // leaves, in order and spread evenly
+            int numLeaves = (entries.size() + leafCapacity - 1) / leafCapacity;
+            ArrayList<BTreePage> level = new ArrayList<BTreePage>();
+            for (int l = 0, e = 0; l < numLeaves; l++) {
+                BTreePage leaf = newPage(header, BTreePage.LEAF);
+                int end = (int) ((long) entries.size() * (l + 1) / numLeaves);
+                for (; e < end; e++) {
+                    Tuple t = entries.get(e);
+                    RecordId rid = t.getRecordId();
+                    leaf.insertEntry(leaf.numEntries, t.getField(0), includedOf(t), rid.getPageId().pageNumber(), rid.tupleno());
+                }
+                if (l > 0) {
+                    BTreePage prev = level.get(l - 1);
+                    prev.next = leaf.pid.pageNumber();
+                    leaf.prev = prev.pid.pageNumber();
+                }
+                level.add(leaf);
+            }
+            // internal levels, separating each child from the one before it by its smallest entry
+            ArrayList<Field> firstKeys = new ArrayList<Field>();
+            ArrayList<int[]> firstRids = new ArrayList<int[]>();
+            for (BTreePage leaf : level) {
+                firstKeys.add(leaf.keys[0]);
+                firstRids.add(new int[] { leaf.ridPages[0], leaf.ridSlots[0] });
+            }
+            while (level.size() > 1) {
+                int numNodes = (level.size() + internalCapacity) / (internalCapacity + 1);
+                ArrayList<BTreePage> parents = new ArrayList<BTreePage>();
+                ArrayList<Field> parentKeys = new ArrayList<Field>();
+                ArrayList<int[]> parentRids = new ArrayList<int[]>();
+                for (int n = 0, c = 0; n < numNodes; n++) {
+                    BTreePage node = newPage(header, BTreePage.INTERNAL);
+                    int end = (int) ((long) level.size() * (n + 1) / numNodes);
+                    parentKeys.add(firstKeys.get(c));
+                    parentRids.add(firstRids.get(c));
+                    node.children[0] = level.get(c++).pid.pageNumber();
+                    for (; c < end; c++) {
+                        int[] rid = firstRids.get(c);
+                        node.insertEntry(node.numEntries, firstKeys.get(c), rid[0], rid[1], level.get(c).pid.pageNumber());
+                    }
+                    parents.add(node);
+                }
+                for (BTreePage p : level)
+                    writePage(p);
+                level = parents;
+                firstKeys = parentKeys;
+                firstRids = parentRids;
+            }
+            writePage(level.get(0));
+            header.root = level.get(0).pid.pageNumber();
+        }
+        writePage(header);
+        // the pages changed behind the buffer pool's back
+        for (int i = 0; i < header.numPages; i++)
+            Database.getBufferPool().discardPage(new BTreePageId(getId(), i));
+        forgetRoot();
+    }
+
+    /** Makes a new page at the end of a file being bulk loaded. */
+    private BTreePage newPage(BTreePage header, int kind) throws IOException {
+        BTreePage p = new BTreePage(new BTreePageId(getId(), header.numPages++), keyType, includedTypes, new byte[BufferPool.PAGE_SIZE]);
+        p.reset(kind);
+        return p;
+    }
+
+    // see Index.java for javadocs
+    public boolean supports(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    // see Index.java for javadocs
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        if (ipred != null && !supports(ipred.getOp()))
+            throw new UnsupportedOperationException("B+ tree can't look up " + ipred);
+        return new BTreeIterator(tid, ipred);
+    }
+
+    /** Returns an iterator over all the entries, in key order. */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeIterator(tid, null);
+    }
+
+    /**
+     * Iterates over the entries that pass a predicate, one leaf at a time.
+     * The matching entries of a leaf are copied when the iterator gets to
+     * it, so the caller may change the index while iterating.
+     */
+    private class BTreeIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final IndexPredicate ipred;
+        private final ArrayList<Tuple> buffered = new ArrayList<Tuple>();
+        private int pos;
+        /** The next leaf to read, 0 if there are no more matches. */
+        private int nextLeaf;
+        private boolean open = false;
+
+        BTreeIterator(TransactionId tid, IndexPredicate ipred) {
+            this.tid = tid;
+            this.ipred = ipred;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            buffered.clear();
+            pos = 0;
+            nextLeaf = 0;
+            open = true;
+            Field start = null;
+            if (ipred != null) {
+                switch (ipred.getOp()) {
+                case EQUALS:
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQ:
+                    start = ipred.getField();
+                    break;
+                default:
+                    break;
+                }
+            }
+            // the smallest possible entry with the start key
+            BTreePage leaf = findLeaf(tid, start, Integer.MIN_VALUE, Integer.MIN_VALUE, Permissions.READ_ONLY);
+            if (leaf != null)
+                readLeaf(leaf);
+        }
+
+        private void readLeaf(BTreePage leaf) {
+            buffered.clear();
+            pos = 0;
+            nextLeaf = leaf.next;
+            for (int i = 0; i < leaf.numEntries; i++) {
+                if (ipred != null && pastEnd(leaf.keys[i])) {
+                    nextLeaf = 0;
+                    break;
+                }
+                if (ipred == null || ipred.matches(leaf.keys[i])) {
+                    Tuple t = new Tuple(td);
+                    t.setField(0, leaf.keys[i]);
+                    for (int j = 0; j < includedTypes.length; j++)
+                        t.setField(j + 1, leaf.included[i][j]);
+                    t.setRecordId(leaf.getRecordId(tableId, i));
+                    buffered.add(t);
+                }
+            }
+        }
+
+        /** @return true if no key from key on can pass the predicate */
+        private boolean pastEnd(Field key) {
+            switch (ipred.getOp()) {
+            case EQUALS:
+            case LESS_THAN_OR_EQ:
+                return key.compare(Predicate.Op.GREATER_THAN, ipred.getField());
+            case LESS_THAN:
+                return key.compare(Predicate.Op.GREATER_THAN_OR_EQ, ipred.getField());
+            default:
+                return false;
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                return false;
+            while (pos == buffered.size() && nextLeaf != 0)
+                readLeaf(getPage(tid, nextLeaf, Permissions.READ_ONLY));
+            return pos < buffered.size();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return buffered.get(pos++);
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        public void close() {
+            open = false;
+            buffered.clear();
+        }
+    }
+}
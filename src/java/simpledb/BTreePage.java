@@ -0,0 +1,409 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * A page of a {@link BTreeFile}. The first byte of a page says what kind of
+ * page it is:
+ * <ul>
+ * <li>HEADER: page 0 of every file. Holds the number of the root page (0 if
+ * the tree is empty), the number of pages in the file and the head of the
+ * list of free pages.</li>
+ * <li>INTERNAL: n separator entries and n+1 child page numbers. Child i
+ * holds the entries that are at least separator i-1 and less than
+ * separator i.</li>
+ * <li>LEAF: n entries in order, plus the page numbers of the leaves to the
+ * left and right (0 if none), so range scans can walk the leaves.</li>
+ * <li>FREE: a page that was released by a merge, and the number of the
+ * next free page. A page past the end of the file reads as FREE.</li>
+ * </ul>
+ * An entry is a key plus the RecordId (page number and slot) of the tuple
+ * it indexes. Entries are ordered by key and then by RecordId, so every
+ * entry is unique even when keys are not, and deleting one entry never
+ * has to search among duplicates. Entries on leaves also carry copies of
+ * the included fields of the tuple, if the index has any, so queries that
+ * only need those fields can be answered from the leaves.
+ * <p>
+ * Layouts, after the kind byte:
+ * <pre>
+ *     HEADER    int root, int numPages, int freeHead
+ *     INTERNAL  int n, int child0, n * (key, int ridPage, int ridSlot, int child)
+ *     LEAF      int n, int prev, int next, n * (key, included fields, int ridPage, int ridSlot)
+ *     FREE      int nextFree
+ * </pre>
+ * BTreeFile changes the fields of a page directly, after calling
+ * {@link #beginUpdate}.
+ */
+public class BTreePage implements Page {
+
+    public static final int FREE = 0;
+    public static final int HEADER = 1;
+    public static final int INTERNAL = 2;
+    public static final int LEAF = 3;
+
+    private static final int INTERNAL_HEADER = 1 + 4 + 4;
+    private static final int LEAF_HEADER = 1 + 4 + 4 + 4;
+
+    final BTreePageId pid;
+    final Type keyType;
+    final Type[] includedTypes;
+
+    int kind;
+
+    // HEADER
+    int root;
+    int numPages;
+    int freeHead;
+
+    // FREE
+    int nextFree;
+
+    // INTERNAL and LEAF; the arrays have room for one entry too many, so
+    // a page can overflow by one entry before it is split
+    int numEntries;
+    Field[] keys;
+    int[] ridPages;
+    int[] ridSlots;
+    /** LEAF only: the included fields of each entry. */
+    Field[][] included;
+    /** INTERNAL only: numEntries + 1 children. */
+    int[] children;
+    /** LEAF only: neighbouring leaves, 0 if none. */
+    int prev, next;
+
+    byte[] oldData;
+    boolean dirty;
+    TransactionId lastDirtyTid;
+
+    /** @return the number of entries that fit on a leaf with keys of type t */
+    public static int leafCapacity(Type t) {
+        return leafCapacity(t, new Type[0]);
+    }
+
+    /**
+     * @return the number of entries that fit on a leaf with keys of type t
+     *         and included fields of the specified types
+     */
+    public static int leafCapacity(Type t, Type[] includedTypes) {
+        int len = t.getLen() + 8;
+        for (Type it : includedTypes)
+            len += it.getLen();
+        return (BufferPool.PAGE_SIZE - LEAF_HEADER) / len;
+    }
+
+    /** @return the number of separators that fit on an internal page with keys of type t */
+    public static int internalCapacity(Type t) {
+        return (BufferPool.PAGE_SIZE - INTERNAL_HEADER) / (t.getLen() + 12);
+    }
+
+    /**
+     * Creates a page from its bytes on disk. The key type and included
+     * field types are those of the BTreeFile with the page's table id in
+     * the catalog.
+     */
+    public BTreePage(BTreePageId id, byte[] data) throws IOException {
+        this(id, (BTreeFile) Database.getCatalog().getDbFile(id.getTableId()), data);
+    }
+
+    private BTreePage(BTreePageId id, BTreeFile file, byte[] data) throws IOException {
+        this(id, file.getKeyType(), file.getIncludedTypes(), data);
+    }
+
+    public BTreePage(BTreePageId id, Type keyType, byte[] data) throws IOException {
+        this(id, keyType, new Type[0], data);
+    }
+
+    public BTreePage(BTreePageId id, Type keyType, Type[] includedTypes, byte[] data) throws IOException {
+        this.pid = id;
+        this.keyType = keyType;
+        this.includedTypes = includedTypes;
+        int cap = Math.max(leafCapacity(keyType, includedTypes), internalCapacity(keyType)) + 1;
+        keys = new Field[cap];
+        included = new Field[cap][];
+        ridPages = new int[cap];
+        ridSlots = new int[cap];
+        children = new int[cap + 1];
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        kind = buf.get(0);
+        try {
+            switch (kind) {
+            case HEADER:
+                root = buf.getInt(1);
+                numPages = buf.getInt(5);
+                freeHead = buf.getInt(9);
+                break;
+            case INTERNAL:
+                numEntries = buf.getInt(1);
+                buf.position(5);
+                children[0] = buf.getInt();
+                for (int i = 0; i < numEntries; i++) {
+                    keys[i] = keyType.parse(buf);
+                    ridPages[i] = buf.getInt();
+                    ridSlots[i] = buf.getInt();
+                    children[i + 1] = buf.getInt();
+                }
+                break;
+            case LEAF:
+                numEntries = buf.getInt(1);
+                prev = buf.getInt(5);
+                next = buf.getInt(9);
+                buf.position(LEAF_HEADER);
+                for (int i = 0; i < numEntries; i++) {
+                    keys[i] = keyType.parse(buf);
+                    included[i] = new Field[includedTypes.length];
+                    for (int j = 0; j < includedTypes.length; j++)
+                        included[i][j] = includedTypes[j].parse(buf);
+                    ridPages[i] = buf.getInt();
+                    ridSlots[i] = buf.getInt();
+                }
+                break;
+            case FREE:
+                nextFree = buf.getInt(1);
+                break;
+            default:
+                throw new IOException("bad B+ tree page kind " + kind + " on " + id);
+            }
+        } catch (ParseException e) {
+            throw new IOException("can't parse key on " + id);
+        }
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /** @return the kind of page: HEADER, INTERNAL, LEAF or FREE */
+    public int getKind() {
+        return kind;
+    }
+
+    /** @return the number of entries on an INTERNAL or LEAF page */
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /** @return included field j of entry i on a LEAF page */
+    public Field getIncluded(int i, int j) {
+        return included[i][j];
+    }
+
+    /** @return the RecordId of entry i, which points into the table with the specified id */
+    public RecordId getRecordId(int tableId, int i) {
+        return new RecordId(new HeapPageId(tableId, ridPages[i]), ridSlots[i]);
+    }
+
+    /** @return the page number of child i of an INTERNAL page */
+    public int getChild(int i) {
+        return children[i];
+    }
+
+    /** @return the page number of the leaf to the right, 0 if none */
+    public int getNext() {
+        return next;
+    }
+
+    /**
+     * Compares entry i with the entry (key, ridPage, ridSlot).
+     * @return a negative number, zero or a positive number if entry i is
+     *         smaller than, equal to or larger than the other entry
+     */
+    int compareEntry(int i, Field key, int ridPage, int ridSlot) {
+        int c = compareKeys(keys[i], key);
+        if (c != 0)
+            return c;
+        if (ridPages[i] != ridPage)
+            return ridPages[i] < ridPage ? -1 : 1;
+        if (ridSlots[i] != ridSlot)
+            return ridSlots[i] < ridSlot ? -1 : 1;
+        return 0;
+    }
+
+    /** Compares two keys of the same type. */
+    static int compareKeys(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        return a.equals(b) ? 0 : 1;
+    }
+
+    /** @return the number of entries smaller than (key, ridPage, ridSlot) */
+    int lowerBound(Field key, int ridPage, int ridSlot) {
+        int lo = 0, hi = numEntries;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareEntry(mid, key, ridPage, ridSlot) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the number of entries no larger than (key, ridPage, ridSlot) */
+    int upperBound(Field key, int ridPage, int ridSlot) {
+        int lo = 0, hi = numEntries;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareEntry(mid, key, ridPage, ridSlot) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Inserts an entry at position i. On an INTERNAL page, child becomes
+     * the child to the right of the new separator.
+     */
+    void insertEntry(int i, Field key, int ridPage, int ridSlot, int child) {
+        insertEntry(i, key, null, ridPage, ridSlot, child);
+    }
+
+    /** Inserts an entry with the specified included fields at position i of a LEAF page. */
+    void insertEntry(int i, Field key, Field[] fields, int ridPage, int ridSlot) {
+        insertEntry(i, key, fields, ridPage, ridSlot, 0);
+    }
+
+    private void insertEntry(int i, Field key, Field[] fields, int ridPage, int ridSlot, int child) {
+        int n = numEntries - i;
+        System.arraycopy(keys, i, keys, i + 1, n);
+        System.arraycopy(included, i, included, i + 1, n);
+        System.arraycopy(ridPages, i, ridPages, i + 1, n);
+        System.arraycopy(ridSlots, i, ridSlots, i + 1, n);
+        if (kind == INTERNAL)
+            System.arraycopy(children, i + 1, children, i + 2, n);
+        keys[i] = key;
+        included[i] = fields;
+        ridPages[i] = ridPage;
+        ridSlots[i] = ridSlot;
+        if (kind == INTERNAL)
+            children[i + 1] = child;
+        numEntries++;
+    }
+
+    /**
+     * Removes the entry at position i. On an INTERNAL page, the child to
+     * the right of the separator is removed with it.
+     */
+    void removeEntry(int i) {
+        int n = numEntries - i - 1;
+        System.arraycopy(keys, i + 1, keys, i, n);
+        System.arraycopy(included, i + 1, included, i, n);
+        System.arraycopy(ridPages, i + 1, ridPages, i, n);
+        System.arraycopy(ridSlots, i + 1, ridSlots, i, n);
+        if (kind == INTERNAL)
+            System.arraycopy(children, i + 2, children, i + 1, n);
+        numEntries--;
+        keys[numEntries] = null;
+        included[numEntries] = null;
+    }
+
+    /** Copies entry i of other to position j of this page, leaving children alone. */
+    void setEntry(int j, BTreePage other, int i) {
+        keys[j] = other.keys[i];
+        included[j] = other.included[i];
+        ridPages[j] = other.ridPages[i];
+        ridSlots[j] = other.ridSlots[i];
+    }
+
+    /** Turns this page into an empty page of the specified kind. */
+    void reset(int kind) {
+        this.kind = kind;
+        numEntries = 0;
+        java.util.Arrays.fill(keys, null);
+        java.util.Arrays.fill(included, null);
+        root = numPages = freeHead = nextFree = prev = next = 0;
+        children[0] = 0;
+    }
+
+    /**
+     * Saves the contents of the page as its before image if this is the
+     * first change since the page was read or committed. Must be called
+     * before any change to the page.
+     */
+    void beginUpdate() {
+        if (oldData == null)
+            oldData = getPageData();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(kind);
+            switch (kind) {
+            case HEADER:
+                dos.writeInt(root);
+                dos.writeInt(numPages);
+                dos.writeInt(freeHead);
+                break;
+            case INTERNAL:
+                dos.writeInt(numEntries);
+                dos.writeInt(children[0]);
+                for (int i = 0; i < numEntries; i++) {
+                    keyType.serialize(keys[i], dos);
+                    dos.writeInt(ridPages[i]);
+                    dos.writeInt(ridSlots[i]);
+                    dos.writeInt(children[i + 1]);
+                }
+                break;
+            case LEAF:
+                dos.writeInt(numEntries);
+                dos.writeInt(prev);
+                dos.writeInt(next);
+                for (int i = 0; i < numEntries; i++) {
+                    keyType.serialize(keys[i], dos);
+                    for (int j = 0; j < included[i].length; j++)
+                        includedTypes[j].serialize(included[i][j], dos);
+                    dos.writeInt(ridPages[i]);
+                    dos.writeInt(ridSlots[i]);
+                }
+                break;
+            case FREE:
+                dos.writeInt(nextFree);
+                break;
+            }
+            dos.write(new byte[BufferPool.PAGE_SIZE - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    public void writeTo(ByteBuffer buf) {
+        buf.put(getPageData());
+    }
+
+    public Page getBeforeImage() {
+        try {
+            return new BTreePage(pid, keyType, includedTypes, oldData == null ? getPageData() : oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty)
+            this.lastDirtyTid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? lastDirtyTid : null;
+    }
+}
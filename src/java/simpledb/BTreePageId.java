@@ -0,0 +1,49 @@
+package simpledb;
+
+/** Unique identifier for BTreePage objects. */
+public class BTreePageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree file.
+     *
+     * @param tableId the id of the BTreeFile, as returned by getId()
+     * @param pgNo the page number in that file
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the id of the BTreeFile this page belongs to */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the page number in the file */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return (17 + tableId) * 17 + pgNo;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId))
+            return false;
+        BTreePageId other = (BTreePageId) o;
+        return tableId == other.tableId && pgNo == other.pgNo;
+    }
+
+    public int[] serialize() {
+        return new int[] { tableId, pgNo };
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pgNo + ")";
+    }
+}
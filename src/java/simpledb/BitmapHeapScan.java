@@ -0,0 +1,197 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapHeapScan is an access method that returns the tuples of a table
+ * that pass a conjunction of predicates, each on a field with an
+ * {@link Index} that supports the predicate's operator. Before reading the
+ * table, it collects the RecordIds each index returns into a
+ * {@link RoaringBitmap} of positions, as in a {@link BitmapIndex}, and
+ * intersects them. The tuples are then read in file order, with each page
+ * read once however many of its tuples match, and the pages still to come
+ * are read ahead.
+ * <p>
+ * Where an {@link IndexScan} reads the table in the order of the index,
+ * returning to the same pages again and again when the matching tuples are
+ * many, this reads it like a short sequential scan.
+ * <p>
+ * Each tuple is checked against the predicates after it is read, since
+ * indexes may return entries that are out of date.
+ */
+public class BitmapHeapScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId transid;
+    private int tableid;
+    private String tableAlias;
+    private List<Predicate> predicates;
+    private List<Index> indexes = new ArrayList<Index>();
+    private int slotsPerPage;
+    private RoaringBitmap positions;
+    private ReadAhead readAhead;
+    private HeapPage page;
+    private int pos;
+    private Tuple next;
+
+    /**
+     * Creates a scan over the tuples of a table that pass all of the
+     * specified predicates, as a part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be a HeapFile
+     * @param tableAlias
+     *            the alias of the table, which prefixes the field names of
+     *            the returned tuples as in {@link SeqScan}
+     * @param predicates
+     *            predicates on fields of the table, each of which must have
+     *            an index in the catalog that supports its operator
+     * @throws IllegalArgumentException if there are no predicates, or a
+     *             predicate's field has no such index
+     */
+    public BitmapHeapScan(TransactionId tid, int tableid, String tableAlias, List<Predicate> predicates) {
+        if (predicates.isEmpty())
+            throw new IllegalArgumentException("a bitmap heap scan needs at least one predicate");
+        this.transid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.predicates = new ArrayList<Predicate>(predicates);
+        for (Predicate p : predicates) {
+            Index index = findIndex(tableid, p.getField(), p.getOp());
+            if (index == null)
+                throw new IllegalArgumentException("no index on field " + p.getField() + " of table " + tableid
+                        + " supports " + p.getOp());
+            indexes.add(index);
+        }
+        this.slotsPerPage = HeapPage.getNumTuples(Database.getCatalog().getTupleDesc(tableid),
+                Database.getCatalog().getPageSize(tableid));
+    }
+
+    /**
+     * @return an index other than a {@link BitmapIndex}, which has
+     *         {@link BitmapScan}, on the specified field of a table that
+     *         supports op, or null if there is none
+     */
+    public static Index findIndex(int tableid, int field, Predicate.Op op) {
+        for (Index index : Database.getCatalog().getIndexes(tableid)) {
+            if (!(index instanceof BitmapIndex) && index.getKeyField() == field && index.supports(op))
+                return index;
+        }
+        return null;
+    }
+
+    /** @return the name of the table the scan reads, as in the catalog */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        positions = null;
+        for (int i = 0; i < predicates.size(); i++) {
+            Predicate p = predicates.get(i);
+            RoaringBitmap b = new RoaringBitmap();
+            DbFileIterator entries = indexes.get(i).indexIterator(transid, new IndexPredicate(p.getOp(), p.getOperand()));
+            entries.open();
+            while (entries.hasNext()) {
+                RecordId rid = entries.next().getRecordId();
+                b.add(rid.getPageId().pageNumber() * slotsPerPage + rid.tupleno());
+            }
+            entries.close();
+            positions = positions == null ? b : RoaringBitmap.and(positions, b);
+        }
+
+        DbFile f = Database.getCatalog().getDbFile(tableid);
+        int numPages = f instanceof CompressedHeapFile ? ((CompressedHeapFile) f).numPages() : ((HeapFile) f).numPages();
+        readAhead = Database.getBufferPool().newReadAhead(f, numPages);
+        if (readAhead != null) {
+            ArrayList<Integer> pages = new ArrayList<Integer>();
+            for (int x = positions.nextSetBit(0); x >= 0; x = positions.nextSetBit((x / slotsPerPage + 1) * slotsPerPage))
+                pages.add(x / slotsPerPage);
+            int[] planned = new int[pages.size()];
+            for (int i = 0; i < planned.length; i++)
+                planned[i] = pages.get(i);
+            readAhead.setPages(planned);
+        }
+        page = null;
+        pos = -1;
+        next = null;
+    }
+
+    /**
+     * Returns the TupleDesc of the table with field names prefixed with the
+     * table alias, like {@link SeqScan#getTupleDesc}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        Type[] typeArr = new Type[td.numFields()];
+        String[] nameArr = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            typeArr[i] = td.getFieldType(i);
+            nameArr[i] = getAlias() + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(typeArr, nameArr);
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (positions == null)
+            return false;
+        while (next == null) {
+            pos = positions.nextSetBit(pos + 1);
+            if (pos < 0)
+                return false;
+            int pgNo = pos / slotsPerPage;
+            if (page == null || page.getId().pageNumber() != pgNo) {
+                if (readAhead != null)
+                    readAhead.pageRequested(pgNo);
+                page = (HeapPage) Database.getBufferPool().getPage(transid, new HeapPageId(tableid, pgNo),
+                        Permissions.READ_ONLY);
+            }
+            Tuple t = page.getTuple(pos % slotsPerPage);
+            if (t != null && passes(t))
+                next = t;
+        }
+        return true;
+    }
+
+    private boolean passes(Tuple t) {
+        for (Predicate p : predicates) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    public Tuple next() throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        if (readAhead != null)
+            readAhead.close();
+        readAhead = null;
+        positions = null;
+        page = null;
+        next = null;
+    }
+}
@@ -0,0 +1,206 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapIndex is an in-memory index on a column of a HeapFile with few
+ * distinct values, such as a status or region. It keeps one
+ * {@link RoaringBitmap} per value, holding the positions of the tuples
+ * with that value; the position of a tuple is its page number times the
+ * number of slots on a page, plus its slot. A predicate on the column is
+ * answered by OR-ing the bitmaps of the values that pass it, and a
+ * conjunction of predicates on several indexed columns by AND-ing those,
+ * without reading the table; see {@link BitmapScan}.
+ * <p>
+ * The bitmaps are a superset of the tuples with each value: a tuple's bit
+ * is set as soon as it is inserted, but is not cleared when it is deleted,
+ * since the delete may still abort. Readers must check each tuple they
+ * fetch, and clear the bits they find stale with {@link #refresh} once the
+ * page holding them has no uncommitted changes.
+ *
+ * @see Catalog#addIndex
+ */
+public class BitmapIndex implements Index {
+
+    private final int tableId;
+    private final int keyField;
+    private final int slotsPerPage;
+    private final HashMap<Field, RoaringBitmap> bitmaps = new HashMap<Field, RoaringBitmap>();
+
+    /**
+     * Creates an empty index on field keyField of table. Use {@link #build}
+     * to fill it from the table.
+     */
+    public BitmapIndex(HeapFile table, int keyField) {
+        this.tableId = table.getId();
+        this.keyField = keyField;
+        this.slotsPerPage = HeapPage.getNumTuples(table.getTupleDesc(), table.getPageSize());
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the position of the tuple with the specified RecordId in the bitmaps */
+    public int position(RecordId rid) {
+        return rid.getPageId().pageNumber() * slotsPerPage + rid.tupleno();
+    }
+
+    /** @return the RecordId of the tuple at the specified position */
+    public RecordId recordId(int position) {
+        return new RecordId(new HeapPageId(tableId, position / slotsPerPage), position % slotsPerPage);
+    }
+
+    /**
+     * Replaces the contents of the index with the values of the tuples now
+     * in the table.
+     */
+    public void build(TransactionId tid) throws DbException, TransactionAbortedException {
+        HashMap<Field, RoaringBitmap> built = new HashMap<Field, RoaringBitmap>();
+        DbFileIterator it = Database.getCatalog().getDbFile(tableId).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            RoaringBitmap b = built.get(t.getField(keyField));
+            if (b == null) {
+                b = new RoaringBitmap();
+                built.put(t.getField(keyField), b);
+            }
+            b.add(position(t.getRecordId()));
+        }
+        it.close();
+        synchronized (this) {
+            bitmaps.clear();
+            bitmaps.putAll(built);
+        }
+    }
+
+    /** @return the distinct values in the index, some of which may no longer be in the table */
+    public synchronized Set<Field> values() {
+        return new HashSet<Field>(bitmaps.keySet());
+    }
+
+    /**
+     * Returns a new bitmap of the positions of the tuples whose value passes
+     * (value op operand): the union of the bitmaps of those values.
+     */
+    public synchronized RoaringBitmap lookup(Predicate.Op op, Field operand) {
+        RoaringBitmap result = new RoaringBitmap();
+        for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+            if (e.getKey().compare(op, operand))
+                result = RoaringBitmap.or(result, e.getValue());
+        }
+        return result;
+    }
+
+    // see Index.java for javadocs
+    public synchronized void insertEntry(TransactionId tid, Field key, RecordId rid) {
+        RoaringBitmap b = bitmaps.get(key);
+        if (b == null) {
+            b = new RoaringBitmap();
+            bitmaps.put(key, b);
+        }
+        b.add(position(rid));
+    }
+
+    /**
+     * Checks that the tuple has an entry. The entry stays until a reader
+     * finds it stale, as the delete may abort.
+     */
+    public synchronized void deleteEntry(TransactionId tid, Field key, RecordId rid) throws DbException {
+        RoaringBitmap b = bitmaps.get(key);
+        if (b == null || !b.contains(position(rid)))
+            throw new DbException("no entry for " + key + " at " + rid + " in bitmap index on table " + tableId);
+    }
+
+    /**
+     * Makes the bits at position agree with the tuple there, which is null
+     * if the slot is empty. The caller must hold a lock on the tuple's page,
+     * and the page must have no uncommitted changes.
+     */
+    synchronized void refresh(int position, Tuple t) {
+        Field current = t == null ? null : t.getField(keyField);
+        for (Iterator<Map.Entry<Field, RoaringBitmap>> it = bitmaps.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Field, RoaringBitmap> e = it.next();
+            if (current != null && e.getKey().equals(current))
+                continue;
+            e.getValue().remove(position);
+            if (e.getValue().isEmpty())
+                it.remove();
+        }
+    }
+
+    // see Index.java for javadocs
+    public boolean supports(Predicate.Op op) {
+        return true;
+    }
+
+    /**
+     * Returns the entries of the values that pass ipred, a value at a time
+     * and in order of position within a value. The entries are those in the
+     * index when the iterator is opened, and may include deleted tuples.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, final IndexPredicate ipred) {
+        final TupleDesc td = new TupleDesc(new Type[] {
+                Database.getCatalog().getTupleDesc(tableId).getFieldType(keyField) });
+        return new DbFileIterator() {
+            private static final long serialVersionUID = 1L;
+
+            private ArrayList<Field> keys;
+            private ArrayList<RoaringBitmap> sets;
+            private int k;
+            private int pos;
+
+            public void open() {
+                keys = new ArrayList<Field>();
+                sets = new ArrayList<RoaringBitmap>();
+                synchronized (BitmapIndex.this) {
+                    for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+                        if (ipred.matches(e.getKey())) {
+                            keys.add(e.getKey());
+                            sets.add(e.getValue().copy());
+                        }
+                    }
+                }
+                k = 0;
+                pos = -1;
+            }
+
+            public boolean hasNext() {
+                if (keys == null)
+                    return false;
+                while (k < keys.size()) {
+                    if (sets.get(k).nextSetBit(pos + 1) >= 0)
+                        return true;
+                    k++;
+                    pos = -1;
+                }
+                return false;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                pos = sets.get(k).nextSetBit(pos + 1);
+                Tuple t = new Tuple(td);
+                t.setField(0, keys.get(k));
+                t.setRecordId(recordId(pos));
+                return t;
+            }
+
+            public void rewind() {
+                k = 0;
+                pos = -1;
+            }
+
+            public void close() {
+                keys = null;
+                sets = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapScan is an access method that returns the tuples of a table that
+ * pass a conjunction of predicates, each on a field with a
+ * {@link BitmapIndex}. It ANDs together the bitmaps of the predicates
+ * before reading the table, and then reads only the pages that hold tuples
+ * in the result, in file order.
+ * <p>
+ * Since the bitmaps may hold stale entries, each tuple is checked against
+ * the predicates after it is read; the stale entries found on pages
+ * without uncommitted changes are cleared from the indexes.
+ */
+public class BitmapScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId transid;
+    private int tableid;
+    private String tableAlias;
+    private List<Predicate> predicates;
+    private List<BitmapIndex> indexes = new ArrayList<BitmapIndex>();
+    private RoaringBitmap positions;
+    private int pos;
+    private Tuple next;
+
+    /**
+     * Creates a scan over the tuples of a table that pass all of the
+     * specified predicates, as a part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of the table, which prefixes the field names of
+     *            the returned tuples as in {@link SeqScan}
+     * @param predicates
+     *            predicates on fields of the table, each of which must have
+     *            a BitmapIndex in the catalog
+     * @throws IllegalArgumentException if there are no predicates, or a
+     *             predicate's field has no BitmapIndex
+     */
+    public BitmapScan(TransactionId tid, int tableid, String tableAlias, List<Predicate> predicates) {
+        if (predicates.isEmpty())
+            throw new IllegalArgumentException("a bitmap scan needs at least one predicate");
+        this.transid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.predicates = new ArrayList<Predicate>(predicates);
+        for (Predicate p : predicates) {
+            BitmapIndex index = findIndex(tableid, p.getField());
+            if (index == null)
+                throw new IllegalArgumentException("no bitmap index on field " + p.getField() + " of table " + tableid);
+            indexes.add(index);
+        }
+    }
+
+    /** @return the BitmapIndex on the specified field of a table, or null if there is none */
+    public static BitmapIndex findIndex(int tableid, int field) {
+        for (Index index : Database.getCatalog().getIndexes(tableid)) {
+            if (index instanceof BitmapIndex && index.getKeyField() == field)
+                return (BitmapIndex) index;
+        }
+        return null;
+    }
+
+    /** @return the name of the table the scan reads, as in the catalog */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        positions = null;
+        for (int i = 0; i < predicates.size(); i++) {
+            Predicate p = predicates.get(i);
+            RoaringBitmap b = indexes.get(i).lookup(p.getOp(), p.getOperand());
+            positions = positions == null ? b : RoaringBitmap.and(positions, b);
+        }
+        pos = -1;
+        next = null;
+    }
+
+    /**
+     * Returns the TupleDesc of the table with field names prefixed with the
+     * table alias, like {@link SeqScan#getTupleDesc}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        Type[] typeArr = new Type[td.numFields()];
+        String[] nameArr = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            typeArr[i] = td.getFieldType(i);
+            nameArr[i] = getAlias() + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(typeArr, nameArr);
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (positions == null)
+            return false;
+        while (next == null) {
+            pos = positions.nextSetBit(pos + 1);
+            if (pos < 0)
+                return false;
+            RecordId rid = indexes.get(0).recordId(pos);
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(transid, rid.getPageId(), Permissions.READ_ONLY);
+            Tuple t = page.getTuple(rid.tupleno());
+            if (t != null && passes(t)) {
+                next = t;
+            } else if (!Database.getBufferPool().isDirty(rid.getPageId())) {
+                for (BitmapIndex index : indexes)
+                    index.refresh(pos, t);
+            }
+        }
+        return true;
+    }
+
+    private boolean passes(Tuple t) {
+        for (Predicate p : predicates) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    public Tuple next() throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pos = -1;
+        next = null;
+    }
+
+    public void close() {
+        positions = null;
+        next = null;
+    }
+}
@@ -2,8 +2,10 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.concurrent.ConcurrentHashMap;
@@ -18,16 +20,48 @@ import java.util.concurrent.ConcurrentHashMap;
  * locks to read/write the page.
  */
 public class BufferPool {
-	/** Bytes per page, including header. */
+	/** Bytes per page, including header, unless the table's DbFile says otherwise. */
 	public static final int PAGE_SIZE = 4096;
+	/** Smallest page size a table can have. */
+	public static final int MIN_PAGE_SIZE = 1024;
+	/** Largest page size a table can have. */
+	public static final int MAX_PAGE_SIZE = 65536;
 
 	/** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
 	public static final int DEFAULT_PAGES = 50;
 	public static final long DEADLOCK_TIMEOUT = 100;
-	private ArrayList<Page> myPool;
+
+	/** Replacement policy used by the single-argument constructor. It can
+    be overridden with the system property simpledb.ReplacementPolicy, e.g.
+    -Dsimpledb.ReplacementPolicy=2q. */
+	public static final ReplacementPolicy.Kind DEFAULT_POLICY = ReplacementPolicy.Kind.CLOCK;
+
+	/** Scans over tables larger than this fraction of the pool use a ScanRing. */
+	public static final double DEFAULT_SCAN_RING_THRESHOLD = 1.0;
 	private int maxPages;
+	private ReplacementPolicy policy;
+	private double scanRingThreshold = DEFAULT_SCAN_RING_THRESHOLD;
+	private Prefetcher prefetcher = new Prefetcher(this);
+	private boolean readAheadEnabled = true;
+	private boolean multiPageReadAhead = true;
+	/** Off-heap storage for the frames' page bytes, one arena per page size; null if pages live on the heap. */
+	private HashMap<Integer, FrameArena> arenas;
+
+	/** Frames holding the cached pages; a null entry is a free frame. */
+	private Page[] frames;
+	/** The arena frame holding the bytes of each frame's page, or -1 if its
+	    bytes aren't in an arena, e.g. a mapped page in an on-heap pool. */
+	private int[] arenaFrames;
+	/** Page table mapping each cached page to the frame that holds it. */
+	private HashMap<PageId, Integer> pageTable;
+	/** Indexes of the frames that currently hold no page. */
+	private LinkedList<Integer> freeFrames;
+	/** Pages each transaction has fetched with READ_WRITE, i.e. the only pages it can have dirtied. */
+	private HashMap<TransactionId, HashSet<PageId>> dirtyPages = new HashMap<TransactionId, HashSet<PageId>>();
+	/** Pages each transaction holds a lock on. */
+	private HashMap<TransactionId, HashSet<PageId>> lockedPages = new HashMap<TransactionId, HashSet<PageId>>();
 
 	class LockId {
 		Permissions type;
@@ -65,9 +99,56 @@ public class BufferPool {
 	 * @param numPages maximum number of pages in this buffer pool.
 	 */
 	public BufferPool(int numPages) {
+		this(numPages, configuredPolicy());
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages and evicts them
+	 * with the specified replacement policy. Frames are off the Java heap if
+	 * the system property simpledb.OffHeapFrames is true.
+	 *
+	 * @param numPages maximum number of pages in this buffer pool.
+	 * @param kind the replacement policy to use.
+	 */
+	public BufferPool(int numPages, ReplacementPolicy.Kind kind) {
+		this(numPages, kind, Boolean.getBoolean("simpledb.OffHeapFrames"));
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages and evicts them
+	 * with the specified replacement policy. With offHeap, the bytes of
+	 * cached HeapPages are kept in {@link FrameArena}s of direct memory
+	 * instead of on the Java heap, one for each page size in use.
+	 *
+	 * @param numPages maximum number of pages in this buffer pool.
+	 * @param kind the replacement policy to use.
+	 * @param offHeap whether to keep frames off the Java heap.
+	 */
+	public BufferPool(int numPages, ReplacementPolicy.Kind kind, boolean offHeap) {
 		// some code goes here
-		myPool = new ArrayList<Page>(numPages);
 		maxPages = numPages;
+		if (offHeap)
+			arenas = new HashMap<Integer, FrameArena>();
+		policy = kind.create(numPages);
+		frames = new Page[numPages];
+		arenaFrames = new int[numPages];
+		Arrays.fill(arenaFrames, -1);
+		pageTable = new HashMap<PageId, Integer>(numPages * 2);
+		freeFrames = new LinkedList<Integer>();
+		for (int i = 0; i < numPages; i++)
+			freeFrames.add(i);
+	}
+
+	private static ReplacementPolicy.Kind configuredPolicy() {
+		String name = System.getProperty("simpledb.ReplacementPolicy");
+		if (name == null || name.equals(""))
+			return DEFAULT_POLICY;
+		return ReplacementPolicy.Kind.getKind(name);
+	}
+
+	/** Return the replacement policy, e.g. to read its hit ratio. */
+	public ReplacementPolicy getReplacementPolicy() {
+		return policy;
 	}
 
 	/**
@@ -88,6 +169,215 @@ public class BufferPool {
 	public Page getPage(TransactionId tid, PageId pid, Permissions perm)
 			throws TransactionAbortedException, DbException {
 		// some code goes here
+		acquireLock(tid, pid, perm);
+		Page p = lookupPage(pid);
+		if (p != null)
+			return p;
+
+		// read outside of the pool monitor so misses on different pages don't serialize
+		if (perm.equals(Permissions.READ_ONLY) && isMemoryMapped(pid))
+			return readPage(pid); // the mapping already caches it
+		return installPage(readPage(pid));
+	}
+
+	/**
+	 * Retrieve the specified page for a large scan. Locking is the same as
+	 * for {@link #getPage(TransactionId, PageId, Permissions)}, and a page
+	 * that is already cached is returned from the buffer pool. A page that
+	 * is not cached is taken from the scan's ring if it is still there, or
+	 * read into the ring's oldest frame instead of a buffer pool frame, so
+	 * the scan doesn't evict the pages other queries are using.
+	 * <p>
+	 * Only use this for READ_ONLY access: pages in a ring are never flushed.
+	 * A page read into the ring is only valid until the scan has read as
+	 * many pages again as the ring has frames; tuples taken from it stay
+	 * valid.
+	 *
+	 * @param tid the ID of the transaction requesting the page 
+	 * @param pid the ID of the requested page
+	 * @param perm the requested permissions on the page
+	 * @param ring the scan's private ring of frames
+	 */
+	public Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+			throws TransactionAbortedException, DbException {
+		acquireLock(tid, pid, perm);
+		Page p = lookupPage(pid);
+		if (p != null)
+			return p;
+		if (isMemoryMapped(pid))
+			return readPage(pid);
+		p = ring.lookup(pid);
+		if (p != null)
+			return p;
+		p = prefetcher.take(pid);
+		if (p != null)
+			return ring.add(p);
+		DbFile f = Database.getCatalog().getDbFile(pid.getTableId());
+		if (f instanceof HeapFile)
+			return ring.add(((HeapFile) f).readPage(pid, ring.nextFrame(f.getPageSize())));
+		return ring.add(f.readPage(pid));
+	}
+
+	/**
+	 * Retrieve count consecutive pages of a table, starting with first, with
+	 * the associated permissions. Locks are acquired page by page as in
+	 * {@link #getPage(TransactionId, PageId, Permissions)}. The pages that
+	 * aren't cached are then read with a single
+	 * {@link DbFile#readPages readPages} call, which covers everything from
+	 * the first missing page to the last one, and installed together.
+	 *
+	 * @param tid the ID of the transaction requesting the pages
+	 * @param first the ID of the first page
+	 * @param count the number of pages; at most the size of the pool
+	 * @param perm the requested permissions on the pages
+	 * @return the pages, in page number order
+	 */
+	public ArrayList<Page> getPages(TransactionId tid, PageId first, int count, Permissions perm)
+			throws TransactionAbortedException, DbException {
+		if (count > maxPages)
+			throw new DbException("can't get more pages than the buffer pool holds");
+		DbFile f = Database.getCatalog().getDbFile(first.getTableId());
+		PageId[] pids = new PageId[count];
+		for (int i = 0; i < count; i++) {
+			pids[i] = f.getPageId(first.pageNumber() + i);
+			acquireLock(tid, pids[i], perm);
+		}
+
+		Page[] pages = new Page[count];
+		int firstMissing = -1;
+		int lastMissing = -1;
+		synchronized(this) {
+			for (int i = 0; i < count; i++) {
+				pages[i] = lookupPage(pids[i]);
+				if (pages[i] == null) {
+					if (firstMissing < 0)
+						firstMissing = i;
+					lastMissing = i;
+				}
+			}
+		}
+
+		if (firstMissing >= 0) {
+			// read outside of the pool monitor, as in getPage
+			ArrayList<Page> read = f.readPages(pids[firstMissing], lastMissing - firstMissing + 1);
+			boolean install = !perm.equals(Permissions.READ_ONLY) || !isMemoryMapped(first);
+			synchronized(this) {
+				for (int i = firstMissing; i <= lastMissing; i++) {
+					if (pages[i] != null)
+						continue;
+					Page p = read.get(i - firstMissing);
+					pages[i] = install ? installPage(p) : p;
+				}
+			}
+		}
+
+		ArrayList<Page> result = new ArrayList<Page>(count);
+		for (Page p : pages)
+			result.add(p);
+		return result;
+	}
+
+	/**
+	 * Returns true if the page belongs to a memory-mapped HeapFile. Such
+	 * pages are decoded straight from the mapping, so there is no point in
+	 * caching a second copy of them in a frame unless they will be modified.
+	 */
+	private boolean isMemoryMapped(PageId pid) {
+		DbFile f = Database.getCatalog().getDbFile(pid.getTableId());
+		return f instanceof HeapFile && ((HeapFile) f).isMemoryMapped();
+	}
+
+	/**
+	 * Reads a page from its DbFile, bypassing the buffer pool. A copy staged
+	 * by the prefetcher is used if there is one.
+	 */
+	private Page readPage(PageId pid) {
+		Page p = prefetcher.take(pid);
+		if (p != null)
+			return p;
+		Catalog globalCatalog = Database.getCatalog();
+		int tableId = pid.getTableId();
+		DbFile f = globalCatalog.getDbFile(tableId);
+		return f.readPage(pid);
+	}
+
+	/**
+	 * Returns a ScanRing for a scan over a file with the specified number of
+	 * pages, or null if the scan should read through the buffer pool frames.
+	 * Rings are used for files larger than the scan ring threshold, and get
+	 * at most a quarter as many frames as the pool itself.
+	 */
+	public ScanRing newScanRing(int numPages) {
+		int ringFrames = Math.min(ScanRing.DEFAULT_FRAMES, maxPages / 4);
+		if (ringFrames == 0 || numPages <= maxPages * scanRingThreshold)
+			return null;
+		return new ScanRing(ringFrames);
+	}
+
+	/**
+	 * Returns a ReadAhead for a scan over the specified file, or null if
+	 * read-ahead is turned off. Memory-mapped files get none: their pages
+	 * are never read through the file channel.
+	 */
+	public ReadAhead newReadAhead(DbFile f, int numPages) {
+		if (!readAheadEnabled || (f instanceof HeapFile && ((HeapFile) f).isMemoryMapped()))
+			return null;
+		return new ReadAhead(prefetcher, f, numPages, multiPageReadAhead);
+	}
+
+	/**
+	 * Makes read-ahead for new scans read each batch of pages with one
+	 * {@link DbFile#readPages readPages} call, i.e. one large I/O, instead of
+	 * a readPage call per page. It is on by default.
+	 */
+	public void setMultiPageReadAhead(boolean enabled) {
+		multiPageReadAhead = enabled;
+	}
+
+	/** Turns read-ahead for new scans on or off. It is on by default. */
+	public void setReadAheadEnabled(boolean enabled) {
+		readAheadEnabled = enabled;
+	}
+
+	/** Return the prefetcher, e.g. to read its metrics. */
+	public Prefetcher getPrefetcher() {
+		return prefetcher;
+	}
+
+	/** Returns true if the specified page is in a buffer pool frame. */
+	synchronized boolean isCached(PageId pid) {
+		return pageTable.containsKey(pid);
+	}
+
+	/** @return true if the specified page is cached and has unflushed changes */
+	synchronized boolean isDirty(PageId pid) {
+		Integer frame = pageTable.get(pid);
+		return frame != null && frames[frame].isDirty() != null;
+	}
+
+	/**
+	 * Sets the fraction of the buffer pool a table must exceed before scans
+	 * over it go through a ScanRing. The default of 1 keeps any table that
+	 * fits in the pool cached.
+	 */
+	public void setScanRingThreshold(double fraction) {
+		scanRingThreshold = fraction;
+	}
+
+	/** Return the maximum number of pages in this buffer pool. */
+	public int getNumPages() {
+		return maxPages;
+	}
+
+	/**
+	 * Acquires a lock on the specified page for tid, blocking while
+	 * conflicting locks are held.
+	 *
+	 * @throws TransactionAbortedException if the lock could not be acquired
+	 *         within DEADLOCK_TIMEOUT; tid is aborted in that case
+	 */
+	private void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+			throws TransactionAbortedException {
 
 		//HashMap<PageId, LinkedList<LockId>> pageLockMap = lockManager.pageLockMap;
 		//HashMap<TransactionId, LinkedList<LinkedList<LockId>>> tidLockMap = lockManager.tidLockMap;
@@ -109,13 +399,14 @@ public class BufferPool {
 							&& holders.getFirst().type.equals(Permissions.READ_WRITE)
 							//&& holders.getFirst().tid != null
 							&& !holders.getFirst().tid.equals(tid)) {
-							holders.wait(DEADLOCK_TIMEOUT); // wait for write lock held by another transaction to be released
-							waitTime = (new Date()).getTime() - startTime;
+							// give up only if the lock is still taken when the time is up
 							if (waitTime > this.DEADLOCK_TIMEOUT) {
 								//System.out.println("trying to get : " + (new LockId(perm, tid)).toString() + "TIMEOUT while waiting for : " + holders.getFirst().toString());
 								aborted = true;
 								break;
 							}
+							holders.wait(DEADLOCK_TIMEOUT); // wait for write lock held by another transaction to be released
+							waitTime = (new Date()).getTime() - startTime;
 						}
 					} catch (InterruptedException e) {
 						try {
@@ -149,14 +440,15 @@ public class BufferPool {
 								holders.add(lid); // upgrade lock
 								break;
 							}
-							holders.wait(DEADLOCK_TIMEOUT); // wait for access of exclusive lock
-							waitTime = (new Date()).getTime() - startTime;
+							// checked after the upgrade, so a waiter left as the only reader upgrades
 							if (waitTime > this.DEADLOCK_TIMEOUT) {
 								//System.out.println("trying to get : " + (new LockId(perm, tid)).toString() + " for page : " + pid.pageNumber());
 								//System.out.println(tid.toString() + " TIMEOUT while waiting for : " + holders.toString() + " holding for page : " + pid.pageNumber());
 								aborted = true;
 								break;
 							}
+							holders.wait(DEADLOCK_TIMEOUT); // wait for access of exclusive lock
+							waitTime = (new Date()).getTime() - startTime;
 						}
 					} catch (InterruptedException e) {
 						try {
@@ -187,23 +479,119 @@ public class BufferPool {
 				lockManager.put(pid, holders);
 			}
 		} // end synchronized block
+		trackPage(lockedPages, tid, pid);
+		if (perm.equals(Permissions.READ_WRITE))
+			trackPage(dirtyPages, tid, pid);
+	}
+
+	/**
+	 * Returns the cached copy of the specified page, or null if it isn't in
+	 * the buffer pool.
+	 */
+	private synchronized Page lookupPage(PageId pid) {
+		Integer frame = pageTable.get(pid);
+		if (frame == null)
+			return null;
+		policy.pageHit(frame);
+		return frames[frame];
+	}
 
-		for (int i = 0; i < myPool.size(); i ++ ) {
-			Page p = myPool.get(i);
-			if (p != null && pid.equals(p.getId())) {
-				return p;
+	/**
+	 * Places a page that was just read from disk into a frame, evicting a page
+	 * if no frame is free. If another thread installed the same page in the
+	 * meantime, the cached copy wins and is returned instead.
+	 */
+	private synchronized Page installPage(Page p) throws DbException {
+		Integer frame = pageTable.get(p.getId());
+		if (frame != null) {
+			policy.pageHit(frame);
+			return frames[frame];
+		}
+		if (freeFrames.isEmpty())
+			evictPage();
+		frame = freeFrames.removeFirst();
+		placePage(frame, p);
+		pageTable.put(p.getId(), frame);
+		policy.pageLoaded(frame, p.getId());
+		return p;
+	}
+
+	/** Empties the frame holding the specified page, if it is cached. */
+	private synchronized void removePage(PageId pid) {
+		Integer frame = pageTable.remove(pid);
+		if (frame != null) {
+			clearFrame(frame);
+			freeFrames.add(frame);
+			policy.pageRemoved(frame);
+		}
+	}
+
+	/**
+	 * Puts p in the specified frame. If frames are off-heap, its bytes move
+	 * into a frame of the arena for its page size, so pages of any mix of
+	 * sizes share the pool's frames.
+	 */
+	private synchronized void placePage(int frame, Page p) {
+		frames[frame] = p;
+		if (arenas != null && p instanceof HeapPage) {
+			HeapPage hp = (HeapPage) p;
+			FrameArena arena = arenas.get(hp.getPageSize());
+			if (arena == null) {
+				arena = new FrameArena(maxPages, hp.getPageSize());
+				arenas.put(hp.getPageSize(), arena);
 			}
+			arenaFrames[frame] = arena.allocate();
+			hp.moveTo(arena.frame(arenaFrames[frame]));
 		}
+	}
 
-		Catalog globalCatalog = Database.getCatalog();
-		int tableId = pid.getTableId();
-		DbFile f = globalCatalog.getDbFile(tableId);
-		Page p = f.readPage(pid);
-		if (myPool.size() == maxPages) {
-			evictPage();
+	/**
+	 * Empties the specified frame; the page that was in it moves back onto
+	 * the heap. Threads still reading the page, which hold its monitor and
+	 * not the pool's, finish with the frame before it is released.
+	 */
+	private synchronized void clearFrame(int frame) {
+		if (frames[frame] instanceof HeapPage) {
+			HeapPage hp = (HeapPage) frames[frame];
+			if (arenaFrames[frame] >= 0) {
+				arenas.get(hp.getPageSize()).release(arenaFrames[frame]);
+				arenaFrames[frame] = -1;
+			}
+			hp.moveOut();
 		}
-		myPool.add(p);
-		return p;
+		frames[frame] = null;
+	}
+
+	/** Returns true if cached pages are kept off the Java heap. */
+	public boolean isOffHeap() {
+		return arenas != null;
+	}
+
+	/** @return the bytes of off-heap memory allocated for frames, over all page sizes */
+	public synchronized long offHeapBytes() {
+		long bytes = 0;
+		if (arenas != null) {
+			for (FrameArena arena : arenas.values())
+				bytes += arena.allocatedBytes();
+		}
+		return bytes;
+	}
+
+	private synchronized void trackPage(HashMap<TransactionId, HashSet<PageId>> pages, TransactionId tid, PageId pid) {
+		HashSet<PageId> pids = pages.get(tid);
+		if (pids == null) {
+			pids = new HashSet<PageId>();
+			pages.put(tid, pids);
+		}
+		pids.add(pid);
+	}
+
+	/** Returns a copy of the pages tracked for tid, so callers may iterate without the pool monitor. */
+	private synchronized ArrayList<PageId> trackedPages(HashMap<TransactionId, HashSet<PageId>> pages, TransactionId tid) {
+		HashSet<PageId> pids = pages.get(tid);
+		if (pids == null)
+			return new ArrayList<PageId>();
+		return new ArrayList<PageId>(pids);
 	}
 
 	public void startTimer() throws TransactionAbortedException {
@@ -241,6 +629,11 @@ public class BufferPool {
 				holders.notifyAll(); // wake waiting threads
 			}
 		}
+		synchronized(this) {
+			HashSet<PageId> pids = lockedPages.get(tid);
+			if (pids != null)
+				pids.remove(pid);
+		}
 		//System.out.println("tid " + tid.toString() + " released page : " + pid.pageNumber());
 	}
 
@@ -289,21 +682,29 @@ public class BufferPool {
 		if (commit)
 			flushPages(tid);
 		else {
-			for (int i = 0; i < myPool.size(); i++) {
-				Page p = myPool.get(i);
-				TransactionId dirtyPageTid = p.isDirty();
-				if (dirtyPageTid != null && dirtyPageTid.equals(tid)) {
-					int tableid = p.getId().getTableId();
-					Page pageFromDisk = Database.getCatalog().getDbFile(tableid).readPage(p.getId());
-					myPool.set(i, pageFromDisk);
+			synchronized(this) {
+				for (PageId pid : trackedPages(dirtyPages, tid)) {
+					Integer frame = pageTable.get(pid);
+					if (frame == null)
+						continue;
+					TransactionId dirtyPageTid = frames[frame].isDirty();
+					if (dirtyPageTid != null && dirtyPageTid.equals(tid)) {
+						int tableid = pid.getTableId();
+						Page reread = Database.getCatalog().getDbFile(tableid).readPage(pid);
+						clearFrame(frame);
+						placePage(frame, reread);
+					}
 				}
 			}
 			//System.out.println(tid.toString() + " aborted");
 		}
-		for (Iterator<PageId> it = lockManager.keySet().iterator(); it.hasNext();) {
-			PageId pid = it.next();
+		for (PageId pid : trackedPages(lockedPages, tid)) {
 			releasePage(tid, pid);
 		}
+		synchronized(this) {
+			dirtyPages.remove(tid);
+			lockedPages.remove(tid);
+		}
 		//System.out.println(tid.toString() + " released pages");
 	}
 
@@ -317,6 +718,9 @@ public class BufferPool {
 	 * their markDirty bit, and updates cached versions of any pages that have 
 	 * been dirtied so that future requests see up-to-date pages. 
 	 *
+	 * Adds an entry for the tuple to each of the table's indexes in the
+	 * catalog.
+	 *
 	 * @param tid the transaction adding the tuple
 	 * @param tableId the table to add the tuple to
 	 * @param t the tuple to add
@@ -325,8 +729,10 @@ public class BufferPool {
 			throws DbException, IOException, TransactionAbortedException {
 		// some code goes here
 		// not necessary for proj1
-		HeapFile f = (HeapFile) Database.getCatalog().getDbFile(tableId);
+		DbFile f = Database.getCatalog().getDbFile(tableId);
 		ArrayList<Page> modifiedPages = f.insertTuple(tid, t);
+		for (Index index : Database.getCatalog().getIndexes(tableId))
+			index.insertEntry(tid, t.getField(index.getKeyField()), t.getRecordId());
 	}
 
 	/**
@@ -339,6 +745,8 @@ public class BufferPool {
 	 * been dirtied, as it is not possible that a new page was created during the deletion
 	 * (note difference from addTuple).
 	 *
+	 * Removes the tuple's entries from the table's indexes in the catalog.
+	 *
 	 * @param tid the transaction adding the tuple.
 	 * @param t the tuple to add
 	 */
@@ -346,18 +754,45 @@ public class BufferPool {
 			throws DbException, TransactionAbortedException {
 		// some code goes here
 		// not necessary for proj1
-		int tableId = t.getRecordId().getPageId().getTableId();
+		RecordId rid = t.getRecordId();
+		int tableId = rid.getPageId().getTableId();
 		Database.getCatalog().getDbFile(tableId).deleteTuple(tid, t);
+		try {
+			for (Index index : Database.getCatalog().getIndexes(tableId))
+				index.deleteEntry(tid, t.getField(index.getKeyField()), rid);
+		} catch (IOException e) {
+			throw new DbException("can't update index: " + e.getMessage());
+		}
 	}
 
-	private int findPage(PageId pid) {
-		for (int i = 0; i < myPool.size(); i ++ ) {
-			Page p = myPool.get(i);
-			if (pid != null && pid.equals(p.getId()))
-				return i;
-		}
-		return -1;
+	/**
+	 * Moves a tuple of a HeapFile to the first page numbered below
+	 * beforePage that has room, on behalf of transaction tid, and moves its
+	 * entries in the table's indexes to its new RecordId. Locks are acquired
+	 * as for {@link #insertTuple} and {@link #deleteTuple}.
+	 *
+	 * @param tid the transaction moving the tuple
+	 * @param t the tuple to move, as read from its page
+	 * @param beforePage the page number the tuple must move below
+	 * @return false, with the tuple left where it is, if no page below
+	 *         beforePage has room
+	 * @see Vacuum
+	 */
+	public boolean moveTuple(TransactionId tid, Tuple t, int beforePage)
+			throws DbException, IOException, TransactionAbortedException {
+		int tableId = t.getRecordId().getPageId().getTableId();
+		HeapFile f = (HeapFile) Database.getCatalog().getDbFile(tableId);
+		Tuple copy = new Tuple(t.getTupleDesc());
+		for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+			copy.setField(i, t.getField(i));
+		if (f.insertTupleBefore(tid, copy, beforePage) == null)
+			return false;
+		deleteTuple(tid, t);
+		for (Index index : Database.getCatalog().getIndexes(tableId))
+			index.insertEntry(tid, copy.getField(index.getKeyField()), copy.getRecordId());
+		return true;
 	}
+
 	/**
 	 * Flush all dirty pages to disk.
 	 * NB: Be careful using this routine -- it writes dirty data to disk so will
@@ -366,9 +801,9 @@ public class BufferPool {
 	public synchronized void flushAllPages() throws IOException {
 		// some code goes here
 		// not necessary for proj1
-		for (int i = 0; i < myPool.size(); i ++ ) {
-			Page p = myPool.get(i);
-			if (p.isDirty() != null) {
+		for (int i = 0; i < frames.length; i ++ ) {
+			Page p = frames[i];
+			if (p != null && p.isDirty() != null) {
 				flushPage(p.getId());
 				p.markDirty(false, p.isDirty());
 			}
@@ -383,9 +818,9 @@ public class BufferPool {
 	public synchronized void discardPage(PageId pid) {
 		// some code goes here
 		// not necessary for proj1
-		int index = findPage(pid);
-		if (index >= 0)
-			myPool.remove(index);
+		removePage(pid);
+		// recovery changes pages on disk behind the prefetcher's back
+		prefetcher.discard(pid);
 	}
 
 	/**
@@ -395,12 +830,14 @@ public class BufferPool {
 	private synchronized  void flushPage(PageId pid) throws IOException {
 		// some code goes here
 		// not necessary for proj1
-		int i = findPage(pid);
-		if (i >= 0 ) {
+		Integer i = pageTable.get(pid);
+		if (i != null) {
 			int tableid = pid.getTableId();
-			Page p = myPool.get(i);
-			HeapFile f = (HeapFile) Database.getCatalog().getDbFile(tableid);
+			Page p = frames[i];
+			DbFile f = Database.getCatalog().getDbFile(tableid);
 			f.writePage(p);
+			// only after the write: a read still in flight may have seen the old page
+			prefetcher.discard(pid);
 		}
 	}
 
@@ -409,12 +846,16 @@ public class BufferPool {
 	public synchronized  void flushPages(TransactionId tid) throws IOException {
 		// some code goes here
 		// not necessary for proj1
-		for (int i = 0; i < myPool.size(); i ++ ) {
-			Page p = myPool.get(i);
+		for (PageId pid : trackedPages(dirtyPages, tid)) {
+			Page p = lookupPage(pid);
+			if (p == null)
+				continue;
 			TransactionId t = p.isDirty();
 			if (t != null && t.equals(tid)) {
-				flushPage(p.getId());
+				flushPage(pid);
 				p.markDirty(false, tid);
+				// the committed contents are what later transactions roll back to
+				p.setBeforeImage();
 			}
 		}
 	}
@@ -438,15 +879,10 @@ public class BufferPool {
 		//			System.out.println("There was an IOException " + e);
 		//		}
 
-		for (int i = 0; i < myPool.size(); i++) {
-			Page p = myPool.get(i);
-			TransactionId tid = p.isDirty();
-			if (tid == null) {
-				myPool.remove(i);
-				return;
-			}
-		}
-		throw new DbException("all pages are dirty, can't evict");
+		int victim = policy.chooseVictim(frames);
+		if (victim == ReplacementPolicy.NO_VICTIM)
+			throw new DbException("all pages are dirty, can't evict");
+		removePage(frames[victim].getId());
 
 
 	}
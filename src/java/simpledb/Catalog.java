@@ -23,6 +23,10 @@ public class Catalog {
 	HashMap<String, String> nameToKey;
 	//HashMap mapping name to actual file
 	HashMap<String, DbFile> nameToFile;
+	//HashMap mapping table id to the indexes on the table
+	HashMap<Integer, ArrayList<Index>> idToIndexes;
+	//HashMap mapping id to the file of an index that is a DbFile
+	HashMap<Integer, DbFile> idToIndexFile;
 	
     /**
      * Constructor.
@@ -34,6 +38,8 @@ public class Catalog {
     	nameToId = new HashMap<String, Integer>();
     	nameToKey = new HashMap<String, String>();
     	nameToFile = new HashMap<String, DbFile>();
+    	idToIndexes = new HashMap<Integer, ArrayList<Index>>();
+    	idToIndexFile = new HashMap<Integer, DbFile>();
     }
 
     /**
@@ -115,6 +121,17 @@ public class Catalog {
     	}    
     }
 
+    /**
+     * Returns the number of bytes in each page of the specified table or
+     * index file.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        return getDbFile(tableid).getPageSize();
+    }
+
     /**
      * Returns the DbFile that can be used to read the contents of the
      * specified table.
@@ -127,11 +144,50 @@ public class Catalog {
     		DbFile toReturn = nameToFile.get(idToName.get(tableid));
     		return toReturn;
     	}
+    	else if(idToIndexFile.containsKey(tableid)){
+    		return idToIndexFile.get(tableid);
+    	}
     	else{
     		throw new NoSuchElementException("table ID: " + tableid + " does not exist!");
     	}  
     }
 
+    /**
+     * Adds an index on one of the tables in the catalog. From then on, the
+     * BufferPool keeps it up to date as tuples are inserted and deleted, and
+     * the query planner may use it. If the index is a DbFile, its pages can
+     * be read through the BufferPool, with its getId() as the table id.
+     * An index that is already in the catalog is replaced.
+     * @param index the index to add; index.getTableId() must be in the catalog
+     */
+    public void addIndex(Index index) {
+    	ArrayList<Index> indexes = idToIndexes.get(index.getTableId());
+    	if (indexes == null) {
+    		indexes = new ArrayList<Index>();
+    		idToIndexes.put(index.getTableId(), indexes);
+    	}
+    	if (index instanceof DbFile) {
+    		DbFile file = (DbFile) index;
+    		for (int i = 0; i < indexes.size(); i++) {
+    			if (indexes.get(i) instanceof DbFile && ((DbFile) indexes.get(i)).getId() == file.getId())
+    				indexes.remove(i--);
+    		}
+    		idToIndexFile.put(file.getId(), file);
+    	}
+    	indexes.add(index);
+    }
+
+    /**
+     * Returns the indexes on the specified table, in the order they were
+     * added. The list is empty if there are none.
+     */
+    public List<Index> getIndexes(int tableid) {
+    	ArrayList<Index> indexes = idToIndexes.get(tableid);
+    	if (indexes == null)
+    		return Collections.emptyList();
+    	return Collections.unmodifiableList(indexes);
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
     	if(idToName.containsKey(tableid)){
@@ -157,11 +213,27 @@ public class Catalog {
         return null;
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
         // some code goes here
+    	for (DbFile file : nameToFile.values()) {
+    		try {
+    			file.close();
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    		}
+    	}
+    	for (DbFile file : idToIndexFile.values()) {
+    		try {
+    			file.close();
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    		}
+    	}
     	idToName.clear();
     	nameToId.clear();
+    	idToIndexes.clear();
+    	idToIndexFile.clear();
     	nameToKey.clear();
     	nameToFile.clear();
     	
@@ -169,6 +241,18 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line of the file is a table, in the format
+     * <pre>
+     *     name (field type [pk] [hash], field type [pk] [hash], ...) [columnar|compressed|pagesize=n]
+     * </pre>
+     * where type is int, string or varchar. A table marked columnar is
+     * stored in a {@link ColumnFile}, one marked compressed in a
+     * {@link CompressedHeapFile}, a table with a varchar field in a
+     * {@link SlottedFile}, others in a {@link HeapFile}. A pagesize gives a
+     * HeapFile pages of n bytes instead of {@link BufferPool#PAGE_SIZE}, e.g.
+     * 32768 for a table that is mostly scanned. A field annotated pk is the primary key of
+     * the table. A field annotated hash gets a {@link HashFile} index, kept in
+     * name.field.hash and built from the table if that file is empty.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -186,6 +270,7 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> hashed = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -193,15 +278,19 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("hash"))
+                            hashed.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -209,16 +298,63 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(name + ".dat"), t);
+                // tuples of varying size are packed into slotted pages
+                DbFile tabHf;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.toLowerCase().equals("columnar"))
+                    tabHf = new ColumnFile(new File(name + ".dat"), t);
+                else if (options.toLowerCase().equals("compressed") && !t.isVariableLength())
+                    tabHf = new CompressedHeapFile(new File(name + ".dat"), t);
+                else if (options.toLowerCase().startsWith("pagesize=") && !t.isVariableLength()) {
+                    int pageSize = Integer.parseInt(options.substring("pagesize=".length()).trim());
+                    if (!HeapFile.isValidPageSize(pageSize)) {
+                        System.out.println("Invalid page size " + pageSize + " for table " + name);
+                        System.exit(0);
+                        return;
+                    }
+                    tabHf = new HeapFile(new File(name + ".dat"), t, pageSize);
+                } else if (options.length() > 0) {
+                    if (options.toLowerCase().equals("compressed"))
+                        System.out.println("Compressed tables can't have varchar fields: " + name);
+                    else if (options.toLowerCase().startsWith("pagesize="))
+                        System.out.println("Tables with varchar fields can't set a page size: " + name);
+                    else
+                        System.out.println("Unknown table option " + options);
+                    System.exit(0);
+                    return;
+                } else if (t.isVariableLength())
+                    tabHf = new SlottedFile(new File(name + ".dat"), t);
+                else
+                    tabHf = new HeapFile(new File(name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (int field : hashed) {
+                    File indexFile = new File(name + "." + namesAr[field] + ".hash");
+                    HashFile index = new HashFile(indexFile, tabHf, field);
+                    addIndex(index);
+                    if (indexFile.length() == 0) {
+                        TransactionId tid = new TransactionId();
+                        index.bulkLoad(tid);
+                        Database.getBufferPool().transactionComplete(tid);
+                    }
+                    System.out.println("Added hash index on " + name + "." + namesAr[field]);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
+        } catch (DbException e) {
+            e.printStackTrace();
+            System.exit(0);
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+            System.exit(0);
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (NumberFormatException e) {
+            System.out.println ("Invalid catalog entry : " + line);
+            System.exit(0);
         }
     }
 }
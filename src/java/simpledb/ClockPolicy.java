@@ -0,0 +1,45 @@
+package simpledb;
+
+/**
+ * ClockPolicy approximates LRU with one reference bit per frame. The clock
+ * hand sweeps the frames, clearing reference bits, and evicts the first clean
+ * page whose bit is already clear.
+ */
+public class ClockPolicy extends AbstractReplacementPolicy {
+
+    private boolean[] referenced;
+    private int hand = 0;
+
+    public ClockPolicy(int numFrames) {
+        referenced = new boolean[numFrames];
+    }
+
+    public void pageHit(int frame) {
+        recordHit();
+        referenced[frame] = true;
+    }
+
+    public void pageLoaded(int frame, PageId pid) {
+        recordMiss();
+        referenced[frame] = true;
+    }
+
+    public void pageRemoved(int frame) {
+        referenced[frame] = false;
+    }
+
+    public int chooseVictim(Page[] frames) {
+        // two sweeps: the first may only clear reference bits
+        for (int n = 0; n < 2 * frames.length; n++) {
+            int i = hand;
+            hand = (hand + 1) % frames.length;
+            if (!isEvictable(frames, i))
+                continue;
+            if (referenced[i])
+                referenced[i] = false;
+            else
+                return i;
+        }
+        return NO_VICTIM;
+    }
+}
@@ -0,0 +1,433 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ColumnFile is a DbFile that stores each column of a table in its own run
+ * of consecutive {@link ColumnPage}s, so a query that needs a few columns
+ * of a wide table reads only the pages of those columns. Each page is
+ * encoded in whichever of the encodings described in ColumnPage suits its
+ * values, so sorted, repetitive or small-ranged columns take a fraction of
+ * the space they take in a {@link HeapFile}.
+ * <p>
+ * Page 0 is a header holding the number of rows, the number of columns,
+ * and for each column the number of its first page, its number of pages,
+ * and the first page and number of pages of its dictionary. The pages of
+ * the columns follow, one column after the other, each followed by its
+ * dictionary if it has one.
+ * <p>
+ * Each string column gets a {@link StringDictionary} of its values, up to
+ * {@link StringDictionary#MAX_SIZE} of them, and its pages hold codes into
+ * it wherever they can. The dictionaries are read with the header and kept
+ * in memory; fields read through them are compared by code.
+ * <p>
+ * Pages are identified by {@link HeapPageId}s, and are read and locked
+ * through the {@link BufferPool} like heap pages.
+ * <p>
+ * Column files are written whole by a {@link Writer} (see
+ * {@link HeapFileEncoder#convertColumnar}) and are read-only afterwards:
+ * inserts and deletes throw a DbException. The RecordId of a tuple names
+ * the page of its first returned column that holds it, and its position on
+ * that page.
+ *
+ * @see ColumnScan
+ * @see Catalog#loadSchema
+ */
+public class ColumnFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File f;
+    private final TupleDesc td;
+    private transient RandomAccessFile raf;
+    /** The header, read from page 0 on first use. */
+    private transient int numRows = -1;
+    private transient int[] firstPage, columnPages;
+    private transient StringDictionary[] dictionaries;
+
+    /**
+     * Constructs a column file backed by the specified file, which must
+     * have been written by a {@link Writer} with the same TupleDesc.
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+    }
+
+    /** @return the File backing this ColumnFile on disk */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getPageSize() {
+        return BufferPool.PAGE_SIZE;
+    }
+
+    // see DbFile.java for javadocs
+    public PageId getPageId(int pgNo) {
+        return new HeapPageId(getId(), pgNo);
+    }
+
+    /** @return the number of pages in the file, the header included */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    private RandomAccessFile file() throws IOException {
+        if (raf == null)
+            raf = new RandomAccessFile(f, "rw");
+        return raf;
+    }
+
+    /** Reads the header from page 0 unless it was already read. */
+    private synchronized void readHeader() {
+        if (numRows >= 0)
+            return;
+        try {
+            RandomAccessFile r = file();
+            byte[] data = new byte[BufferPool.PAGE_SIZE];
+            r.seek(0);
+            r.readFully(data);
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            int rows = buf.getInt();
+            if (buf.getInt() != td.numFields())
+                throw new IllegalArgumentException("column file " + f + " doesn't match its schema");
+            firstPage = new int[td.numFields()];
+            columnPages = new int[td.numFields()];
+            dictionaries = new StringDictionary[td.numFields()];
+            for (int i = 0; i < td.numFields(); i++) {
+                firstPage[i] = buf.getInt();
+                columnPages[i] = buf.getInt();
+                int dictPage = buf.getInt(), dictPages = buf.getInt();
+                if (dictPages == 0)
+                    continue;
+                byte[] dict = new byte[dictPages * BufferPool.PAGE_SIZE];
+                r.seek((long) dictPage * BufferPool.PAGE_SIZE);
+                r.readFully(dict);
+                dictionaries[i] = StringDictionary.parse(new DataInputStream(new ByteArrayInputStream(dict)));
+            }
+            numRows = rows;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can't read the header of " + f + ": " + e.getMessage());
+        }
+    }
+
+    /** @return the number of rows in the table */
+    public int numRows() {
+        readHeader();
+        return numRows;
+    }
+
+    /** @return the number of pages holding the values of the specified column */
+    public int numPages(int field) {
+        readHeader();
+        return columnPages[field];
+    }
+
+    /** @return the number of pages a scan of the specified columns reads */
+    public int numPages(int[] fields) {
+        int pages = 0;
+        for (int field : fields)
+            pages += numPages(field);
+        return pages;
+    }
+
+    /**
+     * @return the dictionary the pages of the specified column hold codes
+     *         into, or null if it has none
+     */
+    public StringDictionary getDictionary(int field) {
+        readHeader();
+        return dictionaries[field];
+    }
+
+    /** @return the number of the first page holding the values of the specified column */
+    public int firstPage(int field) {
+        readHeader();
+        return firstPage[field];
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized Page readPage(PageId pid) {
+        if (pid.pageNumber() == 0)
+            throw new IllegalArgumentException("page 0 of a column file is its header");
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        try {
+            RandomAccessFile r = file();
+            long offset = (long) pid.pageNumber() * BufferPool.PAGE_SIZE;
+            if (offset >= r.length())
+                throw new IllegalArgumentException("page " + pid.pageNumber() + " is past the end of the file");
+            r.seek(offset);
+            r.readFully(data);
+            return new ColumnPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can't read page " + pid.pageNumber() + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> readPages(PageId first, int count) {
+        ArrayList<Page> pages = new ArrayList<Page>(count);
+        for (int i = 0; i < count; i++)
+            pages.add(readPage(new HeapPageId(first.getTableId(), first.pageNumber() + i)));
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void writePage(Page page) throws IOException {
+        RandomAccessFile r = file();
+        r.seek((long) page.getId().pageNumber() * BufferPool.PAGE_SIZE);
+        r.write(page.getPageData());
+    }
+
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+
+    /** Column files are read-only; throws a DbException. */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("column files are read-only");
+    }
+
+    /** Column files are read-only; throws a DbException. */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("column files are read-only");
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] fields = new int[td.numFields()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = i;
+        return new ColumnIterator(tid, fields);
+    }
+
+    /**
+     * Returns an iterator over the rows of the table that reads and decodes
+     * only the pages of the specified columns. Its tuples hold the values
+     * of those columns, in the order given, under their names in the
+     * table's TupleDesc.
+     *
+     * @param fields the columns to return; at least one
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields) {
+        if (fields.length == 0)
+            throw new IllegalArgumentException("a column scan needs at least one column");
+        return new ColumnIterator(tid, fields.clone());
+    }
+
+    /**
+     * Walks the pages of each requested column in step, one page of a
+     * column at a time, reading ahead over each column's run of pages.
+     */
+    private class ColumnIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final int[] fields;
+        private final TupleDesc outTd;
+        private ColumnPage[] pages;
+        private int[] pgNo;
+        private ReadAhead[] readAheads;
+        private int row;
+
+        ColumnIterator(TransactionId tid, int[] fields) {
+            this.tid = tid;
+            this.fields = fields;
+            Type[] types = new Type[fields.length];
+            String[] names = new String[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                types[i] = td.getFieldType(fields[i]);
+                names[i] = td.getFieldName(fields[i]);
+            }
+            this.outTd = new TupleDesc(types, names);
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            close();
+            pages = new ColumnPage[fields.length];
+            pgNo = new int[fields.length];
+            readAheads = new ReadAhead[fields.length];
+            row = 0;
+            for (int i = 0; i < fields.length; i++) {
+                int first = firstPage(fields[i]), count = numPages(fields[i]);
+                pgNo[i] = first - 1;
+                readAheads[i] = Database.getBufferPool().newReadAhead(ColumnFile.this, first + count);
+                if (readAheads[i] != null) {
+                    int[] run = new int[count];
+                    for (int j = 0; j < count; j++)
+                        run[j] = first + j;
+                    readAheads[i].setPages(run);
+                }
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return pages != null && row < numRows();
+        }
+
+        /** @return the page of the i-th requested column holding the current row */
+        private ColumnPage page(int i) throws DbException, TransactionAbortedException {
+            ColumnPage p = pages[i];
+            while (p == null || row >= p.getFirstRow() + p.getNumValues()) {
+                if (++pgNo[i] >= firstPage(fields[i]) + numPages(fields[i]))
+                    throw new DbException("column " + fields[i] + " ends before row " + row);
+                if (readAheads[i] != null)
+                    readAheads[i].pageRequested(pgNo[i]);
+                p = (ColumnPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(getId(), pgNo[i]), Permissions.READ_ONLY);
+            }
+            pages[i] = p;
+            return p;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException("no more tuples");
+            Tuple t = new Tuple(outTd);
+            for (int i = 0; i < fields.length; i++) {
+                ColumnPage p = page(i);
+                t.setField(i, p.getField(row - p.getFirstRow()));
+            }
+            t.setRecordId(new RecordId(pages[0].getId(), row - pages[0].getFirstRow()));
+            row++;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        public void close() {
+            if (readAheads != null) {
+                for (ReadAhead ra : readAheads) {
+                    if (ra != null)
+                        ra.close();
+                }
+            }
+            readAheads = null;
+            pages = null;
+        }
+    }
+
+    /**
+     * Writer writes the rows of a table, in order, as a column file. The
+     * pages of each column are collected in a temporary file of their own
+     * while the rows are added, and copied after the header by
+     * {@link #close}.
+     */
+    public static class Writer {
+        private final File out;
+        private final TupleDesc td;
+        private final File[] tmp;
+        private final OutputStream[] columns;
+        private final int[] pages;
+        private final ColumnPage.Builder[] builders;
+        private final StringDictionary[] dictionaries;
+        private int numRows;
+
+        /**
+         * Starts writing a column file for tables with the specified schema.
+         *
+         * @throws IOException if the temporary files can't be created
+         */
+        public Writer(File out, TupleDesc td) throws IOException {
+            if (8 + 16 * td.numFields() > BufferPool.PAGE_SIZE)
+                throw new IllegalArgumentException("too many columns for a column file header");
+            this.out = out;
+            this.td = td;
+            int n = td.numFields();
+            tmp = new File[n];
+            columns = new OutputStream[n];
+            pages = new int[n];
+            builders = new ColumnPage.Builder[n];
+            dictionaries = new StringDictionary[n];
+            for (int i = 0; i < n; i++) {
+                tmp[i] = File.createTempFile("column", ".tmp");
+                tmp[i].deleteOnExit();
+                columns[i] = new BufferedOutputStream(new FileOutputStream(tmp[i]));
+                if (td.getFieldType(i) != Type.INT_TYPE)
+                    dictionaries[i] = new StringDictionary();
+                builders[i] = newBuilder(i);
+            }
+        }
+
+        private ColumnPage.Builder newBuilder(int i) {
+            return new ColumnPage.Builder(i, td.getFieldType(i), numRows, dictionaries[i]);
+        }
+
+        /** Adds the next row; its fields must have the types of the schema. */
+        public void add(Tuple t) throws IOException {
+            for (int i = 0; i < td.numFields(); i++) {
+                if (!builders[i].add(t.getField(i))) {
+                    flush(i);
+                    builders[i] = newBuilder(i);
+                    if (!builders[i].add(t.getField(i)))
+                        throw new IOException("value too large for a page: " + t.getField(i));
+                }
+            }
+            numRows++;
+        }
+
+        private void flush(int i) throws IOException {
+            columns[i].write(builders[i].build());
+            pages[i]++;
+        }
+
+        /**
+         * Writes the remaining pages, the dictionaries and the header, and
+         * copies the columns into the output file.
+         */
+        public void close() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            header.putInt(numRows);
+            header.putInt(td.numFields());
+            int next = 1;
+            for (int i = 0; i < td.numFields(); i++) {
+                if (builders[i].size() > 0)
+                    flush(i);
+                header.putInt(next);
+                header.putInt(pages[i]);
+                next += pages[i];
+                int dictPages = 0;
+                if (dictionaries[i] != null && dictionaries[i].size() > 0) {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    dictionaries[i].serialize(new DataOutputStream(baos));
+                    dictPages = (baos.size() + BufferPool.PAGE_SIZE - 1) / BufferPool.PAGE_SIZE;
+                    baos.write(new byte[dictPages * BufferPool.PAGE_SIZE - baos.size()]);
+                    baos.writeTo(columns[i]);
+                }
+                columns[i].close();
+                header.putInt(next);
+                header.putInt(dictPages);
+                next += dictPages;
+            }
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(out));
+            os.write(header.array());
+            byte[] buf = new byte[BufferPool.PAGE_SIZE];
+            for (File column : tmp) {
+                InputStream is = new FileInputStream(column);
+                int n;
+                while ((n = is.read(buf)) > 0)
+                    os.write(buf, 0, n);
+                is.close();
+                column.delete();
+            }
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ColumnPage holds the values of one column of a {@link ColumnFile} for a
+ * run of consecutive rows, in whichever encoding takes the fewest bytes:
+ * <ul>
+ * <li>INT columns: plain 4-byte values; bit-packed offsets from the
+ * smallest value on the page; run-length encoded (value, count) pairs; or
+ * the first value followed by bit-packed differences between consecutive
+ * values, which suits sorted columns.
+ * <li>STRING and VARCHAR columns: plain (length, bytes) values; a
+ * dictionary of the page's distinct values followed by a bit-packed code
+ * per row; or bit-packed codes into the {@link StringDictionary} of the
+ * whole column, whose fields are then compared by code.
+ * </ul>
+ * A page starts with a header of the encoding (one byte), the column (a
+ * short), the first row (an int) and the number of values (an int). All
+ * values are decoded when the page is read, so a scan pays for decoding a
+ * page once however many of its values it returns.
+ * <p>
+ * Column pages are written once by {@link ColumnFile.Writer} and never
+ * modified.
+ */
+public class ColumnPage implements Page {
+
+    static final byte PLAIN = 0;
+    static final byte BIT_PACKED = 1;
+    static final byte RLE = 2;
+    static final byte DELTA = 3;
+    static final byte PLAIN_STRING = 4;
+    static final byte DICTIONARY = 5;
+    static final byte CODES = 6;
+
+    /** Bytes taken by the page header. */
+    static final int HEADER_SIZE = 11;
+
+    private final HeapPageId pid;
+    private final byte[] data;
+    private final byte encoding;
+    private final int column;
+    private final Type type;
+    private final int firstRow;
+    private final int numValues;
+    /** The decoded values; ints for INT columns, strings otherwise. */
+    private int[] ints;
+    private String[] strings;
+    /** For CODES pages, the codes of the values in dict. */
+    private int[] codes;
+    private StringDictionary dict;
+    private boolean dirty;
+    private TransactionId lastDirtyTid;
+
+    /**
+     * Creates a ColumnPage from the bytes of a page read from disk, decoding
+     * all of its values. The page keeps the array, so the caller must not
+     * change it afterwards.
+     *
+     * @throws IOException if the bytes are not a column page
+     */
+    public ColumnPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.data = data;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        encoding = buf.get();
+        column = buf.getShort();
+        firstRow = buf.getInt();
+        numValues = buf.getInt();
+        TupleDesc td = Database.getCatalog().getTupleDesc(id.getTableId());
+        if (column < 0 || column >= td.numFields() || numValues < 0)
+            throw new IOException("not a column page: " + id.pageNumber());
+        type = td.getFieldType(column);
+        switch (encoding) {
+        case PLAIN:
+            ints = new int[numValues];
+            for (int i = 0; i < numValues; i++)
+                ints[i] = buf.getInt();
+            break;
+        case BIT_PACKED: {
+            int min = buf.getInt();
+            int width = buf.get();
+            ints = new int[numValues];
+            long[] offsets = unpack(buf, numValues, width);
+            for (int i = 0; i < numValues; i++)
+                ints[i] = (int) (min + offsets[i]);
+            break;
+        }
+        case RLE: {
+            int numRuns = buf.getInt();
+            ints = new int[numValues];
+            int i = 0;
+            for (int r = 0; r < numRuns; r++) {
+                int value = buf.getInt();
+                int count = buf.getInt();
+                Arrays.fill(ints, i, i + count, value);
+                i += count;
+            }
+            break;
+        }
+        case DELTA: {
+            ints = new int[numValues];
+            if (numValues == 0)
+                break;
+            ints[0] = buf.getInt();
+            int minDelta = buf.getInt();
+            int width = buf.get();
+            long[] deltas = unpack(buf, numValues - 1, width);
+            for (int i = 1; i < numValues; i++)
+                ints[i] = ints[i - 1] + (int) (minDelta + deltas[i - 1]);
+            break;
+        }
+        case PLAIN_STRING:
+            strings = new String[numValues];
+            for (int i = 0; i < numValues; i++)
+                strings[i] = getString(buf);
+            break;
+        case DICTIONARY: {
+            String[] dict = new String[buf.getInt()];
+            for (int i = 0; i < dict.length; i++)
+                dict[i] = getString(buf);
+            long[] codes = unpack(buf, numValues, width(dict.length - 1));
+            strings = new String[numValues];
+            for (int i = 0; i < numValues; i++)
+                strings[i] = dict[(int) codes[i]];
+            break;
+        }
+        case CODES: {
+            dict = ((ColumnFile) Database.getCatalog().getDbFile(id.getTableId())).getDictionary(column);
+            if (dict == null)
+                throw new IOException("no dictionary for column " + column + " on page " + id.pageNumber());
+            int width = buf.get();
+            long[] packed = unpack(buf, numValues, width);
+            codes = new int[numValues];
+            for (int i = 0; i < numValues; i++)
+                codes[i] = (int) packed[i];
+            break;
+        }
+        default:
+            throw new IOException("bad column page encoding " + encoding + " on page " + id.pageNumber());
+        }
+    }
+
+    private static String getString(ByteBuffer buf) {
+        byte[] bs = new byte[buf.getInt()];
+        buf.get(bs);
+        return new String(bs);
+    }
+
+    /** @return the number of bits needed for values from 0 to range */
+    static int width(long range) {
+        return range <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    /** @return the number of bytes n values of width bits each take when packed */
+    static int packedSize(int n, int width) {
+        return (int) (((long) n * width + 7) / 8);
+    }
+
+    /**
+     * Writes values[i] - base for the first n values, each in width bits,
+     * as one little-endian stream of bits. Each difference must fit.
+     */
+    static void pack(ByteBuffer buf, int[] values, int n, long base, int width) {
+        long acc = 0;
+        int bits = 0;
+        for (int i = 0; i < n; i++) {
+            acc |= ((long) values[i] - base) << bits;
+            bits += width;
+            while (bits >= 8) {
+                buf.put((byte) acc);
+                acc >>>= 8;
+                bits -= 8;
+            }
+        }
+        if (bits > 0)
+            buf.put((byte) acc);
+    }
+
+    /** Reads n values of width bits each, as written by {@link #pack}, without the base. */
+    static long[] unpack(ByteBuffer buf, int n, int width) {
+        long[] values = new long[n];
+        long mask = (1L << width) - 1;
+        long acc = 0;
+        int bits = 0;
+        for (int i = 0; i < n; i++) {
+            while (bits < width) {
+                acc |= (buf.get() & 0xffL) << bits;
+                bits += 8;
+            }
+            values[i] = acc & mask;
+            acc >>>= width;
+            bits -= width;
+        }
+        return values;
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** @return the column of the table this page holds values of */
+    public int getColumn() {
+        return column;
+    }
+
+    /** @return the row of the first value on this page */
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    /** @return the number of values on this page */
+    public int getNumValues() {
+        return numValues;
+    }
+
+    /** @return the encoding the values are stored in, e.g. {@link #DICTIONARY} */
+    public byte getEncoding() {
+        return encoding;
+    }
+
+    /** @return the i-th value on the page, i.e. the value of row getFirstRow() + i */
+    public Field getField(int i) {
+        if (ints != null)
+            return new IntField(ints[i]);
+        if (codes != null)
+            return new StringField(dict, codes[i], type);
+        return new StringField(strings[i], Type.STRING_LEN, type);
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? lastDirtyTid : null;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty)
+            this.lastDirtyTid = tid;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    // see Page.java for javadocs
+    public void writeTo(ByteBuffer buf) {
+        buf.put(data);
+    }
+
+    /** Column pages are never modified, so the page is its own before image. */
+    public ColumnPage getBeforeImage() {
+        return this;
+    }
+
+    public void setBeforeImage() {
+    }
+
+    /**
+     * Builder collects the values of one column for a page, keeping track
+     * of the size each encoding would take, and refuses a value once none
+     * of them would fit on the page.
+     */
+    static class Builder {
+        private final int column;
+        private final Type type;
+        private final int firstRow;
+        private final int capacity = BufferPool.PAGE_SIZE - HEADER_SIZE;
+        private int n;
+        // INT columns
+        private int[] ints = new int[64];
+        private int min, max, runs, minDelta, maxDelta;
+        // string columns
+        private ArrayList<String> strings = new ArrayList<String>();
+        private HashMap<String, Integer> dict = new HashMap<String, Integer>();
+        private int plainBytes, dictBytes;
+        /** The dictionary of the whole column, or null; codes[i] is the code of strings[i] in it. */
+        private final StringDictionary columnDict;
+        private int[] codes = new int[64];
+        private int maxCode, uncoded;
+
+        Builder(int column, Type type, int firstRow) {
+            this(column, type, firstRow, null);
+        }
+
+        /**
+         * Creates a builder for a string column whose values are added to
+         * columnDict as they come, so the page can hold codes into it.
+         */
+        Builder(int column, Type type, int firstRow, StringDictionary columnDict) {
+            this.column = column;
+            this.type = type;
+            this.firstRow = firstRow;
+            this.columnDict = columnDict;
+        }
+
+        /** @return the number of values added */
+        int size() {
+            return n;
+        }
+
+        private static int intSize(byte encoding, int n, long range, int runs, long deltaRange) {
+            switch (encoding) {
+            case PLAIN:
+                return 4 * n;
+            case BIT_PACKED:
+                return 5 + packedSize(n, width(range));
+            case RLE:
+                return 4 + 8 * runs;
+            default: // DELTA
+                return n == 0 ? 0 : 9 + packedSize(n - 1, width(deltaRange));
+            }
+        }
+
+        private int stringSize(byte encoding, int n, int plainBytes, int dictSize, int dictBytes, int maxCode, int uncoded) {
+            if (encoding == PLAIN_STRING)
+                return plainBytes;
+            if (encoding == CODES)
+                return columnDict == null || uncoded > 0 ? Integer.MAX_VALUE : 1 + packedSize(n, width(maxCode));
+            return 4 + dictBytes + packedSize(n, width(dictSize - 1));
+        }
+
+        private static final byte[] INT_ENCODINGS = { PLAIN, BIT_PACKED, DELTA, RLE };
+        private static final byte[] STRING_ENCODINGS = { PLAIN_STRING, DICTIONARY, CODES };
+
+        /**
+         * Adds the value of the next row, unless the page would overflow in
+         * every encoding.
+         *
+         * @return false if the value doesn't fit; the builder is unchanged
+         */
+        boolean add(Field f) {
+            if (type == Type.INT_TYPE) {
+                int v = ((IntField) f).getValue();
+                int newMin = n == 0 ? v : Math.min(min, v), newMax = n == 0 ? v : Math.max(max, v);
+                int newRuns = n > 0 && ints[n - 1] == v ? runs : runs + 1;
+                int d = n == 0 ? 0 : v - ints[n - 1];
+                int newMinDelta = n < 2 ? d : Math.min(minDelta, d), newMaxDelta = n < 2 ? d : Math.max(maxDelta, d);
+                boolean fits = false;
+                for (byte e : INT_ENCODINGS)
+                    fits |= intSize(e, n + 1, (long) newMax - newMin, newRuns, (long) newMaxDelta - newMinDelta) <= capacity;
+                if (!fits)
+                    return false;
+                if (n == ints.length)
+                    ints = Arrays.copyOf(ints, 2 * n);
+                ints[n++] = v;
+                min = newMin;
+                max = newMax;
+                runs = newRuns;
+                minDelta = newMinDelta;
+                maxDelta = newMaxDelta;
+                return true;
+            }
+            String s = ((StringField) f).getValue();
+            if (s.length() > Type.STRING_LEN)
+                s = s.substring(0, Type.STRING_LEN);
+            boolean isNew = !dict.containsKey(s);
+            int newDictSize = dict.size() + (isNew ? 1 : 0);
+            int newDictBytes = dictBytes + (isNew ? 4 + s.length() : 0);
+            // a value that doesn't fit still goes on the next page, so it may join the dictionary now
+            int code = columnDict == null ? -1 : columnDict.add(s);
+            int newMaxCode = Math.max(maxCode, code), newUncoded = uncoded + (code < 0 ? 1 : 0);
+            boolean fits = false;
+            for (byte e : STRING_ENCODINGS)
+                fits |= stringSize(e, n + 1, plainBytes + 4 + s.length(), newDictSize, newDictBytes,
+                        newMaxCode, newUncoded) <= capacity;
+            if (!fits)
+                return false;
+            if (isNew)
+                dict.put(s, dict.size());
+            strings.add(s);
+            if (n == codes.length)
+                codes = Arrays.copyOf(codes, 2 * n);
+            codes[n] = code;
+            maxCode = newMaxCode;
+            uncoded = newUncoded;
+            n++;
+            plainBytes += 4 + s.length();
+            dictBytes = newDictBytes;
+            return true;
+        }
+
+        /** @return the bytes of the page, in the encoding that takes the fewest */
+        byte[] build() {
+            byte encoding = -1;
+            int best = Integer.MAX_VALUE;
+            for (byte e : type == Type.INT_TYPE ? INT_ENCODINGS : STRING_ENCODINGS) {
+                int size = type == Type.INT_TYPE
+                        ? intSize(e, n, (long) max - min, runs, (long) maxDelta - minDelta)
+                        : stringSize(e, n, plainBytes, dict.size(), dictBytes, maxCode, uncoded);
+                if (size < best) {
+                    best = size;
+                    encoding = e;
+                }
+            }
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            buf.put(encoding);
+            buf.putShort((short) column);
+            buf.putInt(firstRow);
+            buf.putInt(n);
+            switch (encoding) {
+            case PLAIN:
+                for (int i = 0; i < n; i++)
+                    buf.putInt(ints[i]);
+                break;
+            case BIT_PACKED:
+                buf.putInt(min);
+                buf.put((byte) width((long) max - min));
+                pack(buf, ints, n, min, width((long) max - min));
+                break;
+            case RLE:
+                buf.putInt(runs);
+                for (int i = 0; i < n; ) {
+                    int j = i;
+                    while (j < n && ints[j] == ints[i])
+                        j++;
+                    buf.putInt(ints[i]);
+                    buf.putInt(j - i);
+                    i = j;
+                }
+                break;
+            case DELTA: {
+                if (n == 0)
+                    break;
+                int[] deltas = new int[n - 1];
+                for (int i = 1; i < n; i++)
+                    deltas[i - 1] = ints[i] - ints[i - 1];
+                buf.putInt(ints[0]);
+                buf.putInt(minDelta);
+                buf.put((byte) width((long) maxDelta - minDelta));
+                pack(buf, deltas, n - 1, minDelta, width((long) maxDelta - minDelta));
+                break;
+            }
+            case PLAIN_STRING:
+                for (String s : strings) {
+                    buf.putInt(s.length());
+                    putBytes(buf, s);
+                }
+                break;
+            case DICTIONARY: {
+                String[] entries = new String[dict.size()];
+                for (Map.Entry<String, Integer> e : dict.entrySet())
+                    entries[e.getValue()] = e.getKey();
+                buf.putInt(entries.length);
+                for (String s : entries) {
+                    buf.putInt(s.length());
+                    putBytes(buf, s);
+                }
+                int[] pageCodes = new int[n];
+                for (int i = 0; i < n; i++)
+                    pageCodes[i] = dict.get(strings.get(i));
+                pack(buf, pageCodes, n, 0, width(entries.length - 1));
+                break;
+            }
+            case CODES:
+                buf.put((byte) width(maxCode));
+                pack(buf, codes, n, 0, width(maxCode));
+                break;
+            }
+            return buf.array();
+        }
+
+        /** Writes the low byte of each char, like DataOutputStream.writeBytes. */
+        private static void putBytes(ByteBuffer buf, String s) {
+            for (int i = 0; i < s.length(); i++)
+                buf.put((byte) s.charAt(i));
+        }
+    }
+}
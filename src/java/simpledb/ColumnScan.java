@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ColumnScan is an access method that reads the specified columns of a
+ * table stored as a {@link ColumnFile}, reading and decoding only the pages
+ * of those columns. It returns a tuple per row, in row order, holding the
+ * values of the columns in the order given.
+ */
+public class ColumnScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId transid;
+    private int tableid;
+    private String tableAlias;
+    private int[] fields;
+    private TupleDesc td;
+    private DbFileIterator rows;
+
+    /**
+     * Creates a scan over the specified columns of a table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be stored as a ColumnFile
+     * @param tableAlias
+     *            the alias of the table, which prefixes the field names of
+     *            the returned tuples as in {@link SeqScan}
+     * @param fields
+     *            the columns to return; at least one
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
+        if (!(Database.getCatalog().getDbFile(tableid) instanceof ColumnFile))
+            throw new IllegalArgumentException("table " + tableid + " is not a column file");
+        if (fields.length == 0)
+            throw new IllegalArgumentException("a column scan needs at least one column");
+        this.transid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.fields = fields.clone();
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableid);
+        Type[] typeArr = new Type[fields.length];
+        String[] nameArr = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            typeArr[i] = tableTd.getFieldType(fields[i]);
+            nameArr[i] = tableAlias + "." + tableTd.getFieldName(fields[i]);
+        }
+        this.td = new TupleDesc(typeArr, nameArr);
+    }
+
+    public ColumnScan(TransactionId tid, int tableid, int[] fields) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid), fields);
+    }
+
+    /** @return the name of the table this operator scans, as in the catalog */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the columns of the table this scan returns, in order */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        ColumnFile f = (ColumnFile) Database.getCatalog().getDbFile(tableid);
+        rows = f.iterator(transid, fields);
+        rows.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the scanned columns with field names
+     * prefixed with the table alias, like {@link SeqScan#getTupleDesc}.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return rows != null && rows.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return rows.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        rows.rewind();
+    }
+
+    public void close() {
+        if (rows != null)
+            rows.close();
+        rows = null;
+    }
+}
@@ -0,0 +1,604 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * CompressedHeapFile stores the {@link HeapPage}s of a table compressed, for
+ * cold tables that are scanned now and then and rarely written, where
+ * reading fewer bytes matters more than the CPU spent decompressing them.
+ * <p>
+ * The pages are compressed with {@link Lz4Codec} in groups of consecutive
+ * pages, each group making one block of whatever size it compresses to. The
+ * file starts with a header (see {@link #HEADER_SIZE}) and ends with an
+ * index of the offset and length of each block. A page is read by
+ * decompressing its block; the last block decompressed is kept, so a scan
+ * decompresses each block once.
+ * <p>
+ * Pages that are written, including new ones, go uncompressed to a delta
+ * file next to the table, each as its page number followed by the page,
+ * and are read from there from then on. Once the delta holds
+ * {@link #setRecompressThreshold enough} pages, a background thread writes
+ * the table out again with the delta folded into the blocks. Pages are
+ * identified by {@link HeapPageId}s, and are read and locked through the
+ * {@link BufferPool} like heap pages.
+ *
+ * @see Catalog#loadSchema
+ * @see HeapFileEncoder#convertCompressed
+ */
+public class CompressedHeapFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** "CHF1" */
+    static final int MAGIC = 0x43484631;
+    /**
+     * Bytes taken by the header: the magic number, the page size, the pages
+     * per block, the number of pages in blocks, the number of blocks, and
+     * the offset of the index as a long.
+     */
+    static final int HEADER_SIZE = 28;
+    /** Bytes taken by each entry of the index: a long offset, an int length and a raw flag. */
+    static final int INDEX_ENTRY_SIZE = 13;
+
+    /** Number of consecutive pages compressed together. */
+    public static final int DEFAULT_GROUP_PAGES = 16;
+    /** Number of pages the delta holds before the file is recompressed. */
+    public static final int DEFAULT_RECOMPRESS_THRESHOLD = 256;
+
+    private final File f;
+    private final File deltaFile;
+    private final TupleDesc td;
+    private int recompressThreshold = DEFAULT_RECOMPRESS_THRESHOLD;
+
+    /** The header, index and delta map, read on first use. */
+    private transient boolean loaded;
+    /** Channels of the table and of its delta; reads and writes are positional. */
+    private transient FileChannel blocks, delta;
+    /** Incremented each time the files are closed, e.g. by a recompression. */
+    private transient int generation;
+    private transient int groupPages, blockPages, numPages;
+    private transient long[] blockOffsets;
+    private transient int[] blockLengths;
+    private transient boolean[] blockRaw;
+    /** The record of each page in the delta file, by page number. */
+    private transient HashMap<Integer, Integer> deltaSlots;
+    private transient int cachedBlock = -1;
+    private transient byte[] cachedData;
+    /** Pages with a free slot; built from the pages on first use. */
+    private transient FreeSpaceMap freeSpace;
+    private transient volatile boolean recompressing;
+
+    /**
+     * Constructs a compressed heap file backed by the specified file, which
+     * is empty or was written by {@link #compress}; its delta is kept in a
+     * file of the same name with ".delta" appended.
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        this.f = f;
+        this.deltaFile = new File(f.getPath() + ".delta");
+        this.td = td;
+    }
+
+    /** @return the File backing this CompressedHeapFile on disk */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getPageSize() {
+        return BufferPool.PAGE_SIZE;
+    }
+
+    // see DbFile.java for javadocs
+    public PageId getPageId(int pgNo) {
+        return new HeapPageId(getId(), pgNo);
+    }
+
+    /**
+     * Sets the number of pages the delta holds before the table is
+     * recompressed in the background.
+     */
+    public synchronized void setRecompressThreshold(int pages) {
+        if (pages < 1)
+            throw new IllegalArgumentException("threshold must be at least one page");
+        recompressThreshold = pages;
+    }
+
+    /** Reads the header, the index and the page numbers in the delta, unless they were read. */
+    private synchronized void load() throws IOException {
+        if (loaded)
+            return;
+        groupPages = DEFAULT_GROUP_PAGES;
+        blockPages = 0;
+        blockOffsets = new long[0];
+        blockLengths = new int[0];
+        blockRaw = new boolean[0];
+        if (f.length() > 0) {
+            blocks = new RandomAccessFile(f, "r").getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(blocks, header, 0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != BufferPool.PAGE_SIZE)
+                throw new IOException(f + " is not a compressed heap file with pages of " + BufferPool.PAGE_SIZE + " bytes");
+            groupPages = header.getInt(8);
+            blockPages = header.getInt(12);
+            int numBlocks = header.getInt(16);
+            long indexOffset = header.getLong(20);
+            byte[] index = new byte[numBlocks * INDEX_ENTRY_SIZE];
+            readFully(blocks, ByteBuffer.wrap(index), indexOffset);
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(index));
+            blockOffsets = new long[numBlocks];
+            blockLengths = new int[numBlocks];
+            blockRaw = new boolean[numBlocks];
+            for (int i = 0; i < numBlocks; i++) {
+                blockOffsets[i] = dis.readLong();
+                blockLengths[i] = dis.readInt();
+                blockRaw[i] = dis.readBoolean();
+            }
+        }
+        numPages = blockPages;
+        deltaSlots = new HashMap<Integer, Integer>();
+        delta = new RandomAccessFile(deltaFile, "rw").getChannel();
+        int records = (int) (delta.size() / (4 + BufferPool.PAGE_SIZE));
+        ByteBuffer pgNoBuf = ByteBuffer.allocate(4);
+        for (int i = 0; i < records; i++) {
+            pgNoBuf.clear();
+            readFully(delta, pgNoBuf, (long) i * (4 + BufferPool.PAGE_SIZE));
+            int pgNo = pgNoBuf.getInt(0);
+            deltaSlots.put(pgNo, i);
+            numPages = Math.max(numPages, pgNo + 1);
+        }
+        cachedBlock = -1;
+        cachedData = null;
+        loaded = true;
+    }
+
+    /** @return the number of pages in the table */
+    public synchronized int numPages() {
+        try {
+            load();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can't read " + f + ": " + e.getMessage());
+        }
+        return numPages;
+    }
+
+    /**
+     * @return the number of pages of disk space the table takes, i.e. what
+     *         a scan of it reads: its blocks plus the pages in the delta
+     */
+    public synchronized int storedPages() {
+        numPages();
+        long bytes = 0;
+        for (int length : blockLengths)
+            bytes += length;
+        return (int) ((bytes + BufferPool.PAGE_SIZE - 1) / BufferPool.PAGE_SIZE) + deltaSlots.size();
+    }
+
+    /** @return the number of pages written since the table was last compressed */
+    public synchronized int deltaPages() {
+        numPages();
+        return deltaSlots.size();
+    }
+
+    /**
+     * @return the bytes of the specified page as last written. The files
+     *         are read without holding the monitor, so scans of the table
+     *         don't wait for each other.
+     */
+    private byte[] readPageData(int pgNo) throws IOException {
+        try {
+            return readPageDataOnce(pgNo);
+        } catch (ClosedChannelException e) {
+            // closed by a recompression or by close() on another thread: look the page up again
+            return readPageDataOnce(pgNo);
+        }
+    }
+
+    private byte[] readPageDataOnce(int pgNo) throws IOException {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        FileChannel ch;
+        int b, gen, length, pages;
+        long offset;
+        boolean inDelta, raw;
+        synchronized (this) {
+            load();
+            Integer slot = deltaSlots.get(pgNo);
+            inDelta = slot != null;
+            if (inDelta) {
+                ch = delta;
+                offset = (long) slot * (4 + BufferPool.PAGE_SIZE) + 4;
+                b = gen = length = pages = 0;
+                raw = false;
+            } else if (pgNo >= numPages) {
+                throw new IllegalArgumentException("page " + pgNo + " is past the end of the table");
+            } else if (pgNo >= blockPages) {
+                return data; // allocated, but not written yet
+            } else {
+                b = pgNo / groupPages;
+                if (b == cachedBlock) {
+                    System.arraycopy(cachedData, (pgNo - b * groupPages) * BufferPool.PAGE_SIZE, data, 0, data.length);
+                    return data;
+                }
+                ch = blocks;
+                gen = generation;
+                offset = blockOffsets[b];
+                length = blockLengths[b];
+                raw = blockRaw[b];
+                pages = Math.min(groupPages, blockPages - b * groupPages);
+            }
+        }
+        if (inDelta) {
+            readFully(ch, ByteBuffer.wrap(data), offset);
+            return data;
+        }
+        byte[] block = readFully(ch, ByteBuffer.allocate(length), offset).array();
+        if (!raw) {
+            byte[] compressed = block;
+            block = new byte[pages * BufferPool.PAGE_SIZE];
+            Lz4Codec.decompress(compressed, 0, compressed.length, block, 0, block.length);
+        }
+        System.arraycopy(block, (pgNo - b * groupPages) * BufferPool.PAGE_SIZE, data, 0, data.length);
+        synchronized (this) {
+            // a scan reads the next page from the same block
+            if (gen == generation) {
+                cachedBlock = b;
+                cachedData = block;
+            }
+        }
+        return data;
+    }
+
+    /** Fills buf from ch starting at offset, and returns it. */
+    private static ByteBuffer readFully(FileChannel ch, ByteBuffer buf, long offset) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, offset + buf.position() - start) < 0)
+                throw new EOFException("short read at " + offset);
+        }
+        return buf;
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long offset) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining())
+            ch.write(buf, offset + buf.position() - start);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            HeapPage page = new HeapPage(new HeapPageId(pid.getTableId(), pid.pageNumber()),
+                    readPageData(pid.pageNumber()));
+            // pages are read again after an abort, so this also undoes hints of rolled back inserts
+            noteFreeSpace(page);
+            return page;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can't read page " + pid.pageNumber() + ": " + e.getMessage());
+        }
+    }
+
+    /** Reads the pages one by one; consecutive pages share the block they are decompressed from. */
+    public ArrayList<Page> readPages(PageId first, int count) {
+        ArrayList<Page> pages = new ArrayList<Page>(count);
+        for (int i = 0; i < count; i++)
+            pages.add(readPage(new HeapPageId(first.getTableId(), first.pageNumber() + i)));
+        return pages;
+    }
+
+    /** Writes the page to the delta, and starts a recompression if the delta is full. */
+    public void writePage(Page page) throws IOException {
+        synchronized (this) {
+            writeDelta(page.getId().pageNumber(), page.getPageData());
+            if (page instanceof HeapPage)
+                noteFreeSpace((HeapPage) page);
+            if (deltaSlots.size() < recompressThreshold || recompressing)
+                return;
+            recompressing = true;
+        }
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    // pages written meanwhile may have filled the delta again
+                    while (true) {
+                        recompress();
+                        synchronized (CompressedHeapFile.this) {
+                            if (deltaPages() < recompressThreshold) {
+                                recompressing = false;
+                                return;
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    recompressing = false;
+                }
+            }
+        }, "recompress " + f.getName());
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private synchronized void writeDelta(int pgNo, byte[] data) throws IOException {
+        load();
+        Integer slot = deltaSlots.get(pgNo);
+        if (slot == null) {
+            slot = deltaSlots.size();
+            deltaSlots.put(pgNo, slot);
+        }
+        ByteBuffer record = ByteBuffer.allocate(4 + BufferPool.PAGE_SIZE);
+        record.putInt(pgNo).put(data).flip();
+        writeFully(delta, record, (long) slot * (4 + BufferPool.PAGE_SIZE));
+        numPages = Math.max(numPages, pgNo + 1);
+    }
+
+    /**
+     * Writes the table out again with the pages in the delta compressed
+     * into their blocks, and empties the delta. Readers wait until it is
+     * done; reads that were under way look their pages up again.
+     */
+    public synchronized void recompress() throws IOException {
+        load();
+        if (deltaSlots.isEmpty())
+            return;
+        File tmp = new File(f.getPath() + ".tmp");
+        writeBlocks(tmp, numPages, groupPages, new PageSource() {
+            public byte[] page(int pgNo) throws IOException {
+                return readPageData(pgNo);
+            }
+        });
+        close();
+        // a crash before the move keeps the old table and its delta; one after it
+        // leaves a delta whose pages are already in the new table, which is harmless
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (!deltaFile.delete())
+            throw new IOException("can't remove " + deltaFile);
+    }
+
+    public synchronized void close() throws IOException {
+        if (blocks != null)
+            blocks.close();
+        if (delta != null)
+            delta.close();
+        blocks = delta = null;
+        loaded = false;
+        generation++;
+    }
+
+    /** A source of the pages of a table, by page number. */
+    private interface PageSource {
+        byte[] page(int pgNo) throws IOException;
+    }
+
+    /**
+     * Writes numPages pages from src to out in the format of this class,
+     * compressing them groupPages at a time. A block that doesn't get
+     * smaller is stored as it is.
+     */
+    private static void writeBlocks(File out, int numPages, int groupPages, PageSource src) throws IOException {
+        int numBlocks = (numPages + groupPages - 1) / groupPages;
+        long[] offsets = new long[numBlocks];
+        int[] lengths = new int[numBlocks];
+        boolean[] raw = new boolean[numBlocks];
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)));
+        dos.write(new byte[HEADER_SIZE]);
+        long offset = HEADER_SIZE;
+        for (int b = 0; b < numBlocks; b++) {
+            int pages = Math.min(groupPages, numPages - b * groupPages);
+            byte[] data = new byte[pages * BufferPool.PAGE_SIZE];
+            for (int i = 0; i < pages; i++)
+                System.arraycopy(src.page(b * groupPages + i), 0, data, i * BufferPool.PAGE_SIZE, BufferPool.PAGE_SIZE);
+            byte[] compressed = Lz4Codec.compress(data, 0, data.length);
+            raw[b] = compressed.length >= data.length;
+            if (raw[b])
+                compressed = data;
+            dos.write(compressed);
+            offsets[b] = offset;
+            lengths[b] = compressed.length;
+            offset += compressed.length;
+        }
+        for (int b = 0; b < numBlocks; b++) {
+            dos.writeLong(offsets[b]);
+            dos.writeInt(lengths[b]);
+            dos.writeBoolean(raw[b]);
+        }
+        dos.close();
+        RandomAccessFile r = new RandomAccessFile(out, "rw");
+        r.writeInt(MAGIC);
+        r.writeInt(BufferPool.PAGE_SIZE);
+        r.writeInt(groupPages);
+        r.writeInt(numPages);
+        r.writeInt(numBlocks);
+        r.writeLong(offset);
+        r.close();
+    }
+
+    /**
+     * Writes the pages of a heap file, as written by
+     * {@link HeapFileEncoder}, to out as a compressed heap file.
+     *
+     * @param groupPages the number of pages compressed together; larger
+     *        groups compress better, but a read of one page decompresses
+     *        the whole group
+     */
+    public static void compress(File heapFile, File out, int groupPages) throws IOException {
+        if (groupPages < 1)
+            throw new IllegalArgumentException("blocks must hold at least one page");
+        final RandomAccessFile in = new RandomAccessFile(heapFile, "r");
+        try {
+            writeBlocks(out, (int) (in.length() / BufferPool.PAGE_SIZE), groupPages, new PageSource() {
+                public byte[] page(int pgNo) throws IOException {
+                    byte[] data = new byte[BufferPool.PAGE_SIZE];
+                    in.seek((long) pgNo * BufferPool.PAGE_SIZE);
+                    in.readFully(data);
+                    return data;
+                }
+            });
+        } finally {
+            in.close();
+        }
+        new File(out.getPath() + ".delta").delete();
+    }
+
+    /**
+     * Returns the free-space map of this file, first recording any pages
+     * that were added to the file without going through it.
+     */
+    private FreeSpaceMap freeSpaceMap() throws IOException {
+        FreeSpaceMap fsm;
+        synchronized(this) {
+            if (freeSpace == null)
+                freeSpace = new FreeSpaceMap();
+            fsm = freeSpace;
+        }
+        int numPages = numPages();
+        for (int i = fsm.numPages(); i < numPages; i++) {
+            HeapPage p = new HeapPage(new HeapPageId(getId(), i), readPageData(i));
+            fsm.update(i, p.getNumEmptySlots() > 0);
+        }
+        return fsm;
+    }
+
+    private void noteFreeSpace(HeapPage page) {
+        FreeSpaceMap fsm = freeSpace;
+        // pages the map hasn't reached yet are picked up by freeSpaceMap()
+        if (fsm != null && page.getId().pageNumber() < fsm.numPages())
+            fsm.update(page.getId().pageNumber(), page.getNumEmptySlots() > 0);
+    }
+
+    /** Adds an empty page at the end of the table, in the delta, and returns its number. */
+    private synchronized int allocatePage() throws IOException {
+        int pgNo = numPages();
+        writeDelta(pgNo, HeapPage.createEmptyPageData());
+        return pgNo;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc mismatch");
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        FreeSpaceMap fsm = freeSpaceMap();
+        HeapPage p = null;
+        for (int i = fsm.nextPageWithRoom(0); i >= 0 && p == null; i = fsm.nextPageWithRoom(i + 1))
+            p = insertInto(tid, i, t, fsm);
+        if (p == null)
+            p = insertInto(tid, allocatePage(), t, fsm);
+        modifiedPages.add(p);
+        return modifiedPages;
+    }
+
+    /**
+     * Inserts t into the specified page if it has a free slot, and records
+     * whether the page has room left.
+     *
+     * @return the page, or null if it is full; its lock is then released
+     *         unless the transaction held it before
+     */
+    private HeapPage insertInto(TransactionId tid, int pgNo, Tuple t, FreeSpaceMap fsm)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId pid = new HeapPageId(getId(), pgNo);
+        boolean alreadyLocked = bp.holdsLock(tid, pid);
+        HeapPage p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        if (p.getNumEmptySlots() == 0) {
+            // stale hint, e.g. the page was filled by an unflushed transaction
+            fsm.update(pgNo, false);
+            if (!alreadyLocked)
+                bp.releasePage(tid, pid);
+            return null;
+        }
+        p.insertTuple(t);
+        p.markDirty(true, tid);
+        fsm.update(pgNo, p.getNumEmptySlots() > 0);
+        return p;
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("invalid tuple argument");
+        if (rid.getPageId().getTableId() != getId())
+            throw new DbException("wrong tuple tableid");
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        p.deleteTuple(t);
+        p.markDirty(true, tid);
+        noteFreeSpace(p);
+        return p;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new CompressedFileIterator(tid);
+    }
+
+    /** Reads the pages of the table in order through the buffer pool, reading ahead of the scan. */
+    private class CompressedFileIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private int pgNo;
+        private Iterator<Tuple> tuples;
+        private ReadAhead readAhead;
+
+        CompressedFileIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            close();
+            pgNo = -1;
+            tuples = Collections.<Tuple>emptyList().iterator();
+            readAhead = Database.getBufferPool().newReadAhead(CompressedHeapFile.this, numPages());
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (tuples == null)
+                return false;
+            while (!tuples.hasNext()) {
+                if (pgNo + 1 >= numPages())
+                    return false;
+                pgNo++;
+                if (readAhead != null)
+                    readAhead.pageRequested(pgNo);
+                HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(getId(), pgNo), Permissions.READ_ONLY);
+                tuples = p.iterator();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException("no more tuples");
+            return tuples.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        public void close() {
+            tuples = null;
+            if (readAhead != null) {
+                readAhead.close();
+                readAhead = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package simpledb;
+
+/**
+ * An index whose entries carry copies of some fields of the indexed tuples,
+ * the key and possibly others, and are kept exactly in step with the table
+ * under the same transactions. A query that needs no other fields of the
+ * table can be answered from the index alone; see {@link IndexOnlyScan}.
+ * <p>
+ * The entries returned by {@link #indexIterator} hold the covered fields,
+ * in the order of {@link #getCoveredFields}, and are described by
+ * {@link #getTupleDesc}. A null predicate returns every entry.
+ */
+public interface CoveringIndex extends Index {
+
+    /** @return the indexes of the fields of the table that each entry holds, the key first */
+    public int[] getCoveredFields();
+
+    /** @return the TupleDesc of the entries, with the names of the fields in the table */
+    public TupleDesc getTupleDesc();
+
+    /** @return the number of pages in the index */
+    public int numPages();
+}
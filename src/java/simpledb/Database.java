@@ -54,8 +54,26 @@ public class Database {
         return _instance._bufferpool;
     }
 
+    /** Create a new instance of the buffer pool that uses the specified
+        replacement policy and return it
+    */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind policy) {
+        _instance._bufferpool = new BufferPool(pages, policy);
+        return _instance._bufferpool;
+    }
+
+    /** Create a new instance of the buffer pool that uses the specified
+        replacement policy and keeps its frames on or off the Java heap,
+        and return it
+    */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind policy, boolean offHeap) {
+        _instance._bufferpool = new BufferPool(pages, policy, offHeap);
+        return _instance._bufferpool;
+    }
+
     //reset the database, used for unit tests only.
     public static void reset() {
+    	_instance._catalog.clear(); // release the old tables' file handles
     	_instance = new Database();
     }
 
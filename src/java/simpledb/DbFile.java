@@ -19,6 +19,15 @@ public interface DbFile extends Serializable {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Read count consecutive pages from disk, starting with first, in as few
+     * I/Os as the file allows.
+     *
+     * @return the pages, in page number order
+     * @throws IllegalArgumentException if the pages can't be read
+     */
+    public ArrayList<Page> readPages(PageId first, int count);
+
     /**
      * Push the specified page to disk.
      *
@@ -84,4 +93,26 @@ public interface DbFile extends Serializable {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Returns the number of bytes in each page of this DbFile, i.e. in each
+     * page it reads and writes; {@link BufferPool#PAGE_SIZE} unless the file
+     * was created with another size.
+     */
+    public int getPageSize();
+
+    /**
+     * Returns the id of the specified page of this file, of the PageId class
+     * the file's pages use. Code that handles any kind of DbFile, like the
+     * buffer pool's multi-page reads, gets page ids from here.
+     */
+    public PageId getPageId(int pgNo);
+
+    /**
+     * Releases any open file handles held by this DbFile. The file must
+     * still be usable afterwards, reopening whatever it needs.
+     *
+     * @throws IOException if a handle can't be closed
+     */
+    public void close() throws IOException;
 }
@@ -47,6 +47,9 @@ public class Filter extends Operator {
     	//super- opens the Iterator- this must be called before
     	//                             any of the other methods
     	super.open();
+    	// let the scan skip pages that hold nothing for us
+    	if (child instanceof SeqScan)
+    		((SeqScan) child).pushDownPredicate(p);
     	child.open();
     }
 
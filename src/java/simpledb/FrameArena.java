@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * FrameArena is off-heap storage for the buffer pool's frames: page-sized
+ * slices of direct memory, all of one page size. A HeapPage cached in an
+ * arena frame keeps its bytes in the frame and is read and modified in
+ * place, so a large buffer pool adds almost nothing to the Java heap for the
+ * garbage collector to trace or copy.
+ * <p>
+ * Direct buffers are limited to 2 GB each, so the arena is allocated in
+ * chunks of CHUNK_SIZE bytes, each the first time one of its frames is
+ * used. The buffer pool keeps an arena per page size and takes frames from
+ * it with {@link #allocate}, which hands out the lowest free frame, so an
+ * arena only grows to the number of pages of its size cached at once. Pools
+ * larger than the JVM's default direct memory limit need
+ * -XX:MaxDirectMemorySize.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy.Kind, boolean)
+ */
+public class FrameArena {
+
+    /** Bytes per direct buffer: 64 MB, e.g. 16384 pages of 4 KB. */
+    static final int CHUNK_SIZE = 64 << 20;
+
+    private final ByteBuffer[] chunks;
+    private final int numFrames;
+    private final int pageSize;
+    private final int framesPerChunk;
+    /** Frames handed out by allocate() and not released. */
+    private final BitSet used = new BitSet();
+
+    /** Creates an arena of numFrames frames of the default page size. */
+    public FrameArena(int numFrames) {
+        this(numFrames, BufferPool.PAGE_SIZE);
+    }
+
+    /** Creates an arena of numFrames frames of pageSize bytes each. */
+    public FrameArena(int numFrames, int pageSize) {
+        this.numFrames = numFrames;
+        this.pageSize = pageSize;
+        framesPerChunk = Math.max(1, CHUNK_SIZE / pageSize);
+        chunks = new ByteBuffer[(numFrames + framesPerChunk - 1) / framesPerChunk];
+    }
+
+    /** @return the number of frames in the arena */
+    public int numFrames() {
+        return numFrames;
+    }
+
+    /** @return the number of bytes in each frame */
+    public int pageSize() {
+        return pageSize;
+    }
+
+    /** @return the bytes of direct memory allocated so far */
+    public synchronized long allocatedBytes() {
+        long bytes = 0;
+        for (ByteBuffer chunk : chunks) {
+            if (chunk != null)
+                bytes += chunk.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Takes the lowest frame that isn't in use.
+     *
+     * @return the number of the frame
+     * @throws IllegalStateException if all frames are in use
+     */
+    public synchronized int allocate() {
+        int i = used.nextClearBit(0);
+        if (i >= numFrames)
+            throw new IllegalStateException("all " + numFrames + " frames are in use");
+        used.set(i);
+        return i;
+    }
+
+    /** Returns a frame taken with {@link #allocate} to the arena. */
+    public synchronized void release(int i) {
+        used.clear(i);
+    }
+
+    /**
+     * @return a buffer over the specified frame's pageSize bytes, positioned
+     *         at its start
+     */
+    public synchronized ByteBuffer frame(int i) {
+        if (i < 0 || i >= numFrames)
+            throw new IndexOutOfBoundsException("no frame " + i);
+        int c = i / framesPerChunk;
+        if (chunks[c] == null) {
+            int frames = Math.min(framesPerChunk, numFrames - c * framesPerChunk);
+            chunks[c] = ByteBuffer.allocateDirect(frames * pageSize);
+        }
+        ByteBuffer buf = chunks[c].duplicate();
+        int start = (i % framesPerChunk) * pageSize;
+        buf.limit(start + pageSize);
+        buf.position(start);
+        return buf.slice();
+    }
+}
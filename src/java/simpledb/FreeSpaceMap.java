@@ -0,0 +1,62 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records which pages of a HeapFile have at least one empty
+ * slot, so inserts can go straight to a page with room instead of visiting
+ * every page of the file.
+ * <p>
+ * The map is only a hint: a page it reports as having room may have been
+ * filled by a transaction that hasn't been flushed yet, so callers must check
+ * the page itself and call {@link #update} when the hint was wrong.
+ */
+public class FreeSpaceMap {
+
+    private BitSet hasRoom = new BitSet();
+    private int numPages = 0;
+
+    /**
+     * @return the number of pages the map has information about; pages past
+     *         this point have never been recorded
+     */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Record whether the specified page has room for another tuple.
+     */
+    public synchronized void update(int pgNo, boolean room) {
+        hasRoom.set(pgNo, room);
+        if (pgNo >= numPages)
+            numPages = pgNo + 1;
+    }
+
+    /**
+     * @return the first page at or after pgNo that has room, or -1 if there
+     *         is none
+     */
+    public synchronized int nextPageWithRoom(int pgNo) {
+        int next = hasRoom.nextSetBit(pgNo);
+        return next < numPages ? next : -1;
+    }
+
+    /**
+     * Forgets the pages from pgNo on, e.g. after they were cut off the end
+     * of the file.
+     */
+    public synchronized void truncate(int pgNo) {
+        if (pgNo < numPages) {
+            hasRoom.clear(pgNo, numPages);
+            numPages = pgNo;
+        }
+    }
+
+    /**
+     * @return the number of pages with room
+     */
+    public synchronized int numPagesWithRoom() {
+        return hasRoom.cardinality();
+    }
+}
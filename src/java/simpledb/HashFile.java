@@ -0,0 +1,617 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * HashFile is an extendible hash index on one field of a table. Each entry
+ * maps the key of a tuple to the tuple's RecordId. A lookup reads the header
+ * page, whose directory maps the low bits of the key's hash to a bucket
+ * page, and then the bucket, so an equality lookup costs two page reads no
+ * matter how large the table is. Only equality lookups are supported.
+ * <p>
+ * The pages of the index are {@link HashPage}s. A bucket that overflows is
+ * split in two on the next bit of the hash, doubling the directory if the
+ * bucket was already split as finely as the directory allows. Buckets whose
+ * entries can't be told apart by splitting, because they all have the same
+ * key, or because the directory can't grow any more, get a chain of
+ * overflow pages instead. Buckets are not merged when entries are deleted;
+ * an empty overflow page is put on a free list and reused.
+ * <p>
+ * All pages are read and modified through the {@link BufferPool}, under the
+ * same page locks as heap pages, so changes to the index, splits included,
+ * commit and abort with the transaction that made them and are logged like
+ * any other page.
+ * <p>
+ * As a DbFile, a HashFile holds one-field tuples: the key, with the
+ * RecordId of the indexed tuple in the table as the tuple's RecordId.
+ *
+ * @see Catalog#addIndex
+ * @see Catalog#loadSchema
+ */
+public class HashFile implements DbFile, CoveringIndex {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int HEADER_PAGE = 0;
+
+    private final File f;
+    private final int tableId;
+    private final int keyField;
+    private final Type keyType;
+    private final TupleDesc td;
+    private final int bucketCapacity;
+    private final int maxDepth;
+    private transient volatile FileChannel channel;
+
+    /**
+     * Opens the hash index stored in f, which indexes field keyField of
+     * table. If f is empty, the index is empty; use {@link #bulkLoad} to
+     * fill it from the table.
+     */
+    public HashFile(File f, DbFile table, int keyField) {
+        this.f = f;
+        this.tableId = table.getId();
+        this.keyField = keyField;
+        TupleDesc tableTd = table.getTupleDesc();
+        this.keyType = tableTd.getFieldType(keyField);
+        this.td = new TupleDesc(new Type[] { keyType }, new String[] { tableTd.getFieldName(keyField) });
+        this.bucketCapacity = HashPage.bucketCapacity(keyType);
+        this.maxDepth = HashPage.maxDepth();
+    }
+
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getPageSize() {
+        return BufferPool.PAGE_SIZE;
+    }
+
+    // see DbFile.java for javadocs
+    public PageId getPageId(int pgNo) {
+        return new HashPageId(getId(), pgNo);
+    }
+
+    // see CoveringIndex.java for javadocs
+    public int[] getCoveredFields() {
+        return new int[] { keyField };
+    }
+
+    // see CoveringIndex.java for javadocs
+    public int numPages() {
+        return (int) (f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Spreads the bits of the key's hash code, so keys that differ only in
+     * their high bits, like consecutive integers shifted left, still land in
+     * different buckets.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Returns the channel used for all I/O on this file, opening it if
+     * necessary. Reads and writes are positional, so concurrent callers
+     * don't need to coordinate a file pointer.
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen())
+            return ch;
+        synchronized (this) {
+            if (channel == null || !channel.isOpen())
+                channel = new RandomAccessFile(f, "rw").getChannel();
+            return channel;
+        }
+    }
+
+    /**
+     * Fills buf from the file starting at offset. Bytes past the end of the
+     * file are left as they are.
+     */
+    private void readFully(ByteBuffer buf, long offset) throws IOException {
+        try {
+            readFully(channel(), buf, offset);
+        } catch (ClosedChannelException e) {
+            // closed by an interrupt or by close() on another thread: reopen once
+            readFully(channel(), buf, offset);
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long offset) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, offset + buf.position() - start) < 0)
+                break;
+        }
+    }
+
+    /** Writes all of buf to the file starting at offset. */
+    private void writeFully(ByteBuffer buf, long offset) throws IOException {
+        int start = buf.position();
+        try {
+            writeFully(channel(), buf, offset);
+        } catch (ClosedChannelException e) {
+            buf.position(start);
+            writeFully(channel(), buf, offset);
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long offset) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining())
+            ch.write(buf, offset + buf.position() - start);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        try {
+            // pages past the end of the file haven't been written yet, and read as free pages
+            readFully(ByteBuffer.wrap(data), (long) pid.pageNumber() * BufferPool.PAGE_SIZE);
+            return new HashPage(new HashPageId(pid.getTableId(), pid.pageNumber()), keyType, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can't read " + pid + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> readPages(PageId first, int count) {
+        ArrayList<Page> pages = new ArrayList<Page>(count);
+        for (int i = 0; i < count; i++)
+            pages.add(readPage(new HashPageId(first.getTableId(), first.pageNumber() + i)));
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writeFully(ByteBuffer.wrap(page.getPageData()), (long) page.getId().pageNumber() * BufferPool.PAGE_SIZE);
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /** Reads a page of the index through the buffer pool. */
+    private HashPage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashPage) Database.getBufferPool().getPage(tid, new HashPageId(getId(), pgNo), perm);
+    }
+
+    /**
+     * Locks a page for writing and marks it dirty, saving its before image.
+     * Must be called on every page before it is changed; the object it
+     * returns is the one to change.
+     */
+    private HashPage write(TransactionId tid, int pgNo, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        HashPage p = getPage(tid, pgNo, Permissions.READ_WRITE);
+        p.beginUpdate();
+        p.markDirty(true, tid);
+        if (!dirtied.contains(p))
+            dirtied.add(p);
+        return p;
+    }
+
+    /**
+     * Locks the header for writing, setting it up with a directory of one
+     * empty bucket if the file is new.
+     */
+    private HashPage writeHeader(TransactionId tid, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        HashPage h = write(tid, HEADER_PAGE, dirtied);
+        if (h.kind == HashPage.FREE) {
+            h.reset(HashPage.HEADER);
+            h.numPages = 1;
+            h.directory[0] = allocate(tid, h, dirtied).pid.pageNumber();
+        }
+        return h;
+    }
+
+    /** Takes a page from the free list, or from the end of the file, and makes it an empty bucket page. */
+    private HashPage allocate(TransactionId tid, HashPage header, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        int pgNo;
+        if (header.freeHead != 0) {
+            pgNo = header.freeHead;
+            header.freeHead = write(tid, pgNo, dirtied).nextFree;
+        } else {
+            pgNo = header.numPages++;
+        }
+        HashPage p = write(tid, pgNo, dirtied);
+        p.reset(HashPage.BUCKET);
+        return p;
+    }
+
+    /** Puts a page that is no longer part of a bucket on the free list. */
+    private void free(HashPage header, HashPage p) {
+        p.reset(HashPage.FREE);
+        p.nextFree = header.freeHead;
+        header.freeHead = p.pid.pageNumber();
+    }
+
+    /** @return the number of the first page of the bucket that holds keys with hash h */
+    private static int bucketOf(HashPage header, int h) {
+        return header.directory[h & ((1 << header.globalDepth) - 1)];
+    }
+
+    /**
+     * Returns the RecordIds of the tuples whose key equals key, locking the
+     * pages read in shared mode.
+     */
+    public List<RecordId> lookup(TransactionId tid, Field key)
+            throws DbException, TransactionAbortedException {
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        HashPage header = getPage(tid, HEADER_PAGE, Permissions.READ_ONLY);
+        if (header.kind != HashPage.HEADER)
+            return rids;
+        for (int pg = bucketOf(header, hash(key)); pg != 0; ) {
+            HashPage b = getPage(tid, pg, Permissions.READ_ONLY);
+            for (int i = 0; i < b.numEntries; i++) {
+                if (b.keys[i].equals(key))
+                    rids.add(b.getRecordId(tableId, i));
+            }
+            pg = b.overflow;
+        }
+        return rids;
+    }
+
+    // see Index.java for javadocs
+    public void insertEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        insertEntry(tid, key, rid.getPageId().pageNumber(), rid.tupleno());
+    }
+
+    private ArrayList<Page> insertEntry(TransactionId tid, Field key, int ridPage, int ridSlot)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        int h = hash(key);
+        while (true) {
+            HashPage header = getPage(tid, HEADER_PAGE, Permissions.READ_ONLY);
+            if (header.kind != HashPage.HEADER)
+                header = writeHeader(tid, dirtied);
+            int first = bucketOf(header, h);
+            HashPage room = null, last = null;
+            boolean splittable = false;
+            for (int pg = first; pg != 0; pg = last.overflow) {
+                last = getPage(tid, pg, Permissions.READ_ONLY);
+                if (last.find(key, ridPage, ridSlot) >= 0)
+                    return dirtied; // already indexed
+                if (room == null && last.numEntries < bucketCapacity)
+                    room = last;
+                for (int i = 0; i < last.numEntries && !splittable; i++)
+                    splittable = hash(last.keys[i]) != h;
+            }
+            if (room != null) {
+                write(tid, room.pid.pageNumber(), dirtied).addEntry(key, ridPage, ridSlot);
+                return dirtied;
+            }
+            if (splittable && getPage(tid, first, Permissions.READ_ONLY).localDepth < maxDepth) {
+                split(tid, first, dirtied);
+                continue;
+            }
+            header = writeHeader(tid, dirtied);
+            HashPage overflow = allocate(tid, header, dirtied);
+            write(tid, last.pid.pageNumber(), dirtied).overflow = overflow.pid.pageNumber();
+            overflow.addEntry(key, ridPage, ridSlot);
+            return dirtied;
+        }
+    }
+
+    /**
+     * Splits a bucket on the next bit of the hash: the entries with the bit
+     * set move to a new bucket, and the directory entries that pointed to
+     * the old bucket for those hashes point to the new one. The directory
+     * doubles if it has no bit to spare.
+     */
+    private void split(TransactionId tid, int first, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        HashPage header = writeHeader(tid, dirtied);
+        HashPage bucket = write(tid, first, dirtied);
+        int depth = bucket.localDepth;
+        if (depth == header.globalDepth) {
+            int n = 1 << depth;
+            header.directory = Arrays.copyOf(header.directory, 2 * n);
+            System.arraycopy(header.directory, 0, header.directory, n, n);
+            header.globalDepth++;
+        }
+
+        // take the entries out of the whole chain, freeing its overflow pages
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<int[]> rids = new ArrayList<int[]>();
+        for (HashPage p = bucket; ; ) {
+            for (int i = 0; i < p.numEntries; i++) {
+                keys.add(p.keys[i]);
+                rids.add(new int[] { p.ridPages[i], p.ridSlots[i] });
+            }
+            int next = p.overflow;
+            if (p != bucket)
+                free(header, p);
+            if (next == 0)
+                break;
+            p = write(tid, next, dirtied);
+        }
+        bucket.reset(HashPage.BUCKET);
+        bucket.localDepth = depth + 1;
+        HashPage sibling = allocate(tid, header, dirtied);
+        sibling.localDepth = depth + 1;
+        for (int i = 0; i < header.directory.length; i++) {
+            if (header.directory[i] == first && ((i >>> depth) & 1) == 1)
+                header.directory[i] = sibling.pid.pageNumber();
+        }
+
+        HashPage[] tails = { bucket, sibling };
+        for (int i = 0; i < keys.size(); i++) {
+            int side = (hash(keys.get(i)) >>> depth) & 1;
+            if (tails[side].numEntries == bucketCapacity) {
+                HashPage overflow = allocate(tid, header, dirtied);
+                tails[side].overflow = overflow.pid.pageNumber();
+                tails[side] = overflow;
+            }
+            tails[side].addEntry(keys.get(i), rids.get(i)[0], rids.get(i)[1]);
+        }
+    }
+
+    // see Index.java for javadocs
+    public void deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        deleteEntry(tid, key, rid.getPageId().pageNumber(), rid.tupleno());
+    }
+
+    private ArrayList<Page> deleteEntry(TransactionId tid, Field key, int ridPage, int ridSlot)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        HashPage header = getPage(tid, HEADER_PAGE, Permissions.READ_ONLY);
+        HashPage prev = null;
+        int pg = header.kind == HashPage.HEADER ? bucketOf(header, hash(key)) : 0;
+        for (; pg != 0; pg = prev.overflow) {
+            HashPage b = getPage(tid, pg, Permissions.READ_ONLY);
+            int i = b.find(key, ridPage, ridSlot);
+            if (i < 0) {
+                prev = b;
+                continue;
+            }
+            b = write(tid, pg, dirtied);
+            b.removeEntry(i);
+            if (b.numEntries == 0 && prev != null) {
+                // unlink the empty overflow page
+                header = writeHeader(tid, dirtied);
+                write(tid, prev.pid.pageNumber(), dirtied).overflow = b.overflow;
+                free(header, b);
+            } else if (b.numEntries == 0 && b.overflow != 0) {
+                // the first page of a bucket stays in the directory; pull the next page into it
+                header = writeHeader(tid, dirtied);
+                HashPage next = write(tid, b.overflow, dirtied);
+                for (int j = 0; j < next.numEntries; j++)
+                    b.addEntry(next.keys[j], next.ridPages[j], next.ridSlots[j]);
+                b.overflow = next.overflow;
+                free(header, next);
+            }
+            return dirtied;
+        }
+        throw new DbException("no entry for " + key + " at page " + ridPage + ", slot " + ridSlot + " in index " + f);
+    }
+
+    /**
+     * Adds an entry for t.getField(0) and t.getRecordId(), the RecordId of
+     * the indexed tuple in the table.
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        return insertEntry(tid, t.getField(0), rid.getPageId().pageNumber(), rid.tupleno());
+    }
+
+    /**
+     * Removes the entry for t.getField(0) and t.getRecordId(), the RecordId
+     * of the indexed tuple in the table.
+     *
+     * @return the page the entry was removed from
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        return deleteEntry(tid, t.getField(0), rid.getPageId().pageNumber(), rid.tupleno()).get(0);
+    }
+
+    /**
+     * Fills a new index with entries for the tuples now in its table. The
+     * directory is made deep enough that the buckets start out about three
+     * quarters full, and the pages are written without going through the
+     * buffer pool; tid only locks the table while it is read.
+     *
+     * @throws DbException if anything was ever added to the index
+     */
+    public synchronized void bulkLoad(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        HashPage header = getPage(tid, HEADER_PAGE, Permissions.READ_ONLY);
+        if (header.kind == HashPage.HEADER)
+            throw new DbException("can only bulk load a new index");
+
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        DbFileIterator it = HeapFile.sequentialIterator(Database.getCatalog().getDbFile(tableId), tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            Tuple entry = new Tuple(td);
+            entry.setField(0, t.getField(keyField));
+            entry.setRecordId(t.getRecordId());
+            entries.add(entry);
+        }
+        it.close();
+
+        int depth = 0;
+        while (depth < maxDepth && entries.size() > (long) (bucketCapacity * 3 / 4) << depth)
+            depth++;
+        header = new HashPage(header.pid, keyType, new byte[BufferPool.PAGE_SIZE]);
+        header.reset(HashPage.HEADER);
+        header.numPages = 1;
+        header.globalDepth = depth;
+        header.directory = new int[1 << depth];
+        HashPage[] tails = new HashPage[1 << depth];
+        for (int i = 0; i < tails.length; i++) {
+            tails[i] = newPage(header);
+            tails[i].localDepth = depth;
+            header.directory[i] = tails[i].pid.pageNumber();
+        }
+        for (Tuple t : entries) {
+            int i = hash(t.getField(0)) & (tails.length - 1);
+            if (tails[i].numEntries == bucketCapacity) {
+                HashPage overflow = newPage(header);
+                tails[i].overflow = overflow.pid.pageNumber();
+                writePage(tails[i]);
+                tails[i] = overflow;
+            }
+            RecordId rid = t.getRecordId();
+            tails[i].addEntry(t.getField(0), rid.getPageId().pageNumber(), rid.tupleno());
+        }
+        for (HashPage p : tails)
+            writePage(p);
+        writePage(header);
+        // the pages changed behind the buffer pool's back
+        for (int i = 0; i < header.numPages; i++)
+            Database.getBufferPool().discardPage(new HashPageId(getId(), i));
+    }
+
+    /** Makes a new bucket page at the end of a file being bulk loaded. */
+    private HashPage newPage(HashPage header) throws IOException {
+        HashPage p = new HashPage(new HashPageId(getId(), header.numPages++), keyType, new byte[BufferPool.PAGE_SIZE]);
+        p.reset(HashPage.BUCKET);
+        return p;
+    }
+
+    // see Index.java for javadocs
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    // see Index.java for javadocs
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        if (ipred == null)
+            return new HashIterator(tid, null);
+        if (!supports(ipred.getOp()))
+            throw new UnsupportedOperationException("hash index can't look up " + ipred);
+        return new HashIterator(tid, ipred.getField());
+    }
+
+    /** Returns an iterator over all the entries, in no particular order. */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashIterator(tid, null);
+    }
+
+    /**
+     * Iterates over the entries with one key, following the chain of pages
+     * of its bucket, or over all entries, reading the pages of the file in
+     * order. The matching entries of a page are copied when the iterator
+     * gets to it, so the caller may change the index while iterating.
+     */
+    private class HashIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final Field key;
+        private final ArrayList<Tuple> buffered = new ArrayList<Tuple>();
+        private int pos;
+        /** The next page to read, 0 if there are no more. */
+        private int nextPage;
+        private int numPages;
+        private boolean open = false;
+
+        HashIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            buffered.clear();
+            pos = 0;
+            open = true;
+            HashPage header = getPage(tid, HEADER_PAGE, Permissions.READ_ONLY);
+            numPages = header.numPages;
+            if (header.kind != HashPage.HEADER)
+                nextPage = 0;
+            else if (key != null)
+                nextPage = bucketOf(header, hash(key));
+            else
+                nextPage = numPages > 1 ? 1 : 0;
+        }
+
+        private void readBucket(HashPage p) {
+            buffered.clear();
+            pos = 0;
+            if (key != null)
+                nextPage = p.overflow;
+            else
+                nextPage = p.pid.pageNumber() + 1 < numPages ? p.pid.pageNumber() + 1 : 0;
+            if (p.kind != HashPage.BUCKET)
+                return;
+            for (int i = 0; i < p.numEntries; i++) {
+                if (key == null || p.keys[i].equals(key)) {
+                    Tuple t = new Tuple(td);
+                    t.setField(0, p.keys[i]);
+                    t.setRecordId(p.getRecordId(tableId, i));
+                    buffered.add(t);
+                }
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                return false;
+            while (pos == buffered.size() && nextPage != 0)
+                readBucket(getPage(tid, nextPage, Permissions.READ_ONLY));
+            return pos < buffered.size();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return buffered.get(pos++);
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        public void close() {
+            open = false;
+            buffered.clear();
+        }
+    }
+}
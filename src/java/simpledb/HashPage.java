@@ -0,0 +1,273 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * A page of a {@link HashFile}. The first byte of a page says what kind of
+ * page it is:
+ * <ul>
+ * <li>HEADER: page 0 of every file. Holds the global depth d, the number of
+ * pages in the file, the head of the list of free pages, and the directory:
+ * 2^d page numbers, one per value of the low d bits of a key's hash.</li>
+ * <li>BUCKET: the entries whose hashes share the low localDepth bits, and
+ * the number of the next page of the bucket (0 if none). Only the first
+ * page of a bucket is in the directory; the others are overflow pages,
+ * used when a bucket can't be split any further.</li>
+ * <li>FREE: a page that was released, and the number of the next free page.
+ * A page past the end of the file reads as FREE.</li>
+ * </ul>
+ * An entry is a key plus the RecordId (page number and slot) of the tuple
+ * it indexes. The entries of a page are in no particular order.
+ * <p>
+ * Layouts, after the kind byte:
+ * <pre>
+ *     HEADER  int globalDepth, int numPages, int freeHead, 2^globalDepth * int bucket
+ *     BUCKET  int localDepth, int n, int overflow, n * (key, int ridPage, int ridSlot)
+ *     FREE    int nextFree
+ * </pre>
+ * HashFile changes the fields of a page directly, after calling
+ * {@link #beginUpdate}.
+ */
+public class HashPage implements Page {
+
+    public static final int FREE = 0;
+    public static final int HEADER = 1;
+    public static final int BUCKET = 2;
+
+    private static final int HEADER_SIZE = 1 + 4 + 4 + 4;
+    private static final int BUCKET_HEADER = 1 + 4 + 4 + 4;
+
+    final HashPageId pid;
+    final Type keyType;
+
+    int kind;
+
+    // HEADER
+    int globalDepth;
+    int numPages;
+    int freeHead;
+    int[] directory;
+
+    // FREE
+    int nextFree;
+
+    // BUCKET
+    int localDepth;
+    int numEntries;
+    int overflow;
+    Field[] keys;
+    int[] ridPages;
+    int[] ridSlots;
+
+    byte[] oldData;
+    boolean dirty;
+    TransactionId lastDirtyTid;
+
+    /** @return the number of entries that fit on a bucket page with keys of type t */
+    public static int bucketCapacity(Type t) {
+        return (BufferPool.PAGE_SIZE - BUCKET_HEADER) / (t.getLen() + 8);
+    }
+
+    /** @return the largest global depth whose directory fits on the header page */
+    public static int maxDepth() {
+        int d = 0;
+        while (HEADER_SIZE + 4 * (2 << d) <= BufferPool.PAGE_SIZE)
+            d++;
+        return d;
+    }
+
+    /**
+     * Creates a page from its bytes on disk. The key type is that of the
+     * HashFile with the page's table id in the catalog.
+     */
+    public HashPage(HashPageId id, byte[] data) throws IOException {
+        this(id, ((HashFile) Database.getCatalog().getDbFile(id.getTableId())).getKeyType(), data);
+    }
+
+    public HashPage(HashPageId id, Type keyType, byte[] data) throws IOException {
+        this.pid = id;
+        this.keyType = keyType;
+        int cap = bucketCapacity(keyType);
+        keys = new Field[cap];
+        ridPages = new int[cap];
+        ridSlots = new int[cap];
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        kind = buf.get(0);
+        try {
+            switch (kind) {
+            case HEADER:
+                globalDepth = buf.getInt(1);
+                numPages = buf.getInt(5);
+                freeHead = buf.getInt(9);
+                directory = new int[1 << globalDepth];
+                buf.position(HEADER_SIZE);
+                for (int i = 0; i < directory.length; i++)
+                    directory[i] = buf.getInt();
+                break;
+            case BUCKET:
+                localDepth = buf.getInt(1);
+                numEntries = buf.getInt(5);
+                overflow = buf.getInt(9);
+                buf.position(BUCKET_HEADER);
+                for (int i = 0; i < numEntries; i++) {
+                    keys[i] = keyType.parse(buf);
+                    ridPages[i] = buf.getInt();
+                    ridSlots[i] = buf.getInt();
+                }
+                break;
+            case FREE:
+                nextFree = buf.getInt(1);
+                break;
+            default:
+                throw new IOException("bad hash page kind " + kind + " on " + id);
+            }
+        } catch (ParseException e) {
+            throw new IOException("can't parse key on " + id);
+        }
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /** @return the kind of page: HEADER, BUCKET or FREE */
+    public int getKind() {
+        return kind;
+    }
+
+    /** @return the number of entries on a BUCKET page */
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /** @return the RecordId of entry i, which points into the table with the specified id */
+    public RecordId getRecordId(int tableId, int i) {
+        return new RecordId(new HeapPageId(tableId, ridPages[i]), ridSlots[i]);
+    }
+
+    /** @return the next page of the bucket, 0 if none */
+    public int getOverflow() {
+        return overflow;
+    }
+
+    /** @return true if entry i is (key, ridPage, ridSlot) */
+    boolean isEntry(int i, Field key, int ridPage, int ridSlot) {
+        return ridPages[i] == ridPage && ridSlots[i] == ridSlot && keys[i].equals(key);
+    }
+
+    /** @return the position of the entry (key, ridPage, ridSlot), or -1 if it isn't on the page */
+    int find(Field key, int ridPage, int ridSlot) {
+        for (int i = 0; i < numEntries; i++) {
+            if (isEntry(i, key, ridPage, ridSlot))
+                return i;
+        }
+        return -1;
+    }
+
+    /** Adds an entry; the page must have room for it. */
+    void addEntry(Field key, int ridPage, int ridSlot) {
+        keys[numEntries] = key;
+        ridPages[numEntries] = ridPage;
+        ridSlots[numEntries] = ridSlot;
+        numEntries++;
+    }
+
+    /** Removes entry i, moving the last entry into its place. */
+    void removeEntry(int i) {
+        numEntries--;
+        keys[i] = keys[numEntries];
+        ridPages[i] = ridPages[numEntries];
+        ridSlots[i] = ridSlots[numEntries];
+        keys[numEntries] = null;
+    }
+
+    /** Turns this page into an empty page of the specified kind. */
+    void reset(int kind) {
+        this.kind = kind;
+        numEntries = 0;
+        java.util.Arrays.fill(keys, null);
+        globalDepth = numPages = freeHead = nextFree = localDepth = overflow = 0;
+        directory = kind == HEADER ? new int[1] : null;
+    }
+
+    /**
+     * Saves the contents of the page as its before image if this is the
+     * first change since the page was read or committed. Must be called
+     * before any change to the page.
+     */
+    void beginUpdate() {
+        if (oldData == null)
+            oldData = getPageData();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(kind);
+            switch (kind) {
+            case HEADER:
+                dos.writeInt(globalDepth);
+                dos.writeInt(numPages);
+                dos.writeInt(freeHead);
+                for (int i = 0; i < (1 << globalDepth); i++)
+                    dos.writeInt(directory[i]);
+                break;
+            case BUCKET:
+                dos.writeInt(localDepth);
+                dos.writeInt(numEntries);
+                dos.writeInt(overflow);
+                for (int i = 0; i < numEntries; i++) {
+                    keyType.serialize(keys[i], dos);
+                    dos.writeInt(ridPages[i]);
+                    dos.writeInt(ridSlots[i]);
+                }
+                break;
+            case FREE:
+                dos.writeInt(nextFree);
+                break;
+            }
+            dos.write(new byte[BufferPool.PAGE_SIZE - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    public void writeTo(ByteBuffer buf) {
+        buf.put(getPageData());
+    }
+
+    public Page getBeforeImage() {
+        try {
+            return new HashPage(pid, keyType, oldData == null ? getPageData() : oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty)
+            this.lastDirtyTid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? lastDirtyTid : null;
+    }
+}
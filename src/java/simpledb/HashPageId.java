@@ -0,0 +1,49 @@
+package simpledb;
+
+/** Unique identifier for HashPage objects. */
+public class HashPageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific hash index file.
+     *
+     * @param tableId the id of the HashFile, as returned by getId()
+     * @param pgNo the page number in that file
+     */
+    public HashPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the id of the HashFile this page belongs to */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the page number in the file */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return (17 + tableId) * 17 + pgNo;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof HashPageId))
+            return false;
+        HashPageId other = (HashPageId) o;
+        return tableId == other.tableId && pgNo == other.pgNo;
+    }
+
+    public int[] serialize() {
+        return new int[] { tableId, pgNo };
+    }
+
+    public String toString() {
+        return "HashPageId(" + tableId + ", " + pgNo + ")";
+    }
+}
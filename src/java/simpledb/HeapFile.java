@@ -1,6 +1,10 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -9,13 +13,53 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A HeapFile can be switched to memory-mapped mode for read-mostly tables.
+ * Pages are then decoded straight from mappings of the file, and pages read
+ * with READ_ONLY permission aren't copied into the buffer pool at all. Writes
+ * always go through the file channel, and show through the mappings, so the
+ * tuples of a mapped page are decoded as soon as they are handed out.
+ * <p>
+ * Each HeapFile has its own page size, {@link BufferPool#PAGE_SIZE} unless
+ * it is created with another: large pages suit tables that are mostly
+ * scanned, since a scan then takes fewer, larger reads, while small ones
+ * suit tables whose tuples are read and written one at a time.
+ * <p>
+ * Files grow by extents of empty pages (see {@link #setExtentPages}), so the
+ * file is usually longer than the table. {@link #numPages} reports the pages
+ * in use; after a restart the end of the table is found again by skipping
+ * empty pages at the end of the file.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
+	private static final long serialVersionUID = 1L;
+
 	private File _myFile;
 	private TupleDesc _myTupleDesc;
+	/** Bytes per page; fixed for the life of the file. */
+	private final int _myPageSize;
+	/** Opened on first use and kept open until close(); shared by all readers and writers. */
+	private transient volatile FileChannel _myChannel;
+
+	/** Size of each mapped region of a memory-mapped file; a multiple of the page size. */
+	static final long MAP_SEGMENT_SIZE = 64L << 20;
+	private boolean _memoryMapped = false;
+	/** Read-only mappings of consecutive MAP_SEGMENT_SIZE regions; created on demand. */
+	private transient ArrayList<MappedByteBuffer> _mySegments;
+	/** Pages with room for an insert; built from the page headers on first use. */
+	private transient FreeSpaceMap _myFreeSpace;
+
+	/** Number of empty pages added at a time when the file runs out of preallocated pages. */
+	public static final int DEFAULT_EXTENT_PAGES = 64;
+	private int _myExtentPages = DEFAULT_EXTENT_PAGES;
+	/** Per-page synopses used to skip pages in filtered scans; created on first use. */
+	private transient ZoneMap _myZoneMap;
+	/** True for a temporary table, whose zone map is never saved. */
+	private boolean _myTemporary = false;
+	/** Logical end of the table in pages; -1 until found from the file on first use. */
+	private transient int _myNumPages = -1;
 	/**
 	 * Constructs a heap file backed by the specified file.
 	 * 
@@ -25,8 +69,33 @@ public class HeapFile implements DbFile {
 	 */
 	public HeapFile(File f, TupleDesc td) {
 		// some code goes here
+		this(f, td, BufferPool.PAGE_SIZE);
+	}
+
+	/**
+	 * Constructs a heap file backed by the specified file, with pages of
+	 * pageSize bytes.
+	 *
+	 * @throws IllegalArgumentException if pageSize is not a power of two
+	 *         between {@link BufferPool#MIN_PAGE_SIZE} and
+	 *         {@link BufferPool#MAX_PAGE_SIZE}
+	 */
+	public HeapFile(File f, TupleDesc td, int pageSize) {
+		if (!isValidPageSize(pageSize))
+			throw new IllegalArgumentException("invalid page size " + pageSize);
 		_myFile = f;
 		_myTupleDesc = td;
+		_myPageSize = pageSize;
+	}
+
+	/**
+	 * @return true if a HeapFile can have pages of pageSize bytes: a power of
+	 *         two, so that pages never straddle a mapped segment, between
+	 *         {@link BufferPool#MIN_PAGE_SIZE} and {@link BufferPool#MAX_PAGE_SIZE}
+	 */
+	public static boolean isValidPageSize(int pageSize) {
+		return pageSize >= BufferPool.MIN_PAGE_SIZE && pageSize <= BufferPool.MAX_PAGE_SIZE
+				&& Integer.bitCount(pageSize) == 1;
 	}
 
 	/**
@@ -63,23 +132,168 @@ public class HeapFile implements DbFile {
 		return _myTupleDesc;
 	}
 
+	// see DbFile.java for javadocs
+	public int getPageSize() {
+		return _myPageSize;
+	}
+
+	// see DbFile.java for javadocs
+	public PageId getPageId(int pgNo) {
+		return new HeapPageId(getId(), pgNo);
+	}
+
+	/**
+	 * Returns the channel used for all I/O on this file, opening it if
+	 * necessary. Channel reads and writes are positional, so concurrent
+	 * callers don't need to coordinate a file pointer.
+	 */
+	private FileChannel channel() throws IOException {
+		FileChannel ch = _myChannel;
+		if (ch != null && ch.isOpen())
+			return ch;
+		synchronized(this) {
+			if (_myChannel == null || !_myChannel.isOpen()) {
+				RandomAccessFile raf;
+				try {
+					raf = new RandomAccessFile(_myFile, "rw");
+				} catch (FileNotFoundException e) {
+					raf = new RandomAccessFile(_myFile, "r"); // read-only table
+				}
+				_myChannel = raf.getChannel();
+			}
+			return _myChannel;
+		}
+	}
+
+	/**
+	 * Closes the channel backing this file and drops its mappings. The file
+	 * is reopened if it is used again.
+	 */
+	public synchronized void close() throws IOException {
+		_mySegments = null;
+		if (_myZoneMap != null)
+			_myZoneMap.close();
+		if (_myChannel != null) {
+			_myChannel.close();
+			_myChannel = null;
+		}
+	}
+
+	/**
+	 * Turns memory-mapped mode on or off.
+	 *
+	 * @see HeapFile
+	 */
+	public synchronized void setMemoryMapped(boolean mapped) {
+		_memoryMapped = mapped;
+		_mySegments = null;
+	}
+
+	/** Returns true if pages are read from memory mappings of the file. */
+	public boolean isMemoryMapped() {
+		return _memoryMapped;
+	}
+
+	/**
+	 * Returns a buffer positioned at the start of the specified page in the
+	 * file's mapping, or null if the page lies beyond the end of the file.
+	 */
+	private ByteBuffer mappedPage(int pageNumber) throws IOException {
+		long offset = (long) _myPageSize * pageNumber;
+		int segment = (int) (offset / MAP_SEGMENT_SIZE);
+		int within = (int) (offset % MAP_SEGMENT_SIZE);
+		MappedByteBuffer mapping = mapping(segment, within + _myPageSize);
+		if (mapping == null)
+			return null;
+		ByteBuffer page = mapping.duplicate();
+		page.limit(within + _myPageSize);
+		page.position(within);
+		return page;
+	}
+
+	/**
+	 * Returns the mapping of the specified segment, mapping it (again) if it
+	 * doesn't exist yet or is shorter than minLength because the file grew.
+	 * Returns null if the file is too short.
+	 */
+	private synchronized MappedByteBuffer mapping(int segment, int minLength) throws IOException {
+		if (_mySegments == null)
+			_mySegments = new ArrayList<MappedByteBuffer>();
+		while (_mySegments.size() <= segment)
+			_mySegments.add(null);
+		MappedByteBuffer m = _mySegments.get(segment);
+		if (m == null || m.capacity() < minLength) {
+			long start = segment * MAP_SEGMENT_SIZE;
+			long length = Math.min(MAP_SEGMENT_SIZE, channel().size() - start);
+			if (length < minLength)
+				return null;
+			m = channel().map(FileChannel.MapMode.READ_ONLY, start, length);
+			_mySegments.set(segment, m);
+		}
+		return m;
+	}
+
+	/**
+	 * Fills buf from the file starting at offset. Bytes past the end of the
+	 * file are left as they are.
+	 */
+	private void readFully(ByteBuffer buf, long offset) throws IOException {
+		try {
+			readFully(channel(), buf, offset);
+		} catch (ClosedChannelException e) {
+			// closed by an interrupt or by close() on another thread: reopen once
+			readFully(channel(), buf, offset);
+		}
+	}
+
+	private static void readFully(FileChannel ch, ByteBuffer buf, long offset) throws IOException {
+		int start = buf.position();
+		while (buf.hasRemaining()) {
+			if (ch.read(buf, offset + buf.position() - start) < 0)
+				break;
+		}
+	}
+
+	/** Writes all of buf to the file starting at offset. */
+	private void writeFully(ByteBuffer buf, long offset) throws IOException {
+		int start = buf.position();
+		try {
+			writeFully(channel(), buf, offset);
+		} catch (ClosedChannelException e) {
+			buf.position(start);
+			writeFully(channel(), buf, offset);
+		}
+	}
+
+	private static void writeFully(FileChannel ch, ByteBuffer buf, long offset) throws IOException {
+		int start = buf.position();
+		while (buf.hasRemaining())
+			ch.write(buf, offset + buf.position() - start);
+	}
+
 	// see DbFile.java for javadocs 
 
 	public Page readPage(PageId pid) {
 		int pageNumber = pid.pageNumber();
-		int offset = BufferPool.PAGE_SIZE * pageNumber;
-		HeapPage toReturn = null;
-		RandomAccessFile raf = null;
+		long offset = (long) _myPageSize * pageNumber;
 		try{
-			synchronized(_myFile) {
-				raf = new RandomAccessFile(_myFile, "r");
-				byte[] pageData = new byte[BufferPool.PAGE_SIZE];
-				raf.seek(offset);
-				raf.read(pageData, 0, BufferPool.PAGE_SIZE);
-				toReturn = new HeapPage((HeapPageId) pid, pageData);
-				raf.close();
+			HeapPage page = null;
+			if (_memoryMapped) {
+				ByteBuffer mapped = mappedPage(pageNumber);
+				if (mapped != null) {
+					page = new HeapPage((HeapPageId) pid, mapped);
+					// later writes show through the mapping, so no tuple may keep reading from it
+					page.borrowFrame();
+				}
+			}
+			if (page == null) {
+				byte[] pageData = new byte[_myPageSize];
+				readFully(ByteBuffer.wrap(pageData), offset);
+				page = new HeapPage((HeapPageId) pid, pageData);
 			}
-			return toReturn;
+			// pages are read again after an abort, so this also undoes hints of rolled back inserts
+			noteFreeSpace(page);
+			return page;
 		}
 		catch(Exception e){
 			e.printStackTrace();
@@ -87,20 +301,84 @@ public class HeapFile implements DbFile {
 		}
 	}
 
+	/**
+	 * Reads a page into frame, a buffer of the page size that the caller
+	 * will later reuse for other pages, e.g. a {@link ScanRing} frame. The
+	 * page's tuples are decoded eagerly, so none of them keeps reading from
+	 * the frame.
+	 */
+	HeapPage readPage(PageId pid, ByteBuffer frame) {
+		try {
+			readFully(frame, (long) _myPageSize * pid.pageNumber());
+			// short read at the end of the file: don't leave the previous page's bytes
+			while (frame.hasRemaining())
+				frame.put((byte) 0);
+			frame.flip();
+			HeapPage page = new HeapPage((HeapPageId) pid, frame);
+			page.borrowFrame();
+			noteFreeSpace(page);
+			return page;
+		} catch(IOException e) {
+			e.printStackTrace();
+			throw new IllegalArgumentException("can't find page");
+		}
+	}
+
+
+	/**
+	 * Reads the pages with one positional read into a single array; each
+	 * page is a view of its part of the array until it is first modified.
+	 * Pages of a memory-mapped file are views of the mapping as usual.
+	 */
+	public ArrayList<Page> readPages(PageId first, int count) {
+		if (count < 1)
+			throw new IllegalArgumentException("must read at least one page");
+		ArrayList<Page> pages = new ArrayList<Page>(count);
+		int firstPage = first.pageNumber();
+		if (_memoryMapped) {
+			for (int i = 0; i < count; i++)
+				pages.add(readPage(new HeapPageId(getId(), firstPage + i)));
+			return pages;
+		}
+		try {
+			ByteBuffer data = ByteBuffer.allocate(_myPageSize * count);
+			readFully(data, (long) _myPageSize * firstPage);
+			for (int i = 0; i < count; i++) {
+				ByteBuffer pageData = data.duplicate();
+				pageData.limit(_myPageSize * (i + 1));
+				pageData.position(_myPageSize * i);
+				HeapPage page = new HeapPage(new HeapPageId(getId(), firstPage + i), pageData);
+				noteFreeSpace(page);
+				pages.add(page);
+			}
+			return pages;
+		} catch(IOException e) {
+			e.printStackTrace();
+			throw new IllegalArgumentException("can't find pages");
+		}
+	}
 
 	// see DbFile.java for javadocs
 	public void writePage(Page page) throws IOException {
 		// some code goes here
 		// not necessary for proj1
 		try {
-			synchronized(_myFile){
-				int offset = BufferPool.PAGE_SIZE * page.getId().pageNumber();
-				RandomAccessFile raf = new RandomAccessFile(_myFile, "rw");
-				byte[] pageData = page.getPageData();
-				raf.seek(offset);
-				raf.write(pageData);
+			int pageNumber = page.getId().pageNumber();
+			long offset = (long) _myPageSize * pageNumber;
+			// widen the synopsis before the new tuples reach the disk
+			if (page instanceof HeapPage)
+				zoneMap().pageWritten((HeapPage) page);
+			ByteBuffer buf = PageBuffers.acquire(_myPageSize);
+			page.writeTo(buf);
+			buf.flip();
+			writeFully(buf, offset);
+			synchronized(this) {
+				if (pageNumber >= numPages())
+					_myNumPages = pageNumber + 1;
 			}
-		} catch(Exception e) {
+			if (page instanceof HeapPage)
+				noteFreeSpace((HeapPage) page);
+		} catch(IOException e) {
 			System.out.println(e);
 			throw new IOException("can't write page to file");
 		}
@@ -108,11 +386,127 @@ public class HeapFile implements DbFile {
 	}
 
 	/**
-	 * Returns the number of pages in this HeapFile.
+	 * Returns the number of pages in this HeapFile. Preallocated pages past
+	 * the last page in use aren't counted.
 	 */
-	public int numPages() {
+	public synchronized int numPages() {
 		// some code goes here
-		return ((int) _myFile.length()) / BufferPool.PAGE_SIZE;
+		if (_myNumPages < 0) {
+			try {
+				_myNumPages = findLogicalEnd();
+			} catch (IOException e) {
+				return ((int) _myFile.length()) / _myPageSize;
+			}
+		}
+		return _myNumPages;
+	}
+
+	/**
+	 * Finds the end of the table in a file that may end with preallocated
+	 * pages. Those are all zeros, so the table ends after the last page whose
+	 * header has a slot in use. Trailing pages that were emptied by deletes
+	 * are indistinguishable from preallocated ones and are dropped too.
+	 */
+	private int findLogicalEnd() throws IOException {
+		int numPages = (int) (channel().size() / _myPageSize);
+		byte[] header = new byte[HeapPage.getHeaderSize(_myTupleDesc, _myPageSize)];
+		while (numPages > 0) {
+			Arrays.fill(header, (byte) 0);
+			readFully(ByteBuffer.wrap(header), (long) _myPageSize * (numPages - 1));
+			for (byte b : header) {
+				if (b != 0)
+					return numPages;
+			}
+			numPages--;
+		}
+		return 0;
+	}
+
+	/**
+	 * Sets the number of empty pages written at once when an insert needs a
+	 * page past the end of the file.
+	 */
+	public synchronized void setExtentPages(int pages) {
+		if (pages < 1)
+			throw new IllegalArgumentException("extent must hold at least one page");
+		_myExtentPages = pages;
+	}
+
+	public synchronized int getExtentPages() {
+		return _myExtentPages;
+	}
+
+	/**
+	 * Adds a page at the logical end of the table and returns its number. If
+	 * the file has no preallocated page left, it is grown by a whole extent of
+	 * empty pages in a single write.
+	 */
+	private synchronized int allocatePage() throws IOException {
+		int pgNo = numPages();
+		long fileSize = channel().size();
+		long end = (long) _myPageSize * (pgNo + 1);
+		if (fileSize < end) {
+			long start = (long) _myPageSize * pgNo;
+			writeFully(ByteBuffer.allocate(_myPageSize * _myExtentPages), start);
+			// copies of pages that were cut off the file, e.g. by a vacuum, may still be staged
+			Prefetcher prefetcher = Database.getBufferPool().getPrefetcher();
+			for (int i = 0; i < _myExtentPages; i++)
+				prefetcher.discard(new HeapPageId(getId(), pgNo + i));
+		}
+		_myNumPages = pgNo + 1;
+		return pgNo;
+	}
+
+	/**
+	 * Returns the free-space map of this file, first recording any pages
+	 * that were added to the file without going through it. Those pages are
+	 * classified by reading just their headers from disk, not through the
+	 * buffer pool.
+	 */
+	FreeSpaceMap freeSpaceMap() throws IOException {
+		FreeSpaceMap fsm;
+		synchronized(this) {
+			if (_myFreeSpace == null)
+				_myFreeSpace = new FreeSpaceMap();
+			fsm = _myFreeSpace;
+		}
+		int numPages = numPages();
+		if (fsm.numPages() < numPages) {
+			int numSlots = HeapPage.getNumTuples(_myTupleDesc, _myPageSize);
+			byte[] header = new byte[HeapPage.getHeaderSize(_myTupleDesc, _myPageSize)];
+			for (int i = fsm.numPages(); i < numPages; i++) {
+				Arrays.fill(header, (byte) 0);
+				readFully(ByteBuffer.wrap(header), (long) _myPageSize * i);
+				int used = 0;
+				for (byte b : header)
+					used += Integer.bitCount(b & 0xff);
+				fsm.update(i, used < numSlots);
+			}
+		}
+		return fsm;
+	}
+
+	/**
+	 * Forgets the free-space map, so it is rebuilt from the page headers on
+	 * disk the next time it is needed. Used after recovery.
+	 */
+	public synchronized void resetFreeSpaceMap() {
+		_myFreeSpace = null;
+	}
+
+	/**
+	 * Forgets the zone map's synopses, for when pages were written without
+	 * going through this file, e.g. by recovery.
+	 */
+	public void resetZoneMap() throws IOException {
+		zoneMap().clear();
+	}
+
+	private void noteFreeSpace(HeapPage page) {
+		FreeSpaceMap fsm = _myFreeSpace;
+		// pages the map hasn't reached yet are picked up from disk by freeSpaceMap()
+		if (fsm != null && page.getId().pageNumber() < fsm.numPages())
+			fsm.update(page.getId().pageNumber(), page.getNumEmptySlots() > 0);
 	}
 
 	// see DbFile.java for javadocs
@@ -120,68 +514,71 @@ public class HeapFile implements DbFile {
 			throws DbException, IOException, TransactionAbortedException {
 		// some code goes here
 		ArrayList<Page> modifiedPages = new ArrayList<Page>();
-		try {
-			boolean insertedTuple = false;
-			for (int i = 0; i < numPages(); i ++) {
-				HeapPageId pid = new HeapPageId(getId(), i);
-				HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-				if (p.getNumEmptySlots() == 0) {
-					Database.getBufferPool().releasePage(tid, pid);
-				}
-				if (p.getNumEmptySlots() >  0) {
-					Database.getBufferPool().releasePage(tid, pid);
-					p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-					p.insertTuple(t);
-					insertedTuple = true;
-					p.markDirty(true, tid);
-					modifiedPages.add(p);
-					break;
-				}
-			}
-//			if (!insertedTuple) {
-//				synchronized(_myFile) {
-//					RandomAccessFile raf = new RandomAccessFile(_myFile, "rw");
-//					byte[] pageData = HeapPage.createEmptyPageData();
-//					raf.seek(BufferPool.PAGE_SIZE * (numPages()));
-//					HeapPageId pid = new HeapPageId(getId(), numPages()+1);
-//					HeapPage p = new HeapPage(pid, pageData);
-//					p.insertTuple(t);
-//					p.markDirty(true, tid);
-//					raf.write(p.getPageData());
-//					raf.close();
-//					modifiedPages.add(p);
-//				}
-//			}
-			
-			if (!insertedTuple) {
-				HeapPageId pid;
-				HeapPage p;
-				synchronized(_myFile) {
-					RandomAccessFile raf = new RandomAccessFile(_myFile, "rw");
-					byte[] pageData = HeapPage.createEmptyPageData();
-					raf.seek(BufferPool.PAGE_SIZE * (numPages()));
-					pid = new HeapPageId(getId(), numPages());
-					p = new HeapPage(pid, pageData);
-					raf.write(p.getPageData());
-					raf.close();
-				}
-				p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-				p.insertTuple(t);
-				p.markDirty(true, tid);
-				modifiedPages.add(p);
-			}
-
-		} catch (DbException e) {
-			throw e;
-		} catch (IOException e) {
-			throw e;
-		} catch (TransactionAbortedException e) {
-			throw e;
+		HeapPage p = insertTupleBefore(tid, t, Integer.MAX_VALUE);
+		if (p == null) {
+			BufferPool bp = Database.getBufferPool();
+			HeapPageId pid = new HeapPageId(getId(), allocatePage());
+			p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+			p.insertTuple(t);
+			p.markDirty(true, tid);
+			freeSpaceMap().update(pid.pageNumber(), p.getNumEmptySlots() > 0);
 		}
+		modifiedPages.add(p);
 		return modifiedPages;
 		// not necessary for proj1
 	}
 
+	/**
+	 * Inserts the specified tuple into the first page numbered below limit
+	 * that has room, on behalf of tid. The file is never extended.
+	 *
+	 * @return the page the tuple went to, or null if no page below limit
+	 *         has room
+	 */
+	HeapPage insertTupleBefore(TransactionId tid, Tuple t, int limit)
+			throws DbException, IOException, TransactionAbortedException {
+		BufferPool bp = Database.getBufferPool();
+		FreeSpaceMap fsm = freeSpaceMap();
+		for (int i = fsm.nextPageWithRoom(0); i >= 0 && i < limit; i = fsm.nextPageWithRoom(i + 1)) {
+			HeapPageId pid = new HeapPageId(getId(), i);
+			boolean alreadyLocked = bp.holdsLock(tid, pid);
+			HeapPage p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+			if (p.getNumEmptySlots() == 0) {
+				// stale hint, e.g. the page was filled by an unflushed transaction
+				fsm.update(i, false);
+				if (!alreadyLocked)
+					bp.releasePage(tid, pid);
+				continue;
+			}
+			p.insertTuple(t);
+			p.markDirty(true, tid);
+			fsm.update(i, p.getNumEmptySlots() > 0);
+			return p;
+		}
+		return null;
+	}
+
+	/**
+	 * Cuts the pages from pgNo on off the end of the file, provided the
+	 * table still ends at end, i.e. no page was added since the caller
+	 * found those pages empty. The caller must hold write locks on them.
+	 *
+	 * @return true if the file was truncated
+	 * @see Vacuum
+	 */
+	synchronized boolean truncate(int pgNo, int end) throws IOException {
+		if (pgNo >= end || numPages() != end)
+			return false;
+		// drop the mappings first: touching a mapping past the end of the file faults
+		_mySegments = null;
+		channel().truncate((long) _myPageSize * pgNo);
+		_myNumPages = pgNo;
+		if (_myFreeSpace != null)
+			_myFreeSpace.truncate(pgNo);
+		zoneMap().truncate(pgNo);
+		return true;
+	}
+
 	// see DbFile.java for javadocs
 	public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
 	TransactionAbortedException {
@@ -193,6 +590,7 @@ public class HeapFile implements DbFile {
 			HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
 			p.deleteTuple(t);
 			p.markDirty(true, tid);
+			noteFreeSpace(p);
 			return p;
 		} catch (DbException e) {
 			throw e;
@@ -206,30 +604,46 @@ public class HeapFile implements DbFile {
 
 	class HFIterator implements DbFileIterator {
 		private File _myFile;
-		private int _myPageIndex = 0;
-		private int _myTupleIndex = 0;
+		private int _myPageIndex = -1;
 		private int _myTableId;
 		private HeapPage _myPage;
 		private Iterator<Tuple> _myTupleIterator;
 		private String _myStatus = "closed"; 
 		private TransactionId _myTransactionId;
+		private ScanRing _myRing;
+		private ReadAhead _myReadAhead;
+		/** Pages that the zone map shows can't pass all of these are skipped. */
+		private List<Predicate> _myPredicates;
+		/** True if the whole file is read in order, so read-ahead starts at its full window. */
+		private boolean _mySequential;
+
+		public HFIterator(File f, int tableId, TransactionId tid, List<Predicate> predicates) {
+			this(f, tableId, tid, predicates, false);
+		}
 
-		public HFIterator(File f, int tableId, TransactionId tid) {
+		public HFIterator(File f, int tableId, TransactionId tid, List<Predicate> predicates, boolean sequential) {
 			_myFile = f;
 			_myTableId = tableId;
 			_myStatus = "open";
 			_myTransactionId = tid;
+			_myPredicates = predicates;
+			_mySequential = sequential;
 		}
 
 		@Override
 		public void open() throws DbException, TransactionAbortedException {
 			try {
-				_myPageIndex = 0;
-				_myTupleIndex = 0;
+				_myPageIndex = -1;
+				_myTupleIterator = null;
 				_myStatus = "open";
-				HeapPageId hpid = new HeapPageId(_myTableId, _myPageIndex);
-				_myPage = (HeapPage) Database.getBufferPool().getPage(_myTransactionId, hpid, Permissions.READ_ONLY);
-				_myTupleIterator = _myPage.iterator();
+				// tables that would flood the buffer pool are read through a private ring
+				_myRing = Database.getBufferPool().newScanRing(numPages());
+				if (_myReadAhead != null)
+					_myReadAhead.close();
+				_myReadAhead = Database.getBufferPool().newReadAhead(HeapFile.this, numPages());
+				if (_myReadAhead != null && _mySequential)
+					_myReadAhead.setSequential();
+				nextPage();
 
 			} catch (Exception e) {
 				//e.printStackTrace();
@@ -242,10 +656,14 @@ public class HeapFile implements DbFile {
 		TransactionAbortedException {
 			if (_myStatus == "closed")
 				throw new NoSuchElementException();
-			if (_myTupleIterator != null && _myTupleIterator.hasNext())
-				return true;
-			else
-				return false;
+			if (_myPageIndex < 0)
+				return false; // not opened yet
+			// pages may be partly full or empty, so keep going until a tuple turns up
+			while (_myTupleIterator == null || !_myTupleIterator.hasNext()) {
+				if (!nextPage())
+					return false;
+			}
+			return true;
 		}
 
 		@Override
@@ -255,18 +673,68 @@ public class HeapFile implements DbFile {
 				throw new NoSuchElementException();
 			if (!hasNext())
 				throw new NoSuchElementException("no more tuples");
-			Tuple t = _myTupleIterator.next();
-			_myTupleIndex++;
-			if (_myTupleIndex == _myPage.numSlots) {
+			return _myTupleIterator.next();
+		}
+
+		/**
+		 * Moves to the next page that may hold tuples passing the predicates.
+		 *
+		 * @return false if there are no more pages
+		 */
+		private boolean nextPage() throws DbException, TransactionAbortedException {
+			int numPages = numPages();
+			if (_myPageIndex >= numPages)
+				return false;
+			do {
 				_myPageIndex++;
-				_myTupleIndex = 0;
-				HeapPageId hpid = new HeapPageId(_myTableId, _myPageIndex);
-				if (_myPageIndex != numPages()) {
-					_myPage = (HeapPage) Database.getBufferPool().getPage(_myTransactionId, hpid, Permissions.READ_ONLY);
-					_myTupleIterator = _myPage.iterator();
-				}
+			} while (_myPageIndex < numPages && canSkip(_myPageIndex));
+			if (_myPageIndex >= numPages) {
+				_myTupleIterator = null;
+				return false;
+			}
+			_myPage = fetchPage(_myPageIndex);
+			_myTupleIterator = _myPage.iterator();
+			if (!_myPredicates.isEmpty())
+				summarize(_myPage);
+			return true;
+		}
+
+		/**
+		 * Returns true if the zone map shows that no tuple on the page can pass
+		 * the predicates. A page that is dirty in the buffer pool is never
+		 * skipped: its synopsis describes the page on disk.
+		 */
+		private boolean canSkip(int pageNo) {
+			if (_myPredicates.isEmpty())
+				return false;
+			ZoneMap zones = zoneMap();
+			for (Predicate p : _myPredicates) {
+				if (!zones.mayMatch(pageNo, p))
+					return !Database.getBufferPool().isDirty(new HeapPageId(_myTableId, pageNo));
 			}
-			return t;
+			return false;
+		}
+
+		/** Records the synopsis of a page the zone map doesn't know yet, if it matches the disk. */
+		private void summarize(HeapPage page) {
+			ZoneMap zones = zoneMap();
+			if (page.isDirty() != null || zones.isKnown(page.getId().pageNumber()))
+				return;
+			try {
+				zones.update(page);
+			} catch (IOException e) {
+				// the page just won't be skipped
+				e.printStackTrace();
+			}
+		}
+
+		private HeapPage fetchPage(int pageNo) throws DbException, TransactionAbortedException {
+			HeapPageId hpid = new HeapPageId(_myTableId, pageNo);
+			if (_myReadAhead != null)
+				_myReadAhead.pageRequested(pageNo);
+			if (_myRing != null)
+				return (HeapPage) Database.getBufferPool().getPage(_myTransactionId, hpid, Permissions.READ_ONLY, _myRing);
+			return (HeapPage) Database.getBufferPool().getPage(_myTransactionId, hpid, Permissions.READ_ONLY);
 		}
 
 		@Override
@@ -279,6 +747,11 @@ public class HeapFile implements DbFile {
 		@Override
 		public void close() {
 			_myStatus = "closed";
+			_myRing = null;
+			if (_myReadAhead != null) {
+				_myReadAhead.close();
+				_myReadAhead = null;
+			}
 		}
 
 
@@ -286,7 +759,56 @@ public class HeapFile implements DbFile {
 	// see DbFile.java for javadocs
 	public DbFileIterator iterator(TransactionId tid) {
 		// some code goes here
-		return new HFIterator(_myFile, getId(), tid);
+		return new HFIterator(_myFile, getId(), tid, new ArrayList<Predicate>());
+	}
+
+	/**
+	 * Returns an iterator over the tuples of this file that skips pages whose
+	 * zone map synopses show that none of their tuples can pass all the
+	 * specified predicates. Tuples on the pages that are read are returned
+	 * unfiltered; the caller still has to apply the predicates.
+	 *
+	 * @see ZoneMap
+	 */
+	public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+		return new HFIterator(_myFile, getId(), tid, new ArrayList<Predicate>(predicates));
+	}
+
+	/**
+	 * Returns an iterator over all the tuples of f for a pass that reads the
+	 * whole file in order, like an index build or a statistics scan. For a
+	 * HeapFile, read-ahead fetches {@link ReadAhead#MAX_WINDOW} pages at a
+	 * time from the first page on, with one
+	 * {@link DbFile#readPages readPages} call each if multi-page read-ahead
+	 * is on; other files are read with their usual iterator.
+	 */
+	public static DbFileIterator sequentialIterator(DbFile f, TransactionId tid) {
+		if (!(f instanceof HeapFile))
+			return f.iterator(tid);
+		HeapFile hf = (HeapFile) f;
+		return hf.new HFIterator(hf._myFile, hf.getId(), tid, new ArrayList<Predicate>(), true);
+	}
+
+	/**
+	 * Marks this file as a temporary table, or as a regular one. The zone map
+	 * of a temporary table is kept in memory only: no sidecar file is left
+	 * next to the table when it is closed.
+	 *
+	 * @see ZoneMap#setPersistent
+	 */
+	public synchronized void setTemporary(boolean temporary) throws IOException {
+		_myTemporary = temporary;
+		if (_myZoneMap != null)
+			_myZoneMap.setPersistent(!temporary);
+		else if (temporary)
+			ZoneMap.deleteSidecar(_myFile);
+	}
+
+	/** Returns the zone map of this file, loading it from its sidecar file on first use. */
+	synchronized ZoneMap zoneMap() {
+		if (_myZoneMap == null)
+			_myZoneMap = new ZoneMap(_myFile, _myTupleDesc, !_myTemporary);
+		return _myZoneMap;
 	}
 }
 
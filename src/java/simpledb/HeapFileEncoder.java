@@ -2,13 +2,17 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
  * an array of tuples and converts it to
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
- * data file.
+ * data file. Tables with variable-length fields are written as the
+ * {@link SlottedPage}s of a {@link SlottedFile} instead;
+ * {@link #convertColumnar} writes a {@link ColumnFile}, and
+ * {@link #convertCompressed} a {@link CompressedHeapFile}.
  */
 
 public class HeapFileEncoder {
@@ -86,10 +90,22 @@ public class HeapFileEncoder {
     * @param numFields the number of fields in each input line/output tuple
     * @throws IOException if the input/output file can't be opened or a
     *   malformed input line is encountered
+    * @throws IllegalArgumentException if a field is variable-length and
+    *   npagebytes isn't {@link BufferPool#PAGE_SIZE}; slotted pages always
+    *   have that size
     */
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      ZoneMap.deleteSidecar(outFile); // it describes the pages being replaced
+      for (int i = 0; i < numFields; i++) {
+          if (typeAr[i].isVariableLength()) {
+              if (npagebytes != BufferPool.PAGE_SIZE)
+                  throw new IllegalArgumentException("tables with varchar fields have pages of " + BufferPool.PAGE_SIZE + " bytes");
+              convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+              return;
+          }
+      }
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -223,4 +239,128 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+  /**
+   * Converts the specified input text file, in the format described in
+   * {@link #convert(File, File, int, int, Type[], char)}, into pages in the
+   * format of {@link SlottedPage}, for tables with variable-length fields.
+   * Each page is filled with as many tuples as fit, in the order of the
+   * input; an empty input still gets one empty page.
+   *
+   * @see SlottedFile
+   */
+  static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      byte[] page = new byte[npagebytes];
+      boolean empty = true;
+      int npages = 0;
+      String line;
+      while ((line = br.readLine()) != null) {
+          Field[] fields = parseLine(line, numFields, typeAr, fieldSeparator);
+          if (fields == null)
+              continue;
+          ByteArrayOutputStream baos = new ByteArrayOutputStream();
+          DataOutputStream dos = new DataOutputStream(baos);
+          for (int i = 0; i < numFields; i++)
+              typeAr[i].serialize(fields[i], dos);
+          byte[] record = baos.toByteArray();
+          if (SlottedPage.addRecord(page, record) < 0) {
+              os.write(page);
+              npages++;
+              page = new byte[npagebytes];
+              if (SlottedPage.addRecord(page, record) < 0) {
+                  br.close();
+                  os.close();
+                  throw new IOException("tuple too large for a page: " + line);
+              }
+          }
+          empty = false;
+      }
+      if (!empty || npages == 0)
+          os.write(page);
+      br.close();
+      os.close();
+  }
+
+  /**
+   * Converts the specified input text file, in the format described in
+   * {@link #convert(File, File, int, int, Type[], char)}, into a
+   * {@link ColumnFile}, with the values of each field in pages of their
+   * own.
+   *
+   * @see ColumnFile.Writer
+   */
+  public static void convertColumnar(File inFile, File outFile,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      ColumnFile.Writer writer = new ColumnFile.Writer(outFile, td);
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      String line;
+      while ((line = br.readLine()) != null) {
+          Field[] fields = parseLine(line, numFields, typeAr, fieldSeparator);
+          if (fields == null)
+              continue;
+          Tuple t = new Tuple(td);
+          for (int i = 0; i < numFields; i++)
+              t.setField(i, fields[i]);
+          writer.add(t);
+      }
+      br.close();
+      writer.close();
+  }
+
+  /**
+   * Converts the specified input text file, in the format described in
+   * {@link #convert(File, File, int, int, Type[], char)}, into heap pages
+   * and writes them compressed as a {@link CompressedHeapFile}.
+   *
+   * @throws IllegalArgumentException if a field is variable-length; only
+   *         heap pages are compressed
+   */
+  public static void convertCompressed(File inFile, File outFile,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      for (int i = 0; i < numFields; i++) {
+          if (typeAr[i].isVariableLength())
+              throw new IllegalArgumentException("compressed tables can't have variable-length fields");
+      }
+      File heapFile = File.createTempFile("tempTable", ".dat");
+      heapFile.deleteOnExit();
+      convert(inFile, heapFile, BufferPool.PAGE_SIZE, numFields, typeAr, fieldSeparator);
+      CompressedHeapFile.compress(heapFile, outFile, CompressedHeapFile.DEFAULT_GROUP_PAGES);
+      heapFile.delete();
+  }
+
+  /**
+   * Parses a line of the input text file into fields of the specified
+   * types, reporting malformed lines.
+   *
+   * @return the fields, or null if the line is blank or malformed
+   */
+  private static Field[] parseLine(String line, int numFields, Type[] typeAr, char fieldSeparator) {
+      if (line.trim().length() == 0)
+          return null;
+      String[] vals = line.split(java.util.regex.Pattern.quote(String.valueOf(fieldSeparator)), -1);
+      if (vals.length != numFields) {
+          System.out.println ("BAD LINE : " + line);
+          return null;
+      }
+      Field[] fields = new Field[numFields];
+      try {
+          for (int i = 0; i < numFields; i++) {
+              String v = vals[i].trim();
+              if (typeAr[i] == Type.INT_TYPE)
+                  fields[i] = new IntField(Integer.parseInt(v));
+              else
+                  fields[i] = new StringField(v, Type.STRING_LEN, typeAr[i]);
+          }
+      } catch (NumberFormatException e) {
+          System.out.println ("BAD LINE : " + line);
+          return null;
+      }
+      return fields;
+  }
 }
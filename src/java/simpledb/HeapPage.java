@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
@@ -14,10 +15,36 @@ public class HeapPage implements Page {
 
 	HeapPageId pid;
 	TupleDesc td;
-	byte header[];
+	/** The page's bytes, starting at index 0. They are the only copy of the
+	    page's contents: tuples are decoded from them on demand. Guarded by
+	    the page's monitor, since the buffer pool moves the page into and out
+	    of arena frames while other threads may be reading it. */
+	ByteBuffer data;
+	/** False while data is shared with the caller of the constructor (e.g. a
+	    mapping of the file); the first modification copies it. */
+	boolean ownsData;
+	/** True while data may change under the page: a frame of the buffer
+	    pool's FrameArena or of a ScanRing, or a mapping of the file. */
+	boolean inFrame;
+	/** Tuples decoded so far, indexed by slot; null if not decoded yet. Not
+	    kept while the page is in an arena frame. */
 	Tuple tuples[];
 	int numSlots;
 	int tupleSize;
+	/** Bytes in the page, as given by the table's DbFile. */
+	int pageSize;
+	int headerSize;
+	/** Offset of each field within a tuple. */
+	int fieldOffsets[];
+	/** The header bits, 64 slots per word (slot i is bit i%64 of word i/64);
+	    kept in step with the header bytes in data. */
+	long usedSlots[];
+	int numUsedSlots;
+	/** No slot below this one is free. */
+	int freeSlotHint;
+	/** Slots filled by insertTuple since the page was read or last written;
+	    see {@link #takeInsertedTuples}. */
+	BitSet insertedSlots = new BitSet();
 	byte[] oldData;
 	boolean dirty;
 	TransactionId lastDirtyTid;
@@ -26,41 +53,72 @@ public class HeapPage implements Page {
 	 * The format of a HeapPage is a set of header bytes indicating
 	 * the slots of the page that are in use, some number of tuple slots.
 	 *  Specifically, the number of tuples is equal to: <p>
-	 *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+	 *          floor((page size*8) / (tuple size * 8 + 1))
 	 * <p> where tuple size is the size of tuples in this
-	 * database table, which can be determined via {@link Catalog#getTupleDesc}.
+	 * database table, which can be determined via {@link Catalog#getTupleDesc},
+	 * and page size is the table's, from {@link Catalog#getPageSize}.
 	 * The number of 8-bit header words is equal to:
 	 * <p>
 	 *      ceiling(no. tuple slots / 8)
 	 * <p>
+	 * Tuples are not decoded here; they are decoded from data when the
+	 * iterator or {@link #getTuple} reaches them, one field at a time.
+	 * The page reads from data until it is first modified, so the caller
+	 * must not change the array afterwards.
+	 *
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
-	 * @see BufferPool#PAGE_SIZE
+	 * @see DbFile#getPageSize
 	 */
 	public HeapPage(HeapPageId id, byte[] data) throws IOException {
+		this(id, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Create a HeapPage from a buffer holding the page's bytes, e.g. a slice
+	 * of a memory-mapped file, without copying them into an array first.
+	 * The page reads from the buffer's remaining bytes until it is first
+	 * modified, so the caller must not change them afterwards.
+	 *
+	 * @see #HeapPage(HeapPageId, byte[])
+	 */
+	public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
 		this.pid = id;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
 		this.numSlots = getNumTuples();
+		this.headerSize = getHeaderSize();
+		this.tupleSize = this.td.getSize();
 		this.dirty = false;
 		this.lastDirtyTid = null;
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
-
-		try{
-			// allocate and read the actual records of this page
-			tuples = new Tuple[numSlots];
-			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
+		if (data.remaining() < pageSize) {
+			// short read at the end of a file: pad with zeroes
+			byte[] padded = new byte[pageSize];
+			data.duplicate().get(padded, 0, data.remaining());
+			this.data = ByteBuffer.wrap(padded);
+		} else {
+			this.data = data.slice();
 		}
-		dis.close();
-		this.tupleSize = this.td.getSize();
-		setBeforeImage();
+		this.ownsData = false;
+		this.tuples = new Tuple[numSlots];
+		this.fieldOffsets = new int[td.numFields()];
+		for (int j = 1; j < fieldOffsets.length; j++)
+			fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+		readHeader();
+	}
+
+	/** Loads the header bytes into usedSlots and counts the used slots. */
+	private void readHeader() {
+		usedSlots = new long[(numSlots + 63) / 64];
+		for (int i = 0; i < headerSize; i++)
+			usedSlots[i / 8] |= (data.get(i) & 0xffL) << (8 * (i % 8));
+		// ignore stray bits past the last slot
+		if (numSlots % 64 != 0)
+			usedSlots[usedSlots.length - 1] &= (1L << numSlots) - 1;
+		numUsedSlots = 0;
+		for (long word : usedSlots)
+			numUsedSlots += Long.bitCount(word);
+		freeSlotHint = 0;
 	}
 
 	/** Retrieve the number of tuples on this page.
@@ -68,7 +126,12 @@ public class HeapPage implements Page {
 	 */
 	private int getNumTuples() {     //tupsPerPage    
 		// some code goes here
-		return (BufferPool.PAGE_SIZE * 8) / (this.td.getSize() * 8 + 1);
+		return getNumTuples(this.td, this.pageSize);
+	}
+
+	/** @return the number of tuple slots on a page of pageSize bytes of a table with the specified schema */
+	static int getNumTuples(TupleDesc td, int pageSize) {
+		return (pageSize * 8) / (td.getSize() * 8 + 1);
 	}
 
 	/**
@@ -76,14 +139,26 @@ public class HeapPage implements Page {
 	 * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
 	 */
 	private int getHeaderSize() {        
-		return ((int) Math.ceil((float)getNumTuples() / 8));
+		return getHeaderSize(this.td, this.pageSize);
 		// some code goes here                 
 	}
 
+	/** @return the number of header bytes on a page of pageSize bytes of a table with the specified schema */
+	static int getHeaderSize(TupleDesc td, int pageSize) {
+		return ((int) Math.ceil((float)getNumTuples(td, pageSize) / 8));
+	}
+
+	/** @return the number of bytes in this page */
+	public int getPageSize() {
+		return pageSize;
+	}
+
 	/** Return a view of this page before it was modified
         -- used by recovery */
-	public HeapPage getBeforeImage(){
+	public synchronized HeapPage getBeforeImage(){
 		try {
+			if (oldData == null)
+				return new HeapPage(pid,getPageData()); // not modified since it was read or committed
 			return new HeapPage(pid,oldData);
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -94,7 +169,63 @@ public class HeapPage implements Page {
 	}
 
 	public void setBeforeImage() {
-		oldData = getPageData().clone();
+		// the current contents are the before image until the next modification
+		oldData = null;
+	}
+
+	/**
+	 * Prepares data for a modification: captures the before image if this
+	 * is the first one since the page was read or committed, and takes a private copy of
+	 * the bytes if they are still shared with the constructor's caller.
+	 */
+	private synchronized void beginUpdate() {
+		if (oldData == null)
+			oldData = getPageData();
+		if (!ownsData) {
+			data = ByteBuffer.wrap(getPageData());
+			ownsData = true;
+		}
+	}
+
+	/**
+	 * Copies the page into frame, a frame of the buffer pool's FrameArena,
+	 * and reads and modifies it there from then on. Tuples decoded before
+	 * the move keep reading the old bytes, which no longer change.
+	 */
+	synchronized void moveTo(ByteBuffer frame) {
+		ByteBuffer buf = frame.duplicate();
+		buf.clear();
+		writeTo(buf);
+		data = frame;
+		ownsData = true;
+		inFrame = true;
+		tuples = null;
+	}
+
+	/**
+	 * Marks the bytes given to the constructor as a frame that will hold
+	 * other pages later, e.g. one of a {@link ScanRing}'s, or a mapping of
+	 * the file whose bytes change when the page is written, so tuples are
+	 * decoded from them eagerly. The first modification copies them as usual.
+	 */
+	synchronized void borrowFrame() {
+		inFrame = true;
+		tuples = null;
+	}
+
+	/**
+	 * Copies the page out of its arena frame onto the heap. The buffer pool
+	 * calls this before giving the frame to another page, since the page
+	 * object may still be in use, e.g. by an iterator. Readers and writers
+	 * of the frame hold the page's monitor, so once this returns none of
+	 * them is still using the frame.
+	 */
+	synchronized void moveOut() {
+		if (!inFrame)
+			return;
+		data = ByteBuffer.wrap(getPageData());
+		inFrame = false;
+		tuples = new Tuple[numSlots];
 	}
 
 	/**
@@ -105,38 +236,89 @@ public class HeapPage implements Page {
 		// some code goes here
 	}
 
+	/** Returns the offset in data of the tuple in the specified slot. */
+	private int slotOffset(int slotId) {
+		return headerSize + slotId * tupleSize;
+	}
+
+	/**
+	 * Returns the tuple in the specified slot, or null if the slot is empty.
+	 * The tuple's fields are decoded from the page the first time they are
+	 * read.
+	 */
+	public Tuple getTuple(int slotId) {
+		if (!isSlotUsed(slotId))
+			return null;
+		return decodeTuple(slotId);
+	}
+
+	/** Returns the (possibly cached) tuple for slotId, without checking the header. */
+	private synchronized Tuple decodeTuple(int slotId) {
+		if (inFrame) {
+			// the frame will be reused by other pages, so no tuple may keep reading from it
+			LazyTuple t = new LazyTuple(td, new RecordId(pid, slotId), data, slotOffset(slotId), fieldOffsets);
+			t.materialize();
+			return t;
+		}
+		if (tuples[slotId] == null)
+			tuples[slotId] = new LazyTuple(td, new RecordId(pid, slotId), data, slotOffset(slotId), fieldOffsets);
+		return tuples[slotId];
+	}
+
 	/**
-	 * Suck up tuples from the source file.
+	 * A tuple whose fields are parsed from the page bytes the first time
+	 * they are asked for. Filters and projections that only look at a few
+	 * fields never pay for decoding the others.
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next tuple, and
-		// return null.
-		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getSize(); i++) {
+	static class LazyTuple extends Tuple {
+		private static final long serialVersionUID = 1L;
+
+		private transient ByteBuffer source;
+		private final int offset;
+		private final int[] fieldOffsets;
+
+		LazyTuple(TupleDesc td, RecordId rid, ByteBuffer source, int offset, int[] fieldOffsets) {
+			super(td);
+			setRecordId(rid);
+			this.source = source;
+			this.offset = offset;
+			this.fieldOffsets = fieldOffsets;
+		}
+
+		public Field getField(int i) {
+			Field f = super.getField(i);
+			if (f == null && source != null) {
+				ByteBuffer buf = source.duplicate();
+				buf.position(offset + fieldOffsets[i]);
 				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty tuple");
+					f = getTupleDesc().getFieldType(i).parse(buf);
+				} catch (java.text.ParseException e) {
+					e.printStackTrace();
+					throw new NoSuchElementException("parsing error!");
 				}
+				super.setField(i, f);
 			}
-			return null;
+			return f;
 		}
 
-		// read fields in the tuple
-		Tuple t = new Tuple(td);
-		RecordId rid = new RecordId(pid, slotId);
-		t.setRecordId(rid);
-		try {
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = td.getFieldType(j).parse(dis);
-				t.setField(j, f);
-			}
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-			throw new NoSuchElementException("parsing error!");
+		public Iterator<Field> fields() {
+			materialize();
+			return super.fields();
 		}
 
-		return t;
+		/** Decodes every remaining field and stops reading from the page. */
+		void materialize() {
+			if (source == null)
+				return;
+			for (int i = 0; i < fieldOffsets.length; i++)
+				getField(i);
+			source = null;
+		}
+
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			materialize();
+			out.defaultWriteObject();
+		}
 	}
 
 	/**
@@ -151,64 +333,17 @@ public class HeapPage implements Page {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.PAGE_SIZE;
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// create the header of the page
-		for (int i=0; i<header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
-
-		// create the tuples
-		for (int i=0; i<tuples.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getSize(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
-				try {
-					f.serialize(dos);
-
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
-		// padding
-		int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		byte[] pageData = new byte[pageSize];
+		writeTo(ByteBuffer.wrap(pageData));
+		return pageData;
+	}
 
-		return baos.toByteArray();
+	// see Page.java for javadocs
+	public synchronized void writeTo(ByteBuffer buf) {
+		ByteBuffer src = data.duplicate();
+		src.position(0);
+		src.limit(pageSize);
+		buf.put(src);
 	}
 
 	/**
@@ -221,8 +356,17 @@ public class HeapPage implements Page {
 	 * @return The returned ByteArray.
 	 */
 	public static byte[] createEmptyPageData() {
-		int len = BufferPool.PAGE_SIZE;
-		return new byte[len]; //all 0
+		return createEmptyPageData(BufferPool.PAGE_SIZE);
+	}
+
+	/**
+	 * Generates the bytes of an empty HeapPage of a table with pages of
+	 * pageSize bytes.
+	 *
+	 * @see #createEmptyPageData()
+	 */
+	public static byte[] createEmptyPageData(int pageSize) {
+		return new byte[pageSize]; //all 0
 	}
 
 	/**
@@ -232,7 +376,7 @@ public class HeapPage implements Page {
 	 *         already empty.
 	 * @param t The tuple to delete
 	 */
-	public void deleteTuple(Tuple t) throws DbException {
+	public synchronized void deleteTuple(Tuple t) throws DbException {
 		// some code goes here
 		// not necessary for lab1
 		try {
@@ -241,8 +385,18 @@ public class HeapPage implements Page {
 			int slotno = t.getRecordId().tupleno();
 			if ( ! isSlotUsed(slotno) )
 				throw new DbException("slot already empty");
+			beginUpdate();
+			// the slot's bytes are about to be cleared: finish decoding any tuple handed out for it
+			if (tuples != null) {
+				if (tuples[slotno] instanceof LazyTuple)
+					((LazyTuple) tuples[slotno]).materialize();
+				tuples[slotno] = null;
+			}
 			t.setRecordId(null);
 			markSlotUsed(slotno,false);
+			int offset = slotOffset(slotno);
+			for (int i = 0; i < tupleSize; i++)
+				data.put(offset + i, (byte) 0);
 		} catch (ArrayIndexOutOfBoundsException e) {
 			throw new DbException("tuple not found");
 		}
@@ -255,21 +409,88 @@ public class HeapPage implements Page {
 	 *         is mismatch.
 	 * @param t The tuple to add.
 	 */
-	public void insertTuple(Tuple t) throws DbException {
+	public synchronized void insertTuple(Tuple t) throws DbException {
 		// some code goes here
 		// not necessary for lab1
 		if (getNumEmptySlots() == 0 || !t.getTupleDesc().equals(td)) {
 			throw new DbException("page is full or tupledesc mismatch");
 		}
-		for (int i = 0; i < getNumTuples(); i ++) {
-			if (!isSlotUsed(i)) {
-				markSlotUsed(i, true);
-				tuples[i] = t;
-				RecordId r = new RecordId(pid, i);
-				t.setRecordId(r);
-				break;
+		int i = nextFreeSlot(freeSlotHint);
+		beginUpdate();
+		writeTuple(i, t);
+		markSlotUsed(i, true);
+		insertedSlots.set(i);
+		if (tuples != null)
+			tuples[i] = null;
+		RecordId r = new RecordId(pid, i);
+		t.setRecordId(r);
+	}
+
+	/**
+	 * Returns the tuples inserted since the page was read or this was last
+	 * called, that are still on the page, and starts over. The heap file
+	 * calls this when it writes the page, to widen the page's zone map
+	 * synopsis without decoding the whole page.
+	 */
+	synchronized ArrayList<Tuple> takeInsertedTuples() {
+		ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+		for (int i = insertedSlots.nextSetBit(0); i >= 0; i = insertedSlots.nextSetBit(i + 1)) {
+			if (isSlotUsed(i))
+				inserted.add(decodeTuple(i));
+		}
+		insertedSlots.clear();
+		return inserted;
+	}
+
+	/** Returns the first free slot at or after from; there must be one. */
+	private int nextFreeSlot(int from) {
+		for (int w = from >>> 6; w < usedSlots.length; w++) {
+			// ~0L << from clears the slots before from in the first word only
+			long free = ~usedSlots[w] & (w == from >>> 6 ? ~0L << from : ~0L);
+			if (free != 0) {
+				int slot = (w << 6) + Long.numberOfTrailingZeros(free);
+				if (slot < numSlots)
+					return slot;
 			}
 		}
+		throw new IllegalStateException("no free slot after " + from);
+	}
+
+	/**
+	 * Returns the first slot at or after from whose bit is set in both bit
+	 * sets, or numSlots if there is none. Words with no such slot are
+	 * skipped whole.
+	 */
+	private int nextUsedSlot(long[] a, long[] b, int from) {
+		for (int w = from >>> 6; w < a.length; w++) {
+			long used = a[w] & b[w] & (w == from >>> 6 ? ~0L << from : ~0L);
+			if (used != 0)
+				return (w << 6) + Long.numberOfTrailingZeros(used);
+		}
+		return numSlots;
+	}
+
+	/**
+	 * Serializes t into the specified slot of data. Variable-length fields
+	 * are padded to their full length, so every field keeps its offset.
+	 */
+	private void writeTuple(int slotId, Tuple t) throws DbException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			for (int j=0; j<td.numFields(); j++) {
+				td.getFieldType(j).serialize(t.getField(j), dos);
+				int end = j + 1 < fieldOffsets.length ? fieldOffsets[j + 1] : tupleSize;
+				while (dos.size() < end)
+					dos.write(0);
+			}
+			dos.flush();
+		} catch (IOException e) {
+			throw new DbException("can't serialize tuple");
+		}
+		ByteBuffer buf = data.duplicate();
+		buf.position(slotOffset(slotId));
+		buf.put(baos.toByteArray(), 0, tupleSize);
 	}
 
 	/**
@@ -301,13 +522,7 @@ public class HeapPage implements Page {
 	 */
 	public int getNumEmptySlots() {
 		// some code goes here
-		int numEmptySlots = 0;
-		for (int i = 0; i < this.numSlots; i ++ ) {
-			if (!isSlotUsed(i)) {
-				numEmptySlots++;
-			}
-		}
-		return numEmptySlots;
+		return numSlots - numUsedSlots;
 	}
 
 	/**
@@ -315,14 +530,9 @@ public class HeapPage implements Page {
 	 */
 	public boolean isSlotUsed(int i) {
 		// some code goes here
-		try {
-			if (((this.header[i/8] >> i%8) & 1) == 1) {
-				return true;
-			}
-			return false;
-		} catch(ArrayIndexOutOfBoundsException e){
+		if (i < 0 || i >= numSlots)
 			throw new ArrayIndexOutOfBoundsException();
-		}
+		return (usedSlots[i >>> 6] & (1L << i)) != 0;
 	}
 
 	/**
@@ -331,17 +541,23 @@ public class HeapPage implements Page {
 	private void markSlotUsed(int i, boolean value) {
 		// some code goes here
 		// not necessary for lab1
-		try {
-			int mask = 1 << i%8;
-			if (value)
-				this.header[i/8] = (byte) (this.header[i/8] | mask);
-			else{
-				if (isSlotUsed(i)) 
-					this.header[i/8] = (byte) (this.header[i/8] ^ mask);
-			}
-
-		} catch(ArrayIndexOutOfBoundsException e){
+		if (i < 0 || i >= numSlots)
 			throw new ArrayIndexOutOfBoundsException();
+		if (isSlotUsed(i) == value)
+			return;
+		int mask = 1 << i%8;
+		byte b = data.get(i/8);
+		if (value) {
+			data.put(i/8, (byte) (b | mask));
+			usedSlots[i >>> 6] |= 1L << i;
+			numUsedSlots++;
+			if (i == freeSlotHint)
+				freeSlotHint++;
+		} else {
+			data.put(i/8, (byte) (b & ~mask));
+			usedSlots[i >>> 6] &= ~(1L << i);
+			numUsedSlots--;
+			freeSlotHint = Math.min(freeSlotHint, i);
 		}
 	}
 
@@ -351,19 +567,32 @@ public class HeapPage implements Page {
 	 */
 
 	class HPIterator implements Iterator<Tuple>{
-		private Iterator<Tuple> _myIterator;
-		public HPIterator(Iterator<Tuple> itr) {
-			_myIterator = itr;
+		/** The header when the iterator was created, so later inserts and deletes don't affect it. */
+		private long[] _myHeader;
+		private int _mySlot;
+
+		public HPIterator() {
+			_myHeader = usedSlots.clone();
+			_mySlot = nextUsedSlot(_myHeader, usedSlots, 0);
+		}
+
+		/** Moves to the next slot that was used when the iterator was created and still is. */
+		private void advance() {
+			_mySlot = _mySlot + 1 < numSlots ? nextUsedSlot(_myHeader, usedSlots, _mySlot + 1) : numSlots;
 		}
 
 		@Override
 		public boolean hasNext() {
-			return _myIterator.hasNext();
+			return _mySlot < numSlots;
 		}
 
 		@Override
 		public Tuple next() {
-			return _myIterator.next();
+			if (!hasNext())
+				throw new NoSuchElementException();
+			Tuple t = decodeTuple(_mySlot);
+			advance();
+			return t;
 		}
 
 		@Override
@@ -375,14 +604,7 @@ public class HeapPage implements Page {
 
 	public Iterator<Tuple> iterator() {
 		// some code goes here
-		ArrayList<Tuple> usedSlots = new ArrayList<Tuple>();
-		for (int i = 0; i < this.numSlots; i ++ ) {
-			if (((this.header[i/8] >> i%8) & 1) == 1) {
-				usedSlots.add(this.tuples[i]);
-			}
-		}
-		return new HPIterator(usedSlots.iterator());
+		return new HPIterator();
 	}
 
 }
-
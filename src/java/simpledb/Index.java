@@ -0,0 +1,50 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * A secondary index on one field of a table. Each entry maps the key of a
+ * tuple to the tuple's RecordId.
+ * <p>
+ * Indexes are registered with {@link Catalog#addIndex}; from then on
+ * {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple} keep
+ * them up to date as tuples are added to and removed from the table.
+ *
+ * @see IndexScan
+ */
+public interface Index {
+
+    /** @return the id of the table this index is on */
+    public int getTableId();
+
+    /** @return the index of the field of the table that is the key */
+    public int getKeyField();
+
+    /** @return true if {@link #indexIterator} can look up keys with op */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Adds an entry for a tuple that was just added to the table.
+     */
+    public void insertEntry(TransactionId tid, Field key, RecordId rid)
+        throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * Removes the entry of a tuple that is about to be removed from the
+     * table.
+     *
+     * @throws DbException if there is no such entry
+     */
+    public void deleteEntry(TransactionId tid, Field key, RecordId rid)
+        throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * Returns an iterator over the entries whose keys pass ipred. Each entry
+     * is a one-field tuple holding the key, whose RecordId is the RecordId
+     * of the indexed tuple in the table.
+     *
+     * @throws UnsupportedOperationException if the index doesn't support
+     *         ipred's operator
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred);
+}
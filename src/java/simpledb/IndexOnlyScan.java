@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexOnlyScan is an access method that answers a query from the entries
+ * of a {@link CoveringIndex}, without reading the table. It returns one
+ * tuple per entry whose key passes an IndexPredicate, holding only the
+ * fields the index covers, in the order of the index; each tuple's
+ * RecordId is that of the indexed tuple in the table.
+ * <p>
+ * It can only be used when the query needs no fields of the table other
+ * than those the index covers.
+ */
+public class IndexOnlyScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId transid;
+    private CoveringIndex index;
+    private IndexPredicate ipred;
+    private int tableid;
+    private String tableAlias;
+    private TupleDesc td;
+    private DbFileIterator entries;
+
+    /**
+     * Creates a scan over the entries of the index whose keys pass ipred,
+     * as a part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to read; must support ipred's operator
+     * @param ipred
+     *            the predicate on the index key, or null to return every
+     *            entry
+     * @param tableAlias
+     *            the alias of the table, which prefixes the field names of
+     *            the returned tuples as in {@link SeqScan}
+     */
+    public IndexOnlyScan(TransactionId tid, CoveringIndex index, IndexPredicate ipred, String tableAlias) {
+        this.transid = tid;
+        this.index = index;
+        this.ipred = ipred;
+        this.tableid = index.getTableId();
+        this.tableAlias = tableAlias;
+        TupleDesc entryTd = index.getTupleDesc();
+        Type[] typeArr = new Type[entryTd.numFields()];
+        String[] nameArr = new String[entryTd.numFields()];
+        for (int i = 0; i < entryTd.numFields(); i++) {
+            typeArr[i] = entryTd.getFieldType(i);
+            nameArr[i] = tableAlias + "." + entryTd.getFieldName(i);
+        }
+        this.td = new TupleDesc(typeArr, nameArr);
+    }
+
+    public IndexOnlyScan(TransactionId tid, CoveringIndex index, IndexPredicate ipred) {
+        this(tid, index, ipred, Database.getCatalog().getTableName(index.getTableId()));
+    }
+
+    /** @return the name of the indexed table, as in the catalog */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public CoveringIndex getIndex() {
+        return index;
+    }
+
+    /** @return the predicate on the index key, or null if the scan returns every entry */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        entries = index.indexIterator(transid, ipred);
+        entries.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the index entries with field names prefixed
+     * with the table alias, like {@link SeqScan#getTupleDesc}.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return entries != null && entries.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple entry = entries.next();
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            t.setField(i, entry.getField(i));
+        t.setRecordId(entry.getRecordId());
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        entries.rewind();
+    }
+
+    public void close() {
+        if (entries != null)
+            entries.close();
+        entries = null;
+    }
+}
@@ -0,0 +1,52 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key of an index against a constant, e.g.
+ * "key >= 5". It is what an {@link Index} is asked to look up.
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field operand;
+
+    /**
+     * @param op the comparison to apply to each key
+     * @param operand the constant each key is compared against
+     */
+    public IndexPredicate(Predicate.Op op, Field operand) {
+        this.op = op;
+        this.operand = operand;
+    }
+
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    public Field getField() {
+        return operand;
+    }
+
+    /** @return true if key passes this predicate */
+    public boolean matches(Field key) {
+        return key.compare(op, operand);
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof IndexPredicate))
+            return false;
+        IndexPredicate other = (IndexPredicate) o;
+        return op == other.op && operand.equals(other.operand);
+    }
+
+    public int hashCode() {
+        return op.hashCode() * 31 + operand.hashCode();
+    }
+
+    public String toString() {
+        return "key " + op + " " + operand;
+    }
+}
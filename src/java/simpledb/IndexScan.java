@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that uses an {@link Index} to find the
+ * tuples of a table that pass an IndexPredicate, and reads only the pages
+ * that hold them. Tuples are returned in the order of the index.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId transid;
+    private Index index;
+    private IndexPredicate ipred;
+    private int tableid;
+    private String tableAlias;
+    private DbFileIterator entries;
+    private Tuple next;
+
+    /**
+     * Creates a scan over the tuples of the indexed table whose keys pass
+     * ipred, as a part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to look the tuples up in; must support ipred's
+     *            operator
+     * @param ipred
+     *            the predicate on the index key
+     * @param tableAlias
+     *            the alias of the table, which prefixes the field names of
+     *            the returned tuples as in {@link SeqScan}
+     */
+    public IndexScan(TransactionId tid, Index index, IndexPredicate ipred, String tableAlias) {
+        this.transid = tid;
+        this.index = index;
+        this.ipred = ipred;
+        this.tableid = index.getTableId();
+        this.tableAlias = tableAlias;
+    }
+
+    public IndexScan(TransactionId tid, Index index, IndexPredicate ipred) {
+        this(tid, index, ipred, Database.getCatalog().getTableName(index.getTableId()));
+    }
+
+    /** @return the name of the table the scan reads, as in the catalog */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public Index getIndex() {
+        return index;
+    }
+
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        entries = index.indexIterator(transid, ipred);
+        entries.open();
+        next = null;
+    }
+
+    /**
+     * Returns the TupleDesc of the table with field names prefixed with the
+     * table alias, like {@link SeqScan#getTupleDesc}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        Type[] typeArr = new Type[td.numFields()];
+        String[] nameArr = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            typeArr[i] = td.getFieldType(i);
+            nameArr[i] = getAlias() + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(typeArr, nameArr);
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (entries == null)
+            return false;
+        while (next == null && entries.hasNext()) {
+            RecordId rid = entries.next().getRecordId();
+            Page page = Database.getBufferPool().getPage(transid, rid.getPageId(), Permissions.READ_ONLY);
+            if (page instanceof SlottedPage)
+                next = ((SlottedPage) page).getTuple(rid.tupleno());
+            else
+                next = ((HeapPage) page).getTuple(rid.tupleno());
+            // indexes may return entries that are out of date
+            if (next != null && !ipred.matches(next.getField(index.getKeyField())))
+                next = null;
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        entries.rewind();
+        next = null;
+    }
+
+    public void close() {
+        if (entries != null)
+            entries.close();
+        entries = null;
+        next = null;
+    }
+}
@@ -15,6 +15,7 @@ import simpledb.Predicate.Op;
 public class JoinOptimizer {
 	LogicalPlan p;
 	Vector<LogicalJoinNode> joins;
+	Map<String, Double> accessCosts;
 
 	/**
 	 * Constructor
@@ -25,8 +26,27 @@ public class JoinOptimizer {
 	 *            the list of joins being performed
 	 */
 	public JoinOptimizer(LogicalPlan p, Vector<LogicalJoinNode> joins) {
+		this(p, joins, new HashMap<String, Double>());
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param p
+	 *            the logical plan being optimized
+	 * @param joins
+	 *            the list of joins being performed
+	 * @param accessCosts
+	 *            the estimated cost of reading each table through the access
+	 *            method chosen for it, referenced by table alias; tables
+	 *            without an entry are assumed to be read with a sequential
+	 *            scan
+	 */
+	public JoinOptimizer(LogicalPlan p, Vector<LogicalJoinNode> joins,
+			Map<String, Double> accessCosts) {
 		this.p = p;
 		this.joins = joins;
+		this.accessCosts = accessCosts;
 	}
 
 	/**
@@ -340,13 +360,13 @@ public class JoinOptimizer {
 
 		if (news.isEmpty()) { // base case -- both are base relations
 			prevBest = new Vector<LogicalJoinNode>();
-			t1cost = stats.get(table1Name).estimateScanCost();
+			t1cost = accessCost(stats, table1Name, j.t1Alias);
 			t1card = stats.get(table1Name).estimateTableCardinality(
 					filterSelectivities.get(j.t1Alias));
 			leftPkey = isPkey(j.t1Alias, j.f1PureName);
 
-			t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-					.estimateScanCost();
+			t2cost = table2Alias == null ? 0 : accessCost(stats, table2Name,
+					table2Alias);
 			t2card = table2Alias == null ? 0 : stats.get(table2Name)
 					.estimateTableCardinality(
 							filterSelectivities.get(j.t2Alias));
@@ -373,8 +393,8 @@ public class JoinOptimizer {
 				t1card = bestCard;
 				leftPkey = hasPkey(prevBest);
 
-				t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-						.estimateScanCost();
+				t2cost = j.t2Alias == null ? 0 : accessCost(stats,
+						table2Name, j.t2Alias);
 				t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
 						.estimateTableCardinality(
 								filterSelectivities.get(j.t2Alias));
@@ -389,7 +409,7 @@ public class JoinOptimizer {
 				t2card = bestCard;
 				rightPkey = hasPkey(prevBest);
 
-				t1cost = stats.get(table1Name).estimateScanCost();
+				t1cost = accessCost(stats, table1Name, j.t1Alias);
 				t1card = stats.get(table1Name).estimateTableCardinality(
 						filterSelectivities.get(j.t1Alias));
 				leftPkey = isPkey(j.t1Alias, j.f1PureName);
@@ -427,6 +447,19 @@ public class JoinOptimizer {
 		return cc;
 	}
 
+	/**
+	 * Return the estimated cost of reading the table with the specified
+	 * alias: the cost of its access method if one was given to the
+	 * constructor, or else of a sequential scan
+	 */
+	private double accessCost(HashMap<String, TableStats> stats,
+			String tableName, String tableAlias) {
+		Double cost = accessCosts.get(tableAlias);
+		if (cost != null)
+			return cost;
+		return stats.get(tableName).estimateScanCost();
+	}
+
 	/**
 	 * Return true if the specified table is in the list of joins, false
 	 * otherwise
@@ -529,7 +562,7 @@ public class JoinOptimizer {
 			if (n == null) { // never seen this table before
 				n = new DefaultMutableTreeNode(j.t1Alias
 						+ " (Cost = "
-						+ stats.get(table1Name).estimateScanCost()
+						+ accessCost(stats, table1Name, j.t1Alias)
 						+ ", card = "
 						+ stats.get(table1Name).estimateTableCardinality(
 								selectivities.get(j.t1Alias)) + ")");
@@ -548,8 +581,8 @@ public class JoinOptimizer {
 						j.t2Alias == null ? "Subplan"
 								: (j.t2Alias
 										+ " (Cost = "
-										+ stats.get(table2Name)
-										.estimateScanCost()
+										+ accessCost(stats, table2Name,
+												j.t2Alias)
 										+ ", card = "
 										+ stats.get(table2Name)
 										.estimateTableCardinality(
@@ -4,6 +4,8 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -240,9 +242,14 @@ public class LogFile {
         for (int i = 0; i < pageInfo.length; i++) {
             raf.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        ByteBuffer pageData = PageBuffers.acquire(Database.getCatalog().getPageSize(pid.getTableId()));
+        p.writeTo(pageData);
+        pageData.flip();
+        raf.writeInt(pageData.remaining());
+        // the channel shares raf's file pointer
+        FileChannel ch = raf.getChannel();
+        while (pageData.hasRemaining())
+            ch.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
@@ -265,7 +272,7 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = pageClass.getDeclaredConstructor(pid.getClass(), byte[].class);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,12 +282,15 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
             e.printStackTrace();
             throw new IOException();
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+            throw new IOException();
         } catch (InstantiationException e) {
             e.printStackTrace();
             throw new IOException();
@@ -494,6 +504,16 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+
+                // recovery rewrites pages behind the heap files' backs
+                Iterator<Integer> tableIds = Database.getCatalog().tableIdIterator();
+                while (tableIds.hasNext()) {
+                    DbFile f = Database.getCatalog().getDbFile(tableIds.next());
+                    if (f instanceof HeapFile) {
+                        ((HeapFile) f).resetFreeSpaceMap();
+                        ((HeapFile) f).resetZoneMap();
+                    }
+                }
             }
          }
     }
@@ -1,10 +1,15 @@
 package simpledb;
 import java.util.Map;
 import java.util.Vector;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -27,6 +32,7 @@ public class LogicalPlan {
     private Vector<LogicalFilterNode> filters;
     private HashMap<String,DbIterator> subplanMap;
     private HashMap<String,Integer> tableMap;
+    private HashMap<String,Double> accessCosts;
 
     private Vector<LogicalSelectListNode> selectList;
     private String groupByField = null;
@@ -45,6 +51,7 @@ public class LogicalPlan {
         tables = new Vector<LogicalScanNode>();
         subplanMap = new HashMap<String,DbIterator>();
         tableMap = new HashMap<String,Integer>();
+        accessCosts = new HashMap<String,Double>();
 
         selectList = new Vector<LogicalSelectListNode>();
         this.query = "";
@@ -271,6 +278,198 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Returns the pure names of the fields of the table with the specified
+     *  alias that the query refers to anywhere, or null if it refers to all
+     *  of them with a *.
+     */
+    private Set<String> referencedFields(String alias) {
+        Set<String> names = new HashSet<String>();
+        ArrayList<String> refs = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            refs.add(si.fname);
+        if (hasAgg) {
+            refs.add(aggField);
+            if (groupByField != null)
+                refs.add(groupByField);
+        }
+        if (hasOrderBy)
+            refs.add(oByField);
+        for (String ref : refs) {
+            String[] parts = ref.split("[.]");
+            if (parts.length != 2 || (!parts[0].equals(alias) && !parts[0].equals("null")))
+                continue;
+            if (parts[1].equals("*"))
+                return null;
+            names.add(parts[1]);
+        }
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias))
+                names.add(lf.fieldPureName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            if (alias.equals(lj.t1Alias))
+                names.add(lj.f1PureName);
+            if (alias.equals(lj.t2Alias))
+                names.add(lj.f2PureName);
+        }
+        return names;
+    }
+
+    /** Returns true if index holds every field of the table in needed. */
+    private static boolean covers(CoveringIndex index, TupleDesc tableTd, Set<String> needed) {
+        Set<String> covered = new HashSet<String>();
+        for (int field : index.getCoveredFields())
+            covered.add(tableTd.getFieldName(field));
+        return covered.containsAll(needed);
+    }
+
+    /** Returns the fields of the table the query refers to, in the order of
+     *  the table, or all of them if it refers to them with a *. A query
+     *  that refers to none, e.g. a count(*), still reads the first, to count
+     *  the rows.
+     */
+    private int[] columnsToRead(LogicalScanNode table) {
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(table.t);
+        Set<String> needed = referencedFields(table.alias);
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        for (int i = 0; i < tableTd.numFields(); i++) {
+            if (needed == null || needed.contains(tableTd.getFieldName(i)))
+                fields.add(i);
+        }
+        if (fields.isEmpty())
+            fields.add(0);
+        int[] out = new int[fields.size()];
+        for (int i = 0; i < out.length; i++)
+            out[i] = fields.get(i);
+        return out;
+    }
+
+    /** Picks the cheapest way to read a table: the sequential scan ss, an
+     *  {@link IndexScan} on an index that matches one of the table's filters,
+     *  a {@link BitmapScan} that combines all the filters on fields with
+     *  a {@link BitmapIndex}, a {@link BitmapHeapScan} that combines the
+     *  most selective filters on fields with other indexes, or, if a
+     *  {@link CoveringIndex} holds every
+     *  field of the table the query refers to, an {@link IndexOnlyScan} of
+     *  all of the index or of the entries that match one of the filters.
+     *  All of the filters are still applied on top of the access method.
+     *  The estimated cost of the chosen access method is recorded in
+     *  accessCosts. A table stored as a {@link ColumnFile} is always read
+     *  with a {@link ColumnScan} of the columns the query refers to.
+     *  @param t The transaction the scan will run as a part of
+     *  @param table The table, as added by {@link #addScan}
+     *  @param ss A sequential scan of the table
+     *  @param stats The statistics of the table, or null if there are none
+     *  @return ss, or an IndexScan, BitmapScan, BitmapHeapScan, IndexOnlyScan or ColumnScan over the same table
+     */
+    private DbIterator chooseAccessMethod(TransactionId t, LogicalScanNode table, SeqScan ss, TableStats stats) {
+        if (Database.getCatalog().getDbFile(table.t) instanceof ColumnFile) {
+            ColumnScan cs = new ColumnScan(t, table.t, table.alias, columnsToRead(table));
+            if (stats != null)
+                accessCosts.put(table.alias, stats.estimateColumnScanCost(cs.getFields()));
+            return cs;
+        }
+        List<Index> indexes = Database.getCatalog().getIndexes(table.t);
+        if (indexes.isEmpty() || stats == null)
+            return ss;
+        DbIterator best = ss;
+        double bestCost = stats.estimateScanCost();
+        TupleDesc td = ss.getTupleDesc();
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(table.t);
+        Set<String> needed = referencedFields(table.alias);
+        ArrayList<CoveringIndex> covering = new ArrayList<CoveringIndex>();
+        for (Index index : indexes) {
+            if (needed == null || !(index instanceof CoveringIndex) || !covers((CoveringIndex) index, tableTd, needed))
+                continue;
+            CoveringIndex ci = (CoveringIndex) index;
+            covering.add(ci);
+            double cost = stats.estimateIndexOnlyScanCost(1.0, ci.numPages());
+            if (cost < bestCost) {
+                best = new IndexOnlyScan(t, ci, null, table.alias);
+                bestCost = cost;
+            }
+        }
+        ArrayList<Predicate> bitmapPreds = new ArrayList<Predicate>();
+        double bitmapSel = 1.0;
+        ArrayList<Predicate> heapPreds = new ArrayList<Predicate>();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+            } catch (NoSuchElementException e) {
+                continue; // reported when the filters are built
+            }
+            Field f;
+            if (td.getFieldType(field) == Type.INT_TYPE)
+                f = new IntField(new Integer(lf.c).intValue());
+            else
+                f = new StringField(lf.c, Type.STRING_LEN);
+            if (BitmapHeapScan.findIndex(table.t, field, lf.p) != null)
+                heapPreds.add(new Predicate(field, lf.p, f));
+            for (Index index : indexes) {
+                if (index.getKeyField() != field || !index.supports(lf.p))
+                    continue;
+                if (index instanceof BitmapIndex) {
+                    bitmapPreds.add(new Predicate(field, lf.p, f));
+                    bitmapSel *= stats.estimateSelectivity(field, lf.p, f);
+                    continue;
+                }
+                double cost = stats.estimateIndexScanCost(field, lf.p, f);
+                if (cost < bestCost) {
+                    best = new IndexScan(t, index, new IndexPredicate(lf.p, f), table.alias);
+                    bestCost = cost;
+                }
+                if (covering.contains(index)) {
+                    CoveringIndex ci = (CoveringIndex) index;
+                    cost = stats.estimateIndexOnlyScanCost(stats.estimateSelectivity(field, lf.p, f), ci.numPages());
+                    if (cost < bestCost) {
+                        best = new IndexOnlyScan(t, ci, new IndexPredicate(lf.p, f), table.alias);
+                        bestCost = cost;
+                    }
+                }
+            }
+        }
+        if (!bitmapPreds.isEmpty() && stats.estimateBitmapScanCost(bitmapSel) < bestCost) {
+            best = new BitmapScan(t, table.t, table.alias, bitmapPreds);
+            bestCost = stats.estimateBitmapScanCost(bitmapSel);
+        }
+
+        // add the filters with indexes to a bitmap heap scan, most selective
+        // first, for as long as each one saves more reads of the table than
+        // it costs reads of its index
+        final HashMap<Predicate,Double> sels = new HashMap<Predicate,Double>();
+        for (Predicate p : heapPreds)
+            sels.put(p, stats.estimateSelectivity(p.getField(), p.getOp(), p.getOperand()));
+        Collections.sort(heapPreds, new Comparator<Predicate>() {
+            public int compare(Predicate a, Predicate b) {
+                return Double.compare(sels.get(a), sels.get(b));
+            }
+        });
+        ArrayList<Predicate> chosen = new ArrayList<Predicate>();
+        double heapSel = 1.0, indexPages = 0, heapCost = Double.MAX_VALUE;
+        for (Predicate p : heapPreds) {
+            Index index = BitmapHeapScan.findIndex(table.t, p.getField(), p.getOp());
+            double pages = indexPages + 1;
+            if (index instanceof CoveringIndex)
+                pages += sels.get(p) * ((CoveringIndex) index).numPages();
+            double cost = stats.estimateBitmapHeapScanCost(heapSel * sels.get(p), pages);
+            if (cost >= heapCost)
+                break;
+            chosen.add(p);
+            heapSel *= sels.get(p);
+            indexPages = pages;
+            heapCost = cost;
+        }
+        if (!chosen.isEmpty() && heapCost < bestCost) {
+            best = new BitmapHeapScan(t, table.t, table.alias, chosen);
+            bestCost = heapCost;
+        }
+        accessCosts.put(table.alias, bestCost);
+        return best;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -299,8 +498,8 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
-            subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
+            subplanMap.put(table.alias, chooseAccessMethod(t, table, ss, baseTableStats.get(baseTableName)));
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
@@ -338,13 +537,15 @@ public class LogicalPlan {
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the subplan may be an index only scan, whose fields are not numbered as in the table
+            int statsField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias)).fieldNameToIndex(lf.fieldPureName);
+            double sel= s.estimateSelectivity(statsField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
-        JoinOptimizer jo = new JoinOptimizer(this,joins);
+        JoinOptimizer jo = new JoinOptimizer(this,joins,accessCosts);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
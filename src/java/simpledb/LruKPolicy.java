@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LruKPolicy implements LRU-K (O'Neil, O'Neil and Weikum, SIGMOD '93). The
+ * victim is the clean page whose K-th most recent reference is oldest; pages
+ * referenced fewer than K times are evicted first, oldest last reference
+ * first. A single sequential scan therefore can't push out pages that are
+ * referenced repeatedly.
+ * <p>
+ * Reference history of evicted pages is retained for as many pages as there
+ * are frames, so a page that comes straight back keeps its history.
+ */
+public class LruKPolicy extends AbstractReplacementPolicy {
+
+    private final int k;
+    private final int numFrames;
+    /** history[frame][0] is the most recent reference, 0 means none */
+    private long[][] history;
+    private PageId[] framePids;
+    private LinkedHashMap<PageId, long[]> retained;
+    private long clock = 0;
+
+    public LruKPolicy(int numFrames, int k) {
+        this.k = k;
+        this.numFrames = numFrames;
+        history = new long[numFrames][k];
+        framePids = new PageId[numFrames];
+        retained = new LinkedHashMap<PageId, long[]>(16, 0.75f, false) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > LruKPolicy.this.numFrames;
+            }
+        };
+    }
+
+    private void reference(int frame) {
+        long[] h = history[frame];
+        System.arraycopy(h, 0, h, 1, k - 1);
+        h[0] = ++clock;
+    }
+
+    public void pageHit(int frame) {
+        recordHit();
+        reference(frame);
+    }
+
+    public void pageLoaded(int frame, PageId pid) {
+        recordMiss();
+        long[] h = retained.remove(pid);
+        history[frame] = h != null ? h : new long[k];
+        framePids[frame] = pid;
+        reference(frame);
+    }
+
+    public void pageRemoved(int frame) {
+        if (framePids[frame] != null)
+            retained.put(framePids[frame], history[frame]);
+        framePids[frame] = null;
+        history[frame] = new long[k];
+    }
+
+    public int chooseVictim(Page[] frames) {
+        int victim = NO_VICTIM;
+        for (int i = 0; i < frames.length; i++) {
+            if (!isEvictable(frames, i))
+                continue;
+            if (victim == NO_VICTIM || older(history[i], history[victim]))
+                victim = i;
+        }
+        return victim;
+    }
+
+    /** @return true if history a has an older K-th reference than b */
+    private boolean older(long[] a, long[] b) {
+        if (a[k - 1] != b[k - 1])
+            return a[k - 1] < b[k - 1];
+        // both have fewer than K references (or a tie): fall back to LRU
+        return a[0] < b[0];
+    }
+}
@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Lz4Codec compresses blocks of bytes in the LZ4 block format: a series of
+ * sequences, each a run of literal bytes followed by a match, i.e. a copy
+ * of earlier output given by its distance back and its length. Matches are
+ * found through a hash table of the positions of recent 4-byte strings, so
+ * compression takes one pass and decompression is little more than copying;
+ * the ratio is modest, but both are fast.
+ * <p>
+ * A sequence starts with a token byte holding the literal length in its
+ * high 4 bits and the match length minus 4 in its low 4 bits; a value of
+ * 15 is continued by bytes that are added to it, up to and including the
+ * first one less than 255. The literals, the distance (2 bytes, little
+ * endian) and the rest of the match length follow. The last sequence has
+ * literals only.
+ *
+ * @see CompressedHeapFile
+ */
+public class Lz4Codec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_LOG = 12;
+    private static final int MAX_DISTANCE = 65535;
+    /** The last bytes of a block are always literals, as in LZ4 itself. */
+    private static final int LAST_LITERALS = 5;
+    /** No match starts in the last bytes of a block. */
+    private static final int MATCH_LIMIT = 12;
+
+    private Lz4Codec() {
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int v) {
+        return (v * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    /** @return the largest number of bytes len bytes can compress to */
+    public static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    /** Writes a length of 15 or more as its continuation bytes; returns the new position. */
+    private static int putLength(byte[] dst, int op, int len) {
+        len -= 15;
+        while (len >= 255) {
+            dst[op++] = (byte) 255;
+            len -= 255;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    /** Writes the literals src[anchor, anchor + litLen) and a match; matchLen 0 means none. */
+    private static int putSequence(byte[] src, int anchor, int litLen, int distance, int matchLen, byte[] dst, int op) {
+        int ml = matchLen == 0 ? 0 : matchLen - MIN_MATCH;
+        dst[op++] = (byte) (Math.min(litLen, 15) << 4 | Math.min(ml, 15));
+        if (litLen >= 15)
+            op = putLength(dst, op, litLen);
+        System.arraycopy(src, anchor, dst, op, litLen);
+        op += litLen;
+        if (matchLen == 0)
+            return op;
+        dst[op++] = (byte) distance;
+        dst[op++] = (byte) (distance >>> 8);
+        if (ml >= 15)
+            op = putLength(dst, op, ml);
+        return op;
+    }
+
+    /**
+     * Compresses src[off, off + len).
+     *
+     * @return the compressed bytes
+     */
+    public static byte[] compress(byte[] src, int off, int len) {
+        byte[] dst = new byte[maxCompressedLength(len)];
+        int op = 0;
+        int end = off + len;
+        int anchor = off;
+        if (len > MATCH_LIMIT) {
+            int[] table = new int[1 << HASH_LOG];
+            Arrays.fill(table, -1);
+            int matchEnd = end - LAST_LITERALS;
+            int ip = off;
+            while (ip < end - MATCH_LIMIT) {
+                int h = hash(readInt(src, ip));
+                int ref = table[h];
+                table[h] = ip;
+                if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != readInt(src, ip)) {
+                    ip++;
+                    continue;
+                }
+                while (ip > anchor && ref > off && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int m = ip + MIN_MATCH, r = ref + MIN_MATCH;
+                while (m < matchEnd && src[m] == src[r]) {
+                    m++;
+                    r++;
+                }
+                op = putSequence(src, anchor, ip - anchor, ip - ref, m - ip, dst, op);
+                ip = anchor = m;
+                table[hash(readInt(src, ip - 2))] = ip - 2;
+            }
+        }
+        op = putSequence(src, anchor, end - anchor, 0, 0, dst, op);
+        return Arrays.copyOf(dst, op);
+    }
+
+    /** Reads the continuation bytes of a length of 15; returns the length and the new position. */
+    private static long getLength(byte[] src, int ip, int end) throws IOException {
+        int len = 15;
+        int b;
+        do {
+            if (ip >= end)
+                throw new IOException("truncated block");
+            b = src[ip++] & 0xff;
+            len += b;
+        } while (b == 255);
+        return (long) len << 32 | ip;
+    }
+
+    /**
+     * Decompresses src[off, off + len) into dst[dstOff, dstOff + dstLen).
+     *
+     * @throws IOException if the block is corrupt or doesn't decompress to
+     *         exactly dstLen bytes
+     */
+    public static void decompress(byte[] src, int off, int len, byte[] dst, int dstOff, int dstLen) throws IOException {
+        int ip = off, end = off + len;
+        int op = dstOff, dstEnd = dstOff + dstLen;
+        while (ip < end) {
+            int token = src[ip++] & 0xff;
+            int lit = token >>> 4;
+            if (lit == 15) {
+                long l = getLength(src, ip, end);
+                lit = (int) (l >>> 32);
+                ip = (int) l;
+            }
+            if (lit > end - ip || lit > dstEnd - op)
+                throw new IOException("corrupt block: literals overrun");
+            System.arraycopy(src, ip, dst, op, lit);
+            ip += lit;
+            op += lit;
+            if (ip == end)
+                break;
+            if (end - ip < 2)
+                throw new IOException("truncated block");
+            int distance = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+            ip += 2;
+            int ml = token & 15;
+            if (ml == 15) {
+                long l = getLength(src, ip, end);
+                ml = (int) (l >>> 32);
+                ip = (int) l;
+            }
+            ml += MIN_MATCH;
+            if (distance == 0 || op - distance < dstOff || ml > dstEnd - op)
+                throw new IOException("corrupt block: bad match");
+            if (distance >= ml) {
+                System.arraycopy(dst, op - distance, dst, op, ml);
+                op += ml;
+            } else {
+                // the match overlaps its own output, e.g. a run of one byte
+                for (int i = 0; i < ml; i++, op++)
+                    dst[op] = dst[op - distance];
+            }
+        }
+        if (op != dstEnd)
+            throw new IOException("corrupt block: " + (op - dstOff) + " bytes instead of " + dstLen);
+    }
+}
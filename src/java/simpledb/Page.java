@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -7,8 +9,9 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST have a constructor of the form:
  *     Page(PageId id, byte[] data)
+ * where the first parameter has the exact class of the page's id.
  */
 public interface Page {
 
@@ -46,6 +49,15 @@ public interface Page {
 
     public byte[] getPageData();
 
+  /**
+   * Writes the bytes getPageData would return into buf, starting at its
+   * position and advancing it. Lets callers serialize a page into a buffer
+   * they reuse, e.g. one from {@link PageBuffers}, instead of a new array.
+   *
+   * @throws java.nio.BufferOverflowException if buf has too little room left
+   */
+    public void writeTo(ByteBuffer buf);
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
@@ -0,0 +1,34 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PageBuffers hands out a reusable direct buffer per thread for writing
+ * pages out with {@link Page#writeTo}. Channel writes from a direct buffer
+ * don't go through a temporary copy, and reusing the buffer means flushing a
+ * page allocates nothing.
+ * <p>
+ * A buffer stays valid until the same thread acquires one again, so it must
+ * not be kept past the write it was acquired for.
+ */
+public class PageBuffers {
+
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>();
+
+    private PageBuffers() {
+    }
+
+    /**
+     * @return this thread's buffer, cleared and with room for at least size
+     *         bytes
+     */
+    public static ByteBuffer acquire(int size) {
+        ByteBuffer buf = buffers.get();
+        if (buf == null || buf.capacity() < size) {
+            buf = ByteBuffer.allocateDirect(Math.max(size, BufferPool.PAGE_SIZE));
+            buffers.set(buf);
+        }
+        buf.clear();
+        return buf;
+    }
+}
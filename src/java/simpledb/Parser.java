@@ -366,13 +366,13 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (td.getFieldType(i) != Type.STRING_TYPE && td.getFieldType(i) != Type.VARCHAR_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
                     }
                     StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
+                            Type.STRING_LEN, td.getFieldType(i));
                     t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
@@ -428,6 +428,45 @@ public class Parser {
 
     }
 
+    /**
+     * Runs s if it is a VACUUM statement, i.e. VACUUM followed by the name
+     * of a heap table. Zql doesn't know the statement, so it is recognized
+     * here, before the statement reaches Zql. The table is compacted by a
+     * {@link Vacuum} in transactions of its own, and its statistics are
+     * computed again afterwards.
+     *
+     * @return false if s is not a VACUUM statement
+     * @throws DbException if the vacuum fails; the statistics are left as they were
+     */
+    public boolean handleVacuumStatement(String s)
+            throws simpledb.ParsingException, DbException, IOException {
+        String[] words = s.trim().replaceAll(";$", "").trim().split("\\s+");
+        if (!words[0].equalsIgnoreCase("vacuum"))
+            return false;
+        if (words.length != 2)
+            throw new simpledb.ParsingException("Expected VACUUM table");
+        if (inUserTrans)
+            throw new simpledb.ParsingException(
+                    "Can't run VACUUM inside a transaction");
+        String name = words[1];
+        int id;
+        try {
+            id = Database.getCatalog().getTableId(name);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : " + name);
+        }
+        DbFile f = Database.getCatalog().getDbFile(id);
+        if (!(f instanceof HeapFile))
+            throw new simpledb.ParsingException(
+                    "Only heap tables can be vacuumed : " + name);
+        Vacuum vacuum = new Vacuum((HeapFile) f);
+        vacuum.run();
+        TableStats.setTableStats(name, new TableStats(id,
+                TableStats.IOCOSTPERPAGE));
+        System.out.println(vacuum);
+        return true;
+    }
+
     public void handleTransactStatement(ZTransactStmt s)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
@@ -494,6 +533,20 @@ public class Parser {
     }
 
     public void processNextStatement(String s) {
+        try {
+            if (handleVacuumStatement(s))
+                return;
+        } catch (simpledb.ParsingException e) {
+            System.out
+                    .println("Invalid SQL expression: \n \t" + e.getMessage());
+            return;
+        } catch (DbException e) {
+            e.printStackTrace();
+            return;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
         try {
             processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
         } catch (UnsupportedEncodingException e) {
@@ -582,7 +635,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "vacuum" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -668,7 +721,6 @@ public class Parser {
                     buffer.append(line.substring(0, split + 1));
                     String cmd = buffer.toString().trim();
                     cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-                    byte[] statementBytes = cmd.getBytes("UTF-8");
                     if (cmd.equalsIgnoreCase("quit;")
                             || cmd.equalsIgnoreCase("exit;")) {
                         shutdown();
@@ -677,8 +729,7 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    processNextStatement(cmd);
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
@@ -119,10 +119,53 @@ public class Predicate implements Serializable {
     public boolean filter(Tuple t) {
         // some code goes here
     	//using field's compare method, compare(op, value)
-    	boolean toReturn = t.getField(field).compare(this.getOp(), this.getOperand());
+    	Field f = t.getField(field);
+    	Field operand = this.operand;
+    	// look the operand up once per dictionary, so equality is decided by codes
+    	if (f instanceof StringField && ((StringField) f).getDictionary() != null
+    			&& (op == Op.EQUALS || op == Op.NOT_EQUALS))
+    		operand = encodedOperand(((StringField) f).getDictionary());
+    	boolean toReturn = f.compare(this.getOp(), operand);
         return toReturn;
     }
 
+    /** The operand encoded with the dictionary of the last coded field filtered. */
+    private transient StringField encodedOperand;
+
+    private StringField encodedOperand(StringDictionary dict) {
+    	StringField e = encodedOperand;
+    	if (e == null || e.getDictionary() != dict) {
+    		e = ((StringField) operand).encode(dict);
+    		encodedOperand = e;
+    	}
+    	return e;
+    }
+
+    /**
+     * Returns false if no tuple whose field lies between min and max
+     * (inclusive) can pass this predicate, e.g. because a page's zone map
+     * shows that all its values are out of range. Returns true when unsure.
+     *
+     * @param min the smallest value of the field
+     * @param max the largest value of the field
+     */
+    public boolean mayMatch(Field min, Field max) {
+        switch (op) {
+        case EQUALS:
+            return min.compare(Op.LESS_THAN_OR_EQ, operand) && max.compare(Op.GREATER_THAN_OR_EQ, operand);
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return max.compare(op, operand);
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return min.compare(op, operand);
+        case NOT_EQUALS:
+            return !(min.compare(Op.EQUALS, operand) && max.compare(Op.EQUALS, operand));
+        default:
+            return true;
+        }
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
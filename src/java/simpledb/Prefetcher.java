@@ -0,0 +1,284 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prefetcher reads pages on background I/O threads ahead of the scans that
+ * will need them, so a scan's CPU work overlaps with its reads. It is
+ * driven by the {@link ReadAhead} of each scan.
+ * <p>
+ * A prefetched page is staged here, outside the buffer pool frames, until a
+ * transaction asks the buffer pool for it. The miss is then served from the
+ * staged copy and the page is cached (or put in a scan ring) exactly as if
+ * it had just been read. Staging keeps read-ahead from evicting pages,
+ * taking locks, or running ahead of the replacement policy.
+ * <p>
+ * A staged page is a copy of the page on disk, so the buffer pool discards
+ * it whenever it writes that page. At most MAX_STAGED pages are staged at
+ * once; beyond that the oldest are dropped, so pages read ahead for a scan
+ * that is abandoned without being closed don't pile up.
+ */
+public class Prefetcher {
+
+    /** Number of background I/O threads, shared by all buffer pools. */
+    public static final int IO_THREADS = 2;
+    /** Number of pages that can be staged at once: 8 full read-ahead windows, i.e. 4 MB. */
+    public static final int MAX_STAGED = 8 * ReadAhead.MAX_WINDOW;
+
+    private static ExecutorService ioExecutor;
+
+    private final BufferPool pool;
+    /** Staged pages, oldest first; guarded by the map's monitor. */
+    private final LinkedHashMap<PageId, Future<Page>> staged = new LinkedHashMap<PageId, Future<Page>>() {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<PageId, Future<Page>> eldest) {
+            if (size() <= MAX_STAGED)
+                return false;
+            wasted.incrementAndGet();
+            return true;
+        }
+    };
+
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong late = new AtomicLong();
+    private final AtomicLong wasted = new AtomicLong();
+
+    public Prefetcher(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    private static synchronized ExecutorService ioExecutor() {
+        if (ioExecutor == null) {
+            ioExecutor = Executors.newFixedThreadPool(IO_THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-prefetch");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return ioExecutor;
+    }
+
+    /**
+     * Starts reading the specified page of f in the background, unless it is
+     * in the buffer pool or already being prefetched.
+     *
+     * @return true if a read was issued
+     */
+    public boolean prefetch(final DbFile f, final PageId pid) {
+        if (isStagedOrCached(pid))
+            return false;
+        FutureTask<Page> read = new FutureTask<Page>(new Callable<Page>() {
+            public Page call() {
+                return f.readPage(pid);
+            }
+        });
+        if (!stage(pid, read))
+            return false;
+        issued.incrementAndGet();
+        ioExecutor().execute(read);
+        return true;
+    }
+
+    /**
+     * Starts reading count consecutive pages of f, starting with first, in
+     * the background. Pages that are in the buffer pool or already being
+     * prefetched are skipped; each run of remaining pages is read with a
+     * single {@link DbFile#readPages readPages} call.
+     *
+     * @return the number of pages issued
+     */
+    public int prefetch(DbFile f, PageId first, int count) {
+        int numIssued = 0;
+        int runStart = -1;
+        for (int i = 0; i <= count; i++) {
+            boolean needed = i < count && !isStagedOrCached(pageId(f, first, i));
+            if (needed && runStart < 0)
+                runStart = i;
+            if (!needed && runStart >= 0) {
+                numIssued += readRun(f, pageId(f, first, runStart), i - runStart);
+                runStart = -1;
+            }
+        }
+        return numIssued;
+    }
+
+    private boolean isStagedOrCached(PageId pid) {
+        synchronized(staged) {
+            if (staged.containsKey(pid))
+                return true;
+        }
+        return pool.isCached(pid);
+    }
+
+    /** Stages read as the future of the page unless the page is already staged. */
+    private boolean stage(PageId pid, Future<Page> read) {
+        synchronized(staged) {
+            if (staged.containsKey(pid))
+                return false;
+            staged.put(pid, read);
+            return true;
+        }
+    }
+
+    private Future<Page> unstage(PageId pid) {
+        synchronized(staged) {
+            return staged.remove(pid);
+        }
+    }
+
+    /** @return the number of pages staged or being read */
+    public int getStaged() {
+        synchronized(staged) {
+            return staged.size();
+        }
+    }
+
+    private static PageId pageId(DbFile f, PageId first, int offset) {
+        return f.getPageId(first.pageNumber() + offset);
+    }
+
+    /** Stages a future for each page of the run and submits one read for all of them. */
+    private int readRun(final DbFile f, final PageId first, final int count) {
+        final FutureTask<ArrayList<Page>> read = new FutureTask<ArrayList<Page>>(new Callable<ArrayList<Page>>() {
+            public ArrayList<Page> call() {
+                return f.readPages(first, count);
+            }
+        });
+        int numStaged = 0;
+        for (int i = 0; i < count; i++) {
+            if (stage(pageId(f, first, i), new RunPage(read, i)))
+                numStaged++;
+        }
+        issued.addAndGet(numStaged);
+        ioExecutor().execute(read);
+        return numStaged;
+    }
+
+    /**
+     * The future of one page of a run read by a single readPages call.
+     * Cancelling it does nothing: the other pages of the run still need the
+     * read, and an unwanted page is simply dropped from staged.
+     */
+    private static class RunPage implements Future<Page> {
+        private final Future<ArrayList<Page>> run;
+        private final int index;
+
+        RunPage(Future<ArrayList<Page>> run, int index) {
+            this.run = run;
+            this.index = index;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return run.isDone();
+        }
+
+        public Page get() throws InterruptedException, ExecutionException {
+            return run.get().get(index);
+        }
+
+        public Page get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            return run.get(timeout, unit).get(index);
+        }
+    }
+
+    /**
+     * @return true if the page has been prefetched and the read is still in
+     *         progress
+     */
+    public boolean isInFlight(PageId pid) {
+        Future<Page> read;
+        synchronized(staged) {
+            read = staged.get(pid);
+        }
+        return read != null && !read.isDone();
+    }
+
+    /**
+     * Removes the staged copy of the specified page and returns it, waiting
+     * for its read to finish if necessary.
+     *
+     * @return the page, or null if it wasn't prefetched or the read failed
+     */
+    public Page take(PageId pid) {
+        Future<Page> read = unstage(pid);
+        if (read == null)
+            return null;
+        if (!read.isDone())
+            late.incrementAndGet();
+        try {
+            Page p = read.get();
+            hits.incrementAndGet();
+            return p;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // fall back to a synchronous read, which reports the error
+        }
+        wasted.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Drops the staged copy of the specified page, e.g. because the page is
+     * being written or the scan that asked for it was closed.
+     *
+     * @return true if a copy was staged
+     */
+    public boolean discard(PageId pid) {
+        Future<Page> read = unstage(pid);
+        if (read == null)
+            return false;
+        wasted.incrementAndGet();
+        return true;
+    }
+
+    /** @return the number of pages prefetched */
+    public long getIssued() {
+        return issued.get();
+    }
+
+    /** @return the number of prefetched pages that were used by a buffer pool miss */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** @return the number of prefetch hits that still had to wait for the read */
+    public long getLate() {
+        return late.get();
+    }
+
+    /** @return the number of prefetched pages that were discarded unused */
+    public long getWasted() {
+        return wasted.get();
+    }
+
+    public String toString() {
+        return "prefetched " + issued + " pages: " + hits + " used (" + late
+                + " late), " + wasted + " wasted";
+    }
+}
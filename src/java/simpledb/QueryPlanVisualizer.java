@@ -3,6 +3,7 @@ package simpledb;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import simpledb.TupleDesc.TDItem;
 
 public class QueryPlanVisualizer {
@@ -13,6 +14,11 @@ public class QueryPlanVisualizer {
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "index scan";
+    static final String BITMAP_SCAN = "bitmap scan";
+    static final String INDEX_ONLY_SCAN = "index only scan";
+    static final String BITMAP_HEAP_SCAN = "bitmap heap scan";
+    static final String COLUMN_SCAN = "column scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
@@ -65,24 +71,78 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof IndexScan || queryPlan instanceof BitmapScan
+                || queryPlan instanceof IndexOnlyScan || queryPlan instanceof BitmapHeapScan
+                || queryPlan instanceof ColumnScan) {
+            String tableName, alias, scan;
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                scan = SCAN;
+            } else if (queryPlan instanceof IndexScan) {
+                IndexScan s = (IndexScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                scan = INDEX_SCAN + "[" + s.getIndexPredicate() + "]";
+            } else if (queryPlan instanceof IndexOnlyScan) {
+                IndexOnlyScan s = (IndexOnlyScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                scan = INDEX_ONLY_SCAN;
+                if (s.getIndexPredicate() != null)
+                    scan += "[" + s.getIndexPredicate() + "]";
+            } else if (queryPlan instanceof ColumnScan) {
+                ColumnScan s = (ColumnScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                scan = COLUMN_SCAN + "[";
+                TupleDesc td = s.getTupleDesc();
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (i > 0)
+                        scan += ", ";
+                    scan += td.getFieldName(i);
+                }
+                scan += "]";
+            } else {
+                List<Predicate> preds;
+                TupleDesc td;
+                if (queryPlan instanceof BitmapScan) {
+                    BitmapScan s = (BitmapScan) queryPlan;
+                    tableName = s.getTableName();
+                    alias = s.getAlias();
+                    td = s.getTupleDesc();
+                    preds = s.getPredicates();
+                    scan = BITMAP_SCAN + "[";
+                } else {
+                    BitmapHeapScan s = (BitmapHeapScan) queryPlan;
+                    tableName = s.getTableName();
+                    alias = s.getAlias();
+                    td = s.getTupleDesc();
+                    preds = s.getPredicates();
+                    scan = BITMAP_HEAP_SCAN + "[";
+                }
+                for (Predicate p : preds) {
+                    if (!scan.endsWith("["))
+                        scan += " and ";
+                    scan += td.getFieldName(p.getField()) + " " + p.getOp() + " " + p.getOperand();
+                }
+                scan += "]";
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
+                    .format("%1$s(%2$s)", scan, tableName + alias);
+            if (scan.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
+                        - scan.length() / 2;
             } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
+                thisNode.upBarPosition = currentStartPosition + scan.length()
                         / 2;
                 thisNode.textStartPosition = currentStartPosition;
             }
@@ -0,0 +1,186 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * ReadAhead watches the pages one scan reads and, once the scan reads
+ * consecutive pages, has the {@link Prefetcher} read the next pages of the
+ * file before the scan gets to them.
+ * <p>
+ * The number of pages kept in flight starts at MIN_WINDOW and doubles, up
+ * to MAX_WINDOW, every time the scan catches up with a read that hasn't
+ * finished yet, i.e. whenever the scan consumes pages faster than the
+ * window lets them be read. The window is topped up with a single
+ * batch of reads once the scan has used half of it. A jump to a
+ * non-consecutive page drops the pages read ahead of the old position and
+ * starts over.
+ * <p>
+ * A scan that knows in advance which pages it will read, like a
+ * {@link BitmapHeapScan}, can hand them over with {@link #setPages}. The
+ * window then covers the next pages on that list rather than the next
+ * pages of the file, and runs of consecutive pages on the list are read
+ * together. A scan that reads the whole file in order can say so with
+ * {@link #setSequential}, and gets the full window from its first page.
+ *
+ * @see BufferPool#newReadAhead
+ */
+public class ReadAhead {
+
+    public static final int MIN_WINDOW = 2;
+    /** 128 pages, i.e. 512 KB; the window is refilled in reads of at least half this. */
+    public static final int MAX_WINDOW = 128;
+    /** Number of consecutive pages read before the access counts as sequential. */
+    static final int SEQUENTIAL_RUN = 2;
+
+    private final Prefetcher prefetcher;
+    private final DbFile file;
+    private final int numPages;
+    private final boolean multiPageReads;
+    private boolean sequential;
+
+    private int lastPage = -1;
+    private int run = 0;
+    private int window = MIN_WINDOW;
+    /** Highest page number prefetched so far; pages between lastPage and it may be staged. */
+    private int prefetchedTo = -1;
+
+    /** The pages the scan will read, in increasing order, or null to read ahead in file order. */
+    private int[] planned;
+    /** Index in planned of the page last requested, and of the last page prefetched. */
+    private int plannedAt = -1;
+    private int plannedTo = -1;
+
+    /**
+     * @param numPages the number of pages in the file when the scan started;
+     *        no pages past this point are prefetched
+     * @param multiPageReads read each top-up with one
+     *        {@link DbFile#readPages readPages} call instead of a
+     *        {@link DbFile#readPage readPage} call per page
+     */
+    public ReadAhead(Prefetcher prefetcher, DbFile file, int numPages, boolean multiPageReads) {
+        this.prefetcher = prefetcher;
+        this.file = file;
+        this.numPages = numPages;
+        this.multiPageReads = multiPageReads;
+    }
+
+    /**
+     * Tells the read-ahead that the scan will read exactly the specified
+     * pages, in increasing order, so it reads ahead only those pages. Call
+     * before the scan requests its first page.
+     */
+    public void setPages(int[] pages) {
+        discardAhead();
+        int n = 0;
+        while (n < pages.length && pages[n] < numPages)
+            n++;
+        planned = Arrays.copyOf(pages, n);
+        plannedAt = -1;
+        plannedTo = -1;
+        window = MIN_WINDOW;
+    }
+
+    /**
+     * Tells the read-ahead that the scan reads the whole file in order, so
+     * it reads MAX_WINDOW pages ahead from the first page on instead of
+     * waiting for a run and growing the window. Call before the scan
+     * requests its first page.
+     */
+    public void setSequential() {
+        sequential = true;
+        window = MAX_WINDOW;
+    }
+
+    /**
+     * Tells the read-ahead that the scan is about to read the specified page.
+     */
+    public void pageRequested(int pgNo) {
+        if (planned != null) {
+            plannedPageRequested(pgNo);
+            return;
+        }
+        if (pgNo != lastPage + 1 || run == 0) {
+            discardAhead();
+            run = 0;
+            window = sequential ? MAX_WINDOW : MIN_WINDOW;
+            prefetchedTo = pgNo;
+        }
+        run++;
+        lastPage = pgNo;
+        if (run < SEQUENTIAL_RUN && !sequential)
+            return;
+
+        if (prefetcher.isInFlight(pageId(pgNo)) && window < MAX_WINDOW)
+            window = Math.min(2 * window, MAX_WINDOW);
+        // top the window up only once half of it is used, so reads are large
+        int end = Math.min(numPages - 1, pgNo + window);
+        if (prefetchedTo - pgNo <= window / 2 && end > prefetchedTo) {
+            int from = Math.max(prefetchedTo + 1, pgNo + 1);
+            prefetch(from, end - from + 1);
+            prefetchedTo = end;
+        }
+    }
+
+    /**
+     * Reads ahead the next pages on the list set by {@link #setPages}. The
+     * scan is known to be sequential over its list from the first page, so
+     * there is no run to wait for.
+     */
+    private void plannedPageRequested(int pgNo) {
+        int i = Arrays.binarySearch(planned, pgNo);
+        if (i < 0)
+            return;
+        lastPage = pgNo;
+        plannedAt = i;
+        if (prefetcher.isInFlight(pageId(pgNo)) && window < MAX_WINDOW)
+            window = Math.min(2 * window, MAX_WINDOW);
+        int end = Math.min(planned.length - 1, i + window);
+        if (plannedTo - i <= window / 2 && end > plannedTo) {
+            int from = Math.max(plannedTo + 1, i + 1);
+            int runStart = from;
+            for (int k = from; k <= end; k++) {
+                if (k == end || planned[k + 1] != planned[k] + 1) {
+                    prefetch(planned[runStart], k - runStart + 1);
+                    runStart = k + 1;
+                }
+            }
+            plannedTo = end;
+        }
+    }
+
+    private void prefetch(int first, int count) {
+        if (multiPageReads) {
+            prefetcher.prefetch(file, pageId(first), count);
+        } else {
+            for (int i = first; i < first + count; i++)
+                prefetcher.prefetch(file, pageId(i));
+        }
+    }
+
+    /** @return the current number of pages read ahead of the scan */
+    public int getWindow() {
+        return window;
+    }
+
+    /** Drops the pages read ahead that the scan hasn't used; call when the scan ends. */
+    public void close() {
+        discardAhead();
+        run = 0;
+    }
+
+    private void discardAhead() {
+        if (planned != null) {
+            for (int k = plannedAt + 1; k <= plannedTo; k++)
+                prefetcher.discard(pageId(planned[k]));
+            plannedTo = plannedAt;
+            return;
+        }
+        for (int i = lastPage + 1; i <= prefetchedTo; i++)
+            prefetcher.discard(pageId(i));
+        prefetchedTo = lastPage;
+    }
+
+    private PageId pageId(int pgNo) {
+        return file.getPageId(pgNo);
+    }
+}
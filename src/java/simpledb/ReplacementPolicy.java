@@ -0,0 +1,82 @@
+package simpledb;
+
+/**
+ * The common interface for the page replacement policies used by
+ * {@link BufferPool} to pick which frame to evict. The buffer pool tells the
+ * policy about every hit, load and removal on its frames, and asks it for a
+ * victim when no frame is free.
+ * <p>
+ * Policies also keep hit and miss counters so different policies can be
+ * compared on a real workload.
+ */
+public interface ReplacementPolicy {
+    static final int NO_VICTIM = -1;
+
+    public enum Kind {
+        CLOCK, LRU2, TWO_Q;
+
+        /**
+         * Create a policy of this kind that manages the specified number of
+         * frames.
+         */
+        public ReplacementPolicy create(int numFrames) {
+            switch (this) {
+            case LRU2:
+                return new LruKPolicy(numFrames, 2);
+            case TWO_Q:
+                return new TwoQueuePolicy(numFrames);
+            default:
+                return new ClockPolicy(numFrames);
+            }
+        }
+
+        /**
+         * Look up a policy kind by name, ignoring case and dashes, so
+         * "clock", "lru-2" and "2q" all work from the command line.
+         *
+         * @throws IllegalArgumentException if the name is not a known policy
+         */
+        public static Kind getKind(String s) {
+            String name = s.trim().toUpperCase().replace("-", "");
+            if (name.equals("2Q"))
+                return TWO_Q;
+            return valueOf(name);
+        }
+    }
+
+    /**
+     * Called when a requested page was found in the specified frame.
+     */
+    public void pageHit(int frame);
+
+    /**
+     * Called when a page that was not cached has been read into the
+     * specified frame.
+     */
+    public void pageLoaded(int frame, PageId pid);
+
+    /**
+     * Called when the page in the specified frame is evicted or discarded.
+     */
+    public void pageRemoved(int frame);
+
+    /**
+     * Choose the frame whose page should be evicted next. Only frames holding
+     * clean pages (isDirty() == null) may be chosen. The policy must not
+     * change the frames; the buffer pool calls {@link #pageRemoved} once it
+     * has evicted the victim.
+     *
+     * @param frames the buffer pool frames; null entries are free frames
+     * @return the index of the victim frame, or NO_VICTIM if every page is dirty
+     */
+    public int chooseVictim(Page[] frames);
+
+    /** @return the number of page requests served from the buffer pool */
+    public long getHits();
+
+    /** @return the number of page requests that had to read from disk */
+    public long getMisses();
+
+    /** @return hits / (hits + misses), or 0 if there were no requests */
+    public double getHitRatio();
+}
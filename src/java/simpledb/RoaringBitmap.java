@@ -0,0 +1,378 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of non-negative ints, in the style of Roaring bitmaps.
+ * The set is split into chunks of 2^16 values that share their high 16
+ * bits. A chunk with few members keeps them in a sorted array of their low
+ * 16 bits, 2 bytes each; a chunk with more than {@link #ARRAY_MAX} members
+ * keeps a 2^16-bit bitmap, 8KB, instead. Either way a chunk never takes
+ * more than 8KB, and sparse sets take about 2 bytes per member.
+ * <p>
+ * {@link #and} and {@link #or} combine two sets a chunk at a time, without
+ * decompressing them.
+ */
+public class RoaringBitmap {
+
+    /** The most members a chunk keeps in an array. */
+    static final int ARRAY_MAX = 4096;
+
+    /** The high 16 bits of the values in each chunk, in increasing order. */
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    /** @return true if x is in the set */
+    public boolean contains(int x) {
+        int i = find(high(x));
+        return i >= 0 && containers[i].contains(low(x));
+    }
+
+    /** Adds x, which must not be negative, to the set. */
+    public void add(int x) {
+        if (x < 0)
+            throw new IllegalArgumentException("negative value " + x);
+        char hi = high(x);
+        int i = find(hi);
+        if (i < 0) {
+            i = -i - 1;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * size);
+                containers = Arrays.copyOf(containers, 2 * size);
+            }
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(containers, i, containers, i + 1, size - i);
+            keys[i] = hi;
+            containers[i] = new ArrayContainer();
+            size++;
+        }
+        containers[i] = containers[i].add(low(x));
+    }
+
+    /** Removes x from the set, if it is there. */
+    public void remove(int x) {
+        int i = find(high(x));
+        if (i < 0)
+            return;
+        containers[i] = containers[i].remove(low(x));
+        if (containers[i].cardinality() == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+            size--;
+            containers[size] = null;
+        }
+    }
+
+    /** @return the number of values in the set */
+    public int getCardinality() {
+        int n = 0;
+        for (int i = 0; i < size; i++)
+            n += containers[i].cardinality();
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** @return the smallest value in the set that is at least from, or -1 if there is none */
+    public int nextSetBit(int from) {
+        if (from < 0)
+            from = 0;
+        int i = find(high(from));
+        if (i >= 0) {
+            int lo = containers[i].next(low(from));
+            if (lo >= 0)
+                return (keys[i] << 16) | lo;
+            i++;
+        } else {
+            i = -i - 1;
+        }
+        if (i == size)
+            return -1;
+        return (keys[i] << 16) | containers[i].next((char) 0);
+    }
+
+    /** @return a copy of this set */
+    public RoaringBitmap copy() {
+        return or(this, new RoaringBitmap());
+    }
+
+    /** @return a new set of the values in both a and b */
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap r = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container c = a.containers[i].and(b.containers[j]);
+                if (c.cardinality() > 0)
+                    r.append(a.keys[i], c);
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /** @return a new set of the values in a or b */
+    public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap r = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                r.append(a.keys[i], a.containers[i].or(new ArrayContainer()));
+                i++;
+            } else if (i == a.size || a.keys[i] > b.keys[j]) {
+                r.append(b.keys[j], b.containers[j].or(new ArrayContainer()));
+                j++;
+            } else {
+                r.append(a.keys[i], a.containers[i].or(b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /** Adds a chunk with a key larger than any in the set. */
+    private void append(char key, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * size);
+            containers = Arrays.copyOf(containers, 2 * size);
+        }
+        keys[size] = key;
+        containers[size] = c;
+        size++;
+    }
+
+    /** @return the index of the chunk with key hi, or -(insertion point) - 1 */
+    private int find(char hi) {
+        return Arrays.binarySearch(keys, 0, size, hi);
+    }
+
+    private static char high(int x) {
+        return (char) (x >>> 16);
+    }
+
+    private static char low(int x) {
+        return (char) x;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int x = nextSetBit(0); x >= 0; x = nextSetBit(x + 1)) {
+            if (sb.length() > 1)
+                sb.append(",");
+            sb.append(x);
+        }
+        return sb.append("}").toString();
+    }
+
+    /**
+     * The low 16 bits of the values in one chunk. Changing a container may
+     * return a different one, in the other representation; containers
+     * returned by and and or are new.
+     */
+    private static abstract class Container {
+        abstract int cardinality();
+        abstract boolean contains(char x);
+        abstract Container add(char x);
+        abstract Container remove(char x);
+        /** @return the smallest member that is at least from, or -1 */
+        abstract int next(char from);
+        abstract Container and(Container other);
+        abstract Container or(Container other);
+    }
+
+    private static class ArrayContainer extends Container {
+        char[] content;
+        int card;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] content, int card) {
+            this.content = content;
+            this.card = card;
+        }
+
+        int cardinality() {
+            return card;
+        }
+
+        boolean contains(char x) {
+            return Arrays.binarySearch(content, 0, card, x) >= 0;
+        }
+
+        Container add(char x) {
+            int i = Arrays.binarySearch(content, 0, card, x);
+            if (i >= 0)
+                return this;
+            if (card == ARRAY_MAX)
+                return toBitmap().add(x);
+            i = -i - 1;
+            if (card == content.length)
+                content = Arrays.copyOf(content, Math.max(4, Math.min(2 * card, ARRAY_MAX)));
+            System.arraycopy(content, i, content, i + 1, card - i);
+            content[i] = x;
+            card++;
+            return this;
+        }
+
+        Container remove(char x) {
+            int i = Arrays.binarySearch(content, 0, card, x);
+            if (i >= 0) {
+                System.arraycopy(content, i + 1, content, i, card - i - 1);
+                card--;
+            }
+            return this;
+        }
+
+        int next(char from) {
+            int i = Arrays.binarySearch(content, 0, card, from);
+            if (i < 0)
+                i = -i - 1;
+            return i < card ? content[i] : -1;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer b = new BitmapContainer();
+            for (int i = 0; i < card; i++)
+                b.add(content[i]);
+            return b;
+        }
+
+        Container and(Container other) {
+            char[] out = new char[card];
+            int n = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int i = 0, j = 0;
+                while (i < card && j < o.card) {
+                    if (content[i] < o.content[j])
+                        i++;
+                    else if (content[i] > o.content[j])
+                        j++;
+                    else {
+                        out[n++] = content[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < card; i++) {
+                    if (other.contains(content[i]))
+                        out[n++] = content[i];
+                }
+            }
+            return new ArrayContainer(out, n);
+        }
+
+        Container or(Container other) {
+            if (other instanceof BitmapContainer)
+                return other.or(this);
+            ArrayContainer o = (ArrayContainer) other;
+            char[] out = new char[Math.max(card + o.card, 4)];
+            int n = 0, i = 0, j = 0;
+            while (i < card || j < o.card) {
+                if (j == o.card || (i < card && content[i] < o.content[j]))
+                    out[n++] = content[i++];
+                else if (i == card || content[i] > o.content[j])
+                    out[n++] = o.content[j++];
+                else {
+                    out[n++] = content[i++];
+                    j++;
+                }
+            }
+            ArrayContainer r = new ArrayContainer(out, n);
+            return n > ARRAY_MAX ? r.toBitmap() : r;
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+        final long[] words = new long[1 << 10];
+        int card;
+
+        int cardinality() {
+            return card;
+        }
+
+        boolean contains(char x) {
+            return (words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        Container add(char x) {
+            if (!contains(x)) {
+                words[x >>> 6] |= 1L << x;
+                card++;
+            }
+            return this;
+        }
+
+        Container remove(char x) {
+            if (!contains(x))
+                return this;
+            words[x >>> 6] &= ~(1L << x);
+            card--;
+            return card <= ARRAY_MAX ? toArray() : this;
+        }
+
+        int next(char from) {
+            int w = from >>> 6;
+            long word = words[w] & (-1L << from);
+            while (word == 0) {
+                if (++w == words.length)
+                    return -1;
+                word = words[w];
+            }
+            return (w << 6) + Long.numberOfTrailingZeros(word);
+        }
+
+        ArrayContainer toArray() {
+            char[] out = new char[Math.max(card, 4)];
+            int n = 0;
+            for (int w = 0; w < words.length; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1)
+                    out[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+            }
+            return new ArrayContainer(out, n);
+        }
+
+        Container and(Container other) {
+            if (other instanceof ArrayContainer)
+                return other.and(this);
+            BitmapContainer o = (BitmapContainer) other;
+            BitmapContainer r = new BitmapContainer();
+            for (int w = 0; w < words.length; w++) {
+                r.words[w] = words[w] & o.words[w];
+                r.card += Long.bitCount(r.words[w]);
+            }
+            return r.card <= ARRAY_MAX ? r.toArray() : r;
+        }
+
+        Container or(Container other) {
+            BitmapContainer r = new BitmapContainer();
+            System.arraycopy(words, 0, r.words, 0, words.length);
+            r.card = card;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.card; i++)
+                    r.add(o.content[i]);
+            } else {
+                BitmapContainer o = (BitmapContainer) other;
+                r.card = 0;
+                for (int w = 0; w < words.length; w++) {
+                    r.words[w] |= o.words[w];
+                    r.card += Long.bitCount(r.words[w]);
+                }
+            }
+            return r;
+        }
+    }
+}
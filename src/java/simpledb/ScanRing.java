@@ -0,0 +1,91 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ScanRing is a small, private set of frames used by a scan over a table that
+ * is too large for the buffer pool. Pages the scan reads from disk are put in
+ * the ring, replacing the page read ring-size pages earlier, instead of being
+ * installed in the buffer pool where they would evict hot pages of other
+ * queries.
+ * <p>
+ * Each frame has a buffer that is reused for every page read into it, so a
+ * scan of any length allocates at most ring-size page buffers. A page that
+ * is still in the ring when the scan asks for it again, e.g. after a rewind
+ * over a short stretch of the table, is returned without a read.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, ScanRing)
+ */
+public class ScanRing {
+
+    /** Maximum number of frames in a ring: 32 pages, i.e. 128 KB. */
+    public static final int DEFAULT_FRAMES = 32;
+
+    private Page[] frames;
+    /** The buffer of each frame; allocated the first time the frame is used. */
+    private ByteBuffer[] buffers;
+    private int next = 0;
+    private long pagesRead = 0;
+    private long hits = 0;
+
+    public ScanRing() {
+        this(DEFAULT_FRAMES);
+    }
+
+    public ScanRing(int numFrames) {
+        frames = new Page[numFrames];
+        buffers = new ByteBuffer[numFrames];
+    }
+
+    /**
+     * @return the specified page if it is still in the ring, or null if it
+     *         has to be read
+     */
+    public Page lookup(PageId pid) {
+        for (Page p : frames) {
+            if (p != null && p.getId().equals(pid)) {
+                hits++;
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the buffer of the frame the next page read goes into, cleared
+     * and pageSize bytes long. The page in the frame is dropped from the
+     * ring; its bytes will be overwritten.
+     */
+    public ByteBuffer nextFrame(int pageSize) {
+        frames[next] = null;
+        if (buffers[next] == null || buffers[next].capacity() != pageSize)
+            buffers[next] = ByteBuffer.allocate(pageSize);
+        ByteBuffer buf = buffers[next];
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Put a page that was just read from disk into the ring, replacing the
+     * oldest page in it. If the page was read into {@link #nextFrame}, it
+     * takes that frame's buffer with it.
+     *
+     * @return the page that was added
+     */
+    public Page add(Page p) {
+        frames[next] = p;
+        next = (next + 1) % frames.length;
+        pagesRead++;
+        return p;
+    }
+
+    /** @return the number of pages read into this ring */
+    public long getPagesRead() {
+        return pagesRead;
+    }
+
+    /** @return the number of pages found in the ring by {@link #lookup} */
+    public long getHits() {
+        return hits;
+    }
+}
@@ -16,6 +16,8 @@ public class SeqScan implements DbIterator {
     private String tableAlias;
     private DbFile file;
     private DbFileIterator dbFileItr;
+    /** Predicates the caller applies to this scan's output; used to skip pages. */
+    private List<Predicate> pagePredicates = new ArrayList<Predicate>();
     
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -87,10 +89,29 @@ public class SeqScan implements DbIterator {
         // some code goes here
         //might change this later
     	this.file = Database.getCatalog().getDbFile(tableid);
-    	dbFileItr = this.file.iterator(transid);
+    	if (this.file instanceof HeapFile)
+    		dbFileItr = ((HeapFile) this.file).iterator(transid, pagePredicates);
+    	else
+    		dbFileItr = this.file.iterator(transid);
     	dbFileItr.open();
     }
 
+    /**
+     * Tells the scan that the operator above it only keeps tuples that pass p,
+     * so pages whose zone maps show that none of their tuples pass it may be
+     * skipped. The scan may still return tuples that fail p. Takes effect the
+     * next time the scan is opened.
+     *
+     * @see ZoneMap
+     */
+    public void pushDownPredicate(Predicate p) {
+        for (Predicate q : pagePredicates) {
+            if (q == p)
+                return;
+        }
+        pagePredicates.add(p);
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -8,6 +8,20 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
+            // a trailing "columnar" or "compressed" writes a ColumnFile or a CompressedHeapFile instead,
+            // and a trailing "pagesize=n" a HeapFile with pages of n bytes
+            String format = args[args.length-1];
+            boolean columnar = format.equals("columnar"), compressed = format.equals("compressed");
+            int pageSize = BufferPool.PAGE_SIZE;
+            if (format.startsWith("pagesize=")) {
+                pageSize = Integer.parseInt(format.substring("pagesize=".length()));
+                if (!HeapFile.isValidPageSize(pageSize)) {
+                    System.err.println("Invalid page size " + pageSize);
+                    return;
+                }
+            }
+            if (columnar || compressed || format.startsWith("pagesize="))
+                args = Arrays.copyOf(args, args.length-1);
             if (args.length<3 || args.length>5){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
@@ -35,6 +49,8 @@ public class SimpleDb {
                             ts[index++]=Type.INT_TYPE;
                         else if (s.toLowerCase().equals("string"))
                                 ts[index++]=Type.STRING_TYPE;
+                        else if (s.toLowerCase().equals("varchar"))
+                                ts[index++]=Type.VARCHAR_TYPE;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
@@ -43,9 +59,24 @@ public class SimpleDb {
                 if (args.length==5)
                     fieldSeparator=args[4].charAt(0);
             }
+            if (pageSize != BufferPool.PAGE_SIZE) {
+                for (Type t : ts) {
+                    if (t.isVariableLength()) {
+                        System.err.println("Tables with varchar fields can't set a page size");
+                        return;
+                    }
+                }
+            }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
+            if (columnar)
+                HeapFileEncoder.convertColumnar(sourceTxtFile,targetDatFile,
+                        numOfAttributes,ts,fieldSeparator);
+            else if (compressed)
+                HeapFileEncoder.convertCompressed(sourceTxtFile,targetDatFile,
+                        numOfAttributes,ts,fieldSeparator);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+                        pageSize,numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
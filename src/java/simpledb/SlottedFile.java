@@ -0,0 +1,275 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedFile is a DbFile that stores a table as a sequence of
+ * {@link SlottedPage}s, for tables whose tuples vary in size, such as ones
+ * with {@link Type#VARCHAR_TYPE} fields. A tuple only takes the bytes its
+ * values need, so short strings don't carry the padding a fixed-length
+ * {@link Type#STRING_TYPE} field has in a {@link HeapFile}, and a scan
+ * reads correspondingly fewer pages.
+ * <p>
+ * Pages are identified by {@link HeapPageId}s, and are read and locked
+ * through the {@link BufferPool} like heap pages. A {@link FreeSpaceMap}
+ * records the pages with room for a tuple of the largest size the schema
+ * allows; an insert that finds no such page tries the last page before it
+ * adds a new one.
+ *
+ * @see Catalog#loadSchema
+ * @see HeapFileEncoder
+ */
+public class SlottedFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File f;
+    private final TupleDesc td;
+    private transient RandomAccessFile raf;
+    /** Pages with room for the largest tuple; built from the pages on first use. */
+    private transient FreeSpaceMap freeSpace;
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+    }
+
+    /** @return the File backing this SlottedFile on disk */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getPageSize() {
+        return BufferPool.PAGE_SIZE;
+    }
+
+    // see DbFile.java for javadocs
+    public PageId getPageId(int pgNo) {
+        return new HeapPageId(getId(), pgNo);
+    }
+
+    /** @return the number of pages in the file */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    private RandomAccessFile file() throws IOException {
+        if (raf == null)
+            raf = new RandomAccessFile(f, "rw");
+        return raf;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized Page readPage(PageId pid) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        try {
+            RandomAccessFile r = file();
+            long offset = (long) pid.pageNumber() * BufferPool.PAGE_SIZE;
+            if (offset >= r.length())
+                throw new IllegalArgumentException("page " + pid.pageNumber() + " is past the end of the file");
+            r.seek(offset);
+            r.readFully(data, 0, (int) Math.min(data.length, r.length() - offset));
+            SlottedPage page = new SlottedPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), data);
+            // pages are read again after an abort, so this also undoes hints of rolled back inserts
+            noteFreeSpace(page);
+            return page;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can't read page " + pid.pageNumber() + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> readPages(PageId first, int count) {
+        ArrayList<Page> pages = new ArrayList<Page>(count);
+        for (int i = 0; i < count; i++)
+            pages.add(readPage(new HeapPageId(first.getTableId(), first.pageNumber() + i)));
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void writePage(Page page) throws IOException {
+        RandomAccessFile r = file();
+        r.seek((long) page.getId().pageNumber() * BufferPool.PAGE_SIZE);
+        r.write(page.getPageData());
+        if (page instanceof SlottedPage)
+            noteFreeSpace((SlottedPage) page);
+    }
+
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+
+    /**
+     * Returns the free-space map of this file, first recording any pages
+     * that were added to the file without going through it.
+     */
+    private FreeSpaceMap freeSpaceMap() throws IOException {
+        FreeSpaceMap fsm;
+        synchronized(this) {
+            if (freeSpace == null)
+                freeSpace = new FreeSpaceMap();
+            fsm = freeSpace;
+        }
+        int numPages = numPages();
+        for (int i = fsm.numPages(); i < numPages; i++) {
+            SlottedPage p = (SlottedPage) readPage(new HeapPageId(getId(), i));
+            fsm.update(i, p.hasRoomFor(td));
+        }
+        return fsm;
+    }
+
+    private void noteFreeSpace(SlottedPage page) {
+        FreeSpaceMap fsm = freeSpace;
+        // pages the map hasn't reached yet are picked up by freeSpaceMap()
+        if (fsm != null && page.getId().pageNumber() < fsm.numPages())
+            fsm.update(page.getId().pageNumber(), page.hasRoomFor(td));
+    }
+
+    /** Adds an empty page at the end of the file and returns its number. */
+    private synchronized int allocatePage() throws IOException {
+        int pgNo = numPages();
+        RandomAccessFile r = file();
+        r.seek((long) pgNo * BufferPool.PAGE_SIZE);
+        r.write(SlottedPage.createEmptyPageData());
+        return pgNo;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc mismatch");
+        int length = SlottedPage.encode(td, t).length;
+        if (length + SlottedPage.HEADER_SIZE + SlottedPage.SLOT_SIZE > BufferPool.PAGE_SIZE)
+            throw new DbException("tuple is larger than a page");
+        ArrayList<Page> modifiedPages = new ArrayList<Page>();
+        FreeSpaceMap fsm = freeSpaceMap();
+        SlottedPage p = null;
+        for (int i = fsm.nextPageWithRoom(0); i >= 0 && p == null; i = fsm.nextPageWithRoom(i + 1))
+            p = insertInto(tid, i, t, length, fsm);
+        // the last page may still have room for a tuple shorter than the largest
+        int last = numPages() - 1;
+        if (p == null && last >= 0 && fsm.nextPageWithRoom(last) != last)
+            p = insertInto(tid, last, t, length, fsm);
+        if (p == null)
+            p = insertInto(tid, allocatePage(), t, length, fsm);
+        modifiedPages.add(p);
+        return modifiedPages;
+    }
+
+    /**
+     * Inserts t, whose record takes length bytes, into the specified page if
+     * it has room, and records the space left on the page.
+     *
+     * @return the page, or null if it has no room; its lock is then
+     *         released unless the transaction held it before
+     */
+    private SlottedPage insertInto(TransactionId tid, int pgNo, Tuple t, int length, FreeSpaceMap fsm)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId pid = new HeapPageId(getId(), pgNo);
+        boolean alreadyLocked = bp.holdsLock(tid, pid);
+        SlottedPage p = (SlottedPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        if (p.getFreeSpace() < length) {
+            // stale hint, e.g. the page was filled by an unflushed transaction
+            fsm.update(pgNo, p.hasRoomFor(td));
+            if (!alreadyLocked)
+                bp.releasePage(tid, pid);
+            return null;
+        }
+        p.insertTuple(t);
+        p.markDirty(true, tid);
+        fsm.update(pgNo, p.hasRoomFor(td));
+        return p;
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("invalid tuple argument");
+        if (rid.getPageId().getTableId() != getId())
+            throw new DbException("wrong tuple tableid");
+        SlottedPage p = (SlottedPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        p.deleteTuple(t);
+        p.markDirty(true, tid);
+        noteFreeSpace(p);
+        return p;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new SlottedFileIterator(tid);
+    }
+
+    /** Reads the pages of the file in order through the buffer pool, reading ahead of the scan. */
+    private class SlottedFileIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private int pgNo;
+        private Iterator<Tuple> tuples;
+        private ReadAhead readAhead;
+
+        SlottedFileIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            close();
+            pgNo = -1;
+            tuples = Collections.<Tuple>emptyList().iterator();
+            readAhead = Database.getBufferPool().newReadAhead(SlottedFile.this, numPages());
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (tuples == null)
+                return false;
+            while (!tuples.hasNext()) {
+                if (pgNo + 1 >= numPages())
+                    return false;
+                pgNo++;
+                if (readAhead != null)
+                    readAhead.pageRequested(pgNo);
+                SlottedPage p = (SlottedPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(getId(), pgNo), Permissions.READ_ONLY);
+                tuples = p.iterator();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException("no more tuples");
+            return tuples.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        public void close() {
+            tuples = null;
+            if (readAhead != null) {
+                readAhead.close();
+                readAhead = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedPage stores tuples of varying size, such as tuples with
+ * {@link Type#VARCHAR_TYPE} fields, each taking only the bytes its values
+ * need. It is the page format of {@link SlottedFile}.
+ * <p>
+ * The page starts with a header of two ints: the number of slots, and the
+ * offset of the start of the record area. The slot directory follows, with
+ * an int offset and an int length for each slot; an offset of 0 marks an
+ * empty slot. Records are packed at the end of the page and grow towards
+ * the directory, each holding the fields of a tuple one after the other in
+ * the format of {@link Type#serialize}. An all-zero page is empty.
+ * <p>
+ * A tuple keeps its slot, and so its RecordId, for as long as it is on the
+ * page. Deleting a tuple only empties its slot; the space of deleted
+ * records is reclaimed by moving the remaining records together when an
+ * insert needs it.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage implements Page {
+
+    /** Bytes taken by the page header. */
+    static final int HEADER_SIZE = 8;
+    /** Bytes taken by each entry of the slot directory. */
+    static final int SLOT_SIZE = 8;
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private byte[] data;
+    private byte[] oldData;
+    private boolean dirty;
+    private TransactionId lastDirtyTid;
+
+    /**
+     * Create a SlottedPage from the bytes of a page read from disk. The page
+     * keeps the array, so the caller must not change it afterwards.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        if (data.length < BufferPool.PAGE_SIZE)
+            data = Arrays.copyOf(data, BufferPool.PAGE_SIZE);
+        this.data = data;
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** @return the number of slots in the directory, empty ones included */
+    public int getNumSlots() {
+        return numSlots(data);
+    }
+
+    private static int numSlots(byte[] page) {
+        return ByteBuffer.wrap(page).getInt(0);
+    }
+
+    /** Returns the start of the record area; a new page has none, so it starts at the end. */
+    private static int recordStart(byte[] page) {
+        int start = ByteBuffer.wrap(page).getInt(4);
+        return start == 0 ? page.length : start;
+    }
+
+    private static int slotOffset(byte[] page, int slot) {
+        return ByteBuffer.wrap(page).getInt(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private static int slotLength(byte[] page, int slot) {
+        return ByteBuffer.wrap(page).getInt(HEADER_SIZE + slot * SLOT_SIZE + 4);
+    }
+
+    /**
+     * Returns the number of bytes a record of the specified length would
+     * leave free on the page, reclaiming the space of deleted records and
+     * reusing an empty slot if there is one; negative if it doesn't fit.
+     */
+    private static int spaceAfter(byte[] page, int length) {
+        int numSlots = numSlots(page);
+        int used = HEADER_SIZE + numSlots * SLOT_SIZE;
+        boolean emptySlot = false;
+        for (int i = 0; i < numSlots; i++) {
+            if (slotOffset(page, i) == 0)
+                emptySlot = true;
+            else
+                used += slotLength(page, i);
+        }
+        return page.length - used - length - (emptySlot ? 0 : SLOT_SIZE);
+    }
+
+    /**
+     * Returns the number of bytes free on the page for a new record, after
+     * the slot it needs, counting the space of deleted records.
+     */
+    public int getFreeSpace() {
+        return Math.max(0, spaceAfter(data, 0));
+    }
+
+    /**
+     * @return true if a tuple with the specified schema would fit on the
+     *         page whatever its values, i.e. if a record of the largest size
+     *         the schema allows fits
+     */
+    boolean hasRoomFor(TupleDesc td) {
+        return spaceAfter(data, td.getSize()) >= 0;
+    }
+
+    /**
+     * Adds a record to a page in this format, reusing the first empty slot
+     * if there is one, and moving the records together first if only the
+     * space of deleted records leaves room for it.
+     *
+     * @return the slot of the record, or -1 if it doesn't fit on the page
+     */
+    static int addRecord(byte[] page, byte[] record) {
+        if (spaceAfter(page, record.length) < 0)
+            return -1;
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        int numSlots = numSlots(page);
+        int slot = 0;
+        while (slot < numSlots && slotOffset(page, slot) != 0)
+            slot++;
+        int directoryEnd = HEADER_SIZE + Math.max(numSlots, slot + 1) * SLOT_SIZE;
+        if (recordStart(page) - record.length < directoryEnd)
+            compact(page);
+        int offset = recordStart(page) - record.length;
+        System.arraycopy(record, 0, page, offset, record.length);
+        buf.putInt(HEADER_SIZE + slot * SLOT_SIZE, offset);
+        buf.putInt(HEADER_SIZE + slot * SLOT_SIZE + 4, record.length);
+        buf.putInt(0, Math.max(numSlots, slot + 1));
+        buf.putInt(4, offset);
+        return slot;
+    }
+
+    /**
+     * Moves the records of a page together at its end, leaving the slot of
+     * each record as it was.
+     */
+    static void compact(byte[] page) {
+        int numSlots = numSlots(page);
+        byte[] records = new byte[page.length];
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        int start = page.length;
+        for (int i = 0; i < numSlots; i++) {
+            int offset = slotOffset(page, i);
+            if (offset == 0)
+                continue;
+            int length = slotLength(page, i);
+            start -= length;
+            System.arraycopy(page, offset, records, start, length);
+            buf.putInt(HEADER_SIZE + i * SLOT_SIZE, start);
+        }
+        int directoryEnd = HEADER_SIZE + numSlots * SLOT_SIZE;
+        Arrays.fill(page, directoryEnd, start, (byte) 0);
+        System.arraycopy(records, start, page, start, page.length - start);
+        buf.putInt(4, start);
+    }
+
+    /**
+     * Serializes the fields of t one after the other, each in the format of
+     * its type in td.
+     */
+    static byte[] encode(TupleDesc td, Tuple t) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                td.getFieldType(i).serialize(t.getField(i), dos);
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("can't serialize tuple");
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Returns the tuple in the specified slot, or null if the slot is empty
+     * or past the end of the directory.
+     */
+    public Tuple getTuple(int slot) {
+        if (slot < 0 || slot >= getNumSlots())
+            return null;
+        int offset = slotOffset(data, slot);
+        if (offset == 0)
+            return null;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.position(offset);
+        Tuple t = new Tuple(td);
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.setField(i, td.getFieldType(i).parse(buf));
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /** Captures the before image if this is the first modification since the page was read or committed. */
+    private void beginUpdate() {
+        if (oldData == null)
+            oldData = getPageData();
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page.
+     *
+     * @throws DbException if the page has no room for the tuple or the
+     *         TupleDesc doesn't match
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc mismatch");
+        byte[] record = encode(td, t);
+        if (spaceAfter(data, record.length) < 0)
+            throw new DbException("page is full");
+        beginUpdate();
+        int slot = addRecord(data, record);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Deletes the specified tuple from the page, emptying its slot; the
+     * tuple is updated to reflect that it is no longer stored on any page.
+     * Empty slots at the end of the directory are dropped.
+     *
+     * @throws DbException if the tuple is not on this page, or its slot is
+     *         already empty
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(pid))
+            throw new DbException("tuple not in page");
+        int slot = rid.tupleno();
+        if (slot < 0 || slot >= getNumSlots() || slotOffset(data, slot) == 0)
+            throw new DbException("slot already empty");
+        beginUpdate();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int offset = slotOffset(data, slot);
+        Arrays.fill(data, offset, offset + slotLength(data, slot), (byte) 0);
+        buf.putLong(HEADER_SIZE + slot * SLOT_SIZE, 0);
+        int numSlots = getNumSlots();
+        while (numSlots > 0 && slotOffset(data, numSlots - 1) == 0)
+            numSlots--;
+        buf.putInt(0, numSlots);
+        if (numSlots == 0)
+            buf.putInt(4, 0);
+        t.setRecordId(null);
+    }
+
+    /** @return the number of tuples on the page */
+    public int getNumTuples() {
+        int n = 0;
+        for (int i = 0; i < getNumSlots(); i++) {
+            if (slotOffset(data, i) != 0)
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return an iterator over the tuples on this page, in slot order
+     *         (calling remove on this iterator throws an
+     *         UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < getNumSlots(); i++) {
+            Tuple t = getTuple(i);
+            if (t != null)
+                tuples.add(t);
+        }
+        return Collections.unmodifiableList(tuples).iterator();
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    // see Page.java for javadocs
+    public void writeTo(ByteBuffer buf) {
+        buf.put(data);
+    }
+
+    /** @return the bytes of an empty page */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.PAGE_SIZE];
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty)
+            this.lastDirtyTid = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? lastDirtyTid : null;
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            return new SlottedPage(pid, oldData == null ? getPageData() : oldData.clone());
+        } catch (IOException e) {
+            // should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+}
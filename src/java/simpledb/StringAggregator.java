@@ -13,6 +13,8 @@ public class StringAggregator implements Aggregator {
 	private int afield;
 	private Op what;
 	private ArrayList<TupleAndCount> myGroupTuples; //Tuple of GroupVal and AggregateVal
+	// groups by value; StringFields of a dictionary are matched by their codes
+	private HashMap<Field, TupleAndCount> groupsByField;
 	private TupleAndCount myGroup;
 	private TupleDesc td;
 
@@ -80,6 +82,7 @@ public class StringAggregator implements Aggregator {
 		this.afield = afield;
 		this.what = what;
 		this.myGroupTuples = new ArrayList<TupleAndCount>();
+		this.groupsByField = new HashMap<Field, TupleAndCount>();
 		this.myGroup = null;
 		this.td = null;
 	}
@@ -93,12 +96,7 @@ public class StringAggregator implements Aggregator {
 //		System.out.println("tup : "+ tup.toString());
 		try {				
 			if (this.gbfield != NO_GROUPING) {
-				myGroup = null;
-				for (int i = 0; i < myGroupTuples.size(); i++) { // find tup's group
-					if (myGroupTuples.get(i).getGroupField().equals(tup.getField(this.gbfield)) ) {
-						myGroup = myGroupTuples.get(i);
-					}
-				}
+				myGroup = groupsByField.get(tup.getField(this.gbfield)); // find tup's group
 			}
 
 			// if no grouping and first merge, or if there is grouping and group was not found, 
@@ -140,6 +138,8 @@ public class StringAggregator implements Aggregator {
 				else
 					myGroup.setAggregateField(tup.getField(this.afield));
 				myGroupTuples.add(myGroup);
+				if (this.gbfield != NO_GROUPING)
+					groupsByField.put(tup.getField(this.gbfield), myGroup);
 				return; 
 			}
 
@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * StringDictionary maps the distinct values of a string column to dense
+ * int codes, 0, 1, 2, ... in the order the values were added. A
+ * {@link ColumnFile} keeps one for each of its string columns and stores
+ * the codes on its pages in place of the strings.
+ * <p>
+ * A {@link StringField} read through a dictionary carries its code, and
+ * two such fields of the same dictionary are compared by their codes
+ * instead of character by character, so equality predicates, group-by and
+ * equi-joins over the column work on ints. The strings themselves are held
+ * once, in the dictionary, and shared by every field with the same code.
+ */
+public class StringDictionary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The largest number of values a dictionary takes. */
+    public static final int MAX_SIZE = 1 << 16;
+
+    private final ArrayList<String> values = new ArrayList<String>();
+    private final HashMap<String, Integer> codes = new HashMap<String, Integer>();
+
+    /** @return the number of values in the dictionary */
+    public int size() {
+        return values.size();
+    }
+
+    /** @return the code of s, or -1 if s is not in the dictionary */
+    public int code(String s) {
+        Integer code = codes.get(s);
+        return code == null ? -1 : code;
+    }
+
+    /** @return the value with the specified code */
+    public String value(int code) {
+        return values.get(code);
+    }
+
+    /**
+     * Adds s unless it is already in the dictionary.
+     *
+     * @return the code of s, or -1 if it is new and the dictionary is full
+     */
+    public int add(String s) {
+        Integer code = codes.get(s);
+        if (code != null)
+            return code;
+        if (values.size() >= MAX_SIZE)
+            return -1;
+        codes.put(s, values.size());
+        values.add(s);
+        return values.size() - 1;
+    }
+
+    /**
+     * Writes the dictionary to dos: the number of values, then each value
+     * as an int length followed by its bytes, in code order.
+     */
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeInt(values.size());
+        for (String s : values) {
+            dos.writeInt(s.length());
+            dos.writeBytes(s);
+        }
+    }
+
+    /** Reads a dictionary in the format written by {@link #serialize}. */
+    public static StringDictionary parse(DataInputStream dis) throws IOException {
+        StringDictionary dict = new StringDictionary();
+        int n = dis.readInt();
+        for (int i = 0; i < n; i++) {
+            byte[] bs = new byte[dis.readInt()];
+            dis.readFully(bs);
+            dict.add(new String(bs));
+        }
+        return dict;
+    }
+}
@@ -3,14 +3,25 @@ package simpledb;
 import java.io.*;
 
 /**
- * Instance of Field that stores a single String of a fixed length.
+ * Instance of Field that stores a single String of a fixed length, or of a
+ * variable length up to maxSize if its type is {@link Type#VARCHAR_TYPE}.
+ * A field read through a {@link StringDictionary} also carries the code of
+ * its value, and is compared to fields of the same dictionary by code.
  */
 public class StringField implements Field {
 
 	private static final long serialVersionUID = 1L;
 
+	/** Written by serialize to pad strings out to maxSize. */
+	private static final byte[] PADDING = new byte[Type.STRING_LEN];
+
 	private String value;
 	private int maxSize;
+	private Type type;
+	/** The dictionary the value was read through, or null. */
+	private StringDictionary dict;
+	/** The code of the value in dict, or -1 if it isn't in it. */
+	private int code = -1;
 
 	public String getValue() {
 		return value;
@@ -25,7 +36,22 @@ public class StringField implements Field {
 	 *            The maximum size of this string
 	 */
 	public StringField(String s, int maxSize) {
+		this(s, maxSize, Type.STRING_TYPE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 * @param type
+	 *            Type.STRING_TYPE or Type.VARCHAR_TYPE
+	 */
+	public StringField(String s, int maxSize, Type type) {
 		this.maxSize = maxSize;
+		this.type = type;
 
 		if (s.length() > maxSize)
 			value = s.substring(0, maxSize);
@@ -33,6 +59,56 @@ public class StringField implements Field {
 			value = s;
 	}
 
+	/**
+	 * Constructor for a value read through a dictionary.
+	 * 
+	 * @param dict
+	 *            The dictionary of the column the value belongs to.
+	 * @param code
+	 *            The code of the value in dict.
+	 * @param type
+	 *            Type.STRING_TYPE or Type.VARCHAR_TYPE
+	 */
+	public StringField(StringDictionary dict, int code, Type type) {
+		this(dict.value(code), Type.STRING_LEN, type);
+		this.dict = dict;
+		this.code = code;
+	}
+
+	/**
+	 * Returns a field with the value of this one that is compared by code
+	 * to the fields of the specified dictionary. If the value is not in the
+	 * dictionary, the field is known to differ from all of them.
+	 */
+	public StringField encode(StringDictionary dict) {
+		if (this.dict == dict)
+			return this;
+		StringField f = new StringField(value, maxSize, type);
+		f.dict = dict;
+		f.code = dict.code(value);
+		return f;
+	}
+
+	/** @return the dictionary this field was read through, or null */
+	public StringDictionary getDictionary() {
+		return dict;
+	}
+
+	/** @return the code of the value in its dictionary, or -1 */
+	public int getCode() {
+		return code;
+	}
+
+	/**
+	 * Returns true if this field and f are equal, comparing their codes if
+	 * they belong to the same dictionary and at least one of them is in it.
+	 */
+	private boolean sameValue(StringField f) {
+		if (dict != null && dict == f.dict && (code >= 0 || f.code >= 0))
+			return code == f.code;
+		return value.equals(f.value);
+	}
+
 	public String toString() {
 		return value;
 	}
@@ -42,13 +118,14 @@ public class StringField implements Field {
 	}
 
 	public boolean equals(Object field) {
-		return ((StringField) field).value.equals(value);
+		return sameValue((StringField) field);
 	}
 
 	/**
 	 * Write this string to dos. Always writes maxSize + 4 bytes to the passed
 	 * in dos. First four bytes are string length, next bytes are string, with
-	 * remainder padded with 0 to maxSize.
+	 * remainder padded with 0 to maxSize. A VARCHAR_TYPE string is not
+	 * padded.
 	 * 
 	 * @param dos
 	 *            Where the string is written
@@ -62,8 +139,13 @@ public class StringField implements Field {
 		}
 		dos.writeInt(s.length());
 		dos.writeBytes(s);
-		while (overflow-- > 0)
-			dos.write((byte) 0);
+		if (type == Type.VARCHAR_TYPE)
+			return;
+		while (overflow > 0) {
+			int n = Math.min(overflow, PADDING.length);
+			dos.write(PADDING, 0, n);
+			overflow -= n;
+		}
 	}
 
 	/**
@@ -77,6 +159,10 @@ public class StringField implements Field {
 	public boolean compare(Predicate.Op op, Field val) {
 
 		StringField iVal = (StringField) val;
+		if (op == Predicate.Op.EQUALS)
+			return sameValue(iVal);
+		if (op == Predicate.Op.NOT_EQUALS)
+			return !sameValue(iVal);
 		int cmpVal = value.compareTo(iVal.value);
 
 		switch (op) {
@@ -110,6 +196,6 @@ public class StringField implements Field {
 	 */
 	public Type getType() {
 
-		return Type.STRING_TYPE;
+		return type;
 	}
 }
@@ -19,12 +19,20 @@ public class TableStats {
 	private HashMap<Integer, StringHistogram> stringH = new HashMap<Integer, StringHistogram>();
 	private int tableid;
 	private int ioCostPerPage = IOCOSTPERPAGE;
+	/** Cost of reading one page of this table, which may be larger or smaller than PAGE_SIZE. */
+	private double pageCost = IOCOSTPERPAGE;
 	private int numPages;
 	private int numTuples;
 	public TupleDesc td;
 	public int[] distinctValues;
 	
 	static final int IOCOSTPERPAGE = 1000;
+	/**
+	 * Share of the cost of reading a page of BufferPool.PAGE_SIZE bytes that
+	 * is paid per read, whatever its size (seek, request overhead); the rest
+	 * is proportional to the bytes read.
+	 */
+	static final double PER_READ_COST_SHARE = 0.5;
 
 	public static TableStats getTableStats(String tablename) {
 		return statsMap.get(tablename);
@@ -99,6 +107,7 @@ public class TableStats {
 		this.ioCostPerPage = ioCostPerPage;
 
 		DbFile table = Database.getCatalog().getDbFile(tableid);
+		this.pageCost = ioCostPerPage * pageCostFactor(table.getPageSize());
 		this.td = table.getTupleDesc();
 		this.numTuples = 0;
 		int tupleSize = td.getSize();
@@ -112,7 +121,7 @@ public class TableStats {
 			min_max[i][0] = Integer.MAX_VALUE;
 			min_max[i][1] = Integer.MIN_VALUE;
 		}
-		DbFileIterator it = table.iterator(tid);
+		DbFileIterator it = HeapFile.sequentialIterator(table, tid);
 		try {
 			it.open();
 			while( it.hasNext() ){
@@ -128,6 +137,13 @@ public class TableStats {
 				}
 			}
 			this.numPages = uniquePages.size();
+			// the RecordIds of a column file only name the pages of its first column
+			if (table instanceof ColumnFile) {
+				ColumnFile cf = (ColumnFile) table;
+				this.numPages = 0;
+				for (int i = 0; i < td.numFields(); i++)
+					this.numPages += cf.numPages(i);
+			}
 			//int tupsPerPage = (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
 			//this.numPages = numTuples*tupleSize/BufferPool.PAGE_SIZE;
 			// construct histograms for each field
@@ -140,7 +156,7 @@ public class TableStats {
 
 			// second scan to populate the histograms
 			it.close();
-			it = table.iterator(tid);
+			it = HeapFile.sequentialIterator(table, tid);
 			it.open();
 			while( it.hasNext() ){
 				Tuple t = it.next();
@@ -177,7 +193,21 @@ public class TableStats {
 	public double estimateScanCost() {
 		// some code goes here
 		//return this.numPages * this.ioCostPerPage;
-		return this.numPages*this.ioCostPerPage;
+		// a compressed table is read as the pages its blocks take on disk
+		DbFile table = Database.getCatalog().getDbFile(tableid);
+		if (table instanceof CompressedHeapFile)
+			return ((CompressedHeapFile) table).storedPages()*this.ioCostPerPage;
+		return this.numPages*this.pageCost;
+	}
+
+	/**
+	 * Returns the cost of reading a page of pageSize bytes relative to one of
+	 * BufferPool.PAGE_SIZE bytes. Part of the cost of a read doesn't depend
+	 * on its size, so a table with larger pages takes fewer, cheaper reads
+	 * per byte to scan, but each page fetched for a single tuple costs more.
+	 */
+	static double pageCostFactor(int pageSize) {
+		return PER_READ_COST_SHARE + (1 - PER_READ_COST_SHARE) * pageSize / BufferPool.PAGE_SIZE;
 	}
 
 	/**
@@ -234,6 +264,60 @@ public class TableStats {
 		}
 	}
 
+	/**
+	 * Estimates the cost of fetching the tuples that satisfy <tt>field op
+	 * constant</tt> through an index on field. Each matching tuple is
+	 * assumed to cost a random page read, plus a page read to search the
+	 * index.
+	 */
+	public double estimateIndexScanCost(int field, Predicate.Op op, Field constant) {
+		double matches = estimateSelectivity(field, op, constant) * numTuples;
+		return ioCostPerPage + matches * pageCost;
+	}
+
+	/**
+	 * Estimates the cost of reading the tuples that pass predicates with a
+	 * combined selectivity through a {@link BitmapScan}. The matching tuples
+	 * are assumed to be spread at random over the pages of the table; each
+	 * page that holds at least one of them is read once, in file order.
+	 */
+	public double estimateBitmapScanCost(double selectivity) {
+		if (numPages == 0)
+			return 0;
+		double matches = selectivity * numTuples;
+		double pages = numPages * (1 - Math.pow(1 - 1.0 / numPages, matches));
+		return pages * pageCost;
+	}
+
+	/**
+	 * Estimates the cost of reading the tuples that pass predicates with a
+	 * combined selectivity through a {@link BitmapHeapScan} that reads
+	 * indexPages pages of its indexes to collect their RecordIds. The table
+	 * pages are read as in {@link #estimateBitmapScanCost}.
+	 */
+	public double estimateBitmapHeapScanCost(double selectivity, double indexPages) {
+		return indexPages * ioCostPerPage + estimateBitmapScanCost(selectivity);
+	}
+
+	/**
+	 * Estimates the cost of answering a query from the entries of a
+	 * {@link CoveringIndex} alone, reading a fraction selectivity of its
+	 * indexPages pages, plus a page read to search the index.
+	 */
+	public double estimateIndexOnlyScanCost(double selectivity, int indexPages) {
+		return (1 + selectivity * indexPages) * ioCostPerPage;
+	}
+
+	/**
+	 * Estimates the cost of reading the specified columns of a table stored
+	 * as a {@link ColumnFile} with a {@link ColumnScan}, which reads each
+	 * page of those columns once and no others.
+	 */
+	public double estimateColumnScanCost(int[] fields) {
+		ColumnFile f = (ColumnFile) Database.getCatalog().getDbFile(tableid);
+		return f.numPages(fields) * ioCostPerPage;
+	}
+
 	/**
 	 * return the total number of tuples in this table
 	 * */
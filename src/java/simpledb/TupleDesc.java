@@ -174,7 +174,8 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Note that tuples from a given TupleDesc are of a fixed size,
+     *         unless it {@link #isVariableLength}.
      */
     public int getSize() {
         // some code goes here
@@ -186,6 +187,19 @@ public class TupleDesc implements Serializable {
         return sum;
     }
 
+    /**
+     * @return true if any field of this TupleDesc has a variable-length
+     *         type, so its tuples vary in size and getSize is only the
+     *         largest size they can take.
+     */
+    public boolean isVariableLength() {
+    	for (TDItem item : TDItemArrLst) {
+    		if (item.fieldType.isVariableLength())
+    			return true;
+    	}
+    	return false;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * TwoQueuePolicy implements the full version of 2Q (Johnson and Shasha, VLDB
+ * '94). Pages read for the first time go into a FIFO queue, A1in. Pages
+ * evicted from A1in are remembered in a ghost queue, A1out; if one of them is
+ * requested again it is promoted to the LRU queue Am. Pages that are only
+ * touched once, such as those of a large scan, therefore never displace the
+ * hot pages in Am.
+ */
+public class TwoQueuePolicy extends AbstractReplacementPolicy {
+
+    /** Fraction of the frames A1in may hold before it is preferred for eviction. */
+    static final double KIN_FRACTION = 0.25;
+    /** Number of ghost entries in A1out, as a fraction of the frames. */
+    static final double KOUT_FRACTION = 0.5;
+
+    private final int kin;
+    private final int kout;
+    private LinkedHashSet<Integer> a1in = new LinkedHashSet<Integer>();
+    private LinkedHashSet<Integer> am = new LinkedHashSet<Integer>();
+    private LinkedHashMap<PageId, Boolean> a1out;
+    private PageId[] framePids;
+
+    public TwoQueuePolicy(int numFrames) {
+        kin = Math.max(1, (int) (numFrames * KIN_FRACTION));
+        kout = Math.max(1, (int) (numFrames * KOUT_FRACTION));
+        framePids = new PageId[numFrames];
+        a1out = new LinkedHashMap<PageId, Boolean>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, Boolean> eldest) {
+                return size() > kout;
+            }
+        };
+    }
+
+    public void pageHit(int frame) {
+        recordHit();
+        if (am.remove(frame))
+            am.add(frame); // move to the MRU end
+        // hits in A1in don't reorder it: it is a FIFO
+    }
+
+    public void pageLoaded(int frame, PageId pid) {
+        recordMiss();
+        framePids[frame] = pid;
+        if (a1out.remove(pid) != null)
+            am.add(frame);
+        else
+            a1in.add(frame);
+    }
+
+    public void pageRemoved(int frame) {
+        if (a1in.remove(frame) && framePids[frame] != null)
+            a1out.put(framePids[frame], Boolean.TRUE);
+        am.remove(frame);
+        framePids[frame] = null;
+    }
+
+    public int chooseVictim(Page[] frames) {
+        int victim;
+        if (a1in.size() > kin) {
+            victim = firstEvictable(a1in, frames);
+            if (victim == NO_VICTIM)
+                victim = firstEvictable(am, frames);
+        } else {
+            victim = firstEvictable(am, frames);
+            if (victim == NO_VICTIM)
+                victim = firstEvictable(a1in, frames);
+        }
+        return victim;
+    }
+
+    private static int firstEvictable(LinkedHashSet<Integer> queue, Page[] frames) {
+        Iterator<Integer> it = queue.iterator();
+        while (it.hasNext()) {
+            int i = it.next();
+            if (isEvictable(frames, i))
+                return i;
+        }
+        return NO_VICTIM;
+    }
+}
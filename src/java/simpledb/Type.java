@@ -2,6 +2,8 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +26,15 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new IntField(buf.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,15 +53,112 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                int start = buf.position();
+                int strLen = buf.getInt();
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("bad string length " + strLen, start);
+                byte bs[] = new byte[strLen];
+                buf.get(bs);
+                buf.position(start + getLen());
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+    }, VARCHAR_TYPE() {
+        /** The most bytes a value can take; most take far fewer. */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public boolean isVariableLength() {
+            return true;
+        }
+
+        @Override
+        public int getLen(Field f) {
+            return 4 + Math.min(((StringField) f).getValue().length(), STRING_LEN);
+        }
+
+        @Override
+        public void serialize(Field f, DataOutputStream dos) throws IOException {
+            String s = ((StringField) f).getValue();
+            if (s.length() > STRING_LEN)
+                s = s.substring(0, STRING_LEN);
+            dos.writeInt(s.length());
+            dos.writeBytes(s);
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("bad string length " + strLen, 0);
+                byte bs[] = new byte[strLen];
+                dis.readFully(bs);
+                return new StringField(new String(bs), STRING_LEN, VARCHAR_TYPE);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                int start = buf.position();
+                int strLen = buf.getInt();
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("bad string length " + strLen, start);
+                byte bs[] = new byte[strLen];
+                buf.get(bs);
+                return new StringField(new String(bs), STRING_LEN, VARCHAR_TYPE);
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
 
   /**
-   * @return the number of bytes required to store a field of this type.
+   * @return the number of bytes required to store a field of this type. For
+   *   a variable-length type, the most bytes a field can take.
    */
     public abstract int getLen();
 
+  /**
+   * @return true if fields of this type take a varying number of bytes, so
+   *   they can only be stored in pages that lay out records by size, like
+   *   {@link SlottedPage}.
+   */
+    public boolean isVariableLength() {
+        return false;
+    }
+
+  /**
+   * @return the number of bytes {@link #serialize} writes for the specified
+   *   field of this type.
+   */
+    public int getLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * Writes the specified field in this type's format, which for
+   * variable-length types may differ from what the field's own
+   * {@link Field#serialize} writes.
+   */
+    public void serialize(Field f, DataOutputStream dos) throws IOException {
+        f.serialize(dos);
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -60,4 +168,14 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer at its current position. The position
+   *   is advanced past the field.
+   * @param buf The buffer to read from
+   * @throws ParseException if the buffer doesn't hold a value of this type
+   *   at its position.
+   */
+    public abstract Field parse(ByteBuffer buf) throws ParseException;
+
 }
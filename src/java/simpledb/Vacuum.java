@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Vacuum compacts a {@link HeapFile} whose pages were thinned out by
+ * deletes. Deleting a tuple only frees its slot, so without compaction a
+ * table keeps every page it ever had, and scans and statistics keep
+ * reading them.
+ * <p>
+ * Pages are processed from the end of the file backwards: the tuples of
+ * each page are moved, with {@link BufferPool#moveTuple}, into the first
+ * pages with room nearer the start, until the page being emptied is the
+ * first with room. The empty pages at the end are then cut off the file.
+ * Indexes registered in the catalog follow the tuples to their new
+ * RecordIds.
+ * <p>
+ * The table stays online throughout. Each page is emptied in a transaction
+ * of its own that takes the usual page locks, so other transactions only
+ * wait for the pages being moved between. A page whose transaction is
+ * aborted, e.g. on a lock timeout, is retried a few times and then left as
+ * it is. The progress counters may be read from another thread while
+ * {@link #run} is going.
+ */
+public class Vacuum {
+
+    /** Times the transaction emptying a page is retried after an abort. */
+    public static final int MAX_RETRIES = 5;
+
+    private final HeapFile table;
+    private final int slotsPerPage;
+
+    private volatile int totalPages;
+    /** The page being emptied, counting down from the end of the file. */
+    private volatile int currentPage;
+    private volatile int pagesProcessed;
+    private volatile int pagesSkipped;
+    private volatile int tuplesMoved;
+    private volatile int pagesTruncated;
+    private volatile int abortedTransactions;
+    private volatile boolean done;
+    private volatile FreeSpaceMap freeSpace;
+
+    public Vacuum(HeapFile table) {
+        this.table = table;
+        this.slotsPerPage = HeapPage.getNumTuples(table.getTupleDesc(), table.getPageSize());
+    }
+
+    /**
+     * Compacts the table and truncates its file.
+     *
+     * @throws DbException if a page can't be read or changed; the page
+     *         being emptied is rolled back
+     * @throws IOException if an index or the file can't be written; the
+     *         page being emptied is rolled back too
+     */
+    public void run() throws DbException, IOException {
+        freeSpace = table.freeSpaceMap();
+        totalPages = table.numPages();
+        for (currentPage = totalPages - 1; currentPage > 0; currentPage--) {
+            if (!emptyPage(currentPage))
+                break;
+            pagesProcessed++;
+        }
+        truncate();
+        done = true;
+    }
+
+    /**
+     * Moves the tuples of the specified page to pages before it, in one
+     * transaction, retried after aborts.
+     *
+     * @return false if some tuples stayed because no page before has room
+     */
+    private boolean emptyPage(int pgNo) throws DbException, IOException {
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId pid = new HeapPageId(table.getId(), pgNo);
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++) {
+            TransactionId tid = new TransactionId();
+            try {
+                HeapPage p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+                ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+                Iterator<Tuple> it = p.iterator();
+                while (it.hasNext())
+                    tuples.add(it.next());
+                int moved = 0;
+                boolean room = true;
+                for (Tuple t : tuples) {
+                    if (!bp.moveTuple(tid, t, pgNo)) {
+                        room = false;
+                        break;
+                    }
+                    moved++;
+                }
+                bp.transactionComplete(tid);
+                tuplesMoved += moved;
+                return room;
+            } catch (TransactionAbortedException e) {
+                // the lock wait timed out, and tid was rolled back
+                abortedTransactions++;
+            } catch (DbException e) {
+                bp.transactionComplete(tid, false);
+                throw e;
+            } catch (IOException e) {
+                // e.g. from an index insert, or from cutting the file
+                bp.transactionComplete(tid, false);
+                throw e;
+            }
+        }
+        pagesSkipped++;
+        return true;
+    }
+
+    /**
+     * Cuts the empty pages at the end of the table off its file, holding
+     * write locks on them so no transaction is using them.
+     */
+    private void truncate() throws DbException, IOException {
+        BufferPool bp = Database.getBufferPool();
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++) {
+            TransactionId tid = new TransactionId();
+            try {
+                int end = table.numPages();
+                int newEnd = end;
+                while (newEnd > 0) {
+                    HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(table.getId(), newEnd - 1),
+                            Permissions.READ_WRITE);
+                    if (p.getNumEmptySlots() < slotsPerPage)
+                        break;
+                    newEnd--;
+                }
+                if (table.truncate(newEnd, end)) {
+                    for (int i = newEnd; i < end; i++)
+                        bp.discardPage(new HeapPageId(table.getId(), i));
+                    pagesTruncated = end - newEnd;
+                }
+                bp.transactionComplete(tid);
+                return;
+            } catch (TransactionAbortedException e) {
+                abortedTransactions++;
+            } catch (DbException e) {
+                bp.transactionComplete(tid, false);
+                throw e;
+            } catch (IOException e) {
+                // e.g. from an index insert, or from cutting the file
+                bp.transactionComplete(tid, false);
+                throw e;
+            }
+        }
+    }
+
+    /** @return the number of pages the table had when the vacuum started */
+    public int getTotalPages() {
+        return totalPages;
+    }
+
+    /** @return the number of pages emptied of their tuples so far */
+    public int getPagesProcessed() {
+        return pagesProcessed;
+    }
+
+    /** @return the number of pages left as they were after repeated aborts */
+    public int getPagesSkipped() {
+        return pagesSkipped;
+    }
+
+    /** @return the number of tuples moved so far */
+    public int getTuplesMoved() {
+        return tuplesMoved;
+    }
+
+    /** @return the number of pages cut off the end of the file */
+    public int getPagesTruncated() {
+        return pagesTruncated;
+    }
+
+    /** @return the number of transactions that were aborted and retried or given up */
+    public int getAbortedTransactions() {
+        return abortedTransactions;
+    }
+
+    /** @return true once the vacuum has finished */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Estimates how far the vacuum has got, from 0 to 1. It ends at the
+     * latest when the page being emptied reaches the first page with room,
+     * so the pages between the two are what is left to do.
+     */
+    public double getProgress() {
+        if (done)
+            return 1.0;
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm == null)
+            return 0.0;
+        int firstWithRoom = fsm.nextPageWithRoom(0);
+        int left = firstWithRoom < 0 ? 0 : Math.max(0, currentPage - firstWithRoom);
+        int processed = pagesProcessed;
+        return processed + left == 0 ? 0.0 : (double) processed / (processed + left);
+    }
+
+    public String toString() {
+        return "vacuum " + (done ? "done" : "running") + ": " + pagesProcessed + " of "
+                + totalPages + " pages emptied (" + pagesSkipped + " skipped), " + tuplesMoved
+                + " tuples moved, " + pagesTruncated + " pages truncated, "
+                + abortedTransactions + " aborted transactions";
+    }
+}
@@ -0,0 +1,324 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * ZoneMap keeps a synopsis of each page of a HeapFile: the number of tuples
+ * on the page and the minimum and maximum of each INT column. A scan whose
+ * predicates can't match a page's ranges skips the page without reading it.
+ * <p>
+ * A synopsis only has to cover the page on disk, not describe it exactly. It
+ * is recorded from a clean page when a scan reads a page the map doesn't
+ * know yet, and when a page is written it is widened by the tuples inserted
+ * into the page since it was read, without decoding the rest of the page.
+ * Deletes leave it as it is. Unknown pages are never skipped.
+ * <p>
+ * The synopses are kept in memory and saved in a sidecar file next to the
+ * table (the table's file name plus ".zm") when the table is closed, so they
+ * survive restarts. The sidecar starts with the length and the modification
+ * time the table file had when the sidecar was saved, and is thrown away on
+ * loading unless the table file still has both. The first change to the map
+ * after it was loaded or saved overwrites the length with -1, so a sidecar
+ * that missed changes before a crash is never used. After the header come
+ * fixed-size records, one per page:
+ * <pre>
+ *     int  number of tuples on the page + 1, or 0 if the page is unknown
+ *     int  min, int max   for each INT column, in column order
+ * </pre>
+ * The tuple count is only an upper bound once tuples are deleted.
+ * <p>
+ * A map that knows no page holding tuples isn't saved, and neither is the
+ * map of a temporary table (see {@link #setPersistent}); any sidecar they
+ * had is deleted instead. Whatever rewrites a table file from scratch
+ * deletes its sidecar with {@link #deleteSidecar}.
+ */
+public class ZoneMap {
+
+    static final int HEADER_SIZE = 16;
+    private static final int UNKNOWN = 0;
+    /** Table length in the header of a sidecar that is out of date. */
+    private static final long STALE = -1;
+
+    private final File dataFile;
+    private final File sidecar;
+    /** Indexes of the INT columns. */
+    private final int[] intFields;
+    /** Ints per page record. */
+    private final int recordInts;
+
+    private int[] records = new int[0];
+    private int numPages = 0;
+    /** True while the sidecar holds exactly what is in records. */
+    private boolean saved = false;
+    /** The table file's length and modification time in the sidecar's header. */
+    private long savedLength = STALE;
+    private long savedModified = 0;
+    private RandomAccessFile raf;
+    private boolean persistent;
+
+    /**
+     * Opens the zone map of the table stored in dataFile, loading the
+     * sidecar file if it exists and is up to date.
+     */
+    public ZoneMap(File dataFile, TupleDesc td) {
+        this(dataFile, td, true);
+    }
+
+    /**
+     * Opens the zone map of the table stored in dataFile. A map that isn't
+     * persistent starts out empty and is never saved.
+     *
+     * @see #setPersistent
+     */
+    public ZoneMap(File dataFile, TupleDesc td, boolean persistent) {
+        this.dataFile = dataFile;
+        this.persistent = persistent;
+        this.sidecar = sidecar(dataFile);
+        int numInts = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                numInts++;
+        }
+        intFields = new int[numInts];
+        for (int i = 0, j = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                intFields[j++] = i;
+        }
+        recordInts = 1 + 2 * numInts;
+        if (persistent)
+            load();
+    }
+
+    /** @return the sidecar file of the table stored in dataFile */
+    public static File sidecar(File dataFile) {
+        return new File(dataFile.getPath() + ".zm");
+    }
+
+    /**
+     * Deletes the sidecar of the table stored in dataFile, for when the
+     * table file is dropped or rewritten.
+     */
+    public static void deleteSidecar(File dataFile) {
+        sidecar(dataFile).delete();
+    }
+
+    private void load() {
+        if (!sidecar.exists())
+            return;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+            try {
+                long length = in.readLong();
+                long modified = in.readLong();
+                if (length != dataFile.length() || modified != dataFile.lastModified())
+                    return; // out of date, or the table was written by something else
+                int n = (int) ((sidecar.length() - HEADER_SIZE) / (4 * recordInts));
+                ensureCapacity(n);
+                for (int i = 0; i < n * recordInts; i++)
+                    records[i] = in.readInt();
+                numPages = n;
+                saved = true;
+                savedLength = length;
+                savedModified = modified;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // a damaged sidecar only costs us the skipping
+            Arrays.fill(records, UNKNOWN);
+            numPages = 0;
+        }
+    }
+
+    private void ensureCapacity(int pages) {
+        if (records.length < pages * recordInts)
+            records = Arrays.copyOf(records, Math.max(pages, 2 * records.length / recordInts + 1) * recordInts);
+    }
+
+    /** @return true if the synopsis of the specified page is known */
+    public synchronized boolean isKnown(int pgNo) {
+        return pgNo < numPages && records[pgNo * recordInts] != UNKNOWN;
+    }
+
+    /**
+     * Returns false if no tuple on the specified page can pass p, according
+     * to the page's synopsis. Predicates on columns other than INT columns,
+     * and pages without a synopsis, may always match.
+     */
+    public synchronized boolean mayMatch(int pgNo, Predicate p) {
+        if (!isKnown(pgNo))
+            return true;
+        int base = pgNo * recordInts;
+        if (records[base] == 1)
+            return false; // empty page
+        for (int j = 0; j < intFields.length; j++) {
+            if (intFields[j] == p.getField())
+                return p.mayMatch(new IntField(records[base + 1 + 2 * j]), new IntField(records[base + 2 + 2 * j]));
+        }
+        return true;
+    }
+
+    /**
+     * Records the synopsis of a page whose contents are what is on disk,
+     * decoding all of its tuples.
+     */
+    public synchronized void update(HeapPage page) throws IOException {
+        int pgNo = page.getId().pageNumber();
+        if (pgNo >= numPages) {
+            ensureCapacity(pgNo + 1);
+            numPages = pgNo + 1;
+        }
+        int base = pgNo * recordInts;
+        for (int j = 0; j < intFields.length; j++) {
+            records[base + 1 + 2 * j] = Integer.MAX_VALUE;
+            records[base + 2 + 2 * j] = Integer.MIN_VALUE;
+        }
+        records[base] = 1;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            add(base, it.next());
+        changed();
+    }
+
+    /**
+     * Widens the synopsis of a page that is about to be written to cover the
+     * tuples inserted into it since it was read or last written. Only those
+     * tuples are decoded. Unknown pages stay unknown.
+     */
+    public synchronized void pageWritten(HeapPage page) throws IOException {
+        Iterator<Tuple> inserted = page.takeInsertedTuples().iterator();
+        int pgNo = page.getId().pageNumber();
+        if (!inserted.hasNext() || !isKnown(pgNo))
+            return;
+        int base = pgNo * recordInts;
+        while (inserted.hasNext())
+            add(base, inserted.next());
+        changed();
+    }
+
+    /** Adds t to the synopsis starting at records[base]. */
+    private void add(int base, Tuple t) {
+        records[base]++;
+        for (int j = 0; j < intFields.length; j++) {
+            int v = ((IntField) t.getField(intFields[j])).getValue();
+            records[base + 1 + 2 * j] = Math.min(records[base + 1 + 2 * j], v);
+            records[base + 2 + 2 * j] = Math.max(records[base + 2 + 2 * j], v);
+        }
+    }
+
+    /**
+     * Forgets the synopses of the pages from pgNo on, which were cut off the
+     * end of the table, so pages added there later start out unknown.
+     */
+    public synchronized void truncate(int pgNo) throws IOException {
+        if (pgNo >= numPages)
+            return;
+        Arrays.fill(records, pgNo * recordInts, numPages * recordInts, UNKNOWN);
+        numPages = pgNo;
+        changed();
+    }
+
+    /** Forgets every synopsis, e.g. after recovery rewrote pages behind the map's back. */
+    public synchronized void clear() throws IOException {
+        Arrays.fill(records, UNKNOWN);
+        numPages = 0;
+        changed();
+    }
+
+    /**
+     * Notes that records no longer match the sidecar. The first time, the
+     * sidecar is marked out of date, so it isn't used if the table is not
+     * closed properly.
+     */
+    private void changed() throws IOException {
+        if (!saved)
+            return;
+        writeHeader(STALE, 0);
+        saved = false;
+    }
+
+    private void writeHeader(long length, long modified) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        buf.putLong(0, length);
+        buf.putLong(8, modified);
+        FileChannel ch = channel();
+        while (buf.hasRemaining())
+            ch.write(buf, buf.position());
+        savedLength = length;
+        savedModified = modified;
+    }
+
+    /**
+     * Saves the synopses to the sidecar, stamped with the table file's
+     * current length and modification time, unless the sidecar is already
+     * up to date.
+     */
+    public synchronized void save() throws IOException {
+        long length = dataFile.length();
+        long modified = dataFile.lastModified();
+        if (saved && savedLength == length && savedModified == modified)
+            return;
+        if (!persistent || !holdsTuples()) {
+            discard();
+            return;
+        }
+        // the records first: if this is cut short, the header still says out of date
+        writeHeader(STALE, 0);
+        ByteBuffer buf = ByteBuffer.allocate(4 * recordInts * numPages);
+        buf.asIntBuffer().put(records, 0, numPages * recordInts);
+        FileChannel ch = channel();
+        ch.truncate(HEADER_SIZE);
+        while (buf.hasRemaining())
+            ch.write(buf, HEADER_SIZE + buf.position());
+        writeHeader(length, modified);
+        saved = true;
+    }
+
+    /** @return true if a known page holds tuples, so the map is worth keeping */
+    private boolean holdsTuples() {
+        for (int pgNo = 0; pgNo < numPages; pgNo++) {
+            if (records[pgNo * recordInts] > 1)
+                return true;
+        }
+        return false;
+    }
+
+    /** Closes and deletes the sidecar; the map stays in memory. */
+    private void discard() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+        sidecar.delete();
+        saved = false;
+    }
+
+    /**
+     * Makes the map persistent, the default, or keeps it in memory only,
+     * for a temporary table. Turning persistence off deletes the sidecar.
+     */
+    public synchronized void setPersistent(boolean persistent) throws IOException {
+        this.persistent = persistent;
+        if (!persistent)
+            discard();
+    }
+
+    private FileChannel channel() throws IOException {
+        if (raf == null)
+            raf = new RandomAccessFile(sidecar, "rw");
+        return raf.getChannel();
+    }
+
+    /** Saves and closes the sidecar file; it is reopened if the map is changed again. */
+    public synchronized void close() throws IOException {
+        save();
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, tuples, "c");
+    }
+
+    private static BTreeFile createIndex(DbFile table, int keyField) throws Exception {
+        File f = File.createTempFile("index", ".btree");
+        f.deleteOnExit();
+        BTreeFile index = new BTreeFile(f, table, keyField);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    /** @return the keys of the entries ipred returns, in the order returned */
+    private static ArrayList<Integer> lookup(Index index, IndexPredicate ipred) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.indexIterator(tid, ipred);
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return keys;
+    }
+
+    private ArrayList<Integer> expected(int field, Predicate.Op op, int v) {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(field)).compare(op, new IntField(v)))
+                keys.add(t.get(field));
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Entries inserted one at a time, splitting leaves and the root, are
+     * found by equality and range lookups
+     */
+    @Test public void insertAndLookup() throws Exception {
+        BTreeFile index = createIndex(table, 0);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            index.insertEntry(tid, t.getField(0), t.getRecordId());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+        for (Predicate.Op op : ops) {
+            for (int v : new int[] { -1, 0, tuples.get(17).get(0), 500, 999, 1000 })
+                assertEquals(op + " " + v, expected(0, op, v), lookup(index, new IndexPredicate(op, new IntField(v))));
+        }
+    }
+
+    /**
+     * Deleting most entries in random order merges pages, and the freed
+     * pages are reused by later inserts
+     */
+    @Test public void deleteMergesPages() throws Exception {
+        // string keys give small pages, and a tree three levels deep
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        File f = File.createTempFile("strings", ".dat");
+        f.deleteOnExit();
+        HeapFile strings = new HeapFile(f, td);
+        Database.getCatalog().addTable(strings, "strings");
+        BTreeFile index = createIndex(strings, 0);
+
+        int n = 3000;
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; i++) {
+            // spread the keys over the whole tree
+            int k = (i * 7919) % n;
+            RecordId rid = new RecordId(new HeapPageId(strings.getId(), k / 10), k % 10);
+            index.insertEntry(tid, new StringField("key" + (10000 + k), Type.STRING_LEN), rid);
+            rids.add(rid);
+            if (i % 20 == 19) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        long size = index.getFile().length();
+        BTreePage root = (BTreePage) index.readPage(new BTreePageId(index.getId(),
+                ((BTreePage) index.readPage(new BTreePageId(index.getId(), 0))).root));
+        assertEquals(BTreePage.INTERNAL, root.getKind());
+
+        Collections.shuffle(rids, new Random(1));
+        tid = new TransactionId();
+        for (int i = 0; i < n - 10; i++) {
+            RecordId rid = rids.get(i);
+            int k = rid.getPageId().pageNumber() * 10 + rid.tupleno();
+            index.deleteEntry(tid, new StringField("key" + (10000 + k), Type.STRING_LEN), rid);
+            if (i % 20 == 19) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        ArrayList<Integer> left = new ArrayList<Integer>();
+        for (RecordId rid : rids.subList(n - 10, n))
+            left.add(rid.getPageId().pageNumber() * 10 + rid.tupleno());
+        Collections.sort(left);
+        tid = new TransactionId();
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        for (int k : left) {
+            assertTrue(it.hasNext());
+            assertEquals("key" + (10000 + k), ((StringField) it.next().getField(0)).getValue());
+        }
+        assertTrue(!it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        root = (BTreePage) index.readPage(new BTreePageId(index.getId(),
+                ((BTreePage) index.readPage(new BTreePageId(index.getId(), 0))).root));
+        assertEquals(BTreePage.LEAF, root.getKind());
+
+        // half of the entries fit in the pages already in the file
+        tid = new TransactionId();
+        for (int i = 0; i < n / 2; i++) {
+            RecordId rid = rids.get(i);
+            int k = rid.getPageId().pageNumber() * 10 + rid.tupleno();
+            index.insertEntry(tid, new StringField("key" + (10000 + k), Type.STRING_LEN), rid);
+            if (i % 20 == 19) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(index.getFile().length() <= size);
+
+        try {
+            index.deleteEntry(new TransactionId(), new StringField("nope", Type.STRING_LEN), rids.get(0));
+            fail("expected DbException");
+        } catch (DbException e) {
+        }
+    }
+
+    /**
+     * Inserters on several threads, each committing after every entry,
+     * split leaves and the root at the same time without deadlocking
+     */
+    @Test public void concurrentSplits() throws Exception {
+        final BTreeFile index = createIndex(table, 0);
+        Database.resetBufferPool(500);
+        final int threads = 4;
+        final int entries = 4000; // a dozen leaves
+        final AtomicInteger aborts = new AtomicInteger();
+        final Exception[] failure = new Exception[1];
+        Thread[] inserters = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            inserters[t] = new Thread() {
+                public void run() {
+                    try {
+                        // interleaved keys, so the threads fill and split the same leaves
+                        for (int i = first; i < entries; i += threads) {
+                            while (true) {
+                                TransactionId tid = new TransactionId();
+                                try {
+                                    index.insertEntry(tid, new IntField(i), new RecordId(new HeapPageId(table.getId(), i / 100), i % 100));
+                                    Database.getBufferPool().transactionComplete(tid);
+                                    break;
+                                } catch (TransactionAbortedException e) {
+                                    aborts.incrementAndGet();
+                                }
+                            }
+                        }
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            inserters[t].start();
+        }
+        for (Thread t : inserters)
+            t.join();
+        if (failure[0] != null)
+            throw failure[0];
+
+        ArrayList<Integer> keys = lookup(index, null);
+        assertEquals(entries, keys.size());
+        for (int i = 0; i < entries; i++)
+            assertEquals(i, (int) keys.get(i));
+        assertEquals(0, aborts.get());
+    }
+
+    /**
+     * Inserts and deletes through the buffer pool keep a bulk loaded index
+     * up to date, and roll back with the transaction
+     */
+    @Test public void maintainedByBufferPool() throws Exception {
+        BTreeFile index = createIndex(table, 1);
+        TransactionId tid = new TransactionId();
+        index.bulkLoad(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected(1, Predicate.Op.GREATER_THAN, 900),
+                lookup(index, new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(900))));
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 1, 5000 }));
+        IndexScan scan = new IndexScan(tid, index, new IndexPredicate(Predicate.Op.EQUALS, new IntField(5000)));
+        scan.open();
+        assertTrue(scan.hasNext());
+        Tuple t = scan.next();
+        assertEquals(1, ((IntField) t.getField(0)).getValue());
+        assertTrue(!scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(0, lookup(index, new IndexPredicate(Predicate.Op.EQUALS, new IntField(5000))).size());
+
+        int v = tuples.get(0).get(1);
+        int matches = expected(1, Predicate.Op.EQUALS, v).size();
+        tid = new TransactionId();
+        scan = new IndexScan(tid, index, new IndexPredicate(Predicate.Op.EQUALS, new IntField(v)));
+        scan.open();
+        Database.getBufferPool().deleteTuple(tid, scan.next());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(matches - 1, lookup(index, new IndexPredicate(Predicate.Op.EQUALS, new IntField(v))).size());
+    }
+
+    /**
+     * The planner reads a table through an index, one tuple at a time or a
+     * page at a time, when a selective filter is on the index key, and
+     * scans it otherwise
+     */
+    @Test public void plannerPicksIndex() throws Exception {
+        BTreeFile index = createIndex(table, 0);
+        TransactionId tid = new TransactionId();
+        index.bulkLoad(tid);
+        String name = Database.getCatalog().getTableName(table.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), TableStats.IOCOSTPERPAGE));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, "500");
+        lp.addProjectField("t.c1", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(findIndexAccess(plan) != null);
+        SystemTestUtil.matchTuples(plan, matchingC1(500));
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, "10");
+        lp.addProjectField("t.c1", null);
+        assertEquals(null, findIndexAccess(lp.physicalPlan(tid, stats, false)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private ArrayList<ArrayList<Integer>> matchingC1(int c0) {
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == c0)
+                out.add(new ArrayList<Integer>(Arrays.asList(t.get(1))));
+        }
+        return out;
+    }
+
+    /** @return the IndexScan or BitmapHeapScan in plan, or null if there is none */
+    private static DbIterator findIndexAccess(DbIterator plan) {
+        if (plan instanceof IndexScan || plan instanceof BitmapHeapScan)
+            return plan;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                DbIterator s = findIndexAccess(child);
+                if (s != null)
+                    return s;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Multi-page reads and read-ahead of tree pages use the tree's page ids,
+     * so the pages they bring in are found by single-page lookups
+     */
+    @Test public void multiPageReads() throws Exception {
+        BTreeFile index = createIndex(table, 0);
+        TransactionId tid = new TransactionId();
+        index.bulkLoad(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        BufferPool bp = Database.getBufferPool();
+
+        tid = new TransactionId();
+        ArrayList<Page> pages = bp.getPages(tid, index.getPageId(0), 3, Permissions.READ_ONLY);
+        assertTrue(pages.get(1).getId() instanceof BTreePageId);
+        assertTrue(pages.get(1) == bp.getPage(tid, new BTreePageId(index.getId(), 1), Permissions.READ_ONLY));
+        assertTrue(bp.holdsLock(tid, new BTreePageId(index.getId(), 2)));
+
+        bp.getPrefetcher().prefetch(index, index.getPageId(3), 2);
+        assertTrue(bp.getPrefetcher().take(new BTreePageId(index.getId(), 4)) instanceof BTreePage);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BitmapHeapScanTest extends SimpleDbTestBase {
+
+    private static final int TUPLES_PER_PAGE = 504; // two int columns
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BTreeFile c0;
+
+    /**
+     * Set up a table of 20 pages, with a B+ tree index on the first column
+     * and a hash index on the second.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 20 * TUPLES_PER_PAGE, 1000, null, tuples, "c");
+        File f = File.createTempFile("index", ".btree");
+        f.deleteOnExit();
+        c0 = new BTreeFile(f, table, 0);
+        f = File.createTempFile("index", ".hash");
+        f.deleteOnExit();
+        HashFile c1 = new HashFile(f, table, 1);
+        Database.getCatalog().addIndex(c0);
+        Database.getCatalog().addIndex(c1);
+        TransactionId tid = new TransactionId();
+        c0.bulkLoad(tid);
+        c1.bulkLoad(tid);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private ArrayList<ArrayList<Integer>> expected(Predicate... preds) {
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            boolean pass = true;
+            for (Predicate p : preds)
+                pass &= p.filter(Utility.getHeapTuple(new int[] { t.get(0), t.get(1) }));
+            if (pass)
+                out.add(t);
+        }
+        return out;
+    }
+
+    /**
+     * The scan returns the tuples that pass all of the predicates, combining
+     * RecordIds from different kinds of index
+     */
+    @Test public void conjunction() throws Exception {
+        Predicate lt = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(300));
+        Predicate eq = new Predicate(1, Predicate.Op.EQUALS, new IntField(tuples.get(5).get(1)));
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new BitmapHeapScan(tid, table.getId(), "t", Arrays.asList(lt)), expected(lt));
+        SystemTestUtil.matchTuples(new BitmapHeapScan(tid, table.getId(), "t", Arrays.asList(eq)), expected(eq));
+        SystemTestUtil.matchTuples(new BitmapHeapScan(tid, table.getId(), "t", Arrays.asList(lt, eq)), expected(lt, eq));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * With a buffer pool too small for the table, an index scan reads pages
+     * again as it returns to them, while the bitmap heap scan reads each
+     * page once, all but the first read ahead
+     */
+    @Test public void readsEachPageOnce() throws Exception {
+        Predicate lt = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        Database.resetBufferPool(10);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new IndexScan(tid, c0, new IndexPredicate(lt.getOp(), lt.getOperand())), expected(lt));
+        Database.getBufferPool().transactionComplete(tid);
+        long indexScanMisses = Database.getBufferPool().getReplacementPolicy().getMisses();
+
+        Database.resetBufferPool(10);
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(new BitmapHeapScan(tid, table.getId(), "t", Arrays.asList(lt)), expected(lt));
+        Database.getBufferPool().transactionComplete(tid);
+        long misses = Database.getBufferPool().getReplacementPolicy().getMisses();
+        assertTrue(misses <= table.numPages() + c0.numPages());
+        assertTrue(indexScanMisses > 2 * misses);
+        Prefetcher prefetcher = Database.getBufferPool().getPrefetcher();
+        assertEquals(table.numPages() - 1, prefetcher.getIssued());
+        assertEquals(0, prefetcher.getWasted());
+    }
+
+    /**
+     * The planner reads a table through a bitmap heap scan when filters on
+     * indexed fields match more tuples than an index scan should fetch one
+     * at a time, but still few of the table's pages
+     */
+    @Test public void plannerPicksBitmapHeapScan() throws Exception {
+        String name = Database.getCatalog().getTableName(table.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), TableStats.IOCOSTPERPAGE));
+        TransactionId tid = new TransactionId();
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "3");
+        lp.addProjectField("t.c1", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(contains(plan, BitmapHeapScan.class));
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 3)
+                out.add(new ArrayList<Integer>(Arrays.asList(t.get(1))));
+        }
+        SystemTestUtil.matchTuples(plan, out);
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, "100");
+        lp.addProjectField("t.c1", null);
+        assertTrue(!contains(lp.physicalPlan(tid, stats, false), BitmapHeapScan.class));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static boolean contains(DbIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (contains(child, c))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapHeapScanTest.class);
+    }
+}
@@ -0,0 +1,245 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BitmapIndex c0, c1;
+
+    /**
+     * Set up a table of three columns with ten distinct values each, with
+     * bitmap indexes on the first two.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(3, 5000, 10, null, tuples, "c");
+        c0 = new BitmapIndex(table, 0);
+        c1 = new BitmapIndex(table, 1);
+        TransactionId tid = new TransactionId();
+        c0.build(tid);
+        c1.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getCatalog().addIndex(c0);
+        Database.getCatalog().addIndex(c1);
+    }
+
+    private ArrayList<ArrayList<Integer>> expected(Predicate... preds) {
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            boolean pass = true;
+            for (Predicate p : preds)
+                pass &= p.filter(Utility.getHeapTuple(new int[] { t.get(0), t.get(1), t.get(2) }));
+            if (pass)
+                out.add(t);
+        }
+        return out;
+    }
+
+    private void matchScan(Predicate... preds) throws Exception {
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new BitmapScan(tid, table.getId(), "t", Arrays.asList(preds)), expected(preds));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for RoaringBitmap, against a BitSet, with both sparse and
+     * dense chunks
+     */
+    @Test public void roaringSetOps() {
+        Random r = new Random(7);
+        BitSet[] sets = new BitSet[2];
+        RoaringBitmap[] bitmaps = new RoaringBitmap[2];
+        for (int s = 0; s < 2; s++) {
+            sets[s] = new BitSet();
+            bitmaps[s] = new RoaringBitmap();
+            // a sparse chunk, a dense chunk, and a chunk shared with the other set
+            for (int i = 0; i < 300; i++) {
+                int x = s * 65536 + r.nextInt(65536);
+                sets[s].set(x);
+                bitmaps[s].add(x);
+            }
+            for (int i = 0; i < 30000; i++) {
+                int x = (2 + s) * 65536 + r.nextInt(65536);
+                sets[s].set(x);
+                bitmaps[s].add(x);
+            }
+            for (int i = 0; i < 5000; i++) {
+                int x = 5 * 65536 + r.nextInt(65536);
+                sets[s].set(x);
+                bitmaps[s].add(x);
+            }
+        }
+        // shrink a dense chunk back below the array threshold
+        for (int x = sets[0].nextSetBit(2 * 65536); x >= 0 && x < 3 * 65536; x = sets[0].nextSetBit(x + 1)) {
+            if (r.nextInt(10) > 0) {
+                sets[0].clear(x);
+                bitmaps[0].remove(x);
+            }
+        }
+
+        BitSet and = (BitSet) sets[0].clone();
+        and.and(sets[1]);
+        BitSet or = (BitSet) sets[0].clone();
+        or.or(sets[1]);
+        assertSame(sets[0], bitmaps[0]);
+        assertSame(sets[1], bitmaps[1]);
+        assertSame(and, RoaringBitmap.and(bitmaps[0], bitmaps[1]));
+        assertSame(or, RoaringBitmap.or(bitmaps[0], bitmaps[1]));
+        assertFalse(bitmaps[0].contains(7 * 65536));
+    }
+
+    private static void assertSame(BitSet expected, RoaringBitmap actual) {
+        assertEquals(expected.cardinality(), actual.getCardinality());
+        int x = -1;
+        for (int e = expected.nextSetBit(0); e >= 0; e = expected.nextSetBit(e + 1)) {
+            x = actual.nextSetBit(x + 1);
+            assertEquals(e, x);
+            assertTrue(actual.contains(e));
+        }
+        assertEquals(-1, actual.nextSetBit(x + 1));
+    }
+
+    /**
+     * A conjunction of predicates is answered from the bitmaps, reading only
+     * the pages that hold matching tuples
+     */
+    @Test public void conjunction() throws Exception {
+        Predicate eq = new Predicate(0, Predicate.Op.EQUALS, new IntField(3));
+        Predicate lt = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(2));
+        matchScan(eq);
+        matchScan(eq, lt);
+        matchScan(lt, new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(3)));
+
+        // a tuple that no page but the first holds
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 50, 50, 0 }));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        BitmapScan scan = new BitmapScan(tid, table.getId(), "t", Arrays.asList(
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(50)),
+                new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(20))));
+        scan.open();
+        assertTrue(scan.hasNext());
+        Tuple t = scan.next();
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        int cached = 0;
+        for (int i = 0; i < table.numPages(); i++) {
+            if (Database.getBufferPool().isCached(new HeapPageId(table.getId(), i)))
+                cached++;
+        }
+        assertEquals(1, cached);
+        assertTrue(Database.getBufferPool().isCached(t.getRecordId().getPageId()));
+    }
+
+    /**
+     * Inserts and deletes through the buffer pool are seen by the scan, and
+     * entries left by aborted inserts and committed deletes are cleared when
+     * the scan finds them
+     */
+    @Test public void maintainedByBufferPool() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 42, 1, 0 }));
+        BitmapScan scan = new BitmapScan(tid, table.getId(), "t",
+                Arrays.asList(new Predicate(0, Predicate.Op.EQUALS, new IntField(42))));
+        scan.open();
+        assertTrue(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid, false);
+        matchScan(new Predicate(0, Predicate.Op.EQUALS, new IntField(42)));
+        assertTrue(c0.lookup(Predicate.Op.EQUALS, new IntField(42)).isEmpty());
+
+        Predicate eq = new Predicate(0, Predicate.Op.EQUALS, new IntField(3));
+        int before = expected(eq).size();
+        tid = new TransactionId();
+        scan = new BitmapScan(tid, table.getId(), "t", Arrays.asList(eq));
+        scan.open();
+        Database.getBufferPool().deleteTuple(tid, scan.next());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(before, c0.lookup(Predicate.Op.EQUALS, new IntField(3)).getCardinality());
+
+        tid = new TransactionId();
+        scan = new BitmapScan(tid, table.getId(), "t", Arrays.asList(eq));
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(before - 1, n);
+        assertEquals(before - 1, c0.lookup(Predicate.Op.EQUALS, new IntField(3)).getCardinality());
+    }
+
+    /**
+     * The planner reads a table through a bitmap scan when filters on
+     * bitmap indexed fields are selective together
+     */
+    @Test public void plannerPicksBitmapScan() throws Exception {
+        String name = Database.getCatalog().getTableName(table.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), TableStats.IOCOSTPERPAGE));
+        TransactionId tid = new TransactionId();
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, "3");
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, "4");
+        lp.addFilter("t.c2", Predicate.Op.EQUALS, "5");
+        lp.addProjectField("t.c2", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(contains(plan, BitmapScan.class));
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == 3 && t.get(1) == 4 && t.get(2) == 5)
+                out.add(new ArrayList<Integer>(Arrays.asList(5)));
+        }
+        SystemTestUtil.matchTuples(plan, out);
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, "1");
+        lp.addProjectField("t.c2", null);
+        assertFalse(contains(lp.physicalPlan(tid, stats, false), BitmapScan.class));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static boolean contains(DbIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (contains(child, c))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapIndexTest.class);
+    }
+}
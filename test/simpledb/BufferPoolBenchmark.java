@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Micro-benchmark of BufferPool.getPage hit latency for a range of pool
+ * sizes. Every page is resident before timing starts, so the numbers measure
+ * only the lookup path (lock check plus page table probe), which should stay
+ * flat as the pool grows.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.BufferPoolBenchmark
+ */
+public class BufferPoolBenchmark {
+
+    static final int[] POOL_SIZES = { 50, 1000, 10000, 100000 };
+    static final int WARMUP_ROUNDS = 5;
+    static final int MEASURED_ROUNDS = 10;
+    static final int LOOKUPS_PER_ROUND = 1000000;
+
+    /** A page that carries no data, so large pools fit in a small heap. */
+    static class EmptyPage implements Page {
+        private final PageId pid;
+
+        EmptyPage(PageId pid) {
+            this.pid = pid;
+        }
+
+        public PageId getId() { return pid; }
+        public TransactionId isDirty() { return null; }
+        public void markDirty(boolean dirty, TransactionId tid) {}
+        public byte[] getPageData() { return new byte[0]; }
+        public void writeTo(java.nio.ByteBuffer buf) {}
+        public Page getBeforeImage() { return this; }
+        public void setBeforeImage() {}
+    }
+
+    /** A DbFile that fabricates pages instead of reading them from disk. */
+    static class EmptyFile extends TestUtil.SkeletonFile {
+        EmptyFile(int tableid) {
+            super(tableid, Utility.getTupleDesc(1));
+        }
+
+        public Page readPage(PageId id) {
+            return new EmptyPage(id);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("pool size\tns per getPage hit");
+        for (int numPages : POOL_SIZES) {
+            System.out.println(numPages + "\t\t" + String.format("%.1f", measure(numPages)));
+        }
+    }
+
+    static double measure(int numPages)
+            throws DbException, TransactionAbortedException, IOException {
+        Database.reset();
+        BufferPool bp = Database.resetBufferPool(numPages);
+        EmptyFile f = new EmptyFile(-numPages);
+        Database.getCatalog().addTable(f, "bench" + numPages);
+
+        ArrayList<PageId> pids = new ArrayList<PageId>(numPages);
+        for (int i = 0; i < numPages; i++)
+            pids.add(new HeapPageId(f.getId(), i));
+
+        TransactionId tid = new TransactionId();
+        for (PageId pid : pids)
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+
+        // pre-draw the probe sequence so the RNG stays out of the timed loop
+        Random rand = new Random(numPages);
+        PageId[] probes = new PageId[LOOKUPS_PER_ROUND];
+        for (int i = 0; i < probes.length; i++)
+            probes[i] = pids.get(rand.nextInt(numPages));
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < probes.length; i++)
+                bp.getPage(tid, probes[i], Permissions.READ_ONLY);
+            long elapsed = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS)
+                best = Math.min(best, elapsed);
+        }
+        bp.transactionComplete(tid);
+        return (double) best / probes.length;
+    }
+}
@@ -0,0 +1,195 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+    private static final String[] CATEGORIES = { "red", "green", "blue", "yellow" };
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+    private static final TupleDesc TD = new TupleDesc(TYPES, new String[] { "id", "category", "size", "noise" });
+
+    private int[] sizes, noise;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Random r = new Random(1);
+        sizes = new int[ROWS];
+        noise = new int[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            sizes[i] = r.nextInt(100);
+            noise[i] = r.nextInt();
+        }
+    }
+
+    /** Writes the rows as text and converts them, to a column file if columnar */
+    private File convert(boolean columnar) throws IOException {
+        File txt = File.createTempFile("table", ".txt");
+        txt.deleteOnExit();
+        PrintWriter pw = new PrintWriter(txt);
+        for (int i = 0; i < ROWS; i++)
+            pw.println(i + "," + CATEGORIES[i / 100 % 4] + "," + sizes[i] + "," + noise[i]);
+        pw.close();
+        File dat = File.createTempFile("table", ".dat");
+        dat.deleteOnExit();
+        if (columnar)
+            HeapFileEncoder.convertColumnar(txt, dat, 4, TYPES, ',');
+        else
+            HeapFileEncoder.convert(txt, dat, BufferPool.PAGE_SIZE, 4, TYPES, ',');
+        return dat;
+    }
+
+    /** Builds a page of the values of the specified column and reads it back */
+    private static ColumnPage roundTrip(int tableid, int column, Field[] values) throws Exception {
+        ColumnPage.Builder b = new ColumnPage.Builder(column, TD.getFieldType(column), 7);
+        for (Field f : values)
+            assertTrue(b.add(f));
+        ColumnPage p = new ColumnPage(new HeapPageId(tableid, 1), b.build());
+        assertEquals(7, p.getFirstRow());
+        assertEquals(values.length, p.getNumValues());
+        for (int i = 0; i < values.length; i++)
+            assertEquals(values[i], p.getField(i));
+        return p;
+    }
+
+    private static Field[] ints(int[] values) {
+        Field[] fs = new Field[values.length];
+        for (int i = 0; i < values.length; i++)
+            fs[i] = new IntField(values[i]);
+        return fs;
+    }
+
+    /**
+     * Each encoding is chosen for the values it suits, and decodes back to
+     * the values written
+     */
+    @Test public void encodings() throws Exception {
+        ColumnFile cf = new ColumnFile(convert(true), TD);
+        Database.getCatalog().addTable(cf);
+        int[] sorted = new int[500], runs = new int[500], small = new int[500], wide = new int[500];
+        Random r = new Random(2);
+        for (int i = 0; i < 500; i++) {
+            sorted[i] = 1000000 + 3 * i + r.nextInt(3);
+            runs[i] = i / 100 - 2;
+            small[i] = -50 + r.nextInt(20);
+            wide[i] = r.nextInt();
+        }
+        wide[3] = Integer.MIN_VALUE;
+        wide[4] = Integer.MAX_VALUE;
+        assertEquals(ColumnPage.DELTA, roundTrip(cf.getId(), 0, ints(sorted)).getEncoding());
+        assertEquals(ColumnPage.RLE, roundTrip(cf.getId(), 0, ints(runs)).getEncoding());
+        assertEquals(ColumnPage.BIT_PACKED, roundTrip(cf.getId(), 0, ints(small)).getEncoding());
+        assertEquals(ColumnPage.PLAIN, roundTrip(cf.getId(), 0, ints(wide)).getEncoding());
+
+        Field[] few = new Field[500], distinct = new Field[50];
+        for (int i = 0; i < few.length; i++)
+            few[i] = new StringField(CATEGORIES[r.nextInt(4)], Type.STRING_LEN);
+        for (int i = 0; i < distinct.length; i++)
+            distinct[i] = new StringField("value" + i, Type.STRING_LEN);
+        assertEquals(ColumnPage.DICTIONARY, roundTrip(cf.getId(), 1, few).getEncoding());
+        assertEquals(ColumnPage.PLAIN_STRING, roundTrip(cf.getId(), 1, distinct).getEncoding());
+
+        // a page takes values until none of the encodings fits them
+        ColumnPage.Builder b = new ColumnPage.Builder(0, Type.INT_TYPE, 0);
+        int n = 0;
+        while (b.add(new IntField(r.nextInt())))
+            n++;
+        assertEquals((BufferPool.PAGE_SIZE - ColumnPage.HEADER_SIZE) / 4, n);
+    }
+
+    /**
+     * The encoder writes a column file that returns the rows of the input
+     * in order, in a fraction of the pages of a heap file
+     */
+    @Test public void convertAndScan() throws Exception {
+        ColumnFile cf = new ColumnFile(convert(true), TD);
+        Database.getCatalog().addTable(cf);
+        HeapFile hf = new HeapFile(convert(false), TD);
+        Database.getCatalog().addTable(hf);
+        assertEquals(ROWS, cf.numRows());
+        assertTrue(cf.numPages() * 3 < hf.numPages());
+        // the sorted ids and the repeated categories take a page or two each
+        assertTrue(cf.numPages(0) <= 2);
+        assertTrue(cf.numPages(1) <= 2);
+        // the header, the columns and the dictionary of the categories
+        assertEquals(cf.numPages(), 1 + cf.numPages(new int[] { 0, 1, 2, 3 }) + 1);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        int i = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals(CATEGORIES[i / 100 % 4], ((StringField) t.getField(1)).getValue());
+            assertEquals(sizes[i], ((IntField) t.getField(2)).getValue());
+            assertEquals(noise[i], ((IntField) t.getField(3)).getValue());
+            i++;
+        }
+        it.close();
+        assertEquals(ROWS, i);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A column scan returns only the requested columns, under the table
+     * alias, and is estimated to read only their pages
+     */
+    @Test public void columnScan() throws Exception {
+        ColumnFile cf = new ColumnFile(convert(true), TD);
+        Database.getCatalog().addTable(cf, "wide");
+        TransactionId tid = new TransactionId();
+        ColumnScan scan = new ColumnScan(tid, cf.getId(), "w", new int[] { 3, 1 });
+        assertEquals("w.noise", scan.getTupleDesc().getFieldName(0));
+        assertEquals("w.category", scan.getTupleDesc().getFieldName(1));
+        scan.open();
+        int i = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(2, t.getTupleDesc().numFields());
+            assertEquals(noise[i], ((IntField) t.getField(0)).getValue());
+            assertEquals(CATEGORIES[i / 100 % 4], ((StringField) t.getField(1)).getValue());
+            i++;
+        }
+        assertEquals(ROWS, i);
+        scan.rewind();
+        assertTrue(scan.hasNext());
+        assertEquals(noise[0], ((IntField) scan.next().getField(0)).getValue());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        TableStats stats = new TableStats(cf.getId(), 1000);
+        assertEquals(ROWS, stats.totalTuples());
+        assertTrue(stats.estimateColumnScanCost(new int[] { 1 }) * 5 < stats.estimateScanCost());
+    }
+
+    /** Column files can't be changed after they are written */
+    @Test(expected = DbException.class) public void readOnly() throws Exception {
+        ColumnFile cf = new ColumnFile(convert(true), TD);
+        Database.getCatalog().addTable(cf);
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(1));
+        t.setField(1, new StringField("red", Type.STRING_LEN));
+        t.setField(2, new IntField(1));
+        t.setField(3, new IntField(1));
+        Database.getBufferPool().insertTuple(new TransactionId(), cf.getId(), t);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
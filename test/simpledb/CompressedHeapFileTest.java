@@ -0,0 +1,188 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 6000;
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE };
+    private static final TupleDesc TD = new TupleDesc(TYPES, new String[] { "id", "bucket", "label" });
+
+    /** Writes ROWS rows as text and converts them, compressed or not */
+    private static File convert(boolean compressed) throws IOException {
+        File txt = File.createTempFile("table", ".txt");
+        txt.deleteOnExit();
+        PrintWriter pw = new PrintWriter(txt);
+        for (int i = 0; i < ROWS; i++)
+            pw.println(i + "," + (i % 7) + ",label" + (i % 13));
+        pw.close();
+        File dat = File.createTempFile("table", ".dat");
+        dat.deleteOnExit();
+        new File(dat.getPath() + ".delta").deleteOnExit();
+        if (compressed)
+            HeapFileEncoder.convertCompressed(txt, dat, 3, TYPES, ',');
+        else
+            HeapFileEncoder.convert(txt, dat, BufferPool.PAGE_SIZE, 3, TYPES, ',');
+        return dat;
+    }
+
+    private static Tuple tuple(int id) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new IntField(id % 7));
+        t.setField(2, new StringField("label" + (id % 13), Type.STRING_LEN));
+        return t;
+    }
+
+    /** @return the ids of the tuples in the file */
+    private static TreeSet<Integer> scan(DbFile f) throws Exception {
+        TreeSet<Integer> ids = new TreeSet<Integer>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals(id % 7, ((IntField) t.getField(1)).getValue());
+            assertEquals("label" + (id % 13), ((StringField) t.getField(2)).getValue());
+            assertTrue(ids.add(id));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return ids;
+    }
+
+    private static void roundTrip(byte[] data) throws IOException {
+        byte[] compressed = Lz4Codec.compress(data, 0, data.length);
+        assertTrue(compressed.length <= Lz4Codec.maxCompressedLength(data.length));
+        byte[] out = new byte[data.length];
+        Lz4Codec.decompress(compressed, 0, compressed.length, out, 0, out.length);
+        assertTrue(Arrays.equals(data, out));
+    }
+
+    /** The codec restores what it compressed, and shrinks repetitive data */
+    @Test public void codec() throws Exception {
+        Random r = new Random(1);
+        byte[] random = new byte[10000];
+        r.nextBytes(random);
+        roundTrip(random);
+        roundTrip(new byte[0]);
+        roundTrip(new byte[] { 1, 2, 3 });
+        byte[] zeros = new byte[100000];
+        roundTrip(zeros);
+        assertTrue(Lz4Codec.compress(zeros, 0, zeros.length).length < 1000);
+        byte[] text = new byte[20000];
+        for (int i = 0; i < text.length; i++)
+            text[i] = (byte) ("abcdefgh".charAt(r.nextInt(8)) + (i % 300 < 150 ? 0 : 8));
+        roundTrip(text);
+        byte[] pattern = new byte[20000];
+        for (int i = 0; i < pattern.length; i++)
+            pattern[i] = (byte) (i % 251 < 40 ? i % 251 : r.nextInt(4));
+        roundTrip(pattern);
+
+        byte[] compressed = Lz4Codec.compress(zeros, 0, zeros.length);
+        try {
+            Lz4Codec.decompress(compressed, 0, compressed.length, new byte[zeros.length - 1], 0, zeros.length - 1);
+            assertTrue(false);
+        } catch (IOException e) {
+            // expected: the block doesn't fit
+        }
+    }
+
+    /**
+     * A compressed table returns the same tuples as the heap file it was
+     * written from, from a fraction of the disk space, and is costed as such
+     */
+    @Test public void compressAndScan() throws Exception {
+        HeapFile hf = new HeapFile(convert(false), TD);
+        Database.getCatalog().addTable(hf);
+        CompressedHeapFile cf = new CompressedHeapFile(convert(true), TD);
+        Database.getCatalog().addTable(cf);
+        assertEquals(hf.numPages(), cf.numPages());
+        assertTrue(cf.storedPages() * 3 < hf.numPages());
+        assertTrue(cf.getFile().length() * 3 < hf.getFile().length());
+        TreeSet<Integer> ids = scan(cf);
+        assertEquals(ROWS, ids.size());
+        assertEquals(ROWS - 1, (int) ids.last());
+
+        TableStats cs = new TableStats(cf.getId(), 1000), hs = new TableStats(hf.getId(), 1000);
+        assertEquals(ROWS, cs.totalTuples());
+        assertTrue(cs.estimateScanCost() * 3 < hs.estimateScanCost());
+    }
+
+    /**
+     * Changed pages go to the delta, and recompressing folds them back into
+     * the blocks, where a new instance on the same file finds them
+     */
+    @Test public void deltaAndRecompress() throws Exception {
+        File dat = convert(true);
+        CompressedHeapFile cf = new CompressedHeapFile(dat, TD);
+        Database.getCatalog().addTable(cf);
+        long length = dat.length();
+        int pages = cf.numPages();
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 1000 == 0)
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+        for (int i = 0; i < 100; i++)
+            Database.getBufferPool().insertTuple(tid, cf.getId(), tuple(ROWS + i));
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(length, dat.length());
+        assertTrue(cf.deltaPages() > 0);
+        assertTrue(cf.numPages() >= pages);
+        TreeSet<Integer> ids = scan(cf);
+        assertEquals(ROWS - doomed.size() + 100, ids.size());
+        assertTrue(!ids.contains(1000) && ids.contains(1001) && ids.contains(ROWS + 99));
+
+        cf.recompress();
+        assertEquals(0, cf.deltaPages());
+        assertEquals(ids, scan(cf));
+        Database.getBufferPool().flushAllPages();
+        Database.reset();
+        CompressedHeapFile copy = new CompressedHeapFile(dat, TD);
+        Database.getCatalog().addTable(copy);
+        assertEquals(ids, scan(copy));
+    }
+
+    /** Once the delta reaches the threshold the table is recompressed in the background */
+    @Test public void backgroundRecompress() throws Exception {
+        CompressedHeapFile cf = new CompressedHeapFile(convert(true), TD);
+        Database.getCatalog().addTable(cf);
+        cf.setRecompressThreshold(2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, cf.getId(), tuple(ROWS + i));
+        Database.getBufferPool().transactionComplete(tid);
+        for (int i = 0; i < 100 && cf.deltaPages() > 0; i++)
+            Thread.sleep(100);
+        assertEquals(0, cf.deltaPages());
+        assertEquals(ROWS + 1000, scan(cf).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
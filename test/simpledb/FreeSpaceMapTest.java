@@ -0,0 +1,84 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+
+    private static final int TUPLES_PER_PAGE = 504; // two int columns
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    /**
+     * Unit test for FreeSpaceMap bookkeeping
+     */
+    @Test public void nextPageWithRoom() {
+        FreeSpaceMap fsm = new FreeSpaceMap();
+        assertEquals(-1, fsm.nextPageWithRoom(0));
+        fsm.update(0, false);
+        fsm.update(1, true);
+        fsm.update(3, true);
+        assertEquals(4, fsm.numPages());
+        assertEquals(1, fsm.nextPageWithRoom(0));
+        assertEquals(3, fsm.nextPageWithRoom(2));
+        assertEquals(-1, fsm.nextPageWithRoom(4));
+        fsm.update(1, false);
+        assertEquals(3, fsm.nextPageWithRoom(0));
+        assertEquals(1, fsm.numPagesWithRoom());
+    }
+
+    /**
+     * A slot freed on an early page is reused instead of growing the file
+     */
+    @Test public void insertReusesFreedSlot() throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> first = new ArrayList<Tuple>();
+        for (int i = 0; i < 3 * TUPLES_PER_PAGE; i++) {
+            ArrayList<Page> pages = empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+            if (i < TUPLES_PER_PAGE)
+                first.add(((HeapPage) pages.get(0)).getTuple(i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, empty.numPages());
+        assertEquals(0, empty.freeSpaceMap().numPagesWithRoom());
+
+        tid = new TransactionId();
+        empty.deleteTuple(tid, first.get(17));
+        assertEquals(0, empty.freeSpaceMap().nextPageWithRoom(0));
+        ArrayList<Page> pages = empty.insertTuple(tid, Utility.getHeapTuple(-1, 2));
+        assertEquals(0, pages.get(0).getId().pageNumber());
+        assertEquals(3, empty.numPages());
+        assertEquals(-1, empty.freeSpaceMap().nextPageWithRoom(0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The map is rebuilt from the page headers on disk when it is reset
+     */
+    @Test public void rebuildFromDisk() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < TUPLES_PER_PAGE + 1; i++)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+
+        empty.resetFreeSpaceMap();
+        FreeSpaceMap fsm = empty.freeSpaceMap();
+        assertEquals(2, fsm.numPages());
+        assertEquals(1, fsm.nextPageWithRoom(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,190 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashFileTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, tuples, "c");
+    }
+
+    private static HashFile createIndex(DbFile table, int keyField) throws Exception {
+        File f = File.createTempFile("index", ".hash");
+        f.deleteOnExit();
+        HashFile index = new HashFile(f, table, keyField);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    private static HashPage header(HashFile index) {
+        return (HashPage) index.readPage(new HashPageId(index.getId(), 0));
+    }
+
+    /** @return the RecordIds of the tuples whose field is v, sorted */
+    private ArrayList<RecordId> expected(int field, int v) throws Exception {
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(field)).getValue() == v)
+                rids.add(t.getRecordId());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return sorted(rids);
+    }
+
+    private ArrayList<RecordId> lookup(HashFile index, int v) throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<RecordId> rids = sorted(index.lookup(tid, new IntField(v)));
+        Database.getBufferPool().transactionComplete(tid);
+        return rids;
+    }
+
+    private static ArrayList<RecordId> sorted(List<RecordId> rids) {
+        ArrayList<RecordId> out = new ArrayList<RecordId>(rids);
+        Collections.sort(out, new Comparator<RecordId>() {
+            public int compare(RecordId a, RecordId b) {
+                int pa = a.getPageId().pageNumber(), pb = b.getPageId().pageNumber();
+                if (pa != pb)
+                    return pa < pb ? -1 : 1;
+                return a.tupleno() - b.tupleno();
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Entries inserted one at a time split buckets and grow the directory,
+     * and every key is still found
+     */
+    @Test public void insertAndLookup() throws Exception {
+        HashFile index = createIndex(table, 0);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            index.insertEntry(tid, t.getField(0), t.getRecordId());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(header(index).globalDepth > 0);
+
+        for (int v : new int[] { -1, 0, tuples.get(17).get(0), 500, 999 })
+            assertEquals("key " + v, expected(0, v), lookup(index, v));
+
+        // through the Index interface
+        tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, index, new IndexPredicate(Predicate.Op.EQUALS, new IntField(tuples.get(3).get(0))));
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            assertEquals(tuples.get(3).get(0).intValue(), ((IntField) scan.next().getField(0)).getValue());
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected(0, tuples.get(3).get(0)).size(), n);
+    }
+
+    /**
+     * A key with more entries than fit in a bucket gets overflow pages
+     * instead of splitting the bucket forever, and they are freed and
+     * reused as the entries come and go
+     */
+    @Test public void duplicatesOverflow() throws Exception {
+        HashFile index = createIndex(table, 0);
+        int n = 3 * HashPage.bucketCapacity(Type.INT_TYPE);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; i++)
+            index.insertEntry(tid, new IntField(7), new RecordId(new HeapPageId(table.getId(), i), 0));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(n, lookup(index, 7).size());
+        assertTrue(header(index).globalDepth < HashPage.maxDepth());
+        long size = index.getFile().length();
+
+        tid = new TransactionId();
+        for (int i = 0; i < n; i++)
+            index.deleteEntry(tid, new IntField(7), new RecordId(new HeapPageId(table.getId(), i), 0));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0, lookup(index, 7).size());
+        assertTrue(header(index).freeHead != 0);
+
+        tid = new TransactionId();
+        for (int i = 0; i < n; i++)
+            index.insertEntry(tid, new IntField(8), new RecordId(new HeapPageId(table.getId(), i), 1));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(n, lookup(index, 8).size());
+        assertEquals(size, index.getFile().length());
+
+        try {
+            index.deleteEntry(new TransactionId(), new IntField(7), new RecordId(new HeapPageId(table.getId(), 0), 0));
+            fail("expected DbException");
+        } catch (DbException e) {
+        }
+    }
+
+    /**
+     * Inserts and deletes through the buffer pool keep a bulk loaded index
+     * up to date, and splits roll back with the transaction that made them
+     */
+    @Test public void maintainedByBufferPool() throws Exception {
+        HashFile index = createIndex(table, 1);
+        TransactionId tid = new TransactionId();
+        index.bulkLoad(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        for (int v : new int[] { tuples.get(0).get(1), 500 })
+            assertEquals(expected(1, v), lookup(index, v));
+
+        // enough new tuples with one key to split its bucket, then abort
+        int depth = header(index).globalDepth;
+        int n = HashPage.bucketCapacity(Type.INT_TYPE);
+        tid = new TransactionId();
+        for (int i = 0; i < n; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { i, 5000 }));
+        assertEquals(n, index.lookup(tid, new IntField(5000)).size());
+        HashPage header = (HashPage) Database.getBufferPool().getPage(tid, new HashPageId(index.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(header.globalDepth > depth);
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(0, lookup(index, 5000).size());
+        assertEquals(depth, header(index).globalDepth);
+
+        int v = tuples.get(0).get(1);
+        int matches = expected(1, v).size();
+        tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, index, new IndexPredicate(Predicate.Op.EQUALS, new IntField(v)));
+        scan.open();
+        Database.getBufferPool().deleteTuple(tid, scan.next());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(matches - 1, lookup(index, v).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
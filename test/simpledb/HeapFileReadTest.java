@@ -121,6 +121,49 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.readPages(): one batch read returns the same
+     * pages as reading them one at a time
+     */
+    @Test
+    public void readPages() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 5 * 504, null, null);
+        ArrayList<Page> pages = big.readPages(new HeapPageId(big.getId(), 1), 4);
+        assertEquals(4, pages.size());
+        for (int i = 0; i < 4; i++) {
+            Page single = big.readPage(new HeapPageId(big.getId(), i + 1));
+            assertEquals(single.getId(), pages.get(i).getId());
+            assertTrue(Arrays.equals(single.getPageData(), pages.get(i).getPageData()));
+        }
+
+        // pages sharing the batch's buffer are modified independently
+        HeapPage first = (HeapPage) pages.get(0);
+        Tuple t = first.iterator().next();
+        first.deleteTuple(t);
+        assertEquals(1, first.getNumEmptySlots());
+        assertEquals(0, ((HeapPage) pages.get(1)).getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for BufferPool.getPages(): cached pages are returned from the
+     * pool and the others are read and installed
+     */
+    @Test
+    public void getPages() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 5 * 504, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Page cached = bp.getPage(tid, new HeapPageId(big.getId(), 2), Permissions.READ_ONLY);
+        ArrayList<Page> pages = bp.getPages(tid, new HeapPageId(big.getId(), 0), 5, Permissions.READ_ONLY);
+        assertEquals(5, pages.size());
+        assertTrue(cached == pages.get(2));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, pages.get(i).getId().pageNumber());
+            assertTrue(pages.get(i) == bp.getPage(tid, pages.get(i).getId(), Permissions.READ_ONLY));
+            assertTrue(bp.holdsLock(tid, pages.get(i).getId()));
+        }
+        assertEquals(5, bp.getReplacementPolicy().getMisses());
+    }
+
     /**
      * JUnit suite target
      */
@@ -43,6 +43,23 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for extent allocation: the file grows by whole extents, but
+     * numPages() counts only the pages in use, also after reopening
+     */
+    @Test public void preallocatedExtent() throws Exception {
+        empty.setExtentPages(8);
+        for (int i = 0; i < 505; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, empty.numPages());
+        assertEquals(9 * BufferPool.PAGE_SIZE, empty.getFile().length());
+
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(2, reopened.numPages());
+    }
+
     /**
      * JUnit suite target
      */
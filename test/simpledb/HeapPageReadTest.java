@@ -120,6 +120,37 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getTuple()
+     */
+    @Test public void getTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        for (int i = 0; i < 20; ++i) {
+            Tuple tup = page.getTuple(i);
+            assertEquals(new RecordId(pid, i), tup.getRecordId());
+            // decode the second field before the first
+            assertEquals(EXAMPLE_VALUES[i][1], ((IntField) tup.getField(1)).getValue());
+            assertEquals(EXAMPLE_VALUES[i][0], ((IntField) tup.getField(0)).getValue());
+        }
+        assertEquals(null, page.getTuple(20));
+    }
+
+    /**
+     * Modifying a page doesn't change the bytes it was read from, or tuples
+     * that were handed out before the modification
+     */
+    @Test public void copyOnWrite() throws Exception {
+        byte[] data = EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Tuple first = page.getTuple(0);
+        page.deleteTuple(first);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, data));
+        assertEquals(EXAMPLE_VALUES[0][0], ((IntField) first.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) first.getField(1)).getValue());
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getBeforeImage().getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
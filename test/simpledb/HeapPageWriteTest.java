@@ -4,6 +4,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -125,6 +127,80 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Freed slots are reused lowest first, and the header survives a round
+     * trip through getPageData()
+     */
+    @Test public void reuseFreedSlots() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumEmptySlots();
+        Tuple[] added = new Tuple[slots];
+        for (int i = 0; i < slots; ++i) {
+            added[i] = Utility.getHeapTuple(i, 2);
+            page.insertTuple(added[i]);
+            assertEquals(i, added[i].getRecordId().tupleno());
+        }
+        page.deleteTuple(added[300]);
+        page.deleteTuple(added[70]);
+        assertEquals(2, page.getNumEmptySlots());
+
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        page.insertTuple(t);
+        assertEquals(70, t.getRecordId().tupleno());
+        t = Utility.getHeapTuple(-2, 2);
+        page.insertTuple(t);
+        assertEquals(300, t.getRecordId().tupleno());
+        assertEquals(0, page.getNumEmptySlots());
+
+        page.deleteTuple(t);
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(1, copy.getNumEmptySlots());
+        assertEquals(false, copy.isSlotUsed(300));
+        assertEquals(true, copy.isSlotUsed(slots - 1));
+    }
+
+    /**
+     * The iterator returns exactly the used slots of a sparse page
+     */
+    @Test public void iterateSparsePage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumEmptySlots();
+        Tuple[] added = new Tuple[slots];
+        for (int i = 0; i < slots; ++i) {
+            added[i] = Utility.getHeapTuple(i, 2);
+            page.insertTuple(added[i]);
+        }
+        for (int i = 0; i < slots; ++i) {
+            if (i != 0 && i != 63 && i != 64 && i != 200 && i != slots - 1)
+                page.deleteTuple(added[i]);
+        }
+        Iterator<Tuple> it = page.iterator();
+        int[] expected = { 0, 63, 64, 200, slots - 1 };
+        for (int slot : expected) {
+            assertTrue(it.hasNext());
+            assertEquals(slot, it.next().getRecordId().tupleno());
+        }
+        assertEquals(false, it.hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.writeTo(): it writes the same bytes as
+     * getPageData() at the buffer's position
+     */
+    @Test public void writeTo() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.insertTuple(Utility.getHeapTuple(42, 2));
+        ByteBuffer buf = ByteBuffer.allocateDirect(BufferPool.PAGE_SIZE + 16);
+        buf.position(16);
+        page.writeTo(buf);
+        assertEquals(BufferPool.PAGE_SIZE + 16, buf.position());
+
+        byte[] written = new byte[BufferPool.PAGE_SIZE];
+        buf.position(16);
+        buf.get(written);
+        assertTrue(Arrays.equals(page.getPageData(), written));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,179 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexOnlyScanTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BTreeFile index;
+
+    /**
+     * Set up a table of eight columns, with a B+ tree index on the first
+     * that includes the second.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(8, 5000, 100, null, tuples, "c");
+        File f = File.createTempFile("index", ".btree");
+        f.deleteOnExit();
+        index = new BTreeFile(f, table, 0, new int[] { 1 });
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        index.bulkLoad(tid);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the (c0, c1) pairs of the tuples whose c0 is less than v */
+    private ArrayList<ArrayList<Integer>> expected(int v) {
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < v)
+                out.add(new ArrayList<Integer>(Arrays.asList(t.get(0), t.get(1))));
+        }
+        return out;
+    }
+
+    /**
+     * The scan returns the key and included field of each matching entry,
+     * without reading any page of the table
+     */
+    @Test public void scanWithoutTable() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        IndexOnlyScan scan = new IndexOnlyScan(tid, index,
+                new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(20)), "t");
+        assertEquals("t.c1", scan.getTupleDesc().getFieldName(1));
+        SystemTestUtil.matchTuples(scan, expected(20));
+        SystemTestUtil.matchTuples(new IndexOnlyScan(tid, index, null, "t"), expected(100));
+        Database.getBufferPool().transactionComplete(tid);
+        for (int i = 0; i < table.numPages(); i++)
+            assertFalse(Database.getBufferPool().isCached(new HeapPageId(table.getId(), i)));
+    }
+
+    /**
+     * Inserts through the buffer pool add entries with the included fields
+     * of the new tuple, which go away if the insert aborts, and deletes
+     * remove them
+     */
+    @Test public void maintainedByBufferPool() throws Exception {
+        IndexPredicate eq = new IndexPredicate(Predicate.Op.EQUALS, new IntField(500));
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 500, 7, 0, 0, 0, 0, 0, 0 }));
+        IndexOnlyScan scan = new IndexOnlyScan(tid, index, eq, "t");
+        scan.open();
+        assertTrue(scan.hasNext());
+        Tuple t = scan.next();
+        assertEquals(new IntField(7), t.getField(1));
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        scan = new IndexOnlyScan(tid, index, eq, "t");
+        scan.open();
+        assertFalse(scan.hasNext());
+        scan.close();
+
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 500, 8, 0, 0, 0, 0, 0, 0 }));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        scan = new IndexOnlyScan(tid, index, eq, "t");
+        scan.open();
+        t = scan.next();
+        assertEquals(new IntField(8), t.getField(1));
+        scan.close();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_ONLY);
+        Database.getBufferPool().deleteTuple(tid, page.getTuple(t.getRecordId().tupleno()));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        scan = new IndexOnlyScan(tid, index, eq, "t");
+        scan.open();
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The planner answers a query from the index when the index holds every
+     * field the query refers to, and reads the table otherwise
+     */
+    @Test public void plannerPicksIndexOnlyScan() throws Exception {
+        String name = Database.getCatalog().getTableName(table.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), TableStats.IOCOSTPERPAGE));
+        TransactionId tid = new TransactionId();
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "20");
+        lp.addProjectField("t.c1", null);
+        lp.addProjectField("t.c0", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(contains(plan, IndexOnlyScan.class));
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : expected(20))
+            out.add(new ArrayList<Integer>(Arrays.asList(t.get(1), t.get(0))));
+        SystemTestUtil.matchTuples(plan, out);
+
+        // the whole index is smaller than the table
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addAggregate("SUM", "t.c1", null);
+        lp.addProjectField("t.c1", "SUM");
+        plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(contains(plan, IndexOnlyScan.class));
+        int sum = 0;
+        for (ArrayList<Integer> t : tuples)
+            sum += t.get(1);
+        SystemTestUtil.matchTuples(plan, new ArrayList<ArrayList<Integer>>(
+                Arrays.asList(new ArrayList<Integer>(Arrays.asList(sum)))));
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "20");
+        lp.addProjectField("t.c2", null);
+        assertFalse(contains(lp.physicalPlan(tid, stats, false), IndexOnlyScan.class));
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "20");
+        lp.addProjectField("*", null);
+        assertFalse(contains(lp.physicalPlan(tid, stats, false), IndexOnlyScan.class));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static boolean contains(DbIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (contains(child, c))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexOnlyScanTest.class);
+    }
+}
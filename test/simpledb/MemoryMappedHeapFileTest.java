@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MemoryMappedHeapFileTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up a memory-mapped table spanning a few pages.
+     */
+    @Before public void setUpFile() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, tuples);
+        hf.setMemoryMapped(true);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Pages read from the mapping match what is on disk
+     */
+    @Test public void readPage() throws Exception {
+        assertTrue(hf.isMemoryMapped());
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        HeapPage mapped = (HeapPage) hf.readPage(pid);
+        hf.setMemoryMapped(false);
+        HeapPage copied = (HeapPage) hf.readPage(pid);
+        assertTrue(java.util.Arrays.equals(copied.getPageData(), mapped.getPageData()));
+        assertEquals(copied.getNumEmptySlots(), mapped.getNumEmptySlots());
+    }
+
+    /**
+     * Scans read every tuple without installing pages in the buffer pool
+     */
+    @Test public void scanBypassesPool() throws Exception {
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(0, Database.getBufferPool().getReplacementPolicy().getMisses());
+    }
+
+    /**
+     * Inserted tuples are written through the channel and seen by later scans
+     */
+    @Test public void insertThenScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        int pages = hf.numPages();
+        // fill the last page and spill onto a new one
+        for (int i = 0; i < 400; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, -i });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(-i);
+            tuples.add(row);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages + 1, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A tuple read from the mapping keeps its values after its page is
+     * changed and written back
+     */
+    @Test public void tupleSurvivesFlush() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage mapped = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        Tuple t = mapped.iterator().next();
+        Database.getBufferPool().deleteTuple(tid, mapped.getTuple(t.getRecordId().tupleno()));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(tuples.get(0), SystemTestUtil.tupleToList(t));
+    }
+
+    /**
+     * Mapped pages fetched for writing are cached on the heap, and can be
+     * evicted and rolled back like any other
+     */
+    @Test public void evictMappedPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 4; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+        bp.transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        bp.deleteTuple(tid, p.iterator().next());
+        bp.transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MemoryMappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OffHeapBufferPoolTest extends SimpleDbTestBase {
+
+    private static final int BUFFER_PAGES = 10;
+    private static final int TUPLES_PER_PAGE = 504; // two int columns
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BufferPool bp;
+
+    /**
+     * Set up a table three times the size of an off-heap buffer pool.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 3 * BUFFER_PAGES * TUPLES_PER_PAGE, null, tuples);
+        bp = Database.resetBufferPool(BUFFER_PAGES, BufferPool.DEFAULT_POLICY, true);
+        // read every page through the frames
+        bp.setScanRingThreshold(Double.MAX_VALUE);
+    }
+
+    /**
+     * Unit test for FrameArena frames
+     */
+    @Test public void arenaFrames() {
+        FrameArena arena = new FrameArena(3);
+        assertEquals(BufferPool.PAGE_SIZE, arena.frame(2).capacity());
+        arena.frame(1).put(0, (byte) 7);
+        assertEquals(7, arena.frame(1).get(0));
+        assertEquals(0, arena.frame(0).get(BufferPool.PAGE_SIZE - 1));
+        assertEquals(0, arena.frame(2).get(0));
+    }
+
+    /**
+     * Cached pages live in the arena, and scans that evict them still see
+     * the right tuples
+     */
+    @Test public void scanThroughArena() throws Exception {
+        assertTrue(bp.isOffHeap());
+        SystemTestUtil.matchTuples(hf, tuples);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(p.inFrame);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A page that is evicted while an iterator is still using it keeps its
+     * contents
+     */
+    @Test public void evictedPageKeepsContents() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        byte[] before = p.getPageData();
+        Iterator<Tuple> it = p.iterator();
+        Tuple first = it.next();
+
+        // push page 0 out and reuse its frame for other pages
+        for (int i = 1; i < 3 * BUFFER_PAGES; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertEquals(false, p.inFrame);
+        assertTrue(java.util.Arrays.equals(before, p.getPageData()));
+        assertEquals(tuples.get(0).get(0).intValue(), ((IntField) first.getField(0)).getValue());
+        assertEquals(tuples.get(1).get(0).intValue(), ((IntField) it.next().getField(0)).getValue());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pages evicted by one thread while another decodes them never show the
+     * bytes of the pages that take over their frames
+     */
+    @Test public void concurrentEviction() throws Exception {
+        final int pages = hf.numPages();
+        final Throwable[] error = new Throwable[1];
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            final int start = r;
+            readers[r] = new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        for (int i = 0; i < 200; i++) {
+                            int pgNo = (start + 7 * i) % pages;
+                            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+                            int slot = 0;
+                            Iterator<Tuple> it = p.iterator();
+                            while (it.hasNext()) {
+                                assertEquals(tuples.get(pgNo * TUPLES_PER_PAGE + slot),
+                                        SystemTestUtil.tupleToList(it.next()));
+                                slot++;
+                            }
+                        }
+                        bp.transactionComplete(tid);
+                    } catch (Throwable e) {
+                        error[0] = e;
+                    }
+                }
+            };
+            readers[r].start();
+        }
+        for (Thread t : readers)
+            t.join();
+        if (error[0] != null)
+            throw new AssertionError(error[0]);
+    }
+
+    /**
+     * Modifications are made in the frame; commit writes them and abort
+     * rolls them back
+     */
+    @Test public void modifyInPlace() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        TransactionId tid = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        Tuple t = p.iterator().next();
+        bp.deleteTuple(tid, t);
+        assertEquals(1, p.getNumEmptySlots());
+        bp.transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        assertTrue(p.inFrame);
+        assertEquals(0, p.getNumEmptySlots());
+        bp.deleteTuple(tid, p.iterator().next());
+        bp.transactionComplete(tid, true);
+
+        assertEquals(1, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapBufferPoolTest.class);
+    }
+}
@@ -0,0 +1,206 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageSizeTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+    private static final int LARGE = 32768;
+    private static final TupleDesc TD = Utility.getTupleDesc(2);
+
+    /** @return the rows (i, i % 10) for i below rows */
+    private static ArrayList<ArrayList<Integer>> tuplesOf(int rows) {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+        return tuples;
+    }
+
+    /** Writes ROWS rows (i, i % 10) into a heap file with pages of pageSize bytes and adds it to the catalog */
+    private static HeapFile create(int pageSize) throws IOException {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        ZoneMap.sidecar(f).deleteOnExit();
+        HeapFileEncoder.convert(tuplesOf(ROWS), f, pageSize, 2);
+        HeapFile hf = new HeapFile(f, TD, pageSize);
+        Database.getCatalog().addTable(hf);
+        return hf;
+    }
+
+    /** @return the ids in the first column of the file */
+    private static TreeSet<Integer> scan(DbFile f) throws Exception {
+        TreeSet<Integer> ids = new TreeSet<Integer>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            assertTrue(ids.add(((IntField) it.next().getField(0)).getValue()));
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return ids;
+    }
+
+    /** Page sizes must be powers of two in the supported range */
+    @Test public void validSizes() {
+        assertTrue(HeapFile.isValidPageSize(BufferPool.PAGE_SIZE));
+        assertTrue(HeapFile.isValidPageSize(BufferPool.MAX_PAGE_SIZE));
+        assertTrue(!HeapFile.isValidPageSize(BufferPool.MIN_PAGE_SIZE / 2));
+        assertTrue(!HeapFile.isValidPageSize(2 * BufferPool.MAX_PAGE_SIZE));
+        assertTrue(!HeapFile.isValidPageSize(3 * BufferPool.MIN_PAGE_SIZE));
+        try {
+            new HeapFile(new File("unused.dat"), TD, 5000);
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A table with large pages holds more tuples per page, and reads and
+     * writes them like any other
+     */
+    @Test public void largePages() throws Exception {
+        HeapFile hf = create(LARGE);
+        assertEquals(LARGE, hf.getPageSize());
+        assertEquals(LARGE, Database.getCatalog().getPageSize(hf.getId()));
+        int slots = HeapPage.getNumTuples(TD, LARGE);
+        assertEquals((ROWS + slots - 1) / slots, hf.numPages());
+        assertEquals(LARGE * hf.numPages(), hf.getFile().length());
+        assertEquals(ROWS, scan(hf).size());
+
+        TransactionId tid = new TransactionId();
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        assertEquals(LARGE, p.getPageSize());
+        assertEquals(LARGE, p.getPageData().length);
+        Database.getBufferPool().deleteTuple(tid, p.iterator().next());
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(ROWS));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        Database.reset();
+        HeapFile copy = new HeapFile(hf.getFile(), TD, LARGE);
+        Database.getCatalog().addTable(copy);
+        TreeSet<Integer> ids = scan(copy);
+        assertEquals(ROWS, ids.size());
+        assertTrue(!ids.contains(0) && ids.contains(ROWS));
+    }
+
+    /** convert takes a trailing page size, including the default one */
+    @Test public void convertWithPageSize() throws Exception {
+        for (int pageSize : new int[] { BufferPool.PAGE_SIZE, LARGE }) {
+            File txt = File.createTempFile("table", ".txt");
+            txt.deleteOnExit();
+            PrintWriter out = new PrintWriter(txt);
+            for (int i = 0; i < ROWS; i++)
+                out.println(i + "," + (i % 10));
+            out.close();
+            File dat = new File(txt.getPath().replaceAll(".txt", ".dat"));
+            dat.deleteOnExit();
+            ZoneMap.sidecar(dat).deleteOnExit();
+
+            SimpleDb.main(new String[] { "convert", txt.getPath(), "2", "pagesize=" + pageSize });
+            assertTrue(dat.exists());
+            HeapFile hf = new HeapFile(dat, TD, pageSize);
+            Database.getCatalog().addTable(hf);
+            assertEquals(pageSize * hf.numPages(), dat.length());
+            assertEquals(ROWS, scan(hf).size());
+        }
+    }
+
+    /** Slotted pages always have the default size, so varchar tables can't pick one */
+    @Test public void convertVarcharWithPageSize() throws Exception {
+        File txt = File.createTempFile("table", ".txt");
+        txt.deleteOnExit();
+        PrintWriter out = new PrintWriter(txt);
+        out.println("1,one");
+        out.close();
+        File dat = new File(txt.getPath().replaceAll(".txt", ".dat"));
+        dat.deleteOnExit();
+
+        SimpleDb.main(new String[] { "convert", txt.getPath(), "2", "int,varchar", "pagesize=" + LARGE });
+        assertFalse(dat.exists());
+        try {
+            HeapFileEncoder.convert(txt, dat, LARGE, 2, new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE }, ',');
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertFalse(dat.exists());
+    }
+
+    /** Off-heap frames come from an arena per page size, sized to the pages cached */
+    @Test public void mixedFrameSizes() throws Exception {
+        HeapFile small = create(BufferPool.PAGE_SIZE), large = create(LARGE);
+        BufferPool bp = Database.resetBufferPool(10, BufferPool.DEFAULT_POLICY, true);
+        bp.setScanRingThreshold(Double.MAX_VALUE);
+        assertEquals(0, bp.offHeapBytes());
+        assertEquals(ROWS, scan(small).size());
+        assertEquals(ROWS, scan(large).size());
+        assertEquals(ROWS, scan(small).size());
+        assertEquals(10L * (BufferPool.PAGE_SIZE + LARGE), bp.offHeapBytes());
+
+        TransactionId tid = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(large.getId(), 0), Permissions.READ_ONLY);
+        HeapPage q = (HeapPage) bp.getPage(tid, new HeapPageId(small.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(p.inFrame && q.inFrame);
+        assertEquals(LARGE, p.data.capacity());
+        assertEquals(BufferPool.PAGE_SIZE, q.data.capacity());
+        bp.transactionComplete(tid);
+    }
+
+    /** Frames taken from an arena are handed out lowest first and can be reused */
+    @Test public void arenaAllocation() {
+        FrameArena arena = new FrameArena(3, LARGE);
+        assertEquals(0, arena.allocatedBytes());
+        assertEquals(0, arena.allocate());
+        assertEquals(1, arena.allocate());
+        arena.release(0);
+        assertEquals(0, arena.allocate());
+        assertEquals(2, arena.allocate());
+        assertEquals(LARGE, arena.frame(2).capacity());
+        assertEquals(3L * LARGE, arena.allocatedBytes());
+        try {
+            arena.allocate();
+            assertTrue(false);
+        } catch (IllegalStateException e) {
+            // expected: all frames are in use
+        }
+    }
+
+    /**
+     * Scanning a table is cheaper with large pages, and fetching single
+     * tuples from it more expensive
+     */
+    @Test public void scanCost() throws Exception {
+        HeapFile small = create(BufferPool.PAGE_SIZE), large = create(LARGE);
+        TableStats ss = new TableStats(small.getId(), 1000), ls = new TableStats(large.getId(), 1000);
+        assertEquals(small.numPages() * 1000.0, ss.estimateScanCost(), 0.001);
+        assertTrue(ls.estimateScanCost() < ss.estimateScanCost());
+        assertTrue(ls.estimateScanCost() > ss.estimateScanCost() / 8);
+        IntField five = new IntField(5);
+        assertTrue(ls.estimateIndexScanCost(0, Predicate.Op.EQUALS, five) > ss.estimateIndexScanCost(0, Predicate.Op.EQUALS, five));
+        SystemTestUtil.matchTuples(large, tuplesOf(ROWS));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,204 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PrefetcherTest extends SimpleDbTestBase {
+
+    private static final int TUPLES_PER_PAGE = 504; // two int columns
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private Prefetcher prefetcher;
+
+    /**
+     * Set up a table of 20 pages and an empty buffer pool that can hold it.
+     */
+    @Before public void setUpFile() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 20 * TUPLES_PER_PAGE, null, tuples);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        prefetcher = Database.getBufferPool().getPrefetcher();
+    }
+
+    /**
+     * A sequential scan reads ahead and uses the pages it prefetched
+     */
+    @Test public void scanUsesPrefetchedPages() throws Exception {
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(20, hf.numPages());
+        // the first two pages are read before the scan counts as sequential
+        assertEquals(18, prefetcher.getIssued());
+        assertEquals(18, prefetcher.getHits());
+        assertEquals(0, prefetcher.getWasted());
+        assertEquals(20, Database.getBufferPool().getReplacementPolicy().getMisses());
+    }
+
+    /**
+     * With multi-page read-ahead, the same scan is served from batch reads
+     */
+    @Test public void multiPageReadAhead() throws Exception {
+        Database.getBufferPool().setMultiPageReadAhead(true);
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(18, prefetcher.getIssued());
+        assertEquals(18, prefetcher.getHits());
+        assertEquals(0, prefetcher.getWasted());
+    }
+
+    /**
+     * Cached pages are not prefetched
+     */
+    @Test public void cachedPagesAreSkipped() throws Exception {
+        SystemTestUtil.matchTuples(hf, tuples);
+        long issued = prefetcher.getIssued();
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(issued, prefetcher.getIssued());
+    }
+
+    /**
+     * A staged copy is dropped when the page changes on disk, and the next
+     * miss reads the page again
+     */
+    @Test public void discardStaleCopy() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 3);
+        assertTrue(prefetcher.prefetch(hf, pid));
+        assertEquals(false, prefetcher.prefetch(hf, pid));
+        Database.getBufferPool().discardPage(pid);
+        assertEquals(1, prefetcher.getWasted());
+        assertEquals(null, prefetcher.take(pid));
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0, prefetcher.getHits());
+    }
+
+    /**
+     * Only MAX_STAGED pages are kept staged; the oldest are dropped
+     */
+    @Test public void stagedPagesAreBounded() throws Exception {
+        for (int i = 0; i < Prefetcher.MAX_STAGED + 10; i++)
+            prefetcher.prefetch(hf, new HeapPageId(hf.getId(), i));
+        assertEquals(Prefetcher.MAX_STAGED, prefetcher.getStaged());
+        assertEquals(10, prefetcher.getWasted());
+        assertEquals(null, prefetcher.take(new HeapPageId(hf.getId(), 0)));
+        // wait for the remaining reads, so none runs on after the test
+        for (int i = 10; i < Prefetcher.MAX_STAGED + 10; i++)
+            assertTrue(prefetcher.take(new HeapPageId(hf.getId(), i)) != null);
+        assertEquals(0, prefetcher.getStaged());
+    }
+
+    /**
+     * A staged copy of a page past the end of the file is dropped when the
+     * file grows over it
+     */
+    @Test public void allocateDropsStagedCopies() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), hf.numPages());
+        assertTrue(prefetcher.prefetch(hf, pid));
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i <= TUPLES_PER_PAGE; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(null, prefetcher.take(pid));
+        assertEquals(1, prefetcher.getWasted());
+    }
+
+    /**
+     * Closing a scan early drops the pages read ahead of it
+     */
+    @Test public void closeDropsReadAhead() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 3 * TUPLES_PER_PAGE; i++)
+            it.next();
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(prefetcher.getIssued() > 0);
+        assertEquals(prefetcher.getIssued(), prefetcher.getHits() + prefetcher.getWasted());
+    }
+
+    /**
+     * The window grows while the scan keeps catching up with its reads
+     */
+    @Test public void windowGrows() throws Exception {
+        final CountDownLatch diskReady = new CountDownLatch(1);
+        DbFile slow = new TestUtil.SkeletonFile(-2, Utility.getTupleDesc(2)) {
+            public Page readPage(PageId pid) {
+                try {
+                    diskReady.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return null;
+            }
+        };
+        ReadAhead ra = new ReadAhead(prefetcher, slow, 100, false);
+        assertEquals(ReadAhead.MIN_WINDOW, ra.getWindow());
+        ra.pageRequested(0);
+        ra.pageRequested(1);
+        assertEquals(ReadAhead.MIN_WINDOW, ra.getWindow());
+        // page 2 is still being read
+        ra.pageRequested(2);
+        assertEquals(2 * ReadAhead.MIN_WINDOW, ra.getWindow());
+        ra.pageRequested(3);
+        assertEquals(4 * ReadAhead.MIN_WINDOW, ra.getWindow());
+        ra.pageRequested(50);
+        assertEquals(ReadAhead.MIN_WINDOW, ra.getWindow());
+        ra.close();
+        diskReady.countDown();
+        // everything ahead of page 3 was dropped; the buffer pool would have taken pages 2 and 3
+        assertEquals(prefetcher.getIssued() - 2, prefetcher.getWasted());
+    }
+
+    /**
+     * Statistics scans and index builds read the table in batches of
+     * pages, from the first page on
+     */
+    @Test public void sequentialPassesReadInBatches() throws Exception {
+        final ArrayList<Integer> batches = new ArrayList<Integer>();
+        HeapFile table = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            public ArrayList<Page> readPages(PageId first, int count) {
+                synchronized (batches) {
+                    batches.add(count);
+                }
+                return super.readPages(first, count);
+            }
+        };
+        Database.getCatalog().addTable(table, "batched");
+
+        new TableStats(table.getId(), TableStats.IOCOSTPERPAGE);
+        assertEquals(1, batches.size());
+        assertEquals(19, batches.get(0).intValue());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        batches.clear();
+        java.io.File f = java.io.File.createTempFile("index", ".btree");
+        f.deleteOnExit();
+        BTreeFile index = new BTreeFile(f, table, 0);
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        index.bulkLoad(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, batches.size());
+        assertEquals(19, batches.get(0).intValue());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PrefetcherTest.class);
+    }
+}
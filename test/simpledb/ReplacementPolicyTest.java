@@ -0,0 +1,158 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    static final int FRAMES = 4;
+
+    /** A page with no contents whose dirty bit can be set by the test. */
+    static class DummyPage implements Page {
+        private final PageId pid;
+        private TransactionId dirtier;
+
+        DummyPage(PageId pid) {
+            this.pid = pid;
+        }
+
+        public PageId getId() { return pid; }
+        public TransactionId isDirty() { return dirtier; }
+        public void markDirty(boolean dirty, TransactionId tid) { dirtier = dirty ? tid : null; }
+        public byte[] getPageData() { return new byte[0]; }
+        public void writeTo(java.nio.ByteBuffer buf) {}
+        public Page getBeforeImage() { return this; }
+        public void setBeforeImage() {}
+    }
+
+    private Page[] frames;
+
+    @Before public void setUpFrames() {
+        frames = new Page[FRAMES];
+    }
+
+    /** Load page pgNo into frame, as the buffer pool would on a miss. */
+    private void load(ReplacementPolicy policy, int frame, int pgNo) {
+        frames[frame] = new DummyPage(new HeapPageId(0, pgNo));
+        policy.pageLoaded(frame, frames[frame].getId());
+    }
+
+    /** Evict the policy's victim, as the buffer pool would, and return its frame. */
+    private int evict(ReplacementPolicy policy) {
+        int victim = policy.chooseVictim(frames);
+        if (victim != ReplacementPolicy.NO_VICTIM) {
+            frames[victim] = null;
+            policy.pageRemoved(victim);
+        }
+        return victim;
+    }
+
+    /**
+     * Unit test for the hit and miss counters
+     */
+    @Test public void hitRatio() {
+        ReplacementPolicy policy = new ClockPolicy(FRAMES);
+        assertEquals(0.0, policy.getHitRatio(), 0.0);
+        load(policy, 0, 0);
+        policy.pageHit(0);
+        policy.pageHit(0);
+        policy.pageHit(0);
+        assertEquals(3, policy.getHits());
+        assertEquals(1, policy.getMisses());
+        assertEquals(0.75, policy.getHitRatio(), 0.0001);
+    }
+
+    /**
+     * No policy may pick a dirty page as a victim
+     */
+    @Test public void dirtyPagesAreNotEvicted() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            setUpFrames();
+            ReplacementPolicy policy = kind.create(FRAMES);
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < FRAMES; i++) {
+                load(policy, i, i);
+                frames[i].markDirty(true, tid);
+            }
+            assertEquals(ReplacementPolicy.NO_VICTIM, policy.chooseVictim(frames));
+            frames[2].markDirty(false, null);
+            assertEquals(2, evict(policy));
+        }
+    }
+
+    /**
+     * Unit test for ClockPolicy: a referenced page gets a second chance
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy policy = new ClockPolicy(FRAMES);
+        for (int i = 0; i < FRAMES; i++)
+            load(policy, i, i);
+        // every bit is set, so the first sweep clears them and frame 0 goes
+        assertEquals(0, evict(policy));
+        load(policy, 0, FRAMES);
+        policy.pageHit(1);
+        assertEquals(2, evict(policy));
+    }
+
+    /**
+     * Unit test for LruKPolicy: pages referenced twice survive a scan
+     */
+    @Test public void lru2ScanResistance() {
+        ReplacementPolicy policy = new LruKPolicy(FRAMES, 2);
+        load(policy, 0, 0);
+        policy.pageHit(0);
+        load(policy, 1, 1);
+        policy.pageHit(1);
+        load(policy, 2, 100);
+        load(policy, 3, 101);
+        for (int pgNo = 102; pgNo < 110; pgNo++) {
+            int victim = evict(policy);
+            assertEquals(true, victim == 2 || victim == 3);
+            load(policy, victim, pgNo);
+        }
+        assertEquals(new HeapPageId(0, 0), frames[0].getId());
+        assertEquals(new HeapPageId(0, 1), frames[1].getId());
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: a page evicted from A1in and requested
+     * again is promoted to Am and outlives the first-time pages
+     */
+    @Test public void twoQueuePromotion() {
+        ReplacementPolicy policy = new TwoQueuePolicy(FRAMES);
+        for (int i = 0; i < FRAMES; i++)
+            load(policy, i, i);
+        // A1in is over its share, so its oldest page goes first
+        assertEquals(0, evict(policy));
+        // page 0 is in A1out now, so reloading it puts it into Am
+        load(policy, 0, 0);
+        for (int pgNo = 10; pgNo < 20; pgNo++) {
+            int victim = evict(policy);
+            assertEquals(true, victim != 0);
+            load(policy, victim, pgNo);
+        }
+        assertEquals(new HeapPageId(0, 0), frames[0].getId());
+    }
+
+    /**
+     * Policies can be selected by name
+     */
+    @Test public void getKind() {
+        assertEquals(ReplacementPolicy.Kind.CLOCK, ReplacementPolicy.Kind.getKind("clock"));
+        assertEquals(ReplacementPolicy.Kind.LRU2, ReplacementPolicy.Kind.getKind("LRU-2"));
+        assertEquals(ReplacementPolicy.Kind.TWO_Q, ReplacementPolicy.Kind.getKind("2q"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
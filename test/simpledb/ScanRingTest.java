@@ -0,0 +1,109 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ScanRingTest extends SimpleDbTestBase {
+
+    private static final int BUFFER_PAGES = 10;
+    private static final int HOT_PAGES = 4;
+    private static final int TUPLES_PER_PAGE = 504; // two int columns
+
+    private HeapFile hot;
+    private HeapFile big;
+    private ArrayList<ArrayList<Integer>> bigTuples;
+    private TransactionId tid;
+
+    /**
+     * Create a table that fits in the buffer pool and one four times its size.
+     */
+    @Before public void createTables() throws Exception {
+        hot = SystemTestUtil.createRandomHeapFile(2, HOT_PAGES * TUPLES_PER_PAGE, null, null);
+        bigTuples = new ArrayList<ArrayList<Integer>>();
+        big = SystemTestUtil.createRandomHeapFile(2, 4 * BUFFER_PAGES * TUPLES_PER_PAGE, null, bigTuples);
+        Database.resetBufferPool(BUFFER_PAGES);
+        tid = new TransactionId();
+    }
+
+    private void readHotPages() throws Exception {
+        for (int i = 0; i < HOT_PAGES; i++)
+            Database.getBufferPool().getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+    }
+
+    /**
+     * A large scan goes through a ring and leaves the cached pages alone
+     */
+    @Test public void largeScanKeepsHotPages() throws Exception {
+        ReplacementPolicy policy = Database.getBufferPool().getReplacementPolicy();
+        assertTrue(Database.getBufferPool().newScanRing(big.numPages()) != null);
+
+        readHotPages();
+        assertEquals(HOT_PAGES, policy.getMisses());
+
+        SystemTestUtil.matchTuples(big, tid, bigTuples);
+        assertEquals(HOT_PAGES, policy.getMisses());
+
+        readHotPages();
+        assertEquals(HOT_PAGES, policy.getMisses());
+        assertEquals(HOT_PAGES, policy.getHits());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * With rings disabled, the same scan evicts the hot pages
+     */
+    @Test public void scanWithoutRingEvicts() throws Exception {
+        Database.getBufferPool().setScanRingThreshold(Double.MAX_VALUE);
+        ReplacementPolicy policy = Database.getBufferPool().getReplacementPolicy();
+
+        readHotPages();
+        SystemTestUtil.matchTuples(big, tid, bigTuples);
+        long misses = policy.getMisses();
+        assertEquals(HOT_PAGES + big.numPages(), misses);
+
+        readHotPages();
+        assertTrue(policy.getMisses() > misses);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A ring reuses its frames for the scan's next pages, returns pages
+     * still in it without a read, and the tuples of a page stay intact once
+     * its frame holds another page
+     */
+    @Test public void framesAreRecycled() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        ScanRing ring = new ScanRing(4);
+        HeapPage first = (HeapPage) bp.getPage(tid, new HeapPageId(big.getId(), 0), Permissions.READ_ONLY, ring);
+        Tuple t = first.iterator().next();
+        for (int i = 1; i < 10; i++)
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, ring);
+        assertEquals(10, ring.getPagesRead());
+        assertEquals(bigTuples.get(0), SystemTestUtil.tupleToList(t));
+
+        Page last = bp.getPage(tid, new HeapPageId(big.getId(), 9), Permissions.READ_ONLY, ring);
+        assertEquals(1, ring.getHits());
+        assertEquals(10, ring.getPagesRead());
+        assertTrue(last == bp.getPage(tid, new HeapPageId(big.getId(), 9), Permissions.READ_ONLY, ring));
+        bp.getPage(tid, new HeapPageId(big.getId(), 0), Permissions.READ_ONLY, ring);
+        assertEquals(11, ring.getPagesRead());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
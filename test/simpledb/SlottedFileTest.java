@@ -0,0 +1,183 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE };
+    private static final TupleDesc TD = new TupleDesc(TYPES, new String[] { "id", "name" });
+
+    private ArrayList<String> names;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        names = new ArrayList<String>();
+        Random r = new Random(1);
+        for (int i = 0; i < 2000; i++)
+            names.add("name" + r.nextInt(100000));
+    }
+
+    /** Writes the names as a text file of id,name lines and converts it with types */
+    private File convert(Type[] types) throws IOException {
+        File txt = File.createTempFile("table", ".txt");
+        txt.deleteOnExit();
+        PrintWriter pw = new PrintWriter(txt);
+        for (int i = 0; i < names.size(); i++)
+            pw.println(i + "," + names.get(i));
+        pw.close();
+        File dat = File.createTempFile("table", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convert(txt, dat, BufferPool.PAGE_SIZE, 2, types, ',');
+        return dat;
+    }
+
+    private static Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN, Type.VARCHAR_TYPE));
+        return t;
+    }
+
+    /** @return the name of each tuple in the file, by id */
+    private static HashMap<Integer, String> scan(DbFile f) throws Exception {
+        HashMap<Integer, String> out = new HashMap<Integer, String>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            out.put(((IntField) t.getField(0)).getValue(), ((StringField) t.getField(1)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return out;
+    }
+
+    /**
+     * A VARCHAR field is written without padding and read back as a
+     * VARCHAR_TYPE StringField
+     */
+    @Test public void varcharType() throws Exception {
+        StringField f = new StringField("abc", Type.STRING_LEN, Type.VARCHAR_TYPE);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Type.VARCHAR_TYPE.serialize(f, new DataOutputStream(baos));
+        assertEquals(7, baos.size());
+        assertEquals(7, Type.VARCHAR_TYPE.getLen(f));
+        Field g = Type.VARCHAR_TYPE.parse(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertEquals(Type.VARCHAR_TYPE, g.getType());
+        assertEquals(f, g);
+        assertTrue(TD.isVariableLength());
+        assertTrue(!Utility.getTupleDesc(2).isVariableLength());
+    }
+
+    /**
+     * Deleted tuples leave their slots empty; inserts reuse the slots and,
+     * once the page runs out of contiguous space, the space of the deleted
+     * records, without moving the tuples that stayed to other slots
+     */
+    @Test public void pageReusesSpace() throws Exception {
+        SlottedFile sf = new SlottedFile(File.createTempFile("table", ".dat"), TD);
+        Database.getCatalog().addTable(sf);
+        SlottedPage p = new SlottedPage(new HeapPageId(sf.getId(), 0), SlottedPage.createEmptyPageData());
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; p.getFreeSpace() >= Type.VARCHAR_TYPE.getLen(tuple(i, names.get(i)).getField(1)) + 4; i++) {
+            Tuple t = tuple(i, names.get(i));
+            p.insertTuple(t);
+            inserted.add(t);
+        }
+        int full = p.getNumTuples();
+        assertEquals(inserted.size(), full);
+        for (int i = 0; i < inserted.size(); i += 2)
+            p.deleteTuple(inserted.get(i));
+        assertEquals(full - (full + 1) / 2, p.getNumTuples());
+        // longer than the deleted records, so they have to be moved together
+        int added = 0;
+        while (p.getFreeSpace() >= 30) {
+            Tuple t = tuple(10000 + added, "a-longer-name-than-the-others");
+            p.insertTuple(t);
+            added++;
+        }
+        // the deleted records took about 17 bytes each, the new ones take 37
+        assertTrue(added > full / 2 * 17 / 37 - 2);
+        for (int i = 1; i < inserted.size(); i += 2) {
+            Tuple t = p.getTuple(inserted.get(i).getRecordId().tupleno());
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals(names.get(i), ((StringField) t.getField(1)).getValue());
+        }
+        SlottedPage copy = new SlottedPage(p.getId(), p.getPageData());
+        assertEquals(p.getNumTuples(), copy.getNumTuples());
+    }
+
+    /**
+     * The encoder writes tables with VARCHAR fields as slotted pages, which
+     * take a fraction of the pages of the same table with STRING fields
+     */
+    @Test public void encodeAndScan() throws Exception {
+        SlottedFile sf = new SlottedFile(convert(TYPES), TD);
+        Database.getCatalog().addTable(sf);
+        TupleDesc fixed = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+        HeapFile hf = new HeapFile(convert(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }), fixed);
+        Database.getCatalog().addTable(hf);
+        assertTrue(sf.numPages() * 4 < hf.numPages());
+
+        HashMap<Integer, String> tuples = scan(sf);
+        assertEquals(names.size(), tuples.size());
+        for (int i = 0; i < names.size(); i++)
+            assertEquals(names.get(i), tuples.get(i));
+    }
+
+    /**
+     * Tuples inserted and deleted through the buffer pool are found by later
+     * scans, and tuples of varying size fill the pages freed by deletes
+     */
+    @Test public void insertAndDelete() throws Exception {
+        SlottedFile sf = new SlottedFile(convert(TYPES), TD);
+        Database.getCatalog().addTable(sf);
+        int pages = sf.numPages();
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> odd = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 1)
+                odd.add(t);
+        }
+        it.close();
+        for (Tuple t : odd)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        for (int i = 0; i < odd.size(); i++)
+            Database.getBufferPool().insertTuple(tid, sf.getId(), tuple(10000 + i, "n" + i));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages, sf.numPages());
+
+        HashMap<Integer, String> tuples = scan(sf);
+        assertEquals(names.size(), tuples.size());
+        for (int i = 0; i < names.size(); i += 2)
+            assertEquals(names.get(i), tuples.get(i));
+        for (int i = 0; i < odd.size(); i++)
+            assertEquals("n" + i, tuples.get(10000 + i));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
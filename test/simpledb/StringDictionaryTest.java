@@ -0,0 +1,164 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class StringDictionaryTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 2000;
+    private static final String[] CATEGORIES = { "red", "green", "blue", "yellow", "purple" };
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+    private static final TupleDesc TD = new TupleDesc(TYPES, new String[] { "id", "category" });
+
+    private ColumnFile cf;
+
+    /** Writes a column file of ids and categories, the category of id i being CATEGORIES[i % 5] */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File txt = File.createTempFile("table", ".txt");
+        txt.deleteOnExit();
+        PrintWriter pw = new PrintWriter(txt);
+        for (int i = 0; i < ROWS; i++)
+            pw.println(i + "," + CATEGORIES[i % 5]);
+        pw.close();
+        File dat = File.createTempFile("table", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convertColumnar(txt, dat, 2, TYPES, ',');
+        cf = new ColumnFile(dat, TD);
+        Database.getCatalog().addTable(cf);
+    }
+
+    private static StringField field(String s) {
+        return new StringField(s, Type.STRING_LEN);
+    }
+
+    /** Values get dense codes in the order they are added, and survive a round trip */
+    @Test public void codes() throws Exception {
+        StringDictionary dict = new StringDictionary();
+        assertEquals(0, dict.add("b"));
+        assertEquals(1, dict.add("a"));
+        assertEquals(0, dict.add("b"));
+        assertEquals(-1, dict.code("c"));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        dict.serialize(new DataOutputStream(baos));
+        StringDictionary copy = StringDictionary.parse(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertEquals(2, copy.size());
+        assertEquals("b", copy.value(0));
+        assertEquals(1, copy.code("a"));
+    }
+
+    /**
+     * The pages of a string column hold codes into its dictionary, and the
+     * fields read from them are equal, by code, to fields of the same value
+     */
+    @Test public void codedFields() throws Exception {
+        StringDictionary dict = cf.getDictionary(1);
+        assertEquals(CATEGORIES.length, dict.size());
+        assertEquals(null, cf.getDictionary(0));
+
+        TransactionId tid = new TransactionId();
+        ColumnPage p = (ColumnPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(cf.getId(), cf.firstPage(1)), Permissions.READ_ONLY);
+        assertEquals(ColumnPage.CODES, p.getEncoding());
+        StringField red = (StringField) p.getField(0), green = (StringField) p.getField(1);
+        assertTrue(red.getDictionary() == dict);
+        assertEquals(dict.code("red"), red.getCode());
+        assertEquals(red, p.getField(5));
+        assertTrue(!red.equals(green));
+        // fields without a code are still compared by value
+        assertEquals(field("red"), red);
+        assertEquals(red, field("red"));
+        assertEquals(field("red").hashCode(), red.hashCode());
+        assertTrue(!red.equals(field("redder")));
+        StringField absent = field("orange").encode(dict);
+        assertEquals(-1, absent.getCode());
+        assertTrue(!absent.equals(red) && !red.equals(absent));
+        assertTrue(absent.compare(Predicate.Op.NOT_EQUALS, red));
+        assertTrue(red.compare(Predicate.Op.LESS_THAN, field("s")));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Equality predicates on a coded column match the rows of their operand */
+    @Test public void filter() throws Exception {
+        TransactionId tid = new TransactionId();
+        String[] operands = { "blue", "orange" };
+        int[] expected = { ROWS / 5, 0 };
+        for (int k = 0; k < operands.length; k++) {
+            Filter eq = new Filter(new Predicate(1, Predicate.Op.EQUALS, field(operands[k])),
+                    new ColumnScan(tid, cf.getId(), new int[] { 0, 1 }));
+            Filter ne = new Filter(new Predicate(1, Predicate.Op.NOT_EQUALS, field(operands[k])),
+                    new ColumnScan(tid, cf.getId(), new int[] { 0, 1 }));
+            int n = 0;
+            eq.open();
+            while (eq.hasNext()) {
+                assertEquals(2, ((IntField) eq.next().getField(0)).getValue() % 5);
+                n++;
+            }
+            eq.close();
+            assertEquals(expected[k], n);
+            n = 0;
+            ne.open();
+            while (ne.hasNext()) {
+                ne.next();
+                n++;
+            }
+            ne.close();
+            assertEquals(ROWS - expected[k], n);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Group-by and equi-joins on a coded column find the rows of each value */
+    @Test public void groupByAndJoin() throws Exception {
+        TransactionId tid = new TransactionId();
+        StringAggregator agg = new StringAggregator(0, Type.STRING_TYPE, 0, Aggregator.Op.COUNT);
+        ColumnScan scan = new ColumnScan(tid, cf.getId(), new int[] { 1 });
+        scan.open();
+        while (scan.hasNext())
+            agg.mergeTupleIntoGroup(scan.next());
+        scan.close();
+        DbIterator groups = agg.iterator();
+        groups.open();
+        int n = 0;
+        while (groups.hasNext()) {
+            Tuple t = groups.next();
+            assertEquals(CATEGORIES[n], ((StringField) t.getField(0)).getValue());
+            assertEquals(ROWS / 5, ((IntField) t.getField(1)).getValue());
+            n++;
+        }
+        assertEquals(CATEGORIES.length, n);
+
+        // the first ten rows, joined to all rows of the same category
+        Filter first = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)),
+                new ColumnScan(tid, cf.getId(), "a", new int[] { 0, 1 }));
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 1), first,
+                new ColumnScan(tid, cf.getId(), "b", new int[] { 0, 1 }));
+        join.open();
+        n = 0;
+        while (join.hasNext()) {
+            Tuple t = join.next();
+            assertEquals(((IntField) t.getField(0)).getValue() % 5, ((IntField) t.getField(2)).getValue() % 5);
+            n++;
+        }
+        join.close();
+        assertEquals(10 * ROWS / 5, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StringDictionaryTest.class);
+    }
+}
@@ -206,10 +206,17 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public ArrayList<Page> readPages(PageId first, int count) {
+            throw new RuntimeException("not implemented");
+        }
+
         public int numPages() {
             throw new RuntimeException("not implemented");
         }
 
+        public void close() {
+        }
+
         public void writePage(Page p) throws IOException {
             throw new RuntimeException("not implemented");
         }
@@ -239,6 +246,14 @@ public class TestUtil {
 		public TupleDesc getTupleDesc() {			
 			return td;
 		}
+
+		public int getPageSize() {
+			return BufferPool.PAGE_SIZE;
+		}
+
+		public PageId getPageId(int pgNo) {
+			return new HeapPageId(tableid, pgNo);
+		}
     }
 
     /**
@@ -379,6 +394,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            ZoneMap.sidecar(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
@@ -0,0 +1,193 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class VacuumTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 30;
+    private static final int TUPLES_PER_PAGE = 504; // two int columns
+
+    private HeapFile table;
+    private BTreeFile index;
+    /** The tuples left in the table */
+    private ArrayList<ArrayList<Integer>> kept;
+
+    /**
+     * Set up a table of 30 pages with a B+ tree index on its first column,
+     * and delete two of every three tuples.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // the deletes dirty every page of the table and of the index at once
+        Database.resetBufferPool(200);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, PAGES * TUPLES_PER_PAGE, 1000, null, tuples, "c");
+        File f = File.createTempFile("index", ".btree");
+        f.deleteOnExit();
+        index = new BTreeFile(f, table, 0);
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        index.bulkLoad(tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        kept = new ArrayList<ArrayList<Integer>>();
+        tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple t = it.next();
+            if (i % 3 == 0)
+                kept.add(tuples.get(i));
+            else
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Every index entry points at a tuple of the table with its key */
+    private void checkIndex() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.indexIterator(tid,
+                new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(Integer.MIN_VALUE)));
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple entry = it.next();
+            RecordId rid = entry.getRecordId();
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+            assertEquals(entry.getField(0), p.getTuple(rid.tupleno()).getField(0));
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(kept.size(), n);
+    }
+
+    /**
+     * Vacuum moves the tuples into the fewest pages, cuts the rest off the
+     * file, and moves the index entries along
+     */
+    @Test public void compact() throws Exception {
+        assertEquals(PAGES, table.numPages());
+        Vacuum vacuum = new Vacuum(table);
+        assertEquals(0.0, vacuum.getProgress(), 0.0);
+        vacuum.run();
+
+        int pages = (kept.size() + TUPLES_PER_PAGE - 1) / TUPLES_PER_PAGE;
+        assertEquals(pages, table.numPages());
+        assertEquals((long) pages * BufferPool.PAGE_SIZE, table.getFile().length());
+        assertTrue(vacuum.isDone());
+        assertEquals(1.0, vacuum.getProgress(), 0.0);
+        assertEquals(PAGES, vacuum.getTotalPages());
+        assertEquals(PAGES - pages, vacuum.getPagesTruncated());
+        assertEquals(0, vacuum.getPagesSkipped());
+        assertTrue(vacuum.getTuplesMoved() > 0);
+        assertTrue(vacuum.getTuplesMoved() <= kept.size());
+
+        SystemTestUtil.matchTuples(table, kept);
+        checkIndex();
+
+        // inserts after the vacuum extend the file again
+        ArrayList<Integer> row = new ArrayList<Integer>(Arrays.asList(-1, -1));
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(-1));
+        t.setField(1, new IntField(-1));
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        kept.add(row);
+        SystemTestUtil.matchTuples(table, kept);
+        checkIndex();
+    }
+
+    /**
+     * A page locked by another transaction is skipped after a few retries
+     * and keeps the pages before it, and a later vacuum finishes the job
+     */
+    @Test public void lockedPage() throws Exception {
+        TransactionId reader = new TransactionId();
+        HeapPageId last = new HeapPageId(table.getId(), PAGES - 1);
+        Database.getBufferPool().getPage(reader, last, Permissions.READ_ONLY);
+        Vacuum vacuum = new Vacuum(table);
+        vacuum.run();
+        assertEquals(1, vacuum.getPagesSkipped());
+        assertTrue(vacuum.getAbortedTransactions() > Vacuum.MAX_RETRIES);
+        assertEquals(0, vacuum.getPagesTruncated());
+        assertEquals(PAGES, table.numPages());
+        Database.getBufferPool().transactionComplete(reader);
+        SystemTestUtil.matchTuples(table, kept);
+        checkIndex();
+
+        vacuum = new Vacuum(table);
+        vacuum.run();
+        assertEquals(0, vacuum.getPagesSkipped());
+        assertEquals((kept.size() + TUPLES_PER_PAGE - 1) / TUPLES_PER_PAGE, table.numPages());
+        SystemTestUtil.matchTuples(table, kept);
+        checkIndex();
+    }
+
+    /**
+     * An I/O error while moving tuples rolls back the page being emptied,
+     * so its locks are released
+     */
+    @Test public void failedIndexInsert() throws Exception {
+        Database.getCatalog().addIndex(new Index() {
+            public int getTableId() {
+                return table.getId();
+            }
+            public int getKeyField() {
+                return 1;
+            }
+            public boolean supports(Predicate.Op op) {
+                return false;
+            }
+            public void insertEntry(TransactionId tid, Field key, RecordId rid) throws IOException {
+                throw new IOException("disk full");
+            }
+            public void deleteEntry(TransactionId tid, Field key, RecordId rid) {
+            }
+            public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        Vacuum vacuum = new Vacuum(table);
+        try {
+            vacuum.run();
+            assertTrue(false);
+        } catch (IOException e) {
+            // expected
+        }
+
+        TransactionId tid = new TransactionId();
+        HeapPageId last = new HeapPageId(table.getId(), PAGES - 1);
+        Database.getBufferPool().getPage(tid, last, Permissions.READ_WRITE);
+        assertEquals(null, Database.getBufferPool().getPage(tid, last, Permissions.READ_WRITE).isDirty());
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(PAGES, table.numPages());
+        SystemTestUtil.matchTuples(table, kept);
+        checkIndex();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VacuumTest.class);
+    }
+}
@@ -0,0 +1,222 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 10;
+    private static final int TUPLES_PER_PAGE = 504; // two int columns
+
+    private File f;
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up a table whose first column increases with the tuple's position,
+     * like a time-ordered log.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < PAGES * TUPLES_PER_PAGE; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i % 7);
+            tuples.add(tuple);
+        }
+        f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        ZoneMap.sidecar(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        hf = Utility.openHeapFile(2, f);
+    }
+
+    private int numCached() {
+        int n = 0;
+        for (int i = 0; i < PAGES; i++) {
+            if (Database.getBufferPool().isCached(new HeapPageId(hf.getId(), i)))
+                n++;
+        }
+        return n;
+    }
+
+    /** Runs p over the table with a Filter and checks that it returns the right tuples. */
+    private void matchFiltered(Predicate p) throws Exception {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (p.filter(Utility.getHeapTuple(new int[] { t.get(0), t.get(1) })))
+                expected.add(t);
+        }
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(p, new SeqScan(tid, hf.getId(), ""));
+        SystemTestUtil.matchTuples(filter, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for Predicate.mayMatch
+     */
+    @Test public void predicateRanges() {
+        IntField lo = new IntField(10);
+        IntField hi = new IntField(20);
+        assertTrue(new Predicate(0, Predicate.Op.EQUALS, new IntField(15)).mayMatch(lo, hi));
+        assertFalse(new Predicate(0, Predicate.Op.EQUALS, new IntField(21)).mayMatch(lo, hi));
+        assertFalse(new Predicate(0, Predicate.Op.GREATER_THAN, hi).mayMatch(lo, hi));
+        assertTrue(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, hi).mayMatch(lo, hi));
+        assertFalse(new Predicate(0, Predicate.Op.LESS_THAN, lo).mayMatch(lo, hi));
+        assertTrue(new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, lo).mayMatch(lo, hi));
+        assertTrue(new Predicate(0, Predicate.Op.NOT_EQUALS, lo).mayMatch(lo, hi));
+        assertFalse(new Predicate(0, Predicate.Op.NOT_EQUALS, lo).mayMatch(lo, lo));
+    }
+
+    /**
+     * A filtered scan skips the pages whose ranges rule the predicate out,
+     * once a first scan has summarized them
+     */
+    @Test public void skipPages() throws Exception {
+        int last = PAGES * TUPLES_PER_PAGE - 1;
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(last - 10));
+        matchFiltered(p);
+        assertEquals(PAGES, numCached());
+        for (int i = 0; i < PAGES; i++)
+            assertTrue(hf.zoneMap().isKnown(i));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        matchFiltered(p);
+        assertEquals(1, numCached());
+
+        // the other column doesn't help
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        matchFiltered(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(5)));
+        assertEquals(PAGES, numCached());
+    }
+
+    /**
+     * The synopses are kept in the sidecar file and used after reopening the
+     * table
+     */
+    @Test public void persistAcrossReopen() throws Exception {
+        matchFiltered(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)));
+        hf.close();
+        assertTrue(new File(f.getPath() + ".zm").exists());
+
+        hf = Utility.openHeapFile(2, f);
+        for (int i = 0; i < PAGES; i++)
+            assertTrue(hf.zoneMap().isKnown(i));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        matchFiltered(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(3)));
+        assertEquals(1, numCached());
+    }
+
+    /**
+     * Committed changes update the ranges, and uncommitted changes keep
+     * their pages from being skipped
+     */
+    @Test public void updatesAreSeen() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1000000));
+        matchFiltered(p);
+
+        // an uncommitted insert on page 0
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(page.iterator().next());
+        page.insertTuple(Utility.getHeapTuple(new int[] { 2000000, 0 }));
+        page.markDirty(true, tid);
+
+        Filter filter = new Filter(p, new SeqScan(tid, hf.getId(), ""));
+        filter.open();
+        assertTrue(filter.hasNext());
+        assertEquals(2000000, ((IntField) filter.next().getField(0)).getValue());
+        assertFalse(filter.hasNext());
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId reader = new TransactionId();
+        filter = new Filter(p, new SeqScan(reader, hf.getId(), ""));
+        filter.open();
+        assertEquals(2000000, ((IntField) filter.next().getField(0)).getValue());
+        assertFalse(filter.hasNext());
+        filter.close();
+        Database.getBufferPool().transactionComplete(reader);
+        assertEquals(1, numCached());
+    }
+
+    /**
+     * A table written after its sidecar was saved, even within the same
+     * clock tick, doesn't use the sidecar until it is saved again
+     */
+    @Test public void unsavedChangesInvalidateSidecar() throws Exception {
+        matchFiltered(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)));
+        hf.close();
+        long modified = f.lastModified();
+        hf = Utility.openHeapFile(2, f);
+        assertTrue(hf.zoneMap().isKnown(0));
+
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        page.deleteTuple(page.iterator().next());
+        page.insertTuple(Utility.getHeapTuple(new int[] { 2000000, 0 }));
+        page.markDirty(true, tid);
+        Database.getBufferPool().transactionComplete(tid);
+        f.setLastModified(modified);
+
+        // as if the process had died here
+        TupleDesc td = hf.getTupleDesc();
+        assertFalse(new ZoneMap(f, td).isKnown(0));
+
+        hf.close();
+        ZoneMap zones = new ZoneMap(f, td);
+        assertTrue(zones.isKnown(0));
+        assertTrue(zones.mayMatch(0, new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1000000))));
+        assertFalse(zones.mayMatch(1, new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1000000))));
+    }
+
+    /**
+     * Empty tables and temporary tables leave no sidecar behind, and
+     * rewriting a table deletes its sidecar
+     */
+    @Test public void noOrphanedSidecars() throws Exception {
+        File sidecar = ZoneMap.sidecar(f);
+        matchFiltered(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)));
+        hf.close();
+        assertTrue(sidecar.exists());
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        assertFalse(sidecar.exists());
+
+        hf = Utility.openHeapFile(2, f);
+        hf.setTemporary(true);
+        matchFiltered(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)));
+        hf.close();
+        assertFalse(sidecar.exists());
+
+        File empty = File.createTempFile("empty", ".dat");
+        empty.deleteOnExit();
+        ZoneMap.sidecar(empty).deleteOnExit();
+        hf = Utility.createEmptyHeapFile(empty.getPath(), 2);
+        matchFiltered(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)));
+        hf.close();
+        assertFalse(ZoneMap.sidecar(empty).exists());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
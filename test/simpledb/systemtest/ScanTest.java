@@ -72,7 +72,7 @@ public class ScanTest extends SimpleDbTestBase {
      * @throws TransactionAbortedException
      * @throws DbException */
     @Test public void testCache() throws IOException, DbException, TransactionAbortedException {
-        /** Counts the number of readPage operations. */
+        /** Counts the pages read, one at a time or in batches. */
         class InstrumentedHeapFile extends HeapFile {
             public InstrumentedHeapFile(File f, TupleDesc td) {
                 super(f, td);
@@ -84,6 +84,12 @@ public class ScanTest extends SimpleDbTestBase {
                 return super.readPage(pid);
             }
 
+            @Override
+            public ArrayList<Page> readPages(PageId first, int count) {
+                readCount += count;
+                return super.readPages(first, count);
+            }
+
             public int readCount = 0;
         }
 
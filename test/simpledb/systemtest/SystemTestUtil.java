@@ -33,7 +33,9 @@ public class SystemTestUtil {
             throws IOException, DbException, TransactionAbortedException {
         File temp = createRandomHeapFileUnopened(columns, rows, maxValue,
                 columnSpecification, tuples);
-        return Utility.openHeapFile(columns, temp);
+        HeapFile hf = Utility.openHeapFile(columns, temp);
+        hf.setTemporary(true);
+        return hf;
     }
     
     public static HeapFile createRandomHeapFile(
@@ -49,7 +51,9 @@ public class SystemTestUtil {
             throws IOException, DbException, TransactionAbortedException {
         File temp = createRandomHeapFileUnopened(columns, rows, maxValue,
                 columnSpecification, tuples);
-        return Utility.openHeapFile(columns, colPrefix, temp);
+        HeapFile hf = Utility.openHeapFile(columns, colPrefix, temp);
+        hf.setTemporary(true);
+        return hf;
     }
 
     public static File createRandomHeapFileUnopened(int columns, int rows,
@@ -81,6 +85,7 @@ public class SystemTestUtil {
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        ZoneMap.sidecar(temp).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.PAGE_SIZE, columns);
         return temp;
     }